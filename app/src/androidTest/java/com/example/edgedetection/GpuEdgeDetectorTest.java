@@ -0,0 +1,144 @@
+package com.example.edgedetection;
+
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLSurface;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+// Runs GpuEdgeDetector offscreen, in an ES 2.0 context on a 1x1 pbuffer, and checks its mask
+// against JavaEdgeDetector on the same luma. Needs no window, so it also runs on a headless
+// emulator (-no-window with -gpu swiftshader_indirect, or -gpu host on Mesa llvmpipe):
+//   ./gradlew connectedAndroidTest
+@RunWith(AndroidJUnit4.class)
+public class GpuEdgeDetectorTest {
+    private static final int WIDTH = 160;
+    private static final int HEIGHT = 120;
+    // More than the longest weak chain a frame this small can hold in practice, so hysteresis
+    // reaches as far as the CPU's; a pass over 160x120 costs next to nothing
+    private static final int HYSTERESIS_PASSES = 512;
+    
+    private EGLDisplay display = EGL14.EGL_NO_DISPLAY;
+    private EGLContext context = EGL14.EGL_NO_CONTEXT;
+    private EGLSurface surface = EGL14.EGL_NO_SURFACE;
+    private GpuEdgeDetector gpu;
+    private JavaEdgeDetector cpu;
+    private int texture = -1;
+    
+    @Before
+    public void setUp() {
+        display = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        int[] version = new int[2];
+        assertTrue("eglInitialize", EGL14.eglInitialize(display, version, 0, version, 1));
+        
+        int[] attributes = {
+                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                EGL14.EGL_SURFACE_TYPE, EGL14.EGL_PBUFFER_BIT,
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_ALPHA_SIZE, 8,
+                EGL14.EGL_NONE
+        };
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] count = new int[1];
+        assertTrue("eglChooseConfig", EGL14.eglChooseConfig(display, attributes, 0, configs, 0, 1, count, 0)
+                && count[0] > 0);
+        context = EGL14.eglCreateContext(display, configs[0], EGL14.EGL_NO_CONTEXT,
+                new int[] { EGL14.EGL_CONTEXT_CLIENT_VERSION, 2, EGL14.EGL_NONE }, 0);
+        assertNotEquals("eglCreateContext", EGL14.EGL_NO_CONTEXT, context);
+        // The passes render into their own framebuffers; the pbuffer only makes the context current
+        surface = EGL14.eglCreatePbufferSurface(display, configs[0],
+                new int[] { EGL14.EGL_WIDTH, 1, EGL14.EGL_HEIGHT, 1, EGL14.EGL_NONE }, 0);
+        assertNotEquals("eglCreatePbufferSurface", EGL14.EGL_NO_SURFACE, surface);
+        assertTrue("eglMakeCurrent", EGL14.eglMakeCurrent(display, surface, surface, context));
+        
+        gpu = new GpuEdgeDetector();
+        assertTrue("GPU passes failed to compile", gpu.initialize());
+        gpu.setHysteresisPasses(HYSTERESIS_PASSES);
+        texture = TextureHelper.createLuminanceTexture(WIDTH, HEIGHT);
+        assertTrue(texture != -1);
+        
+        // The GPU path works on the Y plane as it is, like the CPU engines in luma-only mode
+        cpu = new JavaEdgeDetector();
+        cpu.initialize();
+        cpu.setLumaOnly(true);
+    }
+    
+    @After
+    public void tearDown() {
+        if (cpu != null) {
+            cpu.release();
+        }
+        if (gpu != null) {
+            gpu.release();
+        }
+        if (texture != -1) {
+            TextureHelper.deleteTextures(new int[] { texture }, 1);
+        }
+        if (display != EGL14.EGL_NO_DISPLAY) {
+            EGL14.eglMakeCurrent(display, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+            if (surface != EGL14.EGL_NO_SURFACE) EGL14.eglDestroySurface(display, surface);
+            if (context != EGL14.EGL_NO_CONTEXT) EGL14.eglDestroyContext(display, context);
+            EGL14.eglTerminate(display);
+        }
+    }
+    
+    @Test
+    public void shapesMatchJavaEngine() {
+        ByteBuffer luma = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int dx = x - 100;
+                int dy = y - 70;
+                boolean square = x >= 20 && x < 70 && y >= 15 && y < 60;
+                boolean disc = dx * dx + dy * dy <= 35 * 35;
+                luma.put(y * WIDTH + x, (byte) (square ? 200 : disc ? 130 : 50));
+            }
+        }
+        assertMatches(luma);
+    }
+    
+    @Test
+    public void texturedFrameMatchesJavaEngine() {
+        // Ramps and noise give weak edges and hysteresis chains in every direction
+        ByteBuffer luma = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+        Random random = new Random(1);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int ramp = ((x + y) / 20 % 2 == 0) ? 60 + x / 2 : 160 - y / 2;
+                luma.put(y * WIDTH + x, (byte) (ramp + random.nextInt(24)));
+            }
+        }
+        assertMatches(luma);
+    }
+    
+    private void assertMatches(ByteBuffer luma) {
+        ByteBuffer expected = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+        int written = cpu.processFrameDirect(luma, null, null, WIDTH, WIDTH / 2, 1, WIDTH, HEIGHT,
+                expected, FrameProcessor.OUTPUT_MASK);
+        assertTrue("CPU engine failed", written == WIDTH * HEIGHT);
+        
+        TextureHelper.uploadLuminance(texture, WIDTH, HEIGHT, luma);
+        assertTrue("GPU passes failed", gpu.process(texture, WIDTH, HEIGHT) != -1);
+        ByteBuffer actual = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+        assertTrue("readMask failed", gpu.readMask(actual));
+        
+        double difference = JavaEdgeDetector.compareMasks(actual, expected, WIDTH, HEIGHT, 1);
+        assertTrue("GPU mask differs from the Java engine's by " + difference,
+                difference <= JavaEdgeDetector.MASK_TOLERANCE);
+    }
+}
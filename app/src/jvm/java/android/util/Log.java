@@ -0,0 +1,37 @@
+package android.util;
+
+import java.io.PrintStream;
+
+// Stand-in for android.util.Log when the Android-free app classes are compiled for a desktop JVM
+// (the benchmark and batch modules): the calls those classes make, printed to stderr. Not part
+// of the app build, which gets the real one from the SDK.
+public final class Log {
+    
+    private Log() {
+    }
+    
+    public static int d(String tag, String msg) {
+        return println("D", tag, msg, null);
+    }
+    
+    public static int w(String tag, String msg) {
+        return println("W", tag, msg, null);
+    }
+    
+    public static int e(String tag, String msg) {
+        return println("E", tag, msg, null);
+    }
+    
+    public static int e(String tag, String msg, Throwable tr) {
+        return println("E", tag, msg, tr);
+    }
+    
+    private static int println(String level, String tag, String msg, Throwable tr) {
+        PrintStream err = System.err;
+        err.println(level + "/" + tag + ": " + msg);
+        if (tr != null) {
+            tr.printStackTrace(err);
+        }
+        return msg.length();
+    }
+}
@@ -0,0 +1,140 @@
+// Host check for ParallelCanny: runs it over every combination of thread count and strip height
+// below on a few synthetic frames and compares the result with cv::Canny, which it must match
+// exactly. Strip heights go down to one row, smaller than the border the Sobel and non-maximum
+// suppression passes read around each strip. Built with the host library (see CMakeLists.txt):
+//   ./build/host/canny-check [width height]
+// Exits with 1 if any combination differs.
+#include "ParallelCanny.h"
+
+#include <opencv2/opencv.hpp>
+
+#include <algorithm>
+#include <cstdio>
+#include <cstdlib>
+#include <vector>
+
+namespace {
+const int THREADS[] = { 0, 1, 2, 3, 7 };
+const int STRIP_HEIGHTS[] = { 0, 1, 2, 3, 5, 16, 64 };
+// The app's thresholds, and a low pair that lets hysteresis follow long weak chains across strips
+const int THRESHOLDS[][2] = { { 50, 150 }, { 10, 40 } };
+// Padding after each row of the source and mask, as camera planes and pooled buffers have
+const int PADDING = 13;
+
+struct Fixture {
+    const char* name;
+    cv::Mat gray;
+};
+
+uint32_t nextRandom(uint32_t& seed) {
+    seed = seed * 1664525u + 1013904223u;
+    return seed >> 24;
+}
+
+// Smooth ramps with noise, as in simd-bench; flat shapes with noise; and plain noise, whose
+// edges run in every direction and cross every strip boundary
+std::vector<Fixture> makeFixtures(int width, int height) {
+    std::vector<Fixture> fixtures;
+    uint32_t seed = 1;
+    
+    cv::Mat ramps(height, width, CV_8UC1);
+    for (int y = 0; y < height; y++) {
+        for (int x = 0; x < width; x++) {
+            ramps.at<uint8_t>(y, x) = static_cast<uint8_t>((x + y / 2) % 160 + (nextRandom(seed) >> 4));
+        }
+    }
+    fixtures.push_back({ "ramps", ramps });
+    
+    cv::Mat shapes(height, width, CV_8UC1, cv::Scalar(60));
+    cv::rectangle(shapes, cv::Point(width / 8, height / 8), cv::Point(width / 2, height / 2), cv::Scalar(200), cv::FILLED);
+    cv::circle(shapes, cv::Point(width * 2 / 3, height * 2 / 3), std::min(width, height) / 4, cv::Scalar(140), cv::FILLED);
+    cv::line(shapes, cv::Point(0, height - 1), cv::Point(width - 1, 0), cv::Scalar(20), 2);
+    for (int y = 0; y < height; y++) {
+        for (int x = 0; x < width; x++) {
+            shapes.at<uint8_t>(y, x) = cv::saturate_cast<uint8_t>(shapes.at<uint8_t>(y, x) + (nextRandom(seed) >> 5));
+        }
+    }
+    fixtures.push_back({ "shapes", shapes });
+    
+    cv::Mat noise(height, width, CV_8UC1);
+    for (int y = 0; y < height; y++) {
+        for (int x = 0; x < width; x++) {
+            noise.at<uint8_t>(y, x) = static_cast<uint8_t>(nextRandom(seed));
+        }
+    }
+    fixtures.push_back({ "noise", noise });
+    return fixtures;
+}
+
+// First differing pixel as x + y * width, or -1 if the masks match
+long firstDifference(const cv::Mat& expected, const std::vector<uint8_t>& mask, size_t stride) {
+    for (int y = 0; y < expected.rows; y++) {
+        const uint8_t* row = expected.ptr<uint8_t>(y);
+        for (int x = 0; x < expected.cols; x++) {
+            if (row[x] != mask[y * stride + x]) return static_cast<long>(y) * expected.cols + x;
+        }
+    }
+    return -1;
+}
+
+// Runs every combination on one frame size; returns how many differed
+int checkSize(int width, int height) {
+    const size_t srcStride = width + PADDING;
+    const size_t dstStride = width + PADDING;
+    std::vector<uint8_t> src(srcStride * height);
+    std::vector<uint8_t> mask(dstStride * height);
+    ParallelCanny canny;
+    int failures = 0;
+    
+    for (const Fixture& fixture : makeFixtures(width, height)) {
+        for (int y = 0; y < height; y++) {
+            const uint8_t* row = fixture.gray.ptr<uint8_t>(y);
+            std::copy(row, row + width, &src[y * srcStride]);
+        }
+        for (const auto& thresholds : THRESHOLDS) {
+            cv::Mat expected;
+            cv::Canny(fixture.gray, expected, thresholds[0], thresholds[1]);
+            const int edges = cv::countNonZero(expected);
+            for (int threads : THREADS) {
+                for (int stripHeight : STRIP_HEIGHTS) {
+                    canny.setParallelism(threads, stripHeight);
+                    std::fill(mask.begin(), mask.end(), 0x55);
+                    canny.run(src.data(), srcStride, mask.data(), dstStride, width, height,
+                              thresholds[0], thresholds[1]);
+                    const long difference = firstDifference(expected, mask, dstStride);
+                    if (difference >= 0) {
+                        failures++;
+                        printf("FAIL %dx%d %-6s %3d/%-3d threads=%d strips=%-2d: first difference at (%ld, %ld)\n",
+                               width, height, fixture.name, thresholds[0], thresholds[1], threads, stripHeight,
+                               difference % width, difference / width);
+                    }
+                }
+            }
+            printf("%dx%d %-6s %3d/%-3d %7d edges, %zu combinations checked\n", width, height, fixture.name,
+                   thresholds[0], thresholds[1], edges,
+                   sizeof(THREADS) / sizeof(THREADS[0]) * sizeof(STRIP_HEIGHTS) / sizeof(STRIP_HEIGHTS[0]));
+        }
+    }
+    return failures;
+}
+}
+
+int main(int argc, char** argv) {
+    const int width = argc > 2 ? atoi(argv[1]) : 640;
+    const int height = argc > 2 ? atoi(argv[2]) : 480;
+    if (width < 3 || height < 3) {
+        fprintf(stderr, "Usage: canny-check [width height]\n");
+        return 2;
+    }
+    
+    // Also an odd size, so the last strip is a remainder and rows are not a multiple of any
+    // SIMD width
+    int failures = checkSize(width, height);
+    failures += checkSize(97, 61);
+    if (failures > 0) {
+        printf("%d combinations differ from cv::Canny\n", failures);
+        return 1;
+    }
+    printf("ParallelCanny matches cv::Canny\n");
+    return 0;
+}
@@ -0,0 +1,173 @@
+#include "FilterPlan.h"
+#include "FrameArena.h"
+#include "ParallelCanny.h"
+#include "SimdKernels.h"
+#include <opencv2/opencv.hpp>
+
+#define LOG_TAG "FilterPlan"
+#include "NativeLog.h"
+
+namespace {
+// Fused per-pixel stages; never appears in a description
+const int STEP_LUT = 0;
+const int MAX_KERNEL = 31;
+// Sobel and non-maximum suppression each read one pixel around the output pixel
+const int CANNY_RADIUS = 2;
+
+bool isValid(int op, int a, int b) {
+    switch (op) {
+        case FILTER_BLUR:
+            return a >= 3 && a <= MAX_KERNEL && a % 2 == 1;
+        case FILTER_CANNY:
+            return a >= 0 && b >= a;
+        case FILTER_DILATE:
+        case FILTER_ERODE:
+            return a >= 1 && a <= MAX_KERNEL;
+        case FILTER_THRESHOLD:
+            return a >= 0 && a <= 255;
+        case FILTER_INVERT:
+            return true;
+        default:
+            return false;
+    }
+}
+
+// The level of a table that is a threshold, table[v] = v > level ? table[255] : table[0], or -1.
+// Thresholds, inverted or not, run as SIMD compares instead of lookups.
+int thresholdLevel(const std::vector<uint8_t>& table) {
+    int level = 0;
+    while (level < 255 && table[level + 1] == table[0]) level++;
+    for (int v = level + 1; v < 256; v++) {
+        if (table[v] != table[255]) return -1;
+    }
+    return level;
+}
+}
+
+FilterPlan* FilterPlan::compile(const int* ops, int stageCount) {
+    FilterPlan* plan = new FilterPlan();
+    std::vector<Step>& steps = plan->steps;
+    for (int i = 0; i < stageCount; i++) {
+        const int op = ops[i * 3];
+        const int a = ops[i * 3 + 1];
+        const int b = ops[i * 3 + 2];
+        if (!isValid(op, a, b)) {
+            LOGE("Invalid filter stage %d: op %d (%d, %d)", i, op, a, b);
+            delete plan;
+            return nullptr;
+        }
+        Step* last = steps.empty() ? nullptr : &steps.back();
+        
+        if (op == FILTER_THRESHOLD || op == FILTER_INVERT) {
+            // Per-pixel stages compose into the lookup table of the step before, if it has one
+            if (!last || last->op != STEP_LUT) {
+                steps.push_back(Step{STEP_LUT, 0, 0, std::vector<uint8_t>(256)});
+                last = &steps.back();
+                for (int v = 0; v < 256; v++) last->table[v] = static_cast<uint8_t>(v);
+            }
+            for (int v = 0; v < 256; v++) {
+                const int value = last->table[v];
+                last->table[v] = static_cast<uint8_t>(op == FILTER_THRESHOLD ? (value > a ? 255 : 0) : 255 - value);
+            }
+        } else if ((op == FILTER_DILATE || op == FILTER_ERODE) && last && last->op == op
+                   && (a % 2 == 1 || last->a % 2 == 1)) {
+            // Two rectangles applied in turn are one rectangle of the summed reach. The default
+            // anchor is at size / 2, so two even sizes would shift the merged one by a pixel.
+            last->a += a - 1;
+        } else {
+            steps.push_back(Step{op, a, b, std::vector<uint8_t>()});
+        }
+    }
+    
+    for (Step& step : steps) {
+        if (step.op == FILTER_DILATE || step.op == FILTER_ERODE) {
+            step.table.assign(static_cast<size_t>(step.a) * step.a, 1);
+        } else if (step.op == STEP_LUT) {
+            step.a = thresholdLevel(step.table);
+        }
+    }
+    LOGI("Compiled %d filter stages into %zu steps", stageCount, steps.size());
+    return plan;
+}
+
+bool FilterPlan::isCannyOnly(int* low, int* high) const {
+    if (steps.size() != 1 || steps[0].op != FILTER_CANNY) return false;
+    *low = steps[0].a;
+    *high = steps[0].b;
+    return true;
+}
+
+int FilterPlan::getRadius() const {
+    int radius = 0;
+    for (const Step& step : steps) {
+        if (step.op == FILTER_CANNY) radius += CANNY_RADIUS;
+        else if (step.op != STEP_LUT) radius += step.a / 2;
+    }
+    return radius;
+}
+
+void FilterPlan::run(const cv::Mat& gray, cv::Mat& dst, ParallelCanny* parallelCanny, FrameArena& arena) {
+    dst.create(gray.rows, gray.cols, CV_8UC1);
+    if (steps.empty()) {
+        gray.copyTo(dst);
+        return;
+    }
+    
+    cv::Mat intermediates[2];
+    const cv::Mat* src = &gray;
+    for (size_t i = 0; i < steps.size(); i++) {
+        cv::Mat* out = &dst;
+        if (i + 1 < steps.size()) {
+            // Headers over arena memory, so OpenCV writes into it instead of allocating
+            cv::Mat& intermediate = intermediates[i % 2];
+            if (intermediate.empty()) {
+                intermediate = cv::Mat(gray.rows, gray.cols, CV_8UC1,
+                                       arena.allocate(static_cast<size_t>(gray.rows) * gray.cols));
+            }
+            out = &intermediate;
+        }
+        runStep(steps[i], *src, *out, parallelCanny);
+        src = out;
+    }
+}
+
+void FilterPlan::runStep(const Step& step, const cv::Mat& src, cv::Mat& dst, ParallelCanny* parallelCanny) {
+    switch (step.op) {
+        case FILTER_BLUR:
+            cv::GaussianBlur(src, dst, cv::Size(step.a, step.a), 0);
+            break;
+        case FILTER_CANNY:
+            if (parallelCanny) {
+                parallelCanny->run(src.data, src.step, dst.data, dst.step, src.cols, src.rows, step.a, step.b);
+            } else {
+                cv::Canny(src, dst, step.a, step.b);
+            }
+            break;
+        case FILTER_DILATE:
+        case FILTER_ERODE: {
+            // All-ones kernels take OpenCV's separable row and column path
+            cv::Mat kernel(step.a, step.a, CV_8UC1, const_cast<uint8_t*>(step.table.data()));
+            if (step.op == FILTER_DILATE) cv::dilate(src, dst, kernel);
+            else cv::erode(src, dst, kernel);
+            break;
+        }
+        case STEP_LUT: {
+            const uint8_t* table = step.table.data();
+            if (step.a >= 0) {
+                const SimdKernels& kernels = SimdKernels::get();
+                for (int y = 0; y < src.rows; y++) {
+                    kernels.threshold(src.ptr(y), dst.ptr(y), src.cols, step.a, table[255], table[0]);
+                }
+                break;
+            }
+            for (int y = 0; y < src.rows; y++) {
+                const uint8_t* in = src.ptr(y);
+                uint8_t* out = dst.ptr(y);
+                for (int x = 0; x < src.cols; x++) {
+                    out[x] = table[in[x]];
+                }
+            }
+            break;
+        }
+    }
+}
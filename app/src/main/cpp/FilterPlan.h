@@ -0,0 +1,61 @@
+#ifndef FILTER_PLAN_H
+#define FILTER_PLAN_H
+
+#include <cstddef>
+#include <cstdint>
+#include <vector>
+
+namespace cv {
+    class Mat;
+}
+
+class FrameArena;
+class ParallelCanny;
+
+// Stage opcodes of a FilterPipeline description. Values are shared with FilterPipeline.OP_*.
+enum FilterOp {
+    FILTER_BLUR = 1,       // Gaussian blur, a = odd kernel size
+    FILTER_CANNY = 2,      // a = low threshold, b = high threshold
+    FILTER_DILATE = 3,     // a x a rectangle
+    FILTER_ERODE = 4,      // a x a rectangle
+    FILTER_THRESHOLD = 5,  // 255 above a, 0 otherwise
+    FILTER_INVERT = 6
+};
+
+// A FilterPipeline compiled for the processing thread. It runs on the frame's gray image and
+// writes a single-channel result. Compiling does all the per-description work once: adjacent
+// per-pixel stages (threshold, invert) are fused into a single lookup table, runs of dilations
+// or erosions are merged into one larger rectangle, and kernels are built. run() then only
+// executes steps. Intermediates ping-pong between two buffers from the processor's frame arena;
+// the last step writes straight into the destination.
+class FilterPlan {
+public:
+    // ops holds op, a, b for each stage. Returns nullptr if the description is invalid.
+    static FilterPlan* compile(const int* ops, int stageCount);
+    
+    // A plan that is a single Canny, which ImageProcessor runs with its tile cache and strips
+    bool isCannyOnly(int* low, int* high) const;
+    int getStepCount() const { return static_cast<int>(steps.size()); }
+    // Pixels around an output pixel that contribute to it, for processing regions
+    int getRadius() const;
+    
+    // Canny steps use parallelCanny's strips when it is set. dst must not alias gray.
+    void run(const cv::Mat& gray, cv::Mat& dst, ParallelCanny* parallelCanny, FrameArena& arena);
+
+private:
+    struct Step {
+        int op;
+        int a;
+        int b;
+        // Lookup table (a is its threshold level, or -1 if it is not a threshold), or the
+        // kernel of a morphology step
+        std::vector<uint8_t> table;
+    };
+    
+    std::vector<Step> steps;
+    
+    FilterPlan() {}
+    void runStep(const Step& step, const cv::Mat& src, cv::Mat& dst, ParallelCanny* parallelCanny);
+};
+
+#endif // FILTER_PLAN_H
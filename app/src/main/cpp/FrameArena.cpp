@@ -0,0 +1,85 @@
+#include "FrameArena.h"
+
+#include <algorithm>
+
+#define LOG_TAG "FrameArena"
+#include "NativeLog.h"
+
+std::atomic<size_t> FrameArena::totalReserved(0);
+
+namespace {
+size_t roundUp(size_t bytes) {
+    return (bytes + FrameArena::ALIGNMENT - 1) & ~(FrameArena::ALIGNMENT - 1);
+}
+}
+
+FrameArena::FrameArena() : capacity(0), offset(0), overflowBytes(0), peak(0), reserved(0), used(0), resets(0) {
+}
+
+FrameArena::~FrameArena() {
+    setReserved(0);
+}
+
+void FrameArena::reset() {
+    if (overflowBytes > 0) {
+        // One block for everything the frame needed, so the next one fits without overflow
+        const bool replacing = capacity > 0;
+        overflow.clear();
+        block.reset();
+        capacity = peak;
+        block.reset(new uint8_t[capacity + ALIGNMENT - 1]);
+        overflowBytes = 0;
+        setReserved(capacity);
+        if (replacing) resets.fetch_add(1, std::memory_order_relaxed);
+        LOGI("Arena block sized to %zu bytes", capacity);
+    }
+    used.store(peak, std::memory_order_relaxed);
+    offset = 0;
+    peak = 0;
+}
+
+void FrameArena::trim() {
+    const bool releasing = capacity + overflowBytes > 0;
+    overflow.clear();
+    block.reset();
+    capacity = 0;
+    offset = 0;
+    overflowBytes = 0;
+    peak = 0;
+    setReserved(0);
+    used.store(0, std::memory_order_relaxed);
+    if (releasing) resets.fetch_add(1, std::memory_order_relaxed);
+}
+
+uint8_t* FrameArena::allocate(size_t bytes) {
+    const size_t size = roundUp(std::max(bytes, static_cast<size_t>(1)));
+    uint8_t* result;
+    if (offset + size <= capacity) {
+        result = align(block.get()) + offset;
+        offset += size;
+    } else {
+        // Only until the next reset(), which grows the block to cover this
+        overflow.emplace_back(new uint8_t[size + ALIGNMENT - 1]);
+        result = align(overflow.back().get());
+        overflowBytes += size;
+        setReserved(capacity + overflowBytes);
+    }
+    peak = std::max(peak, offset + overflowBytes);
+    if (peak > used.load(std::memory_order_relaxed)) used.store(peak, std::memory_order_relaxed);
+    return result;
+}
+
+void FrameArena::rewind(size_t mark) {
+    offset = std::min(mark, offset);
+}
+
+void FrameArena::setReserved(size_t bytes) {
+    const size_t previous = reserved.exchange(bytes, std::memory_order_relaxed);
+    if (bytes >= previous) totalReserved.fetch_add(bytes - previous, std::memory_order_relaxed);
+    else totalReserved.fetch_sub(previous - bytes, std::memory_order_relaxed);
+}
+
+uint8_t* FrameArena::align(uint8_t* pointer) {
+    const uintptr_t address = reinterpret_cast<uintptr_t>(pointer);
+    return reinterpret_cast<uint8_t*>((address + ALIGNMENT - 1) & ~static_cast<uintptr_t>(ALIGNMENT - 1));
+}
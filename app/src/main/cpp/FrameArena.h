@@ -0,0 +1,63 @@
+#ifndef FRAME_ARENA_H
+#define FRAME_ARENA_H
+
+#include <atomic>
+#include <cstddef>
+#include <cstdint>
+#include <memory>
+#include <vector>
+
+// Working memory of one ImageProcessor's frames: every per-frame buffer (colour conversions, the
+// gray image, masks, filter intermediates, region buffers) is carved out of a single block by
+// bumping an offset, and reset() hands it all back at the start of the next frame. The block is
+// sized by use: what does not fit is allocated separately for the rest of the frame, and the
+// next reset() replaces block and overflow with one block of the frame's peak size. From the
+// second frame at a resolution on, frames allocate nothing. trim() frees the block, e.g. when the
+// resolution changes (so a smaller one does not keep a larger block) or the camera stops.
+// Byte counts are atomics, so they can be read from any thread while frames are processed.
+class FrameArena {
+public:
+    // Allocations are aligned for the widest SIMD loads
+    static const size_t ALIGNMENT = 64;
+    
+    FrameArena();
+    ~FrameArena();
+    
+    // Starts a frame; pointers handed out before are invalid afterwards
+    void reset();
+    // Frees everything, including the block; counted as a reset of the arena
+    void trim();
+    // Uninitialized memory that stays valid until the next reset() or trim()
+    uint8_t* allocate(size_t bytes);
+    
+    // Allocations after a mark are given back by rewind(), e.g. per processed region
+    size_t mark() const { return offset; }
+    void rewind(size_t mark);
+    
+    // Held by the block and the current frame's overflow
+    size_t getReservedBytes() const { return reserved.load(std::memory_order_relaxed); }
+    // Peak allocated in the current (or last) frame
+    size_t getUsedBytes() const { return used.load(std::memory_order_relaxed); }
+    // Times the memory was given back: trims, and blocks replaced by a larger one
+    int getResets() const { return resets.load(std::memory_order_relaxed); }
+    // Reserved by all arenas of the process, to spot instances that are never released
+    static size_t getTotalReservedBytes() { return totalReserved.load(std::memory_order_relaxed); }
+
+private:
+    std::unique_ptr<uint8_t[]> block;
+    size_t capacity;
+    size_t offset;
+    size_t overflowBytes;
+    size_t peak;
+    std::vector<std::unique_ptr<uint8_t[]>> overflow;
+    std::atomic<size_t> reserved;
+    std::atomic<size_t> used;
+    std::atomic<int> resets;
+    
+    static std::atomic<size_t> totalReserved;
+    
+    void setReserved(size_t bytes);
+    static uint8_t* align(uint8_t* pointer);
+};
+
+#endif // FRAME_ARENA_H
@@ -1,30 +1,159 @@
 #include "ImageProcessor.h"
+#include "FilterPlan.h"
+#include "ParallelCanny.h"
+#include "SimdKernels.h"
+#include "TileCache.h"
 #include <opencv2/opencv.hpp>
-#include <android/log.h>
+
+#include <algorithm>
+#include <cstring>
 
 #define LOG_TAG "ImageProcessor"
-#define LOGI(...) __android_log_print(ANDROID_LOG_INFO, LOG_TAG, __VA_ARGS__)
-#define LOGE(...) __android_log_print(ANDROID_LOG_ERROR, LOG_TAG, __VA_ARGS__)
+#include "NativeLog.h"
+
+namespace {
+const int LOW_THRESHOLD = 50;
+const int HIGH_THRESHOLD = 150;
+// Frame pixels processed around a region beyond the plan's radius, so every stage sees the same
+// neighbourhood as on the full frame; only hysteresis chains that leave it can end differently
+const int ROI_CONTEXT = 8;
+// cv::imencode parameters of every JPEG output, built once rather than per frame
+const std::vector<int> JPEG_PARAMS = { cv::IMWRITE_JPEG_QUALITY, 80 };
+
+// Header over arena memory, so OpenCV writes into it instead of allocating
+cv::Mat allocateMat(FrameArena& arena, int rows, int cols, int type) {
+    return cv::Mat(rows, cols, type, arena.allocate(static_cast<size_t>(rows) * cols * CV_ELEM_SIZE(type)));
+}
+
+// cv::cvtColor(rgb, gray, COLOR_RGB2GRAY) with the same result, on the selected SIMD kernels
+void convertRgbToGray(const cv::Mat& rgb, cv::Mat& gray) {
+    const SimdKernels& kernels = SimdKernels::get();
+    for (int y = 0; y < rgb.rows; y++) {
+        kernels.rgbToGray(rgb.ptr(y), gray.ptr(y), rgb.cols);
+    }
+}
+}
 
-ImageProcessor::ImageProcessor() : initialized(false), inputMat(nullptr), outputMat(nullptr), grayMat(nullptr), edgesMat(nullptr) {
+ImageProcessor::ImageProcessor() : initialized(false), lumaOnly(false), inputMat(new cv::Mat()), outputMat(new cv::Mat()), grayMat(new cv::Mat()), edgesMat(new cv::Mat()), yuvMat(new cv::Mat()), arenaWidth(0), arenaHeight(0), parallelCanny(nullptr), tileCache(nullptr), plan(nullptr), pendingPlan(nullptr) {
     LOGI("ImageProcessor constructor");
 }
 
 ImageProcessor::~ImageProcessor() {
     LOGI("ImageProcessor destructor");
-    if (inputMat) delete inputMat;
-    if (outputMat) delete outputMat;
-    if (grayMat) delete grayMat;
-    if (edgesMat) delete edgesMat;
+    delete inputMat;
+    delete outputMat;
+    delete grayMat;
+    delete edgesMat;
+    delete yuvMat;
+    if (parallelCanny) delete parallelCanny;
+    if (tileCache) delete tileCache;
+    delete plan;
+    delete pendingPlan.load();
 }
 
 bool ImageProcessor::initialize() {
     LOGI("Initializing ImageProcessor");
-    // Initialize OpenCV components here
+    // Picks and checks the SIMD kernels now rather than on the first frame
+    SimdKernels::get();
+    // Until a pipeline is set, frames go through plain Canny
+    if (!plan) {
+        const int edges[] = { FILTER_CANNY, LOW_THRESHOLD, HIGH_THRESHOLD };
+        plan = FilterPlan::compile(edges, 1);
+    }
     initialized = true;
     return true;
 }
 
+void ImageProcessor::setParallelism(int threads, int stripHeight) {
+    if (threads <= 0) {
+        // Back to a single cv::Canny call on the processing thread
+        delete parallelCanny;
+        parallelCanny = nullptr;
+        return;
+    }
+    if (!parallelCanny) parallelCanny = new ParallelCanny();
+    parallelCanny->setParallelism(threads, stripHeight);
+    LOGI("Parallel Canny: %d worker threads, strip height %d", threads, stripHeight);
+}
+
+void ImageProcessor::setLumaOnly(bool enabled) {
+    lumaOnly = enabled;
+    LOGI("Luma-only mode %s", enabled ? "on" : "off");
+    // The cached tiles hold the other kind of gray image
+    if (tileCache) setIncrementalTiles(tileCache->getTileSize());
+}
+
+void ImageProcessor::setIncrementalTiles(int tileSize) {
+    delete tileCache;
+    tileCache = tileSize > 0 ? new TileCache(tileSize) : nullptr;
+    LOGI("Incremental mode %s, tile size %d", tileCache ? "on" : "off", tileSize);
+}
+
+int ImageProcessor::getRecomputedTiles() const {
+    return tileCache ? tileCache->getRecomputedTiles() : 0;
+}
+
+int ImageProcessor::getTileCount() const {
+    return tileCache ? tileCache->getTileCount() : 0;
+}
+
+bool ImageProcessor::setFilterPipeline(const int* ops, int stageCount) {
+    FilterPlan* compiled = FilterPlan::compile(ops, stageCount);
+    if (!compiled) return false;
+    // A plan set before the last one was picked up is never run
+    delete pendingPlan.exchange(compiled, std::memory_order_acq_rel);
+    return true;
+}
+
+// A frame's worth of the usual buffers, so the arena's reset sizes its block for them
+void ImageProcessor::allocateBuffers(int width, int height) {
+    beginFrame(width, height);
+    *edgesMat = allocateMat(arena, height, width, CV_8UC1);
+    // Luma-only frames are detected on the Y plane and never fill the colour buffers
+    if (!lumaOnly) {
+        *inputMat = allocateMat(arena, height, width, CV_8UC3);
+        *grayMat = allocateMat(arena, height, width, CV_8UC1);
+        *outputMat = allocateMat(arena, height, width, CV_8UC3);
+    }
+    beginFrame(width, height);
+    LOGI("Frame arena sized for %dx%d: %zu bytes", width, height, arena.getReservedBytes());
+}
+
+void ImageProcessor::trimMemory() {
+    beginFrame(0, 0);
+    std::vector<uint8_t>().swap(encodeBuffer);
+    // The cached tiles and masks are frame-sized too
+    if (tileCache) setIncrementalTiles(tileCache->getTileSize());
+    LOGI("Native memory trimmed");
+}
+
+// Hands the arena back for a new frame, and frees it first if the resolution changed so a
+// smaller one does not keep the larger block
+void ImageProcessor::beginFrame(int width, int height) {
+    *inputMat = cv::Mat();
+    *outputMat = cv::Mat();
+    *grayMat = cv::Mat();
+    *edgesMat = cv::Mat();
+    *yuvMat = cv::Mat();
+    if (width != arenaWidth || height != arenaHeight) {
+        arena.trim();
+        arenaWidth = width;
+        arenaHeight = height;
+    }
+    arena.reset();
+}
+
+// Called by the processing thread before a frame. Without a new plan this is one relaxed load.
+void ImageProcessor::updatePlan() {
+    if (!pendingPlan.load(std::memory_order_relaxed)) return;
+    FilterPlan* next = pendingPlan.exchange(nullptr, std::memory_order_acq_rel);
+    if (!next) return;
+    delete plan;
+    plan = next;
+    // Cached tiles hold the previous plan's output
+    if (tileCache) setIncrementalTiles(tileCache->getTileSize());
+}
+
 std::vector<uint8_t> ImageProcessor::processFrame(const uint8_t* data, size_t dataSize, int width, int height) {
     LOGI("Processing frame: %dx%d, size: %zu", width, height, dataSize);
     
@@ -32,18 +161,210 @@ std::vector<uint8_t> ImageProcessor::processFrame(const uint8_t* data, size_t da
         LOGE("ImageProcessor not initialized");
         return std::vector<uint8_t>();
     }
+    beginFrame(width, height);
     
     // Process the frame with OpenCV
     processWithOpenCV(data, width, height);
     
+    return encodeOutput();
+}
+
+std::vector<uint8_t> ImageProcessor::processYuvFrame(const YuvFrame& frame) {
+    if (!initialized) {
+        LOGE("ImageProcessor not initialized");
+        return std::vector<uint8_t>();
+    }
+    beginFrame(frame.width, frame.height);
+    
+    try {
+        if (lumaOnly) {
+            // Single-channel JPEG of the mask; there is no RGB image to convert back to
+            cv::Mat yPlane(frame.height, frame.width, CV_8UC1, const_cast<uint8_t*>(frame.y), frame.yRowStride);
+            *edgesMat = allocateMat(arena, frame.height, frame.width, CV_8UC1);
+            detectEdgesFromGray(yPlane, *edgesMat);
+            std::vector<uint8_t> result;
+            cv::imencode(".jpg", *edgesMat, result, JPEG_PARAMS);
+            return result;
+        }
+        convertYuvToRgb(frame);
+        detectEdges();
+    } catch (const std::exception& e) {
+        LOGE("Error in OpenCV processing: %s", e.what());
+        return std::vector<uint8_t>();
+    }
+    
+    return encodeOutput();
+}
+
+int ImageProcessor::processYuvFrameInto(const YuvFrame& frame, uint8_t* output, size_t outputCapacity, int format) {
+    if (!initialized) {
+        LOGE("ImageProcessor not initialized");
+        return -1;
+    }
+    beginFrame(frame.width, frame.height);
+    
+    const size_t pixels = static_cast<size_t>(frame.width) * frame.height;
+    
+    try {
+        // In luma-only mode the Y plane is the gray image: wrapped in place, stride and all
+        cv::Mat yPlane;
+        if (lumaOnly) {
+            yPlane = cv::Mat(frame.height, frame.width, CV_8UC1, const_cast<uint8_t*>(frame.y), frame.yRowStride);
+        } else {
+            convertYuvToRgb(frame);
+        }
+        
+        switch (format) {
+            case OUTPUT_MASK: {
+                if (outputCapacity < pixels) break;
+                // Canny writes straight into the caller's buffer
+                cv::Mat mask(frame.height, frame.width, CV_8UC1, output);
+                if (lumaOnly) detectEdgesFromGray(yPlane, mask);
+                else detectEdges(mask);
+                return static_cast<int>(pixels);
+            }
+            case OUTPUT_RGBA: {
+                if (outputCapacity < pixels * 4) break;
+                *edgesMat = allocateMat(arena, frame.height, frame.width, CV_8UC1);
+                if (lumaOnly) detectEdgesFromGray(yPlane, *edgesMat);
+                else detectEdges(*edgesMat);
+                cv::Mat rgba(frame.height, frame.width, CV_8UC4, output);
+                cv::cvtColor(*edgesMat, rgba, cv::COLOR_GRAY2RGBA);
+                return static_cast<int>(pixels * 4);
+            }
+            case OUTPUT_JPEG: {
+                // Luma-only encodes the single-channel mask
+                const cv::Mat* image;
+                if (lumaOnly) {
+                    *edgesMat = allocateMat(arena, frame.height, frame.width, CV_8UC1);
+                    detectEdgesFromGray(yPlane, *edgesMat);
+                    image = edgesMat;
+                } else {
+                    detectEdges();
+                    image = outputMat;
+                }
+                // encodeBuffer keeps its capacity between frames
+                cv::imencode(".jpg", *image, encodeBuffer, JPEG_PARAMS);
+                if (outputCapacity < encodeBuffer.size()) break;
+                memcpy(output, encodeBuffer.data(), encodeBuffer.size());
+                return static_cast<int>(encodeBuffer.size());
+            }
+            default:
+                LOGE("Unknown output format: %d", format);
+                return -1;
+        }
+    } catch (const std::exception& e) {
+        LOGE("Error in OpenCV processing: %s", e.what());
+        return -1;
+    }
+    
+    LOGE("Output buffer too small for format %d: %zu bytes", format, outputCapacity);
+    return -1;
+}
+
+Roi* ImageProcessor::getRoiBuffer(int count) {
+    // Only grows; a handful of regions
+    if (roiBuffer.size() < static_cast<size_t>(count)) {
+        roiBuffer.resize(count);
+    }
+    return roiBuffer.data();
+}
+
+int ImageProcessor::processRoisInto(const YuvFrame& frame, const Roi* rois, int count,
+                                    uint8_t* output, size_t outputCapacity, int layout) {
+    if (!initialized) {
+        LOGE("ImageProcessor not initialized");
+        return -1;
+    }
+    
+    size_t needed = 0;
+    for (int i = 0; i < count; i++) {
+        const Roi& roi = rois[i];
+        if (roi.x < 0 || roi.y < 0 || roi.width <= 0 || roi.height <= 0 ||
+                roi.x + roi.width > frame.width || roi.y + roi.height > frame.height) {
+            LOGE("Region %d is outside the %dx%d frame", i, frame.width, frame.height);
+            return -1;
+        }
+        needed += static_cast<size_t>(roi.width) * roi.height;
+    }
+    if (layout == ROI_FULL_FRAME) {
+        needed = static_cast<size_t>(frame.width) * frame.height;
+    } else if (layout != ROI_PACKED) {
+        LOGE("Unknown region layout: %d", layout);
+        return -1;
+    }
+    if (outputCapacity < needed) {
+        LOGE("Output buffer too small for regions: %zu bytes, %zu needed", outputCapacity, needed);
+        return -1;
+    }
+    beginFrame(frame.width, frame.height);
+    updatePlan();
+    
+    try {
+        if (layout == ROI_FULL_FRAME) {
+            // Overlapping regions are written in order; they agree except near their borders
+            memset(output, 0, needed);
+            for (int i = 0; i < count; i++) {
+                detectRoi(frame, rois[i], output + static_cast<size_t>(rois[i].y) * frame.width + rois[i].x,
+                          frame.width);
+            }
+        } else {
+            uint8_t* dst = output;
+            for (int i = 0; i < count; i++) {
+                detectRoi(frame, rois[i], dst, rois[i].width);
+                dst += static_cast<size_t>(rois[i].width) * rois[i].height;
+            }
+        }
+    } catch (const std::exception& e) {
+        LOGE("Error in OpenCV processing: %s", e.what());
+        return -1;
+    }
+    return static_cast<int>(needed);
+}
+
+// Converts and runs the plan on the region plus its context only, then copies the region's
+// rows of the result to dst. Its buffers go back to the arena for the next region.
+void ImageProcessor::detectRoi(const YuvFrame& frame, const Roi& roi, uint8_t* dst, size_t dstStride) {
+    const size_t mark = arena.mark();
+    // Even coordinates keep the region's chroma samples lined up with its luma
+    const int context = ROI_CONTEXT + plan->getRadius();
+    const int x0 = std::max(roi.x - context, 0) & ~1;
+    const int y0 = std::max(roi.y - context, 0) & ~1;
+    const int x1 = std::min((roi.x + roi.width + context + 1) & ~1, frame.width);
+    const int y1 = std::min((roi.y + roi.height + context + 1) & ~1, frame.height);
+    
+    YuvFrame region = frame;
+    region.y = frame.y + static_cast<size_t>(y0) * frame.yRowStride + x0;
+    region.width = x1 - x0;
+    region.height = y1 - y0;
+    
+    cv::Mat gray;
+    if (lumaOnly) {
+        gray = cv::Mat(region.height, region.width, CV_8UC1, const_cast<uint8_t*>(region.y), region.yRowStride);
+    } else {
+        const size_t chromaOffset = static_cast<size_t>(y0 / 2) * frame.uvRowStride +
+                                    static_cast<size_t>(x0 / 2) * frame.uvPixelStride;
+        region.u = frame.u + chromaOffset;
+        region.v = frame.v + chromaOffset;
+        cv::Mat rgb = allocateMat(arena, region.height, region.width, CV_8UC3);
+        convertYuvToRgb(region, rgb);
+        gray = allocateMat(arena, region.height, region.width, CV_8UC1);
+        convertRgbToGray(rgb, gray);
+    }
+    
+    cv::Mat result = allocateMat(arena, region.height, region.width, CV_8UC1);
+    plan->run(gray, result, nullptr, arena);
+    for (int row = 0; row < roi.height; row++) {
+        memcpy(dst + row * dstStride, result.ptr(roi.y - y0 + row) + (roi.x - x0), roi.width);
+    }
+    arena.rewind(mark);
+}
+
+std::vector<uint8_t> ImageProcessor::encodeOutput() {
     // Convert outputMat to byte array
-    if (outputMat && !outputMat->empty()) {
+    if (!outputMat->empty()) {
         std::vector<uint8_t> result;
-        std::vector<int> compression_params;
-        compression_params.push_back(cv::IMWRITE_JPEG_QUALITY);
-        compression_params.push_back(80);
-        
-        cv::imencode(".jpg", *outputMat, result, compression_params);
+        cv::imencode(".jpg", *outputMat, result, JPEG_PARAMS);
         return result;
     }
     
@@ -52,29 +373,123 @@ std::vector<uint8_t> ImageProcessor::processFrame(const uint8_t* data, size_t da
 
 void ImageProcessor::processWithOpenCV(const uint8_t* data, int width, int height) {
     try {
-        // Create input matrix from YUV data
-        // For simplicity, we'll assume the data is already in RGB format
-        if (!inputMat) inputMat = new cv::Mat(height, width, CV_8UC3);
+        // Sized for this frame, so a resolution change cannot overrun the previous buffer
+        *inputMat = allocateMat(arena, height, width, CV_8UC3);
         
         // Copy data to input matrix
         memcpy(inputMat->data, data, width * height * 3);
         
-        // Initialize output matrices if needed
-        if (!outputMat) outputMat = new cv::Mat(height, width, CV_8UC3);
-        if (!grayMat) grayMat = new cv::Mat(height, width, CV_8UC1);
-        if (!edgesMat) edgesMat = new cv::Mat(height, width, CV_8UC1);
-        
-        // Convert to grayscale
-        cv::cvtColor(*inputMat, *grayMat, cv::COLOR_RGB2GRAY);
-        
-        // Apply Canny edge detection
-        cv::Canny(*grayMat, *edgesMat, 50, 150);
-        
-        // Convert edges back to 3-channel for display
-        cv::cvtColor(*edgesMat, *outputMat, cv::COLOR_GRAY2RGB);
+        detectEdges();
         
         LOGI("OpenCV processing completed successfully");
     } catch (const std::exception& e) {
         LOGE("Error in OpenCV processing: %s", e.what());
     }
+}
+
+void ImageProcessor::convertYuvToRgb(const YuvFrame& frame) {
+    *inputMat = allocateMat(arena, frame.height, frame.width, CV_8UC3);
+    convertYuvToRgb(frame, *inputMat);
+}
+
+void ImageProcessor::convertYuvToRgb(const YuvFrame& frame, cv::Mat& rgb) {
+    const int width = frame.width;
+    const int height = frame.height;
+    const int chromaWidth = width / 2;
+    const int chromaHeight = height / 2;
+    
+    // The Y plane is wrapped in place; cvtColor honours the row stride
+    cv::Mat yPlane(height, width, CV_8UC1, const_cast<uint8_t*>(frame.y), frame.yRowStride);
+    
+    // Semi-planar layouts: U and V share one interleaved plane, so it can be
+    // wrapped as a 2-channel view starting at whichever component comes first
+    if (frame.uvPixelStride == 2 && frame.v == frame.u + 1) {
+        cv::Mat uvPlane(chromaHeight, chromaWidth, CV_8UC2, const_cast<uint8_t*>(frame.u), frame.uvRowStride);
+        cv::cvtColorTwoPlane(yPlane, uvPlane, rgb, cv::COLOR_YUV2RGB_NV12);
+        return;
+    }
+    if (frame.uvPixelStride == 2 && frame.u == frame.v + 1) {
+        cv::Mat vuPlane(chromaHeight, chromaWidth, CV_8UC2, const_cast<uint8_t*>(frame.v), frame.uvRowStride);
+        cv::cvtColorTwoPlane(yPlane, vuPlane, rgb, cv::COLOR_YUV2RGB_NV21);
+        return;
+    }
+    
+    // Tightly packed I420 in a single allocation can be wrapped as-is
+    const size_t lumaSize = static_cast<size_t>(width) * height;
+    const size_t chromaSize = static_cast<size_t>(chromaWidth) * chromaHeight;
+    if (frame.uvPixelStride == 1 && frame.yRowStride == width && frame.uvRowStride == chromaWidth &&
+            frame.u == frame.y + lumaSize && frame.v == frame.u + chromaSize) {
+        cv::Mat i420(height + chromaHeight, width, CV_8UC1, const_cast<uint8_t*>(frame.y));
+        cv::cvtColor(i420, rgb, cv::COLOR_YUV2RGB_I420);
+        return;
+    }
+    
+    // Anything else is repacked into I420, touching each chroma sample once
+    *yuvMat = allocateMat(arena, height + chromaHeight, width, CV_8UC1);
+    
+    uint8_t* dst = yuvMat->data;
+    for (int row = 0; row < height; row++) {
+        memcpy(dst + row * width, frame.y + row * frame.yRowStride, width);
+    }
+    
+    uint8_t* dstU = dst + lumaSize;
+    uint8_t* dstV = dstU + chromaSize;
+    for (int row = 0; row < chromaHeight; row++) {
+        const uint8_t* srcU = frame.u + row * frame.uvRowStride;
+        const uint8_t* srcV = frame.v + row * frame.uvRowStride;
+        for (int col = 0; col < chromaWidth; col++) {
+            *dstU++ = srcU[col * frame.uvPixelStride];
+            *dstV++ = srcV[col * frame.uvPixelStride];
+        }
+    }
+    
+    cv::cvtColor(*yuvMat, rgb, cv::COLOR_YUV2RGB_I420);
+}
+
+void ImageProcessor::detectEdges() {
+    const int width = inputMat->cols;
+    const int height = inputMat->rows;
+    
+    *outputMat = allocateMat(arena, height, width, CV_8UC3);
+    *edgesMat = allocateMat(arena, height, width, CV_8UC1);
+    
+    detectEdges(*edgesMat);
+    
+    // Convert edges back to 3-channel for display
+    cv::cvtColor(*edgesMat, *outputMat, cv::COLOR_GRAY2RGB);
+}
+
+void ImageProcessor::detectEdges(cv::Mat& edges) {
+    *grayMat = allocateMat(arena, inputMat->rows, inputMat->cols, CV_8UC1);
+    
+    // Convert to grayscale
+    convertRgbToGray(*inputMat, *grayMat);
+    
+    detectEdgesFromGray(*grayMat, edges);
+}
+
+// Runs the current filter plan; edges receives its result whatever the stages are
+void ImageProcessor::detectEdgesFromGray(const cv::Mat& gray, cv::Mat& edges) {
+    updatePlan();
+    int low;
+    int high;
+    if (!plan->isCannyOnly(&low, &high)) {
+        plan->run(gray, edges, parallelCanny, arena);
+        return;
+    }
+    
+    if (tileCache && tileCache->prepare(gray.data, gray.step, gray.cols, gray.rows)) {
+        edges.create(gray.rows, gray.cols, CV_8UC1);
+        tileCache->recomputeChanged(gray.data, gray.step, edges.data, edges.step, low, high);
+        return;
+    }
+    
+    // Apply Canny edge detection
+    if (parallelCanny) {
+        edges.create(gray.rows, gray.cols, CV_8UC1);
+        parallelCanny->run(gray.data, gray.step, edges.data, edges.step, gray.cols, gray.rows, low, high);
+    } else {
+        cv::Canny(gray, edges, low, high);
+    }
+    if (tileCache) tileCache->store(gray.data, gray.step, edges.data, edges.step);
 }
\ No newline at end of file
@@ -1,30 +1,125 @@
 #ifndef IMAGE_PROCESSOR_H
 #define IMAGE_PROCESSOR_H
 
+#include <atomic>
 #include <vector>
 #include <cstdint>
+#include <cstddef>
+#include "FrameArena.h"
 
 // Forward declarations for OpenCV classes
 namespace cv {
     class Mat;
 }
 
+class FilterPlan;
+class ParallelCanny;
+class TileCache;
+
+// Planes of an android YUV_420_888 image. The pointers are borrowed from the
+// caller's direct buffers and are only valid for the duration of a call.
+struct YuvFrame {
+    const uint8_t* y;
+    const uint8_t* u;
+    const uint8_t* v;
+    int yRowStride;
+    int uvRowStride;
+    int uvPixelStride;
+    int width;
+    int height;
+};
+
+// Layouts processYuvFrameInto can write into a caller-owned buffer. Values are
+// shared with ImageProcessorNative.OUTPUT_*.
+enum OutputFormat {
+    OUTPUT_MASK = 0,  // one byte per pixel, 0 or 255
+    OUTPUT_RGBA = 1,  // four bytes per pixel
+    OUTPUT_JPEG = 2   // quality-80 JPEG, opt-in for export
+};
+
+// Rectangle of a frame in pixels, inside the frame
+struct Roi {
+    int x;
+    int y;
+    int width;
+    int height;
+};
+
+// Layouts processRoisInto can write. Values are shared with ImageProcessorNative.ROI_*.
+enum RoiLayout {
+    ROI_PACKED = 0,     // one mask per region, back to back in order
+    ROI_FULL_FRAME = 1  // frame-sized mask, zero outside the regions
+};
+
 class ImageProcessor {
 public:
     ImageProcessor();
     ~ImageProcessor();
     
     bool initialize();
+    void setParallelism(int threads, int stripHeight);
+    // Edges-from-Y: Canny runs directly on the Y plane and the chroma planes are never read
+    // (they may be null). Skips both colour conversions; output formats are unchanged.
+    void setLumaOnly(bool enabled);
+    bool isLumaOnly() const { return lumaOnly; }
+    // Incremental mode: only tiles that changed since the last frame go through Canny again
+    // (see TileCache.h). 0 turns it off.
+    void setIncrementalTiles(int tileSize);
+    int getRecomputedTiles() const;
+    int getTileCount() const;
+    // Compiles a FilterPipeline description (op, a, b per stage; see FilterPlan.h) and swaps it
+    // in at the start of the next frame. Safe from any thread. Returns false if it is invalid.
+    bool setFilterPipeline(const int* ops, int stageCount);
+    // Sizes the frame arena for width x height now instead of on the first such frame.
+    // Frames resize it too, but only when the resolution differs from the last one.
+    void allocateBuffers(int width, int height);
+    // Frees all per-resolution memory (arena, tile cache, encode buffer) until the next frame,
+    // e.g. while the camera is stopped
+    void trimMemory();
+    const FrameArena& getArena() const { return arena; }
     std::vector<uint8_t> processFrame(const uint8_t* data, size_t dataSize, int width, int height);
-    
+    std::vector<uint8_t> processYuvFrame(const YuvFrame& frame);
+    int processYuvFrameInto(const YuvFrame& frame, uint8_t* output, size_t outputCapacity, int format);
+    // Edge masks of the given regions only; each region is converted and processed on its own,
+    // with a few pixels of the frame around it, in buffers sized to the region.
+    int processRoisInto(const YuvFrame& frame, const Roi* rois, int count,
+                        uint8_t* output, size_t outputCapacity, int layout);
+    // Room for count regions, kept between calls so the JNI layer can copy each frame's regions
+    // without allocating. Valid until the next call.
+    Roi* getRoiBuffer(int count);
+
 private:
     bool initialized;
+    bool lumaOnly;
+    // Frame buffers: headers over memory from the arena, pointed again at the start of every
+    // frame that uses them
     cv::Mat* inputMat;
     cv::Mat* outputMat;
     cv::Mat* grayMat;
     cv::Mat* edgesMat;
+    cv::Mat* yuvMat;
+    std::vector<uint8_t> encodeBuffer;
+    std::vector<Roi> roiBuffer;
+    // All per-frame working memory, sized for arenaWidth x arenaHeight frames
+    FrameArena arena;
+    int arenaWidth;
+    int arenaHeight;
+    ParallelCanny* parallelCanny;
+    TileCache* tileCache;
+    // The plan frames run, owned by the processing thread, and the next one once compiled
+    FilterPlan* plan;
+    std::atomic<FilterPlan*> pendingPlan;
     
+    void beginFrame(int width, int height);
     void processWithOpenCV(const uint8_t* data, int width, int height);
+    void convertYuvToRgb(const YuvFrame& frame);
+    void convertYuvToRgb(const YuvFrame& frame, cv::Mat& rgb);
+    void detectRoi(const YuvFrame& frame, const Roi& roi, uint8_t* dst, size_t dstStride);
+    void updatePlan();
+    void detectEdges();
+    void detectEdges(cv::Mat& edges);
+    void detectEdgesFromGray(const cv::Mat& gray, cv::Mat& edges);
+    std::vector<uint8_t> encodeOutput();
 };
 
 #endif // IMAGE_PROCESSOR_H
\ No newline at end of file
@@ -0,0 +1,16 @@
+#ifndef NATIVE_LOG_H
+#define NATIVE_LOG_H
+
+// Logging for code shared between the Android library and host (Linux) builds.
+// Define LOG_TAG before including this header.
+#ifdef __ANDROID__
+#include <android/log.h>
+#define LOGI(...) __android_log_print(ANDROID_LOG_INFO, LOG_TAG, __VA_ARGS__)
+#define LOGE(...) __android_log_print(ANDROID_LOG_ERROR, LOG_TAG, __VA_ARGS__)
+#else
+#include <cstdio>
+#define LOGI(...) (fprintf(stderr, "I/%s: ", LOG_TAG), fprintf(stderr, __VA_ARGS__), fputc('\n', stderr))
+#define LOGE(...) (fprintf(stderr, "E/%s: ", LOG_TAG), fprintf(stderr, __VA_ARGS__), fputc('\n', stderr))
+#endif
+
+#endif // NATIVE_LOG_H
@@ -0,0 +1,222 @@
+#include "ParallelCanny.h"
+#include "SimdKernels.h"
+#include "WorkerPool.h"
+
+#include <algorithm>
+#include <cstdlib>
+#include <cstring>
+
+namespace {
+// tan(22.5deg) in Q15, as used by cv::Canny
+const int CANNY_SHIFT = 15;
+const int TG22 = 13573;
+
+// Edge map states, matching cv::Canny: 0 = weak candidate, 1 = not an edge, 2 = edge
+const uint8_t MAP_WEAK = 0;
+const uint8_t MAP_NONE = 1;
+const uint8_t MAP_EDGE = 2;
+}
+
+ParallelCanny::ParallelCanny() : stripHeight(0), width(0), height(0) {
+}
+
+ParallelCanny::~ParallelCanny() {
+}
+
+void ParallelCanny::setParallelism(int threads, int rowsPerStrip) {
+    if (getThreads() != threads) {
+        pool.reset(threads > 0 ? new WorkerPool(threads) : nullptr);
+    }
+    stripHeight = std::max(rowsPerStrip, 0);
+}
+
+int ParallelCanny::getThreads() const {
+    return pool ? pool->size() : 0;
+}
+
+void ParallelCanny::ensureBuffers(int w, int h, int strips) {
+    if (w != width || h != height) {
+        width = w;
+        height = h;
+        const size_t padded = static_cast<size_t>(w + 2) * (h + 2);
+        dx.assign(static_cast<size_t>(w) * h, 0);
+        dy.assign(static_cast<size_t>(w) * h, 0);
+        // Borders are written once here; frames only ever touch the interior
+        mag.assign(padded, 0);
+        map.assign(padded, MAP_NONE);
+    }
+    if (static_cast<int>(stacks.size()) != strips) {
+        stacks.resize(strips);
+        borderPixels.resize(strips);
+    }
+}
+
+void ParallelCanny::run(const uint8_t* src, size_t srcStride, uint8_t* dst, size_t dstStride,
+                        int w, int h, int low, int high) {
+    if (low > high) std::swap(low, high);
+    
+    const int threads = getThreads() + 1;
+    const int rows = stripHeight > 0 ? stripHeight : (h + threads - 1) / threads;
+    const int strips = (h + rows - 1) / rows;
+    ensureBuffers(w, h, strips);
+    
+    WorkerPool* workers = pool.get();
+    auto forEachStrip = [&](const std::function<void(int, int, int)>& body) {
+        std::function<void(int)> task = [&](int strip) {
+            const int y0 = strip * rows;
+            body(strip, y0, std::min(y0 + rows, h));
+        };
+        if (workers) {
+            workers->parallelFor(strips, task);
+        } else {
+            for (int strip = 0; strip < strips; strip++) task(strip);
+        }
+    };
+    
+    // Each pass is a barrier: suppression reads magnitudes from neighbouring strips and
+    // the border pass needs every strip's local hysteresis to have finished
+    forEachStrip([&](int, int y0, int y1) {
+        computeGradients(src, srcStride, y0, y1);
+    });
+    forEachStrip([&](int strip, int y0, int y1) {
+        suppressNonMaxima(strip, y0, y1, low, high);
+        traceStrip(strip, y0, y1);
+    });
+    traceBorders();
+    
+    const int mapStep = w + 2;
+    const SimdKernels& kernels = SimdKernels::get();
+    forEachStrip([&](int, int y0, int y1) {
+        for (int y = y0; y < y1; y++) {
+            // MAP_EDGE is the only state above MAP_NONE
+            kernels.threshold(&map[static_cast<size_t>(y + 1) * mapStep + 1], dst + y * dstStride, w,
+                              MAP_NONE, 255, 0);
+        }
+    });
+}
+
+void ParallelCanny::computeGradients(const uint8_t* src, size_t srcStride, int y0, int y1) {
+    const int w = width;
+    const int magStep = w + 2;
+    const SimdKernels& kernels = SimdKernels::get();
+    
+    // 3x3 Sobel with replicated borders, as cv::Sobel(..., CV_16S, 1, 0, 3) and (0, 1, 3)
+    for (int y = y0; y < y1; y++) {
+        const uint8_t* above = src + std::max(y - 1, 0) * srcStride;
+        const uint8_t* row = src + y * srcStride;
+        const uint8_t* below = src + std::min(y + 1, height - 1) * srcStride;
+        kernels.sobelRow(above, row, below, &dx[static_cast<size_t>(y) * w], &dy[static_cast<size_t>(y) * w],
+                         &mag[static_cast<size_t>(y + 1) * magStep + 1], w);
+    }
+}
+
+void ParallelCanny::suppressNonMaxima(int strip, int y0, int y1, int low, int high) {
+    const int w = width;
+    const int step = w + 2;
+    std::vector<int>& stack = stacks[strip];
+    stack.clear();
+    
+    for (int y = y0; y < y1; y++) {
+        const int16_t* gx = &dx[static_cast<size_t>(y) * w];
+        const int16_t* gy = &dy[static_cast<size_t>(y) * w];
+        const int rowStart = (y + 1) * step + 1;
+        const int* m = &mag[rowStart];
+        uint8_t* out = &map[rowStart];
+        
+        for (int x = 0; x < w; x++) {
+            const int value = m[x];
+            bool peak = false;
+            
+            if (value > low) {
+                const int xs = gx[x];
+                const int ys = gy[x];
+                const int ax = std::abs(xs);
+                const int ay = std::abs(ys) << CANNY_SHIFT;
+                const int tg22x = ax * TG22;
+                
+                if (ay < tg22x) {
+                    // Horizontal gradient: compare left and right
+                    peak = value > m[x - 1] && value >= m[x + 1];
+                } else {
+                    const int tg67x = tg22x + (ax << (CANNY_SHIFT + 1));
+                    if (ay > tg67x) {
+                        // Vertical gradient: compare above and below
+                        peak = value > m[x - step] && value >= m[x + step];
+                    } else {
+                        const int s = (xs ^ ys) < 0 ? -1 : 1;
+                        peak = value > m[x - step - s] && value > m[x + step + s];
+                    }
+                }
+            }
+            
+            if (!peak) {
+                out[x] = MAP_NONE;
+            } else if (value > high) {
+                out[x] = MAP_EDGE;
+                stack.push_back(rowStart + x);
+            } else {
+                out[x] = MAP_WEAK;
+            }
+        }
+    }
+}
+
+void ParallelCanny::traceStrip(int strip, int y0, int y1) {
+    const int step = width + 2;
+    const int firstRow = y0 + 1;
+    const int lastRow = y1;
+    std::vector<int>& stack = stacks[strip];
+    std::vector<int>& border = borderPixels[strip];
+    border.clear();
+    
+    uint8_t* m = map.data();
+    const int offsets[8] = { -step - 1, -step, -step + 1, -1, 1, step - 1, step, step + 1 };
+    
+    while (!stack.empty()) {
+        const int index = stack.back();
+        stack.pop_back();
+        const int row = index / step;
+        
+        for (int k = 0; k < 8; k++) {
+            const int neighbour = index + offsets[k];
+            // Rows owned by another strip are left for the sequential border pass
+            const int neighbourRow = row + (k < 3 ? -1 : (k < 5 ? 0 : 1));
+            if (neighbourRow < firstRow || neighbourRow > lastRow) {
+                border.push_back(neighbour);
+            } else if (m[neighbour] == MAP_WEAK) {
+                m[neighbour] = MAP_EDGE;
+                stack.push_back(neighbour);
+            }
+        }
+    }
+}
+
+void ParallelCanny::traceBorders() {
+    const int step = width + 2;
+    const int offsets[8] = { -step - 1, -step, -step + 1, -1, 1, step - 1, step, step + 1 };
+    uint8_t* m = map.data();
+    std::vector<int>& stack = stacks[0];
+    stack.clear();
+    
+    for (std::vector<int>& border : borderPixels) {
+        for (int index : border) {
+            if (m[index] == MAP_WEAK) {
+                m[index] = MAP_EDGE;
+                stack.push_back(index);
+            }
+        }
+        border.clear();
+    }
+    
+    while (!stack.empty()) {
+        const int index = stack.back();
+        stack.pop_back();
+        for (int k = 0; k < 8; k++) {
+            const int neighbour = index + offsets[k];
+            if (m[neighbour] == MAP_WEAK) {
+                m[neighbour] = MAP_EDGE;
+                stack.push_back(neighbour);
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+#ifndef PARALLEL_CANNY_H
+#define PARALLEL_CANNY_H
+
+#include <cstddef>
+#include <cstdint>
+#include <memory>
+#include <vector>
+
+class WorkerPool;
+
+// Canny edge detection (3x3 Sobel, L1 gradient) split into horizontal strips that run on a
+// native worker pool. Gradients and non-maximum suppression read one row above and below each
+// strip; hysteresis runs per strip and edges that cross a strip boundary are finished in a
+// short sequential pass, so the output matches cv::Canny(src, dst, low, high) exactly.
+class ParallelCanny {
+public:
+    ParallelCanny();
+    ~ParallelCanny();
+    
+    // threads: workers besides the calling thread (0 runs everything on the caller).
+    // stripHeight: rows per task, or 0 to split the frame evenly across all threads.
+    void setParallelism(int threads, int stripHeight);
+    int getThreads() const;
+    
+    void run(const uint8_t* src, size_t srcStride, uint8_t* dst, size_t dstStride,
+             int width, int height, int lowThreshold, int highThreshold);
+    
+private:
+    std::unique_ptr<WorkerPool> pool;
+    int stripHeight;
+    int width;
+    int height;
+    
+    std::vector<int16_t> dx;
+    std::vector<int16_t> dy;
+    // Magnitude and edge map carry a one-pixel border so neighbours never go out of bounds
+    std::vector<int> mag;
+    std::vector<uint8_t> map;
+    std::vector<std::vector<int>> stacks;
+    std::vector<std::vector<int>> borderPixels;
+    
+    void ensureBuffers(int width, int height, int strips);
+    void computeGradients(const uint8_t* src, size_t srcStride, int y0, int y1);
+    void suppressNonMaxima(int strip, int y0, int y1, int low, int high);
+    void traceStrip(int strip, int y0, int y1);
+    void traceBorders();
+};
+
+#endif // PARALLEL_CANNY_H
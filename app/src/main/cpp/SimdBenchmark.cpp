@@ -0,0 +1,83 @@
+// Host tool for the SIMD kernels: checks every variant the CPU can run against the scalar one
+// and times each kernel on full frames. Built with the host library (see CMakeLists.txt):
+//   ./build/host/simd-bench [width height [iterations]]
+// Exits with 1 if a variant does not match the scalar output.
+#include "SimdKernels.h"
+
+#include <chrono>
+#include <cstdio>
+#include <cstdlib>
+#include <vector>
+
+namespace {
+// Sum of the output, so the timed loops cannot be optimized away and runs can be compared
+unsigned checksum(const std::vector<uint8_t>& bytes) {
+    unsigned sum = 0;
+    for (uint8_t b : bytes) sum = sum * 31 + b;
+    return sum;
+}
+
+template <typename Body>
+double millisPerFrame(int iterations, Body body) {
+    body();
+    const auto start = std::chrono::steady_clock::now();
+    for (int i = 0; i < iterations; i++) body();
+    const std::chrono::duration<double, std::milli> elapsed = std::chrono::steady_clock::now() - start;
+    return elapsed.count() / iterations;
+}
+}
+
+int main(int argc, char** argv) {
+    const int width = argc > 2 ? atoi(argv[1]) : 1920;
+    const int height = argc > 2 ? atoi(argv[2]) : 1080;
+    const int iterations = argc > 3 ? atoi(argv[3]) : 50;
+    if (width < 1 || height < 1 || iterations < 1) {
+        fprintf(stderr, "Usage: simd-bench [width height [iterations]]\n");
+        return 2;
+    }
+    
+    const size_t pixels = static_cast<size_t>(width) * height;
+    std::vector<uint8_t> rgb(pixels * 3);
+    uint32_t seed = 1;
+    for (size_t i = 0; i < rgb.size(); i++) {
+        seed = seed * 1664525u + 1013904223u;
+        // Smooth ramps with noise, closer to a camera frame than uniform noise
+        rgb[i] = static_cast<uint8_t>(((i / 3) % width) / 8 + (seed >> 28));
+    }
+    std::vector<uint8_t> gray(pixels);
+    std::vector<uint8_t> mask(pixels);
+    std::vector<int16_t> gx(pixels);
+    std::vector<int16_t> gy(pixels);
+    std::vector<int> mag(pixels);
+    
+    printf("%dx%d, %d iterations, selected: %s\n", width, height, iterations, SimdKernels::get().name);
+    printf("%-8s %7s %12s %12s %12s %10s\n", "variant", "exact", "gray ms", "sobel ms", "thresh ms", "checksum");
+    bool allMatch = true;
+    for (const SimdKernels* kernels : SimdKernels::available()) {
+        const bool exact = SimdKernels::matchesScalar(*kernels);
+        allMatch = allMatch && exact;
+        
+        const double grayMs = millisPerFrame(iterations, [&]() {
+            for (int y = 0; y < height; y++) {
+                kernels->rgbToGray(&rgb[static_cast<size_t>(y) * width * 3], &gray[static_cast<size_t>(y) * width], width);
+            }
+        });
+        const double sobelMs = millisPerFrame(iterations, [&]() {
+            for (int y = 0; y < height; y++) {
+                const size_t row = static_cast<size_t>(y) * width;
+                const size_t above = static_cast<size_t>(y > 0 ? y - 1 : 0) * width;
+                const size_t below = static_cast<size_t>(y < height - 1 ? y + 1 : y) * width;
+                kernels->sobelRow(&gray[above], &gray[row], &gray[below], &gx[row], &gy[row], &mag[row], width);
+            }
+        });
+        const double thresholdMs = millisPerFrame(iterations, [&]() {
+            for (int y = 0; y < height; y++) {
+                const size_t row = static_cast<size_t>(y) * width;
+                kernels->threshold(&gray[row], &mask[row], width, 100, 255, 0);
+            }
+        });
+        printf("%-8s %7s %12.3f %12.3f %12.3f %10u\n", kernels->name, exact ? "yes" : "NO",
+               grayMs, sobelMs, thresholdMs, checksum(gray) ^ checksum(mask));
+    }
+    return allMatch ? 0 : 1;
+}
@@ -0,0 +1,437 @@
+#include "SimdKernels.h"
+
+#include <cstdlib>
+#include <cstring>
+#include <string>
+
+#if defined(__x86_64__) || defined(__i386__)
+#define SIMD_X86 1
+#include <immintrin.h>
+// Compiled for the instruction set whatever the build's baseline; only called once the CPU
+// reported it
+#define TARGET_SSE41 __attribute__((target("sse4.1")))
+#define TARGET_AVX2 __attribute__((target("avx2")))
+#endif
+
+#if defined(__ARM_NEON) || defined(__ARM_NEON__)
+#define SIMD_NEON 1
+#include <arm_neon.h>
+#if !defined(__aarch64__)
+#include <sys/auxv.h>
+#ifndef HWCAP_NEON
+#define HWCAP_NEON (1 << 12)
+#endif
+#endif
+#endif
+
+#define LOG_TAG "SimdKernels"
+#include "NativeLog.h"
+
+namespace {
+// BT.601 luma in Q14, as OpenCV's 8-bit RGB2GRAY
+const int GRAY_SHIFT = 14;
+const int R2Y = 4899;
+const int G2Y = 9617;
+const int B2Y = 1868;
+const int GRAY_ROUND = 1 << (GRAY_SHIFT - 1);
+
+// Scalar versions; the SIMD ones use them for the pixels left over at the ends of a row
+
+void rgbToGrayScalar(const uint8_t* rgb, uint8_t* gray, int width) {
+    for (int x = 0; x < width; x++, rgb += 3) {
+        gray[x] = static_cast<uint8_t>((R2Y * rgb[0] + G2Y * rgb[1] + B2Y * rgb[2] + GRAY_ROUND) >> GRAY_SHIFT);
+    }
+}
+
+// Sobel for columns from .. to - 1 of a row width pixels wide
+void sobelRange(const uint8_t* above, const uint8_t* row, const uint8_t* below,
+                int16_t* gx, int16_t* gy, int* mag, int width, int from, int to) {
+    for (int x = from; x < to; x++) {
+        const int l = x > 0 ? x - 1 : 0;
+        const int r = x < width - 1 ? x + 1 : width - 1;
+        const int sx = (above[r] - above[l]) + 2 * (row[r] - row[l]) + (below[r] - below[l]);
+        const int sy = (below[l] + 2 * below[x] + below[r]) - (above[l] + 2 * above[x] + above[r]);
+        gx[x] = static_cast<int16_t>(sx);
+        gy[x] = static_cast<int16_t>(sy);
+        mag[x] = std::abs(sx) + std::abs(sy);
+    }
+}
+
+void sobelRowScalar(const uint8_t* above, const uint8_t* row, const uint8_t* below,
+                    int16_t* gx, int16_t* gy, int* mag, int width) {
+    sobelRange(above, row, below, gx, gy, mag, width, 0, width);
+}
+
+void thresholdScalar(const uint8_t* src, uint8_t* dst, int width, int level, uint8_t above, uint8_t below) {
+    for (int x = 0; x < width; x++) {
+        dst[x] = src[x] > level ? above : below;
+    }
+}
+
+// Levels outside 0..254 give one value for every pixel, which the SIMD compares cannot express
+bool thresholdIsConstant(uint8_t* dst, int width, int level, uint8_t above, uint8_t below) {
+    if (level >= 0 && level < 255) return false;
+    memset(dst, level < 0 ? above : below, width);
+    return true;
+}
+
+#ifdef SIMD_X86
+// pshufb masks gathering the R, G and B bytes of 16 pixels from the three 16-byte loads that
+// hold them; -1 leaves a zero for the other loads to fill
+alignas(16) const int8_t DEINTERLEAVE[3][3][16] = {
+    {
+        { 0, 3, 6, 9, 12, 15, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+        { -1, -1, -1, -1, -1, -1, 2, 5, 8, 11, 14, -1, -1, -1, -1, -1 },
+        { -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, 1, 4, 7, 10, 13 }
+    },
+    {
+        { 1, 4, 7, 10, 13, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+        { -1, -1, -1, -1, -1, 0, 3, 6, 9, 12, 15, -1, -1, -1, -1, -1 },
+        { -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, 2, 5, 8, 11, 14 }
+    },
+    {
+        { 2, 5, 8, 11, 14, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+        { -1, -1, -1, -1, -1, 1, 4, 7, 10, 13, -1, -1, -1, -1, -1, -1 },
+        { -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, 0, 3, 6, 9, 12, 15 }
+    }
+};
+
+TARGET_SSE41 inline __m128i gatherChannel(__m128i a0, __m128i a1, __m128i a2, int channel) {
+    const __m128i* masks = reinterpret_cast<const __m128i*>(DEINTERLEAVE[channel]);
+    return _mm_or_si128(_mm_or_si128(_mm_shuffle_epi8(a0, _mm_load_si128(masks)),
+                                     _mm_shuffle_epi8(a1, _mm_load_si128(masks + 1))),
+                        _mm_shuffle_epi8(a2, _mm_load_si128(masks + 2)));
+}
+
+// Gray of four pixels from their channels interleaved as (R, G) and (B, 1) 16-bit pairs, so
+// each multiply-add gives two terms of the weighted sum
+TARGET_SSE41 inline __m128i grayOf4(__m128i rg, __m128i b1) {
+    const __m128i rgWeights = _mm_set1_epi32((G2Y << 16) | R2Y);
+    const __m128i bWeights = _mm_set1_epi32((GRAY_ROUND << 16) | B2Y);
+    const __m128i sum = _mm_add_epi32(_mm_madd_epi16(rg, rgWeights), _mm_madd_epi16(b1, bWeights));
+    return _mm_srli_epi32(sum, GRAY_SHIFT);
+}
+
+TARGET_SSE41 void rgbToGraySse41(const uint8_t* rgb, uint8_t* gray, int width) {
+    const __m128i zero = _mm_setzero_si128();
+    const __m128i one = _mm_set1_epi16(1);
+    int x = 0;
+    for (; x + 16 <= width; x += 16) {
+        const uint8_t* p = rgb + x * 3;
+        const __m128i a0 = _mm_loadu_si128(reinterpret_cast<const __m128i*>(p));
+        const __m128i a1 = _mm_loadu_si128(reinterpret_cast<const __m128i*>(p + 16));
+        const __m128i a2 = _mm_loadu_si128(reinterpret_cast<const __m128i*>(p + 32));
+        const __m128i r = gatherChannel(a0, a1, a2, 0);
+        const __m128i g = gatherChannel(a0, a1, a2, 1);
+        const __m128i b = gatherChannel(a0, a1, a2, 2);
+        
+        __m128i half[2];
+        for (int i = 0; i < 2; i++) {
+            const __m128i r16 = i == 0 ? _mm_unpacklo_epi8(r, zero) : _mm_unpackhi_epi8(r, zero);
+            const __m128i g16 = i == 0 ? _mm_unpacklo_epi8(g, zero) : _mm_unpackhi_epi8(g, zero);
+            const __m128i b16 = i == 0 ? _mm_unpacklo_epi8(b, zero) : _mm_unpackhi_epi8(b, zero);
+            const __m128i lo = grayOf4(_mm_unpacklo_epi16(r16, g16), _mm_unpacklo_epi16(b16, one));
+            const __m128i hi = grayOf4(_mm_unpackhi_epi16(r16, g16), _mm_unpackhi_epi16(b16, one));
+            half[i] = _mm_packs_epi32(lo, hi);
+        }
+        _mm_storeu_si128(reinterpret_cast<__m128i*>(gray + x), _mm_packus_epi16(half[0], half[1]));
+    }
+    rgbToGrayScalar(rgb + x * 3, gray + x, width - x);
+}
+
+TARGET_SSE41 void sobelRowSse41(const uint8_t* above, const uint8_t* row, const uint8_t* below,
+                                int16_t* gx, int16_t* gy, int* mag, int width) {
+    // Eight columns at a time from column 1, while column x + 8 is still inside the row
+    int x = 1;
+    for (; x + 9 <= width; x += 8) {
+        #define LOAD8(p) _mm_cvtepu8_epi16(_mm_loadl_epi64(reinterpret_cast<const __m128i*>(p)))
+        const __m128i al = LOAD8(above + x - 1);
+        const __m128i ac = LOAD8(above + x);
+        const __m128i ar = LOAD8(above + x + 1);
+        const __m128i rl = LOAD8(row + x - 1);
+        const __m128i rr = LOAD8(row + x + 1);
+        const __m128i bl = LOAD8(below + x - 1);
+        const __m128i bc = LOAD8(below + x);
+        const __m128i br = LOAD8(below + x + 1);
+        #undef LOAD8
+        
+        const __m128i sx = _mm_add_epi16(_mm_add_epi16(_mm_sub_epi16(ar, al), _mm_slli_epi16(_mm_sub_epi16(rr, rl), 1)),
+                                         _mm_sub_epi16(br, bl));
+        const __m128i sy = _mm_sub_epi16(_mm_add_epi16(_mm_add_epi16(bl, _mm_slli_epi16(bc, 1)), br),
+                                         _mm_add_epi16(_mm_add_epi16(al, _mm_slli_epi16(ac, 1)), ar));
+        const __m128i m = _mm_add_epi16(_mm_abs_epi16(sx), _mm_abs_epi16(sy));
+        _mm_storeu_si128(reinterpret_cast<__m128i*>(gx + x), sx);
+        _mm_storeu_si128(reinterpret_cast<__m128i*>(gy + x), sy);
+        _mm_storeu_si128(reinterpret_cast<__m128i*>(mag + x), _mm_cvtepi16_epi32(m));
+        _mm_storeu_si128(reinterpret_cast<__m128i*>(mag + x + 4), _mm_cvtepi16_epi32(_mm_srli_si128(m, 8)));
+    }
+    sobelRange(above, row, below, gx, gy, mag, width, 0, 1);
+    sobelRange(above, row, below, gx, gy, mag, width, x, width);
+}
+
+TARGET_SSE41 void thresholdSse41(const uint8_t* src, uint8_t* dst, int width, int level, uint8_t above, uint8_t below) {
+    if (thresholdIsConstant(dst, width, level, above, below)) return;
+    // src > level exactly where max(src, level + 1) == src; SSE has no unsigned byte compare
+    const __m128i bound = _mm_set1_epi8(static_cast<char>(level + 1));
+    const __m128i aboveValue = _mm_set1_epi8(static_cast<char>(above));
+    const __m128i belowValue = _mm_set1_epi8(static_cast<char>(below));
+    int x = 0;
+    for (; x + 16 <= width; x += 16) {
+        const __m128i s = _mm_loadu_si128(reinterpret_cast<const __m128i*>(src + x));
+        const __m128i over = _mm_cmpeq_epi8(_mm_max_epu8(s, bound), s);
+        _mm_storeu_si128(reinterpret_cast<__m128i*>(dst + x), _mm_blendv_epi8(belowValue, aboveValue, over));
+    }
+    thresholdScalar(src + x, dst + x, width - x, level, above, below);
+}
+
+TARGET_AVX2 void rgbToGrayAvx2(const uint8_t* rgb, uint8_t* gray, int width) {
+    const __m256i one = _mm256_set1_epi16(1);
+    const __m256i rgWeights = _mm256_set1_epi32((G2Y << 16) | R2Y);
+    const __m256i bWeights = _mm256_set1_epi32((GRAY_ROUND << 16) | B2Y);
+    int x = 0;
+    for (; x + 16 <= width; x += 16) {
+        const uint8_t* p = rgb + x * 3;
+        const __m128i a0 = _mm_loadu_si128(reinterpret_cast<const __m128i*>(p));
+        const __m128i a1 = _mm_loadu_si128(reinterpret_cast<const __m128i*>(p + 16));
+        const __m128i a2 = _mm_loadu_si128(reinterpret_cast<const __m128i*>(p + 32));
+        const __m256i r = _mm256_cvtepu8_epi16(gatherChannel(a0, a1, a2, 0));
+        const __m256i g = _mm256_cvtepu8_epi16(gatherChannel(a0, a1, a2, 1));
+        const __m256i b = _mm256_cvtepu8_epi16(gatherChannel(a0, a1, a2, 2));
+        
+        // Unpacking works within 128-bit lanes, so lo holds pixels 0-3 and 8-11 and hi 4-7 and
+        // 12-15; the pack below puts them back in order
+        const __m256i lo = _mm256_srli_epi32(_mm256_add_epi32(
+                _mm256_madd_epi16(_mm256_unpacklo_epi16(r, g), rgWeights),
+                _mm256_madd_epi16(_mm256_unpacklo_epi16(b, one), bWeights)), GRAY_SHIFT);
+        const __m256i hi = _mm256_srli_epi32(_mm256_add_epi32(
+                _mm256_madd_epi16(_mm256_unpackhi_epi16(r, g), rgWeights),
+                _mm256_madd_epi16(_mm256_unpackhi_epi16(b, one), bWeights)), GRAY_SHIFT);
+        const __m256i packed = _mm256_packs_epi32(lo, hi);
+        _mm_storeu_si128(reinterpret_cast<__m128i*>(gray + x),
+                         _mm_packus_epi16(_mm256_castsi256_si128(packed), _mm256_extracti128_si256(packed, 1)));
+    }
+    rgbToGrayScalar(rgb + x * 3, gray + x, width - x);
+}
+
+TARGET_AVX2 void sobelRowAvx2(const uint8_t* above, const uint8_t* row, const uint8_t* below,
+                              int16_t* gx, int16_t* gy, int* mag, int width) {
+    // Sixteen columns at a time from column 1, while column x + 16 is still inside the row
+    int x = 1;
+    for (; x + 17 <= width; x += 16) {
+        #define LOAD16(p) _mm256_cvtepu8_epi16(_mm_loadu_si128(reinterpret_cast<const __m128i*>(p)))
+        const __m256i al = LOAD16(above + x - 1);
+        const __m256i ac = LOAD16(above + x);
+        const __m256i ar = LOAD16(above + x + 1);
+        const __m256i rl = LOAD16(row + x - 1);
+        const __m256i rr = LOAD16(row + x + 1);
+        const __m256i bl = LOAD16(below + x - 1);
+        const __m256i bc = LOAD16(below + x);
+        const __m256i br = LOAD16(below + x + 1);
+        #undef LOAD16
+        
+        const __m256i sx = _mm256_add_epi16(_mm256_add_epi16(_mm256_sub_epi16(ar, al),
+                                                             _mm256_slli_epi16(_mm256_sub_epi16(rr, rl), 1)),
+                                            _mm256_sub_epi16(br, bl));
+        const __m256i sy = _mm256_sub_epi16(_mm256_add_epi16(_mm256_add_epi16(bl, _mm256_slli_epi16(bc, 1)), br),
+                                            _mm256_add_epi16(_mm256_add_epi16(al, _mm256_slli_epi16(ac, 1)), ar));
+        const __m256i m = _mm256_add_epi16(_mm256_abs_epi16(sx), _mm256_abs_epi16(sy));
+        _mm256_storeu_si256(reinterpret_cast<__m256i*>(gx + x), sx);
+        _mm256_storeu_si256(reinterpret_cast<__m256i*>(gy + x), sy);
+        _mm256_storeu_si256(reinterpret_cast<__m256i*>(mag + x), _mm256_cvtepi16_epi32(_mm256_castsi256_si128(m)));
+        _mm256_storeu_si256(reinterpret_cast<__m256i*>(mag + x + 8), _mm256_cvtepi16_epi32(_mm256_extracti128_si256(m, 1)));
+    }
+    sobelRange(above, row, below, gx, gy, mag, width, 0, 1);
+    sobelRange(above, row, below, gx, gy, mag, width, x, width);
+}
+
+TARGET_AVX2 void thresholdAvx2(const uint8_t* src, uint8_t* dst, int width, int level, uint8_t above, uint8_t below) {
+    if (thresholdIsConstant(dst, width, level, above, below)) return;
+    const __m256i bound = _mm256_set1_epi8(static_cast<char>(level + 1));
+    const __m256i aboveValue = _mm256_set1_epi8(static_cast<char>(above));
+    const __m256i belowValue = _mm256_set1_epi8(static_cast<char>(below));
+    int x = 0;
+    for (; x + 32 <= width; x += 32) {
+        const __m256i s = _mm256_loadu_si256(reinterpret_cast<const __m256i*>(src + x));
+        const __m256i over = _mm256_cmpeq_epi8(_mm256_max_epu8(s, bound), s);
+        _mm256_storeu_si256(reinterpret_cast<__m256i*>(dst + x), _mm256_blendv_epi8(belowValue, aboveValue, over));
+    }
+    thresholdScalar(src + x, dst + x, width - x, level, above, below);
+}
+#endif
+
+#ifdef SIMD_NEON
+// Gray of four pixels; the rounding narrow adds GRAY_ROUND before shifting
+inline uint16x4_t grayOf4(uint16x4_t r, uint16x4_t g, uint16x4_t b) {
+    uint32x4_t sum = vmull_n_u16(r, R2Y);
+    sum = vmlal_n_u16(sum, g, G2Y);
+    sum = vmlal_n_u16(sum, b, B2Y);
+    return vrshrn_n_u32(sum, GRAY_SHIFT);
+}
+
+void rgbToGrayNeon(const uint8_t* rgb, uint8_t* gray, int width) {
+    int x = 0;
+    for (; x + 16 <= width; x += 16) {
+        const uint8x16x3_t px = vld3q_u8(rgb + x * 3);
+        const uint16x8_t rl = vmovl_u8(vget_low_u8(px.val[0]));
+        const uint16x8_t gl = vmovl_u8(vget_low_u8(px.val[1]));
+        const uint16x8_t bl = vmovl_u8(vget_low_u8(px.val[2]));
+        const uint16x8_t rh = vmovl_u8(vget_high_u8(px.val[0]));
+        const uint16x8_t gh = vmovl_u8(vget_high_u8(px.val[1]));
+        const uint16x8_t bh = vmovl_u8(vget_high_u8(px.val[2]));
+        const uint16x8_t lo = vcombine_u16(grayOf4(vget_low_u16(rl), vget_low_u16(gl), vget_low_u16(bl)),
+                                           grayOf4(vget_high_u16(rl), vget_high_u16(gl), vget_high_u16(bl)));
+        const uint16x8_t hi = vcombine_u16(grayOf4(vget_low_u16(rh), vget_low_u16(gh), vget_low_u16(bh)),
+                                           grayOf4(vget_high_u16(rh), vget_high_u16(gh), vget_high_u16(bh)));
+        vst1q_u8(gray + x, vcombine_u8(vmovn_u16(lo), vmovn_u16(hi)));
+    }
+    rgbToGrayScalar(rgb + x * 3, gray + x, width - x);
+}
+
+void sobelRowNeon(const uint8_t* above, const uint8_t* row, const uint8_t* below,
+                  int16_t* gx, int16_t* gy, int* mag, int width) {
+    // Eight columns at a time from column 1, while column x + 8 is still inside the row
+    int x = 1;
+    for (; x + 9 <= width; x += 8) {
+        #define LOAD8(p) vreinterpretq_s16_u16(vmovl_u8(vld1_u8(p)))
+        const int16x8_t al = LOAD8(above + x - 1);
+        const int16x8_t ac = LOAD8(above + x);
+        const int16x8_t ar = LOAD8(above + x + 1);
+        const int16x8_t rl = LOAD8(row + x - 1);
+        const int16x8_t rr = LOAD8(row + x + 1);
+        const int16x8_t bl = LOAD8(below + x - 1);
+        const int16x8_t bc = LOAD8(below + x);
+        const int16x8_t br = LOAD8(below + x + 1);
+        #undef LOAD8
+        
+        const int16x8_t sx = vaddq_s16(vaddq_s16(vsubq_s16(ar, al), vshlq_n_s16(vsubq_s16(rr, rl), 1)),
+                                       vsubq_s16(br, bl));
+        const int16x8_t sy = vsubq_s16(vaddq_s16(vaddq_s16(bl, vshlq_n_s16(bc, 1)), br),
+                                       vaddq_s16(vaddq_s16(al, vshlq_n_s16(ac, 1)), ar));
+        const int16x8_t m = vaddq_s16(vabsq_s16(sx), vabsq_s16(sy));
+        vst1q_s16(gx + x, sx);
+        vst1q_s16(gy + x, sy);
+        vst1q_s32(mag + x, vmovl_s16(vget_low_s16(m)));
+        vst1q_s32(mag + x + 4, vmovl_s16(vget_high_s16(m)));
+    }
+    sobelRange(above, row, below, gx, gy, mag, width, 0, 1);
+    sobelRange(above, row, below, gx, gy, mag, width, x, width);
+}
+
+void thresholdNeon(const uint8_t* src, uint8_t* dst, int width, int level, uint8_t above, uint8_t below) {
+    if (thresholdIsConstant(dst, width, level, above, below)) return;
+    const uint8x16_t bound = vdupq_n_u8(static_cast<uint8_t>(level));
+    const uint8x16_t aboveValue = vdupq_n_u8(above);
+    const uint8x16_t belowValue = vdupq_n_u8(below);
+    int x = 0;
+    for (; x + 16 <= width; x += 16) {
+        const uint8x16_t s = vld1q_u8(src + x);
+        vst1q_u8(dst + x, vbslq_u8(vcgtq_u8(s, bound), aboveValue, belowValue));
+    }
+    thresholdScalar(src + x, dst + x, width - x, level, above, below);
+}
+#endif
+
+const SimdKernels SCALAR = { "scalar", rgbToGrayScalar, sobelRowScalar, thresholdScalar };
+#ifdef SIMD_X86
+const SimdKernels SSE41 = { "sse4.1", rgbToGraySse41, sobelRowSse41, thresholdSse41 };
+const SimdKernels AVX2 = { "avx2", rgbToGrayAvx2, sobelRowAvx2, thresholdAvx2 };
+#endif
+#ifdef SIMD_NEON
+const SimdKernels NEON = { "neon", rgbToGrayNeon, sobelRowNeon, thresholdNeon };
+#endif
+
+// Deterministic pixels, with runs of 0 and 255 so the extreme gradients are covered too
+void fillPattern(std::vector<uint8_t>& pixels, uint32_t seed) {
+    for (size_t i = 0; i < pixels.size(); i++) {
+        seed = seed * 1664525u + 1013904223u;
+        const uint32_t bits = seed >> 24;
+        pixels[i] = static_cast<uint8_t>((i / 5) % 4 == 0 ? (bits & 1) * 255 : bits);
+    }
+}
+
+const SimdKernels* selectKernels() {
+    std::vector<const SimdKernels*> variants = SimdKernels::available();
+    const char* cap = getenv("EDGEDETECTION_SIMD");
+    if (cap && *cap) {
+        size_t count = 0;
+        while (count < variants.size() && variants[count]->name != std::string(cap)) count++;
+        if (count < variants.size()) {
+            variants.resize(count + 1);
+        } else {
+            LOGE("EDGEDETECTION_SIMD=%s is not a variant this CPU can run; ignored", cap);
+        }
+    }
+    
+    // The last (widest) variant that checks out
+    for (size_t i = variants.size(); i-- > 1;) {
+        if (SimdKernels::matchesScalar(*variants[i])) {
+            LOGI("Using %s kernels", variants[i]->name);
+            return variants[i];
+        }
+        LOGE("%s kernels differ from the scalar ones; not used", variants[i]->name);
+    }
+    LOGI("Using scalar kernels");
+    return &SCALAR;
+}
+}
+
+const SimdKernels& SimdKernels::get() {
+    static const SimdKernels* const selected = selectKernels();
+    return *selected;
+}
+
+std::vector<const SimdKernels*> SimdKernels::available() {
+    std::vector<const SimdKernels*> variants;
+    variants.push_back(&SCALAR);
+#ifdef SIMD_X86
+    __builtin_cpu_init();
+    if (__builtin_cpu_supports("sse4.1")) variants.push_back(&SSE41);
+    if (__builtin_cpu_supports("avx2")) variants.push_back(&AVX2);
+#endif
+#ifdef SIMD_NEON
+#if defined(__aarch64__)
+    variants.push_back(&NEON);
+#else
+    if (getauxval(AT_HWCAP) & HWCAP_NEON) variants.push_back(&NEON);
+#endif
+#endif
+    return variants;
+}
+
+bool SimdKernels::matchesScalar(const SimdKernels& kernels) {
+    // Widths around every vector length, so each main loop and remainder is exercised
+    const int widths[] = { 1, 2, 3, 8, 9, 10, 15, 16, 17, 18, 31, 32, 33, 34, 47, 63, 64, 65, 100, 257 };
+    const int levels[] = { -1, 0, 1, 127, 128, 254, 255 };
+    for (int width : widths) {
+        std::vector<uint8_t> rgb(static_cast<size_t>(width) * 3);
+        std::vector<uint8_t> rows(static_cast<size_t>(width) * 3);
+        fillPattern(rgb, static_cast<uint32_t>(width));
+        fillPattern(rows, static_cast<uint32_t>(width) * 31u + 7u);
+        const uint8_t* above = rows.data();
+        const uint8_t* row = above + width;
+        const uint8_t* below = row + width;
+        
+        std::vector<uint8_t> expected(width);
+        std::vector<uint8_t> actual(width);
+        SCALAR.rgbToGray(rgb.data(), expected.data(), width);
+        kernels.rgbToGray(rgb.data(), actual.data(), width);
+        if (expected != actual) return false;
+        
+        std::vector<int16_t> gx[2] = { std::vector<int16_t>(width), std::vector<int16_t>(width) };
+        std::vector<int16_t> gy[2] = { std::vector<int16_t>(width), std::vector<int16_t>(width) };
+        std::vector<int> mag[2] = { std::vector<int>(width), std::vector<int>(width) };
+        SCALAR.sobelRow(above, row, below, gx[0].data(), gy[0].data(), mag[0].data(), width);
+        kernels.sobelRow(above, row, below, gx[1].data(), gy[1].data(), mag[1].data(), width);
+        if (gx[0] != gx[1] || gy[0] != gy[1] || mag[0] != mag[1]) return false;
+        
+        for (int level : levels) {
+            SCALAR.threshold(row, expected.data(), width, level, 255, 0);
+            kernels.threshold(row, actual.data(), width, level, 255, 0);
+            if (expected != actual) return false;
+            SCALAR.threshold(row, expected.data(), width, level, 3, 200);
+            kernels.threshold(row, actual.data(), width, level, 3, 200);
+            if (expected != actual) return false;
+        }
+    }
+    return true;
+}
@@ -0,0 +1,37 @@
+#ifndef SIMD_KERNELS_H
+#define SIMD_KERNELS_H
+
+#include <cstdint>
+#include <vector>
+
+// The per-pixel loops of a frame (RGB to gray, the Sobel pass of ParallelCanny, thresholds and
+// the final edge mask) in one variant per instruction set: NEON on ARM, SSE4.1 and AVX2 on x86,
+// and a scalar one everywhere. The variant is picked once, on first use, from what the CPU
+// reports at run time, so one x86_64 library runs on CPUs without AVX2 and one armeabi-v7a
+// library on the rare cores without NEON. Every variant produces exactly the scalar output;
+// before a variant is used it is run against the scalar one on a test pattern, and one that
+// differs is logged and skipped. Rows are processed one at a time, so callers keep their own
+// strides and strips. The EDGEDETECTION_SIMD environment variable (scalar, sse4.1, avx2, neon)
+// caps the variant, to compare them on the same machine.
+struct SimdKernels {
+    const char* name;
+    
+    // gray = (4899 R + 9617 G + 1868 B + 8192) >> 14, the fixed-point BT.601 weights of
+    // cv::cvtColor(COLOR_RGB2GRAY) on 8-bit images
+    void (*rgbToGray)(const uint8_t* rgb, uint8_t* gray, int width);
+    // One row of the 3x3 Sobel with replicated left and right borders (above and below are
+    // already clamped by the caller): gx, gy and their L1 magnitude |gx| + |gy|
+    void (*sobelRow)(const uint8_t* above, const uint8_t* row, const uint8_t* below,
+                     int16_t* gx, int16_t* gy, int* mag, int width);
+    // dst = src > level ? above : below
+    void (*threshold)(const uint8_t* src, uint8_t* dst, int width, int level, uint8_t above, uint8_t below);
+    
+    // The variant in use
+    static const SimdKernels& get();
+    // Every variant this build and CPU can run, scalar first, for comparing and benchmarking
+    static std::vector<const SimdKernels*> available();
+    // Whether kernels produces exactly the scalar output on a test pattern
+    static bool matchesScalar(const SimdKernels& kernels);
+};
+
+#endif // SIMD_KERNELS_H
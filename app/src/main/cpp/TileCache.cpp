@@ -0,0 +1,111 @@
+#include "TileCache.h"
+#include <opencv2/opencv.hpp>
+
+#include <algorithm>
+#include <cstdlib>
+#include <cstring>
+
+namespace {
+const int SAMPLE_STEP = 4;
+const int PIXEL_THRESHOLD = 20;
+const int CHANGED_SAMPLES = 4;
+}
+
+TileCache::TileCache(int size)
+    : tileSize(size), regionSize(size + 2 * MARGIN), width(0), height(0), tilesX(0), tilesY(0),
+      framesSinceRefresh(0), recomputed(0), valid(false) {
+    regionEdges.resize(static_cast<size_t>(regionSize) * regionSize);
+}
+
+bool TileCache::prepare(const uint8_t* gray, size_t grayStride, int w, int h) {
+    if (w != width || h != height) {
+        width = w;
+        height = h;
+        tilesX = (w + tileSize - 1) / tileSize;
+        tilesY = (h + tileSize - 1) / tileSize;
+        reference.assign(static_cast<size_t>(w) * h, 0);
+        edges.assign(static_cast<size_t>(w) * h, 0);
+        valid = false;
+    }
+    if (!valid || w < regionSize || h < regionSize || ++framesSinceRefresh >= REFRESH_INTERVAL) {
+        return false;
+    }
+    
+    changedTiles.clear();
+    for (int ty = 0; ty < tilesY; ty++) {
+        for (int tx = 0; tx < tilesX; tx++) {
+            if (tileChanged(gray, grayStride, tx, ty)) {
+                changedTiles.push_back(ty * tilesX + tx);
+            }
+        }
+    }
+    return static_cast<int>(changedTiles.size()) * 2 <= tilesX * tilesY;
+}
+
+void TileCache::recomputeChanged(const uint8_t* gray, size_t grayStride, uint8_t* dst, size_t dstStride,
+                                 int low, int high) {
+    for (int tile : changedTiles) {
+        recomputeTile(gray, grayStride, tile % tilesX, tile / tilesX, low, high);
+    }
+    recomputed = static_cast<int>(changedTiles.size());
+    
+    for (int y = 0; y < height; y++) {
+        memcpy(dst + y * dstStride, &edges[static_cast<size_t>(y) * width], width);
+    }
+}
+
+void TileCache::store(const uint8_t* gray, size_t grayStride, const uint8_t* mask, size_t maskStride) {
+    for (int y = 0; y < height; y++) {
+        memcpy(&reference[static_cast<size_t>(y) * width], gray + y * grayStride, width);
+        memcpy(&edges[static_cast<size_t>(y) * width], mask + y * maskStride, width);
+    }
+    framesSinceRefresh = 0;
+    valid = true;
+    recomputed = tilesX * tilesY;
+}
+
+bool TileCache::tileChanged(const uint8_t* gray, size_t grayStride, int tx, int ty) const {
+    const int x0 = tx * tileSize;
+    const int y0 = ty * tileSize;
+    const int x1 = std::min(x0 + tileSize, width);
+    const int y1 = std::min(y0 + tileSize, height);
+    int differing = 0;
+    for (int y = y0 + SAMPLE_STEP / 2; y < y1; y += SAMPLE_STEP) {
+        const uint8_t* row = gray + y * grayStride;
+        const uint8_t* ref = &reference[static_cast<size_t>(y) * width];
+        for (int x = x0 + (y / SAMPLE_STEP) % SAMPLE_STEP; x < x1; x += SAMPLE_STEP) {
+            if (std::abs(row[x] - ref[x]) > PIXEL_THRESHOLD && ++differing == CHANGED_SAMPLES) {
+                return true;
+            }
+        }
+    }
+    return false;
+}
+
+void TileCache::recomputeTile(const uint8_t* gray, size_t grayStride, int tx, int ty, int low, int high) {
+    const int tileX0 = tx * tileSize;
+    const int tileY0 = ty * tileSize;
+    const int tileX1 = std::min(tileX0 + tileSize, width);
+    const int tileY1 = std::min(tileY0 + tileSize, height);
+    // Regions keep their full size, moved inwards at the frame edges
+    const int regionX = std::min(std::max(tileX0 - MARGIN, 0), width - regionSize);
+    const int regionY = std::min(std::max(tileY0 - MARGIN, 0), height - regionSize);
+    
+    cv::Mat region(regionSize, regionSize, CV_8UC1,
+                   const_cast<uint8_t*>(gray + regionY * grayStride + regionX), grayStride);
+    cv::Mat regionMask(regionSize, regionSize, CV_8UC1, regionEdges.data());
+    cv::Canny(region, regionMask, low, high);
+    
+    const int x0 = std::max(tileX0 - BORDER, 0);
+    const int y0 = std::max(tileY0 - BORDER, 0);
+    const int x1 = std::min(tileX1 + BORDER, width);
+    const int y1 = std::min(tileY1 + BORDER, height);
+    for (int y = y0; y < y1; y++) {
+        memcpy(&edges[static_cast<size_t>(y) * width + x0],
+               &regionEdges[static_cast<size_t>(y - regionY) * regionSize + x0 - regionX], x1 - x0);
+    }
+    for (int y = tileY0; y < tileY1; y++) {
+        memcpy(&reference[static_cast<size_t>(y) * width + tileX0], gray + y * grayStride + tileX0,
+               tileX1 - tileX0);
+    }
+}
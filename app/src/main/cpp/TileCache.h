@@ -0,0 +1,58 @@
+#ifndef TILE_CACHE_H
+#define TILE_CACHE_H
+
+#include <cstddef>
+#include <cstdint>
+#include <vector>
+
+// Incremental edge detection for mostly static scenes; TileCache.java is the Java engine's
+// copy. The frame is split into square tiles, each remembering the gray image it was last
+// computed from. A tile has changed when a few points of a sparse sample grid differ from that
+// reference by more than a noise threshold; the grid is staggered from row to row so thin
+// vertical changes still hit samples. Changed tiles are recomputed with cv::Canny on a region
+// MARGIN pixels larger on every side and written back with a BORDER of the neighbouring tiles'
+// pixels; everything else is copied from the cached mask. Hysteresis chains that leave the
+// region can end differently than on a full frame, so the whole frame is recomputed every
+// REFRESH_INTERVAL frames.
+class TileCache {
+public:
+    static const int MARGIN = 8;
+    static const int BORDER = 2;
+    static const int REFRESH_INTERVAL = 150;
+    
+    explicit TileCache(int tileSize);
+    
+    int getTileSize() const { return tileSize; }
+    int getRecomputedTiles() const { return recomputed; }
+    int getTileCount() const { return tilesX * tilesY; }
+    
+    // Finds the tiles of gray that changed. Returns true if recomputeChanged() can produce the
+    // mask, or false if the frame needs processing in full followed by store() (first frame,
+    // new size, periodic refresh, frames smaller than a region, or most tiles changed).
+    bool prepare(const uint8_t* gray, size_t grayStride, int width, int height);
+    // Recomputes the tiles prepare() found and writes the complete mask to dst
+    void recomputeChanged(const uint8_t* gray, size_t grayStride, uint8_t* dst, size_t dstStride,
+                          int lowThreshold, int highThreshold);
+    // Caches a frame processed in full and its mask
+    void store(const uint8_t* gray, size_t grayStride, const uint8_t* edges, size_t edgesStride);
+
+private:
+    int tileSize;
+    int regionSize;
+    int width;
+    int height;
+    int tilesX;
+    int tilesY;
+    int framesSinceRefresh;
+    int recomputed;
+    bool valid;
+    std::vector<uint8_t> reference;
+    std::vector<uint8_t> edges;
+    std::vector<uint8_t> regionEdges;
+    std::vector<int> changedTiles;
+    
+    bool tileChanged(const uint8_t* gray, size_t grayStride, int tx, int ty) const;
+    void recomputeTile(const uint8_t* gray, size_t grayStride, int tx, int ty, int low, int high);
+};
+
+#endif // TILE_CACHE_H
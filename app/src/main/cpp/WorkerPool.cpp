@@ -0,0 +1,76 @@
+#include "WorkerPool.h"
+
+WorkerPool::WorkerPool(int threadCount) : currentTask(nullptr), taskCount(0), nextTask(0),
+                                          activeWorkers(0), generation(0), stopping(false) {
+    for (int i = 0; i < threadCount; i++) {
+        threads.emplace_back(&WorkerPool::workerLoop, this);
+    }
+}
+
+WorkerPool::~WorkerPool() {
+    {
+        std::lock_guard<std::mutex> lock(mutex);
+        stopping = true;
+    }
+    workAvailable.notify_all();
+    for (std::thread& thread : threads) {
+        thread.join();
+    }
+}
+
+void WorkerPool::parallelFor(int count, const std::function<void(int)>& task) {
+    if (count <= 0) return;
+    if (threads.empty() || count == 1) {
+        for (int i = 0; i < count; i++) task(i);
+        return;
+    }
+    
+    {
+        std::lock_guard<std::mutex> lock(mutex);
+        currentTask = &task;
+        taskCount = count;
+        nextTask.store(0);
+        activeWorkers = static_cast<int>(threads.size());
+        generation++;
+    }
+    workAvailable.notify_all();
+    
+    runTasks(task, count);
+    
+    // Wait for every worker to leave the loop before the task goes out of scope
+    std::unique_lock<std::mutex> lock(mutex);
+    workDone.wait(lock, [this] { return activeWorkers == 0; });
+    currentTask = nullptr;
+}
+
+void WorkerPool::runTasks(const std::function<void(int)>& task, int count) {
+    int index;
+    while ((index = nextTask.fetch_add(1)) < count) {
+        task(index);
+    }
+}
+
+void WorkerPool::workerLoop() {
+    unsigned seenGeneration = 0;
+    while (true) {
+        const std::function<void(int)>* task;
+        int count;
+        {
+            std::unique_lock<std::mutex> lock(mutex);
+            workAvailable.wait(lock, [&] { return stopping || generation != seenGeneration; });
+            if (stopping) return;
+            seenGeneration = generation;
+            task = currentTask;
+            count = taskCount;
+        }
+        
+        runTasks(*task, count);
+        
+        {
+            std::lock_guard<std::mutex> lock(mutex);
+            if (--activeWorkers == 0) {
+                workDone.notify_one();
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+#ifndef WORKER_POOL_H
+#define WORKER_POOL_H
+
+#include <atomic>
+#include <condition_variable>
+#include <functional>
+#include <mutex>
+#include <thread>
+#include <vector>
+
+// Fixed set of native threads for data-parallel loops. The calling thread takes part in
+// every loop, so a pool of N threads runs N + 1 tasks at once.
+class WorkerPool {
+public:
+    explicit WorkerPool(int threads);
+    ~WorkerPool();
+    
+    int size() const { return static_cast<int>(threads.size()); }
+    
+    // Runs task(0) .. task(count - 1) and returns once all of them have finished.
+    // Not reentrant: one loop at a time per pool.
+    void parallelFor(int count, const std::function<void(int)>& task);
+    
+private:
+    std::vector<std::thread> threads;
+    std::mutex mutex;
+    std::condition_variable workAvailable;
+    std::condition_variable workDone;
+    
+    const std::function<void(int)>* currentTask;
+    int taskCount;
+    std::atomic<int> nextTask;
+    int activeWorkers;
+    unsigned generation;
+    bool stopping;
+    
+    void workerLoop();
+    void runTasks(const std::function<void(int)>& task, int count);
+};
+
+#endif // WORKER_POOL_H
@@ -1,10 +1,9 @@
 #include <jni.h>
 #include <string>
-#include <android/log.h>
 #include "ImageProcessor.h"
 
 #define LOG_TAG "EdgeDetection-Native"
-#define LOGI(...) __android_log_print(ANDROID_LOG_INFO, LOG_TAG, __VA_ARGS__)
+#include "NativeLog.h"
 
 extern "C" {
 
@@ -37,6 +36,106 @@ Java_com_example_edgedetection_ImageProcessorNative_initialize(JNIEnv *env, jobj
     return false;
 }
 
+JNIEXPORT void JNICALL
+Java_com_example_edgedetection_ImageProcessorNative_setParallelism(JNIEnv *env, jobject thiz,
+                                                                  jlong instance,
+                                                                  jint threads, jint stripHeight) {
+    ImageProcessor* processor = reinterpret_cast<ImageProcessor*>(instance);
+    if (processor) {
+        processor->setParallelism(threads, stripHeight);
+    }
+}
+
+JNIEXPORT void JNICALL
+Java_com_example_edgedetection_ImageProcessorNative_setLumaOnly(JNIEnv *env, jobject thiz,
+                                                               jlong instance, jboolean enabled) {
+    ImageProcessor* processor = reinterpret_cast<ImageProcessor*>(instance);
+    if (processor) {
+        processor->setLumaOnly(enabled);
+    }
+}
+
+JNIEXPORT void JNICALL
+Java_com_example_edgedetection_ImageProcessorNative_setIncrementalTiles(JNIEnv *env, jobject thiz,
+                                                                       jlong instance, jint tileSize) {
+    ImageProcessor* processor = reinterpret_cast<ImageProcessor*>(instance);
+    if (processor) {
+        processor->setIncrementalTiles(tileSize);
+    }
+}
+
+JNIEXPORT jint JNICALL
+Java_com_example_edgedetection_ImageProcessorNative_getRecomputedTiles(JNIEnv *env, jobject thiz,
+                                                                      jlong instance) {
+    ImageProcessor* processor = reinterpret_cast<ImageProcessor*>(instance);
+    return processor ? processor->getRecomputedTiles() : 0;
+}
+
+JNIEXPORT jint JNICALL
+Java_com_example_edgedetection_ImageProcessorNative_getTileCount(JNIEnv *env, jobject thiz,
+                                                                jlong instance) {
+    ImageProcessor* processor = reinterpret_cast<ImageProcessor*>(instance);
+    return processor ? processor->getTileCount() : 0;
+}
+
+JNIEXPORT jboolean JNICALL
+Java_com_example_edgedetection_ImageProcessorNative_setFilterPipeline(JNIEnv *env, jobject thiz,
+                                                                     jlong instance, jintArray ops) {
+    ImageProcessor* processor = reinterpret_cast<ImageProcessor*>(instance);
+    if (!processor) return false;
+    
+    // Compiled once here; frames only pick up the finished plan
+    const jsize length = env->GetArrayLength(ops);
+    std::vector<int> stages(length);
+    env->GetIntArrayRegion(ops, 0, length, reinterpret_cast<jint*>(stages.data()));
+    return processor->setFilterPipeline(stages.data(), length / 3);
+}
+
+JNIEXPORT void JNICALL
+Java_com_example_edgedetection_ImageProcessorNative_allocateBuffers(JNIEnv *env, jobject thiz,
+                                                                   jlong instance,
+                                                                   jint width, jint height) {
+    ImageProcessor* processor = reinterpret_cast<ImageProcessor*>(instance);
+    if (processor) {
+        processor->allocateBuffers(width, height);
+    }
+}
+
+JNIEXPORT void JNICALL
+Java_com_example_edgedetection_ImageProcessorNative_trimMemory(JNIEnv *env, jobject thiz,
+                                                              jlong instance) {
+    ImageProcessor* processor = reinterpret_cast<ImageProcessor*>(instance);
+    if (processor) {
+        processor->trimMemory();
+    }
+}
+
+JNIEXPORT jlong JNICALL
+Java_com_example_edgedetection_ImageProcessorNative_getReservedBytes(JNIEnv *env, jobject thiz,
+                                                                    jlong instance) {
+    ImageProcessor* processor = reinterpret_cast<ImageProcessor*>(instance);
+    return processor ? static_cast<jlong>(processor->getArena().getReservedBytes()) : 0;
+}
+
+JNIEXPORT jlong JNICALL
+Java_com_example_edgedetection_ImageProcessorNative_getUsedBytes(JNIEnv *env, jobject thiz,
+                                                                jlong instance) {
+    ImageProcessor* processor = reinterpret_cast<ImageProcessor*>(instance);
+    return processor ? static_cast<jlong>(processor->getArena().getUsedBytes()) : 0;
+}
+
+JNIEXPORT jint JNICALL
+Java_com_example_edgedetection_ImageProcessorNative_getArenaResets(JNIEnv *env, jobject thiz,
+                                                                  jlong instance) {
+    ImageProcessor* processor = reinterpret_cast<ImageProcessor*>(instance);
+    return processor ? processor->getArena().getResets() : 0;
+}
+
+JNIEXPORT jlong JNICALL
+Java_com_example_edgedetection_ImageProcessorNative_getTotalReservedBytes(JNIEnv *env, jclass clazz) {
+    return static_cast<jlong>(FrameArena::getTotalReservedBytes());
+}
+
 JNIEXPORT jbyteArray JNICALL
 Java_com_example_edgedetection_ImageProcessorNative_processFrame(JNIEnv *env, jobject thiz,
                                                                  jlong instance,
@@ -44,14 +143,14 @@ Java_com_example_edgedetection_ImageProcessorNative_processFrame(JNIEnv *env, jo
                                                                  jint width, jint height) {
     ImageProcessor* processor = reinterpret_cast<ImageProcessor*>(instance);
     if (!processor) return nullptr;
-
+    
     jsize frameSize = env->GetArrayLength(inputFrame);
     jbyte* frameData = env->GetByteArrayElements(inputFrame, nullptr);
     
     if (!frameData) return nullptr;
     
     std::vector<uint8_t> result = processor->processFrame(
-        reinterpret_cast<uint8_t*>(frameData), 
+        reinterpret_cast<uint8_t*>(frameData),
         static_cast<size_t>(frameSize),
         width, height
     );
@@ -61,10 +160,152 @@ Java_com_example_edgedetection_ImageProcessorNative_processFrame(JNIEnv *env, jo
     if (result.empty()) return nullptr;
     
     jbyteArray resultArray = env->NewByteArray(result.size());
-    env->SetByteArrayRegion(resultArray, 0, result.size(), 
+    env->SetByteArrayRegion(resultArray, 0, result.size(),
+                           reinterpret_cast<const jbyte*>(result.data()));
+    
+    return resultArray;
+}
+
+// Wraps the plane buffers as a YuvFrame, checking they are direct and large enough.
+// Without chroma (luma-only mode) the U and V planes may be null and are not checked.
+static bool wrapYuvFrame(JNIEnv *env, jobject yPlane, jobject uPlane, jobject vPlane,
+                         jint yRowStride, jint uvRowStride, jint uvPixelStride,
+                         jint width, jint height, bool needChroma, YuvFrame* frame) {
+    // Direct buffers are read in place; no copy is made on the way in
+    frame->y = static_cast<const uint8_t*>(env->GetDirectBufferAddress(yPlane));
+    frame->u = uPlane ? static_cast<const uint8_t*>(env->GetDirectBufferAddress(uPlane)) : nullptr;
+    frame->v = vPlane ? static_cast<const uint8_t*>(env->GetDirectBufferAddress(vPlane)) : nullptr;
+    frame->yRowStride = yRowStride;
+    frame->uvRowStride = uvRowStride;
+    frame->uvPixelStride = uvPixelStride;
+    frame->width = width;
+    frame->height = height;
+    
+    if (!frame->y || (needChroma && (!frame->u || !frame->v))) {
+        LOGE("processFrameDirect requires direct ByteBuffers");
+        return false;
+    }
+    
+    // The last row of a plane may be shorter than its stride
+    jlong lumaNeeded = static_cast<jlong>(height - 1) * yRowStride + width;
+    if (!needChroma) {
+        if (env->GetDirectBufferCapacity(yPlane) < lumaNeeded) {
+            LOGE("Y plane too small for %dx%d frame", width, height);
+            return false;
+        }
+        return true;
+    }
+    jlong chromaNeeded = static_cast<jlong>(height / 2 - 1) * uvRowStride +
+                         static_cast<jlong>(width / 2 - 1) * uvPixelStride + 1;
+    if (env->GetDirectBufferCapacity(yPlane) < lumaNeeded ||
+            env->GetDirectBufferCapacity(uPlane) < chromaNeeded ||
+            env->GetDirectBufferCapacity(vPlane) < chromaNeeded) {
+        LOGE("Plane buffers too small for %dx%d frame", width, height);
+        return false;
+    }
+    return true;
+}
+
+JNIEXPORT jbyteArray JNICALL
+Java_com_example_edgedetection_ImageProcessorNative_processFrameDirect(JNIEnv *env, jobject thiz,
+                                                                       jlong instance,
+                                                                       jobject yPlane,
+                                                                       jobject uPlane,
+                                                                       jobject vPlane,
+                                                                       jint yRowStride,
+                                                                       jint uvRowStride,
+                                                                       jint uvPixelStride,
+                                                                       jint width, jint height) {
+    ImageProcessor* processor = reinterpret_cast<ImageProcessor*>(instance);
+    if (!processor) return nullptr;
+    
+    YuvFrame frame;
+    if (!wrapYuvFrame(env, yPlane, uPlane, vPlane, yRowStride, uvRowStride, uvPixelStride,
+                      width, height, !processor->isLumaOnly(), &frame)) {
+        return nullptr;
+    }
+    
+    std::vector<uint8_t> result = processor->processYuvFrame(frame);
+    
+    if (result.empty()) return nullptr;
+    
+    jbyteArray resultArray = env->NewByteArray(result.size());
+    env->SetByteArrayRegion(resultArray, 0, result.size(),
                            reinterpret_cast<const jbyte*>(result.data()));
     
     return resultArray;
 }
 
+JNIEXPORT jint JNICALL
+Java_com_example_edgedetection_ImageProcessorNative_processFrameDirectInto(JNIEnv *env, jobject thiz,
+                                                                           jlong instance,
+                                                                           jobject yPlane,
+                                                                           jobject uPlane,
+                                                                           jobject vPlane,
+                                                                           jint yRowStride,
+                                                                           jint uvRowStride,
+                                                                           jint uvPixelStride,
+                                                                           jint width, jint height,
+                                                                           jobject output,
+                                                                           jint outputFormat) {
+    ImageProcessor* processor = reinterpret_cast<ImageProcessor*>(instance);
+    if (!processor) return -1;
+    
+    YuvFrame frame;
+    if (!wrapYuvFrame(env, yPlane, uPlane, vPlane, yRowStride, uvRowStride, uvPixelStride,
+                      width, height, !processor->isLumaOnly(), &frame)) {
+        return -1;
+    }
+    
+    uint8_t* outputData = static_cast<uint8_t*>(env->GetDirectBufferAddress(output));
+    if (!outputData) {
+        LOGE("Output must be a direct ByteBuffer");
+        return -1;
+    }
+    
+    // Results land in the caller's buffer; nothing is allocated on the Java heap
+    return processor->processYuvFrameInto(frame, outputData,
+                                          static_cast<size_t>(env->GetDirectBufferCapacity(output)),
+                                          outputFormat);
+}
+
+JNIEXPORT jint JNICALL
+Java_com_example_edgedetection_ImageProcessorNative_processRoisInto(JNIEnv *env, jobject thiz,
+                                                                    jlong instance,
+                                                                    jobject yPlane,
+                                                                    jobject uPlane,
+                                                                    jobject vPlane,
+                                                                    jint yRowStride,
+                                                                    jint uvRowStride,
+                                                                    jint uvPixelStride,
+                                                                    jint width, jint height,
+                                                                    jintArray rois,
+                                                                    jobject output,
+                                                                    jint layout) {
+    ImageProcessor* processor = reinterpret_cast<ImageProcessor*>(instance);
+    if (!processor) return -1;
+    
+    YuvFrame frame;
+    if (!wrapYuvFrame(env, yPlane, uPlane, vPlane, yRowStride, uvRowStride, uvPixelStride,
+                      width, height, !processor->isLumaOnly(), &frame)) {
+        return -1;
+    }
+    
+    uint8_t* outputData = static_cast<uint8_t*>(env->GetDirectBufferAddress(output));
+    if (!outputData) {
+        LOGE("Output must be a direct ByteBuffer");
+        return -1;
+    }
+    
+    // x, y, width, height per region, which is the layout of Roi
+    static_assert(sizeof(Roi) == 4 * sizeof(jint), "Roi must be four ints");
+    const jsize count = env->GetArrayLength(rois) / 4;
+    Roi* regions = processor->getRoiBuffer(count);
+    env->GetIntArrayRegion(rois, 0, count * 4, reinterpret_cast<jint*>(regions));
+    
+    return processor->processRoisInto(frame, regions, count, outputData,
+                                      static_cast<size_t>(env->GetDirectBufferCapacity(output)),
+                                      layout);
+}
+
 }
\ No newline at end of file
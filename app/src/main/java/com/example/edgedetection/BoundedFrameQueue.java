@@ -0,0 +1,144 @@
+package com.example.edgedetection;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Fixed-capacity hand-off between two pipeline threads. Items that overflow are passed to the
+// drop handler so pooled buffers and camera images are always given back.
+public class BoundedFrameQueue<T> {
+    
+    public interface DropHandler<T> {
+        void onDrop(T item);
+    }
+    
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final DropHandler<T> dropHandler;
+    private final ArrayDeque<T> items;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final AtomicLong offered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile int depth;
+    
+    public BoundedFrameQueue(int capacity, OverflowPolicy policy, DropHandler<T> dropHandler) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.policy = policy;
+        this.dropHandler = dropHandler;
+        this.items = new ArrayDeque<>(capacity);
+    }
+    
+    // Returns false if the item itself was dropped (DROP_NEWEST on a full queue)
+    public boolean offer(T item) throws InterruptedException {
+        offered.incrementAndGet();
+        T evicted = null;
+        lock.lock();
+        try {
+            if (items.size() == capacity) {
+                switch (policy) {
+                    case DROP_OLDEST:
+                        evicted = items.pollFirst();
+                        break;
+                    case DROP_NEWEST:
+                        evicted = item;
+                        break;
+                    case BLOCK:
+                        while (items.size() == capacity) {
+                            notFull.await();
+                        }
+                        break;
+                }
+            }
+            if (evicted != item) {
+                items.addLast(item);
+                depth = items.size();
+                notEmpty.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+        
+        if (evicted != null) {
+            dropped.incrementAndGet();
+            dropHandler.onDrop(evicted);
+        }
+        return evicted != item;
+    }
+    
+    public T take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (items.isEmpty()) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // Returns null if nothing arrived within the timeout
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long remainingNs = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (items.isEmpty()) {
+                if (remainingNs <= 0) {
+                    return null;
+                }
+                remainingNs = notEmpty.awaitNanos(remainingNs);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private T dequeue() {
+        T item = items.pollFirst();
+        depth = items.size();
+        notFull.signal();
+        return item;
+    }
+    
+    // Hands every queued item to release instead of the drop handler, e.g. on shutdown, so
+    // they are not counted as drops here or by whatever the drop handler counts
+    public void clear(DropHandler<T> release) {
+        ArrayDeque<T> drained;
+        lock.lock();
+        try {
+            drained = new ArrayDeque<>(items);
+            items.clear();
+            depth = 0;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (T item : drained) {
+            release.onDrop(item);
+        }
+    }
+    
+    public int getDepth() {
+        return depth;
+    }
+    
+    public int getCapacity() {
+        return capacity;
+    }
+    
+    public long getOffered() {
+        return offered.get();
+    }
+    
+    public long getDropped() {
+        return dropped.get();
+    }
+}
\ No newline at end of file
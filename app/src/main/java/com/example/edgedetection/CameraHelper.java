@@ -2,6 +2,7 @@ package com.example.edgedetection;
 
 import android.Manifest;
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.graphics.SurfaceTexture;
 import android.hardware.camera2.CameraAccessException;
@@ -13,6 +14,7 @@ import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.params.StreamConfigurationMap;
 import android.media.Image;
 import android.media.ImageReader;
+import android.os.Build;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.util.Log;
@@ -23,14 +25,36 @@ import android.view.TextureView;
 import androidx.annotation.NonNull;
 import androidx.core.app.ActivityCompat;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
-public class CameraHelper {
+// Camera2 frame source: opens the first camera, shows the preview on a TextureView and delivers
+// YUV_420_888 frames from an ImageReader. The camera ID and stream size are chosen once and
+// cached, so later launches skip the camera list and characteristics queries.
+public class CameraHelper implements FrameSource {
     private static final String TAG = "CameraHelper";
     
+    // Stream size looked for among the camera's output sizes
+    private static final int PREFERRED_WIDTH = 1280;
+    private static final int PREFERRED_HEIGHT = 720;
+    
+    // Chosen configuration, valid for the system build it was chosen on: OS updates can change
+    // the cameras and their sizes
+    private static final String PREFS_NAME = "camera_config";
+    private static final String KEY_FINGERPRINT = "fingerprint";
+    private static final String KEY_CAMERA_ID = "cameraId";
+    private static final String KEY_WIDTH = "width";
+    private static final String KEY_HEIGHT = "height";
+    
+    // Full-resolution frames go through the processing pipeline without a copy, so an image is
+    // held until detection is done: one waiting for conversion, one being converted, one waiting
+    // for detection and one being detected. acquireLatestImage needs a free slot on top of
+    // those it hands out.
+    private static final int MAX_IMAGES = 5;
+    
     private Context context;
     private CameraManager cameraManager;
     private CameraDevice cameraDevice;
@@ -41,19 +65,19 @@ public class CameraHelper {
     
     private String cameraId;
     private Size previewSize;
+    // Whether cameraId and previewSize came from the cache rather than chooseCamera()
+    private boolean configCached;
     private CaptureRequest.Builder previewRequestBuilder;
     
     private CameraStateCallback stateCallback;
-    private ImageAvailableListener imageAvailableListener;
+    private volatile Listener frameListener;
+    private TextureView previewView;
     
     public interface CameraStateCallback {
         void onOpened();
         void onError(String error);
     }
     
-    public interface ImageAvailableListener {
-        void onImageAvailable(Image image);
-    }
     
     public CameraHelper(Context context) {
         this.context = context;
@@ -64,8 +88,26 @@ public class CameraHelper {
         this.stateCallback = callback;
     }
     
-    public void setImageAvailableListener(ImageAvailableListener listener) {
-        this.imageAvailableListener = listener;
+    @Override
+    public void setFrameListener(Listener listener) {
+        this.frameListener = listener;
+    }
+    
+    // Where start() shows the preview; needs an available surface by then
+    public void setPreviewView(TextureView textureView) {
+        this.previewView = textureView;
+    }
+    
+    @Override
+    public void start() {
+        startBackgroundThread();
+        openCamera(previewView);
+    }
+    
+    @Override
+    public void stop() {
+        closeCamera();
+        stopBackgroundThread();
     }
     
     public void startBackgroundThread() {
@@ -97,18 +139,27 @@ public class CameraHelper {
         }
         
         try {
-            // Choose the camera
-            chooseCamera();
+            if (!loadCachedConfig()) {
+                chooseCamera();
+                saveConfig();
+            }
             
             // Set up image reader for capturing frames
             imageReader = ImageReader.newInstance(
                     previewSize.getWidth(), previewSize.getHeight(),
-                    android.graphics.ImageFormat.YUV_420_888, 2);
+                    android.graphics.ImageFormat.YUV_420_888, MAX_IMAGES);
             imageReader.setOnImageAvailableListener(reader -> {
-                if (imageAvailableListener != null) {
-                    Image image = reader.acquireLatestImage();
+                Listener listener = frameListener;
+                if (listener != null) {
+                    Image image;
+                    try {
+                        image = reader.acquireLatestImage();
+                    } catch (IllegalStateException e) {
+                        // Every image is still held downstream; this frame is skipped
+                        return;
+                    }
                     if (image != null) {
-                        imageAvailableListener.onImageAvailable(image);
+                        listener.onFrame(new ImageFrame(image));
                     }
                 }
             }, backgroundHandler);
@@ -134,19 +185,66 @@ public class CameraHelper {
                 public void onError(@NonNull CameraDevice camera, int error) {
                     camera.close();
                     cameraDevice = null;
+                    // The cached camera may be the problem; choose again next time
+                    clearCachedConfig();
                     if (stateCallback != null) {
                         stateCallback.onError("Camera error: " + error);
                     }
                 }
             }, backgroundHandler);
-        } catch (CameraAccessException e) {
+        } catch (CameraAccessException | IllegalArgumentException e) {
+            // IllegalArgumentException: a cached camera ID that no longer exists
             Log.e(TAG, "Failed to open camera", e);
+            if (imageReader != null) {
+                imageReader.close();
+                imageReader = null;
+            }
+            if (configCached) {
+                clearCachedConfig();
+                openCamera(textureView);
+                return;
+            }
             if (stateCallback != null) {
                 stateCallback.onError("Failed to open camera: " + e.getMessage());
             }
         }
     }
     
+    // The stream size frames will have: the cached one, or the preferred size before the first
+    // launch. Lets processing be prepared before the camera is open.
+    public Size getExpectedPreviewSize() {
+        if (previewSize != null) return previewSize;
+        return loadCachedConfig() ? previewSize : new Size(PREFERRED_WIDTH, PREFERRED_HEIGHT);
+    }
+    
+    private boolean loadCachedConfig() {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        String id = prefs.getString(KEY_CAMERA_ID, null);
+        int width = prefs.getInt(KEY_WIDTH, 0);
+        int height = prefs.getInt(KEY_HEIGHT, 0);
+        configCached = id != null && width > 0 && height > 0
+                && Build.FINGERPRINT.equals(prefs.getString(KEY_FINGERPRINT, null));
+        if (configCached) {
+            cameraId = id;
+            previewSize = new Size(width, height);
+        }
+        return configCached;
+    }
+    
+    private void saveConfig() {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .putString(KEY_FINGERPRINT, Build.FINGERPRINT)
+                .putString(KEY_CAMERA_ID, cameraId)
+                .putInt(KEY_WIDTH, previewSize.getWidth())
+                .putInt(KEY_HEIGHT, previewSize.getHeight())
+                .apply();
+    }
+    
+    private void clearCachedConfig() {
+        configCached = false;
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit().clear().apply();
+    }
+    
     private void chooseCamera() throws CameraAccessException {
         String[] cameraIds = cameraManager.getCameraIdList();
         if (cameraIds.length == 0) {
@@ -166,7 +264,7 @@ public class CameraHelper {
         
         // Choose a suitable preview size
         Size[] sizes = map.getOutputSizes(SurfaceTexture.class);
-        previewSize = chooseOptimalSize(sizes, 1280, 720);
+        previewSize = chooseOptimalSize(sizes, PREFERRED_WIDTH, PREFERRED_HEIGHT);
     }
     
     private Size chooseOptimalSize(Size[] choices, int width, int height) {
@@ -255,4 +353,50 @@ public class CameraHelper {
     public Size getPreviewSize() {
         return previewSize;
     }
+    
+    // Closing the frame returns the Image to the ImageReader
+    private static final class ImageFrame implements SourceFrame {
+        private final Image image;
+        private final Image.Plane[] planes;
+        
+        ImageFrame(Image image) {
+            this.image = image;
+            this.planes = image.getPlanes();
+        }
+        
+        @Override
+        public int getWidth() {
+            return image.getWidth();
+        }
+        
+        @Override
+        public int getHeight() {
+            return image.getHeight();
+        }
+        
+        @Override
+        public long getTimestampNs() {
+            return image.getTimestamp();
+        }
+        
+        @Override
+        public ByteBuffer getPlane(int index) {
+            return planes[index].getBuffer();
+        }
+        
+        @Override
+        public int getRowStride(int index) {
+            return planes[index].getRowStride();
+        }
+        
+        @Override
+        public int getPixelStride(int index) {
+            return planes[index].getPixelStride();
+        }
+        
+        @Override
+        public void close() {
+            image.close();
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,306 @@
+package com.example.edgedetection;
+
+import java.nio.ByteBuffer;
+
+// Lossless codec for binary edge masks (OUTPUT_MASK: one byte per pixel, nonzero = edge), for
+// sending frames off the device. Canny output is sparse, so each row is coded as the lengths of
+// its alternating background/edge runs, or as raw packed bits when that is shorter. Delta frames
+// code the XOR against the previous frame instead, which is mostly empty for a steady camera.
+//
+// Format, all integers unsigned LEB128 varints:
+//   flags (one byte, FLAG_DELTA), width, height, then per row a token t:
+//     t = 0      raw row: (width + 7) / 8 bytes, most significant bit first, 1 = edge
+//     t = n + 1  n run lengths, alternating background then edge starting with background;
+//                the last run reaches to the end of the row and is not written
+// Decoders produce 0/255 masks. web/src/app.js has the matching viewer decoder.
+public final class EdgeMapCodec {
+    public static final int FLAG_DELTA = 1;
+    
+    private static final int MAX_HEADER_SIZE = 1 + 5 + 5;
+    
+    private EdgeMapCodec() {
+    }
+    
+    // Worst case for one frame: every row raw
+    public static int getMaxEncodedSize(int width, int height) {
+        return MAX_HEADER_SIZE + height * (1 + (width + 7) / 8);
+    }
+    
+    // Keeps the previous frame for delta coding. Not thread-safe; use one per stream.
+    public static class Encoder {
+        private boolean deltaEnabled = true;
+        private int keyFrameInterval = 30;
+        private boolean keyFrameRequested = true;
+        private int framesSinceKeyFrame;
+        private int lastKeyFrameSize = Integer.MAX_VALUE;
+        private int deltaBackoff;
+        
+        private ByteBuffer previous;
+        private int previousWidth;
+        private int previousHeight;
+        private int[] runs = new int[0];
+        
+        public void setDeltaEnabled(boolean enabled) {
+            deltaEnabled = enabled;
+        }
+        
+        // A full frame at least every interval frames, so a receiver that lost a frame recovers
+        public void setKeyFrameInterval(int interval) {
+            keyFrameInterval = Math.max(interval, 1);
+        }
+        
+        // Makes the next frame a key frame, e.g. when a new receiver joins
+        public void requestKeyFrame() {
+            keyFrameRequested = true;
+        }
+        
+        // Encodes width x height mask bytes starting at mask's index 0 into out, which needs
+        // getMaxEncodedSize() bytes. Returns the encoded length.
+        public int encode(ByteBuffer mask, int width, int height, byte[] out) {
+            if (width <= 0 || height <= 0 || mask.capacity() < width * height) {
+                throw new IllegalArgumentException("Mask too small for " + width + "x" + height);
+            }
+            if (out.length < getMaxEncodedSize(width, height)) {
+                throw new IllegalArgumentException("Output buffer too small");
+            }
+            if (runs.length < width + 1) {
+                runs = new int[width + 1];
+            }
+            
+            boolean delta = deltaEnabled && !keyFrameRequested && deltaBackoff == 0
+                    && previous != null && previousWidth == width && previousHeight == height
+                    && framesSinceKeyFrame < keyFrameInterval;
+            ByteBuffer reference = delta ? previous : null;
+            
+            int pos = 0;
+            out[pos++] = (byte) (delta ? FLAG_DELTA : 0);
+            pos = writeVarint(out, pos, width);
+            pos = writeVarint(out, pos, height);
+            
+            int rawSize = (width + 7) / 8;
+            for (int row = 0; row < height; row++) {
+                int offset = row * width;
+                int runCount = collectRuns(mask, reference, offset, width);
+                
+                int codedSize = varintSize(runCount + 1);
+                for (int i = 0; i < runCount; i++) {
+                    codedSize += varintSize(runs[i]);
+                }
+                if (codedSize <= 1 + rawSize) {
+                    pos = writeVarint(out, pos, runCount + 1);
+                    for (int i = 0; i < runCount; i++) {
+                        pos = writeVarint(out, pos, runs[i]);
+                    }
+                } else {
+                    out[pos++] = 0;
+                    pos = writeRaw(mask, reference, offset, width, out, pos);
+                }
+            }
+            
+            keepAsPrevious(mask, width, height);
+            if (delta) {
+                framesSinceKeyFrame++;
+                // Busy or moving scenes change more pixels than they have edges: stop sending
+                // deltas for a key frame interval, then try again
+                if (pos > lastKeyFrameSize) {
+                    deltaBackoff = keyFrameInterval;
+                }
+            } else {
+                framesSinceKeyFrame = 1;
+                keyFrameRequested = false;
+                lastKeyFrameSize = pos;
+                if (deltaBackoff > 0) deltaBackoff--;
+            }
+            return pos;
+        }
+        
+        // Fills runs with the lengths before each change of state along the row and returns how
+        // many there are. Background stretches are skipped eight pixels at a time.
+        private int collectRuns(ByteBuffer mask, ByteBuffer reference, int offset, int width) {
+            int runCount = 0;
+            int runStart = 0;
+            boolean edge = false;
+            int col = 0;
+            while (col < width) {
+                if (!edge && col + 8 <= width && isBackground8(mask, reference, offset + col)) {
+                    col += 8;
+                    continue;
+                }
+                if (pixel(mask, reference, offset + col) != edge) {
+                    runs[runCount++] = col - runStart;
+                    runStart = col;
+                    edge = !edge;
+                }
+                col++;
+            }
+            return runCount;
+        }
+        
+        private void keepAsPrevious(ByteBuffer mask, int width, int height) {
+            int size = width * height;
+            if (previous == null || previous.capacity() < size) {
+                previous = ByteBuffer.allocate(size);
+            }
+            ByteBuffer source = mask.duplicate();
+            source.clear().limit(size);
+            previous.clear();
+            previous.put(source);
+            previousWidth = width;
+            previousHeight = height;
+        }
+    }
+    
+    // Rebuilds 0/255 masks; keeps the last frame to apply deltas to. Not thread-safe.
+    public static class Decoder {
+        private byte[] previous;
+        private int width;
+        private int height;
+        
+        // Decodes one frame from data[0, length) into out. Returns the mask size, or -1 for a
+        // delta frame without a matching previous frame (wait for the next key frame).
+        public int decode(byte[] data, int length, ByteBuffer out) {
+            int[] pos = { 0 };
+            if (length < 3) {
+                throw new IllegalArgumentException("Truncated edge map");
+            }
+            boolean delta = (data[pos[0]++] & FLAG_DELTA) != 0;
+            int frameWidth = readVarint(data, length, pos);
+            int frameHeight = readVarint(data, length, pos);
+            if (frameWidth <= 0 || frameHeight <= 0) {
+                throw new IllegalArgumentException("Bad edge map size " + frameWidth + "x" + frameHeight);
+            }
+            int size = frameWidth * frameHeight;
+            if (delta && (previous == null || frameWidth != width || frameHeight != height)) {
+                return -1;
+            }
+            if (out.capacity() < size) {
+                throw new IllegalArgumentException("Output buffer too small");
+            }
+            if (previous == null || previous.length != size) {
+                previous = new byte[size];
+            }
+            width = frameWidth;
+            height = frameHeight;
+            
+            byte[] mask = previous;
+            int rawSize = (frameWidth + 7) / 8;
+            for (int row = 0; row < frameHeight; row++) {
+                int offset = row * frameWidth;
+                int token = readVarint(data, length, pos);
+                if (token == 0) {
+                    if (pos[0] + rawSize > length) {
+                        throw new IllegalArgumentException("Truncated edge map");
+                    }
+                    for (int col = 0; col < frameWidth; col++) {
+                        boolean bit = (data[pos[0] + (col >> 3)] & (0x80 >> (col & 7))) != 0;
+                        setPixel(mask, offset + col, bit, delta);
+                    }
+                    pos[0] += rawSize;
+                } else {
+                    int col = 0;
+                    boolean edge = false;
+                    for (int i = 0; i < token - 1; i++) {
+                        int end = col + readVarint(data, length, pos);
+                        if (end > frameWidth) {
+                            throw new IllegalArgumentException("Run past end of row " + row);
+                        }
+                        fill(mask, offset + col, offset + end, edge, delta);
+                        col = end;
+                        edge = !edge;
+                    }
+                    fill(mask, offset + col, offset + frameWidth, edge, delta);
+                }
+            }
+            
+            ByteBuffer target = out.duplicate();
+            target.clear();
+            target.put(mask, 0, size);
+            return size;
+        }
+        
+        private static void fill(byte[] mask, int from, int to, boolean edge, boolean delta) {
+            if (delta) {
+                if (edge) {
+                    for (int i = from; i < to; i++) {
+                        mask[i] ^= (byte) 0xFF;
+                    }
+                }
+            } else {
+                byte value = edge ? (byte) 0xFF : 0;
+                for (int i = from; i < to; i++) {
+                    mask[i] = value;
+                }
+            }
+        }
+        
+        private static void setPixel(byte[] mask, int index, boolean bit, boolean delta) {
+            if (delta) {
+                if (bit) mask[index] ^= (byte) 0xFF;
+            } else {
+                mask[index] = bit ? (byte) 0xFF : 0;
+            }
+        }
+    }
+    
+    // Edge state of one pixel, or whether it changed since the reference frame
+    private static boolean pixel(ByteBuffer mask, ByteBuffer reference, int index) {
+        boolean edge = mask.get(index) != 0;
+        return reference != null ? edge != (reference.get(index) != 0) : edge;
+    }
+    
+    // True if none of the eight pixels at index is an edge (or changed). Only exact equality is
+    // taken as unchanged; anything else falls back to the per-pixel test.
+    private static boolean isBackground8(ByteBuffer mask, ByteBuffer reference, int index) {
+        long value = mask.getLong(index);
+        return reference != null ? value == reference.getLong(index) : value == 0;
+    }
+    
+    private static int writeRaw(ByteBuffer mask, ByteBuffer reference, int offset, int width,
+                                byte[] out, int pos) {
+        int bits = 0;
+        for (int col = 0; col < width; col++) {
+            bits = (bits << 1) | (pixel(mask, reference, offset + col) ? 1 : 0);
+            if ((col & 7) == 7) {
+                out[pos++] = (byte) bits;
+                bits = 0;
+            }
+        }
+        if ((width & 7) != 0) {
+            out[pos++] = (byte) (bits << (8 - (width & 7)));
+        }
+        return pos;
+    }
+    
+    private static int writeVarint(byte[] out, int pos, int value) {
+        while ((value & ~0x7F) != 0) {
+            out[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[pos++] = (byte) value;
+        return pos;
+    }
+    
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+    
+    private static int readVarint(byte[] data, int length, int[] pos) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (pos[0] >= length) {
+                throw new IllegalArgumentException("Truncated edge map");
+            }
+            int b = data[pos[0]++] & 0xFF;
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Bad varint in edge map");
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.edgedetection;
+
+import java.util.Arrays;
+
+// Declarative description of the filter chain the native engine runs on each frame's gray
+// image, built once and handed to ImageProcessorNative.setFilterPipeline(), which compiles it
+// into a native plan (FilterPlan.cpp): adjacent per-pixel stages are fused into one lookup
+// table, repeated dilations or erosions merged, and intermediate buffers reused. A pipeline
+// with no stages outputs the gray image itself. Immutable, so presets can be shared.
+public final class FilterPipeline {
+    // Stage opcodes; mirror FilterOp in FilterPlan.h
+    static final int OP_BLUR = 1;
+    static final int OP_CANNY = 2;
+    static final int OP_DILATE = 3;
+    static final int OP_ERODE = 4;
+    static final int OP_THRESHOLD = 5;
+    static final int OP_INVERT = 6;
+    
+    private static final int MAX_KERNEL = 31;
+    private static final String[] OP_NAMES = { "", "blur", "canny", "dilate", "erode", "threshold", "invert" };
+    
+    // What the engine runs until a pipeline is set: Canny 50/150
+    public static final FilterPipeline EDGES = new Builder().canny(50, 150).build();
+    
+    // op, a, b for each stage
+    private final int[] ops;
+    
+    private FilterPipeline(int[] ops) {
+        this.ops = ops;
+    }
+    
+    public int getStageCount() {
+        return ops.length / 3;
+    }
+    
+    // True when the output is 0 or 255 everywhere, as an edge map: the last thresholding stage
+    // (Canny or threshold) is followed only by stages that keep values binary
+    public boolean isBinary() {
+        boolean binary = false;
+        for (int i = 0; i < ops.length; i += 3) {
+            switch (ops[i]) {
+                case OP_CANNY:
+                case OP_THRESHOLD:
+                    binary = true;
+                    break;
+                case OP_BLUR:
+                    binary = false;
+                    break;
+                default:
+                    // Morphology and inversion map {0, 255} to itself
+                    break;
+            }
+        }
+        return binary;
+    }
+    
+    // The description passed to native code
+    int[] getOps() {
+        return ops;
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof FilterPipeline && Arrays.equals(ops, ((FilterPipeline) o).ops);
+    }
+    
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(ops);
+    }
+    
+    // e.g. "blur(5) > canny(50, 150) > dilate(3)", or "gray" without stages
+    @Override
+    public String toString() {
+        if (ops.length == 0) return "gray";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < ops.length; i += 3) {
+            if (i > 0) sb.append(" > ");
+            sb.append(OP_NAMES[ops[i]]);
+            switch (ops[i]) {
+                case OP_CANNY:
+                    sb.append('(').append(ops[i + 1]).append(", ").append(ops[i + 2]).append(')');
+                    break;
+                case OP_INVERT:
+                    break;
+                default:
+                    sb.append('(').append(ops[i + 1]).append(')');
+                    break;
+            }
+        }
+        return sb.toString();
+    }
+    
+    // Stages run in the order they are added. Arguments are checked here, so a built pipeline
+    // always compiles.
+    public static final class Builder {
+        private int[] ops = new int[0];
+        
+        // Gaussian blur with an odd kernel size from 3 to 31
+        public Builder blur(int kernelSize) {
+            if (kernelSize < 3 || kernelSize > MAX_KERNEL || kernelSize % 2 == 0) {
+                throw new IllegalArgumentException("Blur kernel must be odd, 3 to " + MAX_KERNEL + ": " + kernelSize);
+            }
+            return add(OP_BLUR, kernelSize, 0);
+        }
+        
+        // Hysteresis thresholds on the L1 gradient, as cv::Canny
+        public Builder canny(int lowThreshold, int highThreshold) {
+            if (lowThreshold < 0 || highThreshold < lowThreshold) {
+                throw new IllegalArgumentException("Invalid Canny thresholds: " + lowThreshold + ", " + highThreshold);
+            }
+            return add(OP_CANNY, lowThreshold, highThreshold);
+        }
+        
+        // Maximum over a size x size square, thickening edges
+        public Builder dilate(int size) {
+            return add(OP_DILATE, checkMorphology(size), 0);
+        }
+        
+        // Minimum over a size x size square
+        public Builder erode(int size) {
+            return add(OP_ERODE, checkMorphology(size), 0);
+        }
+        
+        // 255 where the value is above level, 0 elsewhere
+        public Builder threshold(int level) {
+            if (level < 0 || level > 255) {
+                throw new IllegalArgumentException("Threshold must be 0 to 255: " + level);
+            }
+            return add(OP_THRESHOLD, level, 0);
+        }
+        
+        public Builder invert() {
+            return add(OP_INVERT, 0, 0);
+        }
+        
+        public FilterPipeline build() {
+            return new FilterPipeline(ops.clone());
+        }
+        
+        private static int checkMorphology(int size) {
+            if (size < 1 || size > MAX_KERNEL) {
+                throw new IllegalArgumentException("Kernel size must be 1 to " + MAX_KERNEL + ": " + size);
+            }
+            return size;
+        }
+        
+        private Builder add(int op, int a, int b) {
+            int length = ops.length;
+            ops = Arrays.copyOf(ops, length + 3);
+            ops[length] = op;
+            ops[length + 1] = a;
+            ops[length + 2] = b;
+            return this;
+        }
+    }
+}
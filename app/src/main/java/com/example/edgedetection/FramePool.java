@@ -0,0 +1,254 @@
+package com.example.edgedetection;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Fixed set of reusable direct buffers for handing frames between the camera, native code and
+// whoever consumes the result. All buffers have the size of the current configuration; they are
+// only reallocated when configure() is called with a different size, so steady-state processing
+// allocates nothing. wrap() turns a camera frame into a Frame without copying it, for stages
+// that can read the camera's own planes.
+public class FramePool {
+    
+    public static class Frame {
+        private final FramePool pool;
+        private final ByteBuffer buffer;
+        private final SourceFrame source;
+        private final int generation;
+        private final AtomicInteger refCount = new AtomicInteger();
+        private final ByteBuffer[] views = new ByteBuffer[3];
+        private final int[] viewOffsets = new int[3];
+        private int width;
+        private int height;
+        private long timestampNs;
+        private long arrivalNs;
+        
+        private Frame(FramePool pool, ByteBuffer buffer, SourceFrame source, int generation) {
+            this.pool = pool;
+            this.buffer = buffer;
+            this.source = source;
+            this.generation = generation;
+        }
+        
+        // The pooled buffer; null for wrapped frames, which only have planes
+        public ByteBuffer getBuffer() {
+            return buffer;
+        }
+        
+        // One plane in camera layout (0 = Y, 1 = U, 2 = V), positioned at its start. Pooled
+        // frames hold packed I420, or only Y in luma-only buffers, where chroma planes are null.
+        public ByteBuffer getPlane(int index) {
+            if (source != null) {
+                ByteBuffer plane = source.getPlane(index);
+                plane.clear();
+                return plane;
+            }
+            int lumaSize = width * height;
+            int chromaSize = (width / 2) * (height / 2);
+            if (index == 0) return getView(0, 0, lumaSize);
+            if (buffer.capacity() < lumaSize + 2 * chromaSize) return null;
+            return getView(index, index == 1 ? lumaSize : lumaSize + chromaSize, chromaSize);
+        }
+        
+        public int getRowStride(int index) {
+            if (source != null) return source.getRowStride(index);
+            return index == 0 ? width : width / 2;
+        }
+        
+        public int getPixelStride(int index) {
+            return source != null ? source.getPixelStride(index) : 1;
+        }
+        
+        public int getWidth() {
+            return width;
+        }
+        
+        public int getHeight() {
+            return height;
+        }
+        
+        public long getTimestampNs() {
+            return timestampNs;
+        }
+        
+        public void setTimestampNs(long timestampNs) {
+            this.timestampNs = timestampNs;
+        }
+        
+        // System.nanoTime() at which the frame entered processing, for end-to-end latency
+        public long getArrivalNs() {
+            return arrivalNs;
+        }
+        
+        public void setArrivalNs(long arrivalNs) {
+            this.arrivalNs = arrivalNs;
+        }
+        
+        // Cached view of [offset, offset + length) of the buffer, e.g. one plane of a YUV frame.
+        // Views are only recreated when the requested range changes, so per-frame use is free.
+        public ByteBuffer getView(int index, int offset, int length) {
+            ByteBuffer view = views[index];
+            if (view == null || view.capacity() != length || viewOffsets[index] != offset) {
+                ByteBuffer source = buffer.duplicate();
+                source.position(offset).limit(offset + length);
+                view = source.slice();
+                views[index] = view;
+                viewOffsets[index] = offset;
+            }
+            view.clear();
+            return view;
+        }
+        
+        // Adds a reference for an additional consumer; each reference needs its own release()
+        public Frame retain() {
+            int count;
+            do {
+                // Checked before counting, so a failed retain leaves the count as it was
+                count = refCount.get();
+                if (count <= 0) {
+                    throw new IllegalStateException("Frame retained after it was returned to the pool");
+                }
+            } while (!refCount.compareAndSet(count, count + 1));
+            return this;
+        }
+        
+        public void release() {
+            int remaining = refCount.decrementAndGet();
+            if (remaining == 0) {
+                if (source != null) {
+                    source.close();
+                } else {
+                    pool.recycle(this);
+                }
+            } else if (remaining < 0) {
+                throw new IllegalStateException("Frame released more often than acquired");
+            }
+        }
+    }
+    
+    private final int maxFrames;
+    private final ArrayDeque<Frame> freeFrames;
+    
+    private int width;
+    private int height;
+    private int frameSize;
+    private int generation;
+    private int allocated;
+    private int inUse;
+    private int highWaterMark;
+    private long hits;
+    private long misses;
+    private long exhausted;
+    private long reconfigurations;
+    
+    // A frame over source's planes, holding one reference. The source is closed when the last
+    // reference is released, so it stays valid for as long as any stage holds the frame.
+    public static Frame wrap(SourceFrame source) {
+        Frame frame = new Frame(null, null, source, 0);
+        frame.width = source.getWidth();
+        frame.height = source.getHeight();
+        frame.timestampNs = source.getTimestampNs();
+        frame.refCount.set(1);
+        return frame;
+    }
+    
+    public FramePool(int maxFrames) {
+        if (maxFrames <= 0) {
+            throw new IllegalArgumentException("maxFrames must be positive");
+        }
+        this.maxFrames = maxFrames;
+        this.freeFrames = new ArrayDeque<>(maxFrames);
+    }
+    
+    // Sets the frame geometry and buffer size. Returns true if this dropped the existing buffers;
+    // frames still in use at that point are discarded instead of recycled when released.
+    public synchronized boolean configure(int width, int height, int frameSize) {
+        if (width == this.width && height == this.height && frameSize == this.frameSize) {
+            return false;
+        }
+        this.width = width;
+        this.height = height;
+        this.frameSize = frameSize;
+        generation++;
+        reconfigurations++;
+        allocated -= freeFrames.size();
+        freeFrames.clear();
+        return true;
+    }
+    
+    // Returns a frame holding one reference, or null if all maxFrames buffers are in use.
+    // Buffer contents are whatever the previous user left behind.
+    public synchronized Frame acquire() {
+        if (frameSize <= 0) {
+            throw new IllegalStateException("FramePool used before configure()");
+        }
+        
+        Frame frame = freeFrames.pollFirst();
+        if (frame != null) {
+            hits++;
+        } else if (allocated < maxFrames) {
+            misses++;
+            allocated++;
+            frame = new Frame(this, ByteBuffer.allocateDirect(frameSize), null, generation);
+        } else {
+            exhausted++;
+            return null;
+        }
+        
+        frame.width = width;
+        frame.height = height;
+        frame.timestampNs = 0;
+        frame.arrivalNs = 0;
+        frame.buffer.clear();
+        frame.refCount.set(1);
+        
+        inUse++;
+        if (inUse > highWaterMark) {
+            highWaterMark = inUse;
+        }
+        return frame;
+    }
+    
+    private synchronized void recycle(Frame frame) {
+        inUse--;
+        if (frame.generation == generation) {
+            freeFrames.addFirst(frame);
+        } else {
+            allocated--;
+        }
+    }
+    
+    public synchronized Stats getStats() {
+        return new Stats(hits, misses, exhausted, reconfigurations, inUse, highWaterMark,
+                (long) allocated * frameSize);
+    }
+    
+    public static class Stats {
+        public final long hits;
+        public final long misses;
+        public final long exhausted;
+        public final long reconfigurations;
+        public final int inUse;
+        public final int highWaterMark;
+        public final long allocatedBytes;
+        
+        Stats(long hits, long misses, long exhausted, long reconfigurations, int inUse,
+              int highWaterMark, long allocatedBytes) {
+            this.hits = hits;
+            this.misses = misses;
+            this.exhausted = exhausted;
+            this.reconfigurations = reconfigurations;
+            this.inUse = inUse;
+            this.highWaterMark = highWaterMark;
+            this.allocatedBytes = allocatedBytes;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "hits %d, misses %d, peak %d, %d KB",
+                    hits, misses, highWaterMark, allocatedBytes / 1024);
+        }
+    }
+}
\ No newline at end of file
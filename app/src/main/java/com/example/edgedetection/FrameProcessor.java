@@ -0,0 +1,70 @@
+package com.example.edgedetection;
+
+import java.nio.ByteBuffer;
+
+// Edge detection engine the processing pipeline talks to. ImageProcessorNative runs the OpenCV
+// library; JavaEdgeDetector is the pure-Java fallback and host engine. Instances are not
+// thread-safe: one thread per instance at a time.
+public interface FrameProcessor {
+    // Output layouts for processFrameDirect; mirror OutputFormat in ImageProcessor.h
+    int OUTPUT_MASK = 0; // one byte per pixel, 0 or 255
+    int OUTPUT_RGBA = 1; // four bytes per pixel
+    int OUTPUT_JPEG = 2; // quality-80 JPEG, opt-in for export
+    
+    boolean initialize();
+    
+    // Spreads each frame over the given number of worker threads besides the caller, in strips
+    // of stripHeight rows (0 = one strip per thread). threads = 0 processes on the caller only.
+    void setParallelism(int threads, int stripHeight);
+    
+    // Edges-from-Y: run Canny on the Y plane as-is and never read chroma, so callers may pass
+    // null U and V planes. Saves both colour conversions and two thirds of the input reads.
+    void setLumaOnly(boolean enabled);
+    
+    // Incremental mode for static scenes: frames are split into tileSize x tileSize tiles and
+    // only tiles whose content changed go through Canny again; the rest of the mask is reused.
+    // 0 turns it off. An edge chain leaving a recomputed region can end differently than on a
+    // full frame until the next periodic full refresh. Applies to OUTPUT_MASK frames.
+    void setIncrementalTiles(int tileSize);
+    
+    // Tiles recomputed in the last frame and the tiles per frame, for the recomputed-tile ratio.
+    // A frame processed in full counts every tile; both are 0 with incremental mode off.
+    int getRecomputedTiles();
+    
+    int getTileCount();
+    
+    // Sizes the engine's frame buffers for width x height frames now, so the first frame at that
+    // resolution does not pay for the allocation. Frames keep the buffers until the resolution
+    // changes; calling this again with the same size does nothing.
+    void allocateBuffers(int width, int height);
+    
+    // Processes a YUV_420_888 frame and writes the result into output in the given OUTPUT_*
+    // layout. Returns the number of bytes written (the buffer is rewound and limited to them),
+    // or -1 on failure, including when the buffer is too small or the format is unsupported.
+    int processFrameDirect(ByteBuffer yPlane, ByteBuffer uPlane, ByteBuffer vPlane,
+                           int yRowStride, int uvRowStride, int uvPixelStride,
+                           int width, int height, ByteBuffer output, int outputFormat);
+    
+    void release();
+    
+    // Buffer capacity needed for an output format. JPEG output has no fixed size; this
+    // returns a bound that an edge image at quality 80 stays well within.
+    static int getOutputSize(int outputFormat, int width, int height) {
+        switch (outputFormat) {
+            case OUTPUT_MASK:
+                return width * height;
+            case OUTPUT_RGBA:
+                return width * height * 4;
+            default:
+                return width * height * 3;
+        }
+    }
+    
+    // The native engine when libedgedetection could be loaded, the Java engine otherwise
+    static FrameProcessor createDefault() {
+        if (ImageProcessorNative.isAvailable()) {
+            return new ImageProcessorNative();
+        }
+        return new JavaEdgeDetector();
+    }
+}
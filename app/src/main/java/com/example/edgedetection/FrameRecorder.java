@@ -0,0 +1,128 @@
+package com.example.edgedetection;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Records SourceFrames to a memory-mapped file that ReplayFrameSource plays back. Frames are
+// copied straight from the source planes into the mapping as packed I420, so recording costs
+// one copy per frame and no write calls; the kernel flushes the pages in the background.
+//
+// Layout (big-endian): a HEADER_SIZE header, then fixed-size records, so record i starts at
+// HEADER_SIZE + i * recordSize and the file is its own index.
+//   header: magic "EDGEREC1", version, width, height, recordSize, frame count
+//   record: timestamp ns, frame index, I420 frame
+// The frame count is updated after every record, so a recording cut short by a crash still
+// replays up to its last complete frame.
+public class FrameRecorder implements Closeable {
+    static final long MAGIC = 0x4544474552454331L; // "EDGEREC1"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int RECORD_HEADER_SIZE = 16;
+    static final int FRAME_COUNT_OFFSET = 24;
+    
+    // Records mapped at a time; the file grows by one window whenever the current one is full
+    private static final int FRAMES_PER_WINDOW = 16;
+    
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int width;
+    private final int height;
+    private final int recordSize;
+    private final MappedByteBuffer header;
+    private final YuvConverter converter = new YuvConverter();
+    
+    private MappedByteBuffer window;
+    private long windowFirstFrame;
+    private long frameCount;
+    private boolean closed;
+    
+    public FrameRecorder(File path, int width, int height) throws IOException {
+        if (width <= 0 || height <= 0 || (width & 1) != 0 || (height & 1) != 0) {
+            throw new IllegalArgumentException("Frame size must be even: " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        recordSize = getRecordSize(width, height);
+        
+        file = new RandomAccessFile(path, "rw");
+        try {
+            file.setLength(0);
+            channel = file.getChannel();
+            header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            header.putLong(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(width);
+            header.putInt(height);
+            header.putInt(recordSize);
+            header.putLong(0);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+    
+    static int getRecordSize(int width, int height) {
+        return RECORD_HEADER_SIZE + YuvConverter.getI420Size(width, height);
+    }
+    
+    public int getWidth() {
+        return width;
+    }
+    
+    public int getHeight() {
+        return height;
+    }
+    
+    public synchronized long getFrameCount() {
+        return frameCount;
+    }
+    
+    // Appends the frame. Returns false (and records nothing) if it does not have the recording's
+    // size or the recorder is closed. The caller still owns the frame.
+    public synchronized boolean record(SourceFrame frame) throws IOException {
+        // Writing through a mapping past the truncated end of the file would crash the process
+        if (closed || frame.getWidth() != width || frame.getHeight() != height) {
+            return false;
+        }
+        if (window == null || frameCount - windowFirstFrame == FRAMES_PER_WINDOW) {
+            windowFirstFrame = frameCount;
+            window = channel.map(FileChannel.MapMode.READ_WRITE,
+                    HEADER_SIZE + frameCount * recordSize, (long) FRAMES_PER_WINDOW * recordSize);
+        }
+        
+        int offset = (int) (frameCount - windowFirstFrame) * recordSize;
+        window.putLong(offset, frame.getTimestampNs());
+        window.putLong(offset + 8, frameCount);
+        ByteBuffer target = window.duplicate();
+        target.position(offset + RECORD_HEADER_SIZE).limit(offset + recordSize);
+        converter.copyToI420(frame.getPlane(0), frame.getPlane(1), frame.getPlane(2),
+                frame.getRowStride(0), frame.getRowStride(1), frame.getPixelStride(1),
+                width, height, target.slice());
+        
+        frameCount++;
+        header.putLong(FRAME_COUNT_OFFSET, frameCount);
+        return true;
+    }
+    
+    // Trims the unused part of the last window and closes the file
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            header.force();
+            if (window != null) {
+                window.force();
+            }
+            channel.truncate(HEADER_SIZE + frameCount * recordSize);
+        } finally {
+            window = null;
+            file.close();
+        }
+    }
+}
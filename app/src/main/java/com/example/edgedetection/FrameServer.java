@@ -0,0 +1,506 @@
+package com.example.edgedetection;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+// Embedded WebSocket server that pushes frames (binary messages) and stats (text messages) to
+// any number of viewers from a single selector thread. A broadcast frame is written once into a
+// pooled direct buffer together with its WebSocket header; every client reads it through its
+// own duplicate, so fan-out never copies the frame. Each client has a one-frame "latest" slot:
+// a viewer that cannot keep up has its unsent frame replaced, never a backlog.
+//
+// Frames are either key frames or deltas on the frame broadcast just before them. A client
+// that missed a frame is sent nothing but key frames until it has one again. The producer is
+// asked for a key frame (takeKeyFrameRequest) whenever a viewer connects, and at most every
+// KEY_FRAME_REQUEST_INTERVAL_MS for viewers that fell behind, so one slow viewer cannot turn
+// every frame into a key frame for everybody.
+//
+// Metrics: gauge "viewers", counters "sent" and "superseded" (frames replaced in a slot).
+public class FrameServer {
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int READ_BUFFER_SIZE = 8192;
+    // Keeps the kernel from queueing many frames for a slow viewer behind the one-frame slot
+    private static final int SEND_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_POOLED_MESSAGES = 8;
+    private static final long KEY_FRAME_REQUEST_INTERVAL_MS = 250;
+    private static final int OPCODE_TEXT = 0x1;
+    private static final int OPCODE_BINARY = 0x2;
+    private static final int OPCODE_CLOSE = 0x8;
+    
+    private final int requestedPort;
+    private final AtomicLong viewers;
+    private final LongAdder sent;
+    private final LongAdder superseded;
+    
+    private final List<Client> clients = new CopyOnWriteArrayList<>();
+    private final ConcurrentLinkedQueue<Message> freeMessages = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooledMessages = new AtomicInteger();
+    private final AtomicBoolean keyFrameRequested = new AtomicBoolean();
+    private long frameSequence;
+    private long lastGapRequestNs;
+    
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread thread;
+    private volatile boolean running;
+    
+    // Port 0 picks a free port; see getPort()
+    public FrameServer(int port, MetricsRegistry metrics) {
+        requestedPort = port;
+        viewers = metrics.gauge("viewers");
+        sent = metrics.counter("sent");
+        superseded = metrics.counter("superseded");
+    }
+    
+    public synchronized void start() throws IOException {
+        if (running) return;
+        
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.socket().setReuseAddress(true);
+            serverChannel.socket().bind(new InetSocketAddress(requestedPort));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            serverChannel.close();
+            selector.close();
+            throw e;
+        }
+        
+        running = true;
+        thread = new Thread(this::run, "FrameServer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    public synchronized void stop() {
+        if (!running) return;
+        
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    public int getPort() {
+        ServerSocketChannel channel = serverChannel;
+        return channel != null ? channel.socket().getLocalPort() : requestedPort;
+    }
+    
+    // Viewers that completed the WebSocket handshake
+    public int getViewerCount() {
+        return (int) viewers.get();
+    }
+    
+    // True once after a viewer connected or lost a frame: the next frame should be a key frame
+    public boolean takeKeyFrameRequest() {
+        return keyFrameRequested.getAndSet(false);
+    }
+    
+    // Sends data[0, length) to every viewer as a binary message. keyFrame marks frames that do
+    // not depend on the previous one. Call from one producer thread; never blocks on clients.
+    public void broadcastFrame(byte[] data, int length, boolean keyFrame) {
+        if (viewers.get() == 0) return;
+        
+        Message message = obtainMessage(headerSize(length) + length);
+        ByteBuffer buffer = message.buffer;
+        buffer.clear();
+        putHeader(buffer, OPCODE_BINARY, length);
+        buffer.put(data, 0, length);
+        buffer.flip();
+        message.sequence = ++frameSequence;
+        message.keyFrame = keyFrame;
+        
+        // The producer holds one reference until every slot has its own
+        message.refs.set(1);
+        for (Client client : clients) {
+            if (!client.upgraded) continue;
+            message.refs.incrementAndGet();
+            Message replaced = client.frameSlot.getAndSet(message);
+            if (replaced != null) {
+                superseded.increment();
+                replaced.release();
+            }
+            if (client.closed) {
+                // close() may have emptied the slot before the store above; nothing reads it now
+                Message orphaned = client.frameSlot.getAndSet(null);
+                if (orphaned != null) {
+                    orphaned.release();
+                }
+            }
+        }
+        message.release();
+        selector.wakeup();
+    }
+    
+    // Sends text (e.g. MetricsSnapshot.toJson) to every viewer, replacing unsent text
+    public void broadcastText(String text) {
+        if (viewers.get() == 0) return;
+        
+        byte[] payload = text.getBytes(UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(headerSize(payload.length) + payload.length);
+        putHeader(buffer, OPCODE_TEXT, payload.length);
+        buffer.put(payload);
+        buffer.flip();
+        for (Client client : clients) {
+            if (client.upgraded) {
+                client.textSlot.set(buffer);
+            }
+        }
+        selector.wakeup();
+    }
+    
+    private void run() {
+        try {
+            while (running) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.isReadable()) {
+                        read((Client) key.attachment());
+                    }
+                }
+                // Wakeups mostly mean new frames, so every client gets a chance to write
+                for (Client client : clients) {
+                    flush(client);
+                }
+            }
+        } catch (IOException e) {
+            // Selector or listening socket failed; nothing left to serve
+            running = false;
+        } finally {
+            for (Client client : clients) {
+                close(client);
+            }
+            closeQuietly(serverChannel);
+            closeQuietly(selector);
+        }
+    }
+    
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            channel.socket().setSendBufferSize(SEND_BUFFER_SIZE);
+            Client client = new Client(channel);
+            client.key = channel.register(selector, SelectionKey.OP_READ, client);
+            clients.add(client);
+        }
+    }
+    
+    private void read(Client client) {
+        try {
+            int count = client.channel.read(client.readBuffer);
+            if (count < 0) {
+                close(client);
+                return;
+            }
+            client.readBuffer.flip();
+            boolean keepOpen = client.upgraded || client.response != null
+                    ? readFrames(client) : readHandshake(client);
+            client.readBuffer.compact();
+            if (!keepOpen) {
+                close(client);
+            }
+        } catch (IOException e) {
+            close(client);
+        }
+    }
+    
+    // Parses the HTTP upgrade request once it is complete and queues the 101 response
+    private boolean readHandshake(Client client) {
+        ByteBuffer in = client.readBuffer;
+        int end = indexOf(in, "\r\n\r\n");
+        if (end < 0) {
+            return in.limit() < in.capacity();
+        }
+        byte[] bytes = new byte[end];
+        in.get(bytes);
+        in.position(end + 4);
+        
+        String webSocketKey = null;
+        String[] lines = new String(bytes, UTF_8).split("\r\n");
+        if (!lines[0].startsWith("GET ")) return false;
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0 && lines[i].substring(0, colon).trim().equalsIgnoreCase("Sec-WebSocket-Key")) {
+                webSocketKey = lines[i].substring(colon + 1).trim();
+            }
+        }
+        if (webSocketKey == null) return false;
+        
+        String response = "HTTP/1.1 101 Switching Protocols\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Accept: " + acceptKey(webSocketKey) + "\r\n\r\n";
+        client.response = ByteBuffer.wrap(response.getBytes(UTF_8));
+        return true;
+    }
+    
+    // Viewers only ever send control frames; everything but close is skipped
+    private boolean readFrames(Client client) {
+        ByteBuffer in = client.readBuffer;
+        while (in.remaining() >= 2) {
+            int start = in.position();
+            int opcode = in.get(start) & 0x0F;
+            int second = in.get(start + 1) & 0xFF;
+            long length = second & 0x7F;
+            int header = 2;
+            if (length == 126) {
+                if (in.remaining() < 4) break;
+                length = in.getShort(start + 2) & 0xFFFF;
+                header += 2;
+            } else if (length == 127) {
+                if (in.remaining() < 10) break;
+                length = in.getLong(start + 2);
+                header += 8;
+            }
+            if ((second & 0x80) != 0) {
+                header += 4;
+            }
+            if (length < 0 || header + length > in.capacity()) return false;
+            if (in.remaining() < header + length) break;
+            
+            if (opcode == OPCODE_CLOSE) return false;
+            in.position(start + header + (int) length);
+        }
+        return true;
+    }
+    
+    private void flush(Client client) {
+        try {
+            if (!client.upgraded) {
+                if (client.response == null) return;
+                client.channel.write(client.response);
+                if (client.response.hasRemaining()) {
+                    setWriteInterest(client, true);
+                    return;
+                }
+                client.response = null;
+                client.upgraded = true;
+                viewers.incrementAndGet();
+                keyFrameRequested.set(true);
+            }
+            
+            while (true) {
+                if (client.writeView == null && !nextMessage(client)) {
+                    setWriteInterest(client, false);
+                    return;
+                }
+                client.channel.write(client.writeView);
+                if (client.writeView.hasRemaining()) {
+                    // Socket buffer full; continue when the selector reports it writable
+                    setWriteInterest(client, true);
+                    return;
+                }
+                if (client.writing != null) {
+                    sent.increment();
+                    client.writing.release();
+                    client.writing = null;
+                }
+                client.writeView = null;
+            }
+        } catch (IOException e) {
+            close(client);
+        }
+    }
+    
+    // Picks up pending stats, then the latest frame if the client can decode it
+    private boolean nextMessage(Client client) {
+        ByteBuffer text = client.textSlot.getAndSet(null);
+        if (text != null) {
+            client.writeView = text.duplicate();
+            return true;
+        }
+        
+        Message message = client.frameSlot.getAndSet(null);
+        if (message == null) return false;
+        if (!message.keyFrame && message.sequence != client.lastSequence + 1) {
+            // Its reference frame was superseded before it went out
+            message.release();
+            long now = System.nanoTime();
+            if (now - lastGapRequestNs >= KEY_FRAME_REQUEST_INTERVAL_MS * 1000000L) {
+                lastGapRequestNs = now;
+                keyFrameRequested.set(true);
+            }
+            return false;
+        }
+        client.writing = message;
+        client.writeView = message.buffer.duplicate();
+        client.lastSequence = message.sequence;
+        return true;
+    }
+    
+    private void setWriteInterest(Client client, boolean write) {
+        if (!client.key.isValid()) return;
+        int ops = SelectionKey.OP_READ | (write ? SelectionKey.OP_WRITE : 0);
+        if (client.key.interestOps() != ops) {
+            client.key.interestOps(ops);
+        }
+    }
+    
+    private void close(Client client) {
+        if (!clients.remove(client)) return;
+        // Set before the slot is emptied, so a broadcast that stores after that sees it
+        client.closed = true;
+        
+        if (client.key != null) {
+            client.key.cancel();
+        }
+        closeQuietly(client.channel);
+        if (client.upgraded) {
+            viewers.decrementAndGet();
+        }
+        if (client.writing != null) {
+            client.writing.release();
+            client.writing = null;
+        }
+        Message pending = client.frameSlot.getAndSet(null);
+        if (pending != null) {
+            pending.release();
+        }
+    }
+    
+    private Message obtainMessage(int size) {
+        Message message = freeMessages.poll();
+        if (message != null) {
+            pooledMessages.decrementAndGet();
+            if (message.buffer.capacity() >= size) {
+                return message;
+            }
+        }
+        // Frames grow with the resolution; round up so small size changes reuse buffers
+        return new Message(ByteBuffer.allocateDirect(Math.max(size + size / 4, 4096)));
+    }
+    
+    private static int headerSize(int length) {
+        return length < 126 ? 2 : length < 65536 ? 4 : 10;
+    }
+    
+    private static void putHeader(ByteBuffer buffer, int opcode, int length) {
+        buffer.put((byte) (0x80 | opcode));
+        if (length < 126) {
+            buffer.put((byte) length);
+        } else if (length < 65536) {
+            buffer.put((byte) 126);
+            buffer.putShort((short) length);
+        } else {
+            buffer.put((byte) 127);
+            buffer.putLong(length);
+        }
+    }
+    
+    static String acceptKey(String webSocketKey) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            return base64(sha1.digest((webSocketKey + WEBSOCKET_GUID).getBytes(UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not available", e);
+        }
+    }
+    
+    // java.util.Base64 needs API 26
+    private static String base64(byte[] data) {
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        StringBuilder out = new StringBuilder((data.length + 2) / 3 * 4);
+        for (int i = 0; i < data.length; i += 3) {
+            int b = (data[i] & 0xFF) << 16;
+            if (i + 1 < data.length) b |= (data[i + 1] & 0xFF) << 8;
+            if (i + 2 < data.length) b |= data[i + 2] & 0xFF;
+            out.append(alphabet.charAt((b >> 18) & 0x3F));
+            out.append(alphabet.charAt((b >> 12) & 0x3F));
+            out.append(i + 1 < data.length ? alphabet.charAt((b >> 6) & 0x3F) : '=');
+            out.append(i + 2 < data.length ? alphabet.charAt(b & 0x3F) : '=');
+        }
+        return out.toString();
+    }
+    
+    private static int indexOf(ByteBuffer buffer, String marker) {
+        outer:
+        for (int i = buffer.position(); i <= buffer.limit() - marker.length(); i++) {
+            for (int j = 0; j < marker.length(); j++) {
+                if (buffer.get(i + j) != marker.charAt(j)) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+    
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            if (closeable != null) closeable.close();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+    }
+    
+    // One broadcast frame, shared read-only by all clients it was handed to
+    private final class Message {
+        final ByteBuffer buffer;
+        final AtomicInteger refs = new AtomicInteger();
+        long sequence;
+        boolean keyFrame;
+        
+        Message(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+        
+        void release() {
+            if (refs.decrementAndGet() != 0) return;
+            if (pooledMessages.incrementAndGet() <= MAX_POOLED_MESSAGES) {
+                freeMessages.offer(this);
+            } else {
+                pooledMessages.decrementAndGet();
+            }
+        }
+    }
+    
+    private static final class Client {
+        final SocketChannel channel;
+        final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        final AtomicReference<Message> frameSlot = new AtomicReference<>();
+        final AtomicReference<ByteBuffer> textSlot = new AtomicReference<>();
+        SelectionKey key;
+        
+        // Selector thread only, except upgraded and closed, which broadcasts read
+        ByteBuffer response;
+        volatile boolean upgraded;
+        volatile boolean closed;
+        Message writing;
+        ByteBuffer writeView;
+        long lastSequence = -1;
+        
+        Client(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.edgedetection;
+
+// Where frames come from: CameraHelper on a device, ReplayFrameSource from a recording made with
+// FrameRecorder. Everything downstream only sees SourceFrames, so the processing pipeline can
+// be run and measured without a camera.
+public interface FrameSource {
+    
+    interface Listener {
+        // Called on the source's thread. The listener owns the frame and must close() it;
+        // sources have a limited number of frames out at a time.
+        void onFrame(SourceFrame frame);
+    }
+    
+    void setFrameListener(Listener listener);
+    
+    void start();
+    
+    void stop();
+}
@@ -0,0 +1,362 @@
+package com.example.edgedetection;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+// Canny edge detection in GLSL over ping-pong framebuffers, for when the CPU is the bottleneck.
+// Works on a single-channel (luminance) texture and mirrors the CPU engines step by step:
+//   1. Sobel 3x3 with replicated borders, L1 magnitude and the cv::Canny direction sector
+//   2. non-maximum suppression and the 50/150 double threshold
+//   3. hysteresis as repeated passes that promote weak pixels next to strong ones
+// The CPU traces hysteresis to any distance; here a weak chain grows by one pixel per pass, so
+// chains longer than getHysteresisPasses() can end early. Everything else matches the CPU up to
+// float rounding in the direction test. All methods must run on the GL thread.
+public class GpuEdgeDetector {
+    private static final String TAG = "GpuEdgeDetector";
+    
+    private static final int DEFAULT_HYSTERESIS_PASSES = 8;
+    
+    // Full-screen quad for the offscreen passes: texture row 0 maps to framebuffer row 0, so
+    // every pass keeps the image the right way up and glReadPixels returns rows in frame order
+    private static final float[] QUAD = {
+            // x, y, s, t
+            -1.0f, -1.0f, 0.0f, 0.0f,
+             1.0f, -1.0f, 1.0f, 0.0f,
+            -1.0f,  1.0f, 0.0f, 1.0f,
+             1.0f,  1.0f, 1.0f, 1.0f
+    };
+    
+    private static final String VERTEX_SHADER_CODE =
+            "attribute vec4 aPosition;\n" +
+            "attribute vec2 aTexCoord;\n" +
+            "varying vec2 vTexCoord;\n" +
+            "void main() {\n" +
+            "  gl_Position = aPosition;\n" +
+            "  vTexCoord = aTexCoord;\n" +
+            "}\n";
+    
+    // Magnitudes reach 2040 and the direction test multiplies by 2^15, so use highp where the
+    // fragment stage has it
+    private static final String PRECISION =
+            "#ifdef GL_FRAGMENT_PRECISION_HIGH\n" +
+            "precision highp float;\n" +
+            "#else\n" +
+            "precision mediump float;\n" +
+            "#endif\n";
+    
+    // Pass 1: Sobel. Writes the magnitude as two bytes (R high, G low) and the direction sector
+    // in B: 0 horizontal, 1 vertical, 2 diagonal with gx*gy >= 0, 3 diagonal with gx*gy < 0.
+    // Clamp-to-edge sampling gives the replicated border of cv::Sobel.
+    private static final String FRAGMENT_SHADER_GRADIENT = PRECISION +
+            "varying vec2 vTexCoord;\n" +
+            "uniform sampler2D uTexture;\n" +
+            "uniform vec2 uTexelSize;\n" +
+            "float luma(float dx, float dy) {\n" +
+            "  return floor(texture2D(uTexture, vTexCoord + vec2(dx, dy) * uTexelSize).r * 255.0 + 0.5);\n" +
+            "}\n" +
+            "void main() {\n" +
+            "  float al = luma(-1.0, -1.0); float ac = luma(0.0, -1.0); float ar = luma(1.0, -1.0);\n" +
+            "  float cl = luma(-1.0, 0.0); float cr = luma(1.0, 0.0);\n" +
+            "  float bl = luma(-1.0, 1.0); float bc = luma(0.0, 1.0); float br = luma(1.0, 1.0);\n" +
+            "  float gx = (ar - al) + 2.0 * (cr - cl) + (br - bl);\n" +
+            "  float gy = (bl + 2.0 * bc + br) - (al + 2.0 * ac + ar);\n" +
+            "  float ax = abs(gx);\n" +
+            "  float ay = abs(gy) * 32768.0;\n" +
+            "  float tg22x = ax * 13573.0;\n" +
+            "  float tg67x = tg22x + ax * 65536.0;\n" +
+            "  float sector = ay < tg22x ? 0.0 : (ay > tg67x ? 1.0 : (gx * gy < 0.0 ? 3.0 : 2.0));\n" +
+            "  float mag = ax + abs(gy);\n" +
+            "  float high = floor(mag / 256.0);\n" +
+            "  gl_FragColor = vec4(high / 255.0, (mag - high * 256.0) / 255.0, sector / 255.0, 1.0);\n" +
+            "}\n";
+    
+    // Pass 2: non-maximum suppression with the same tie rules as cv::Canny, then the double
+    // threshold. Output state in R: 1.0 edge, 0.5 weak candidate, 0.0 none. Magnitudes outside
+    // the image count as 0, like the zero border of the CPU magnitude buffer.
+    private static final String FRAGMENT_SHADER_SUPPRESS = PRECISION +
+            "varying vec2 vTexCoord;\n" +
+            "uniform sampler2D uTexture;\n" +
+            "uniform vec2 uTexelSize;\n" +
+            "uniform float uLowThreshold;\n" +
+            "uniform float uHighThreshold;\n" +
+            "float magnitude(vec4 texel) {\n" +
+            "  return floor(texel.r * 255.0 + 0.5) * 256.0 + floor(texel.g * 255.0 + 0.5);\n" +
+            "}\n" +
+            "float neighbour(float dx, float dy) {\n" +
+            "  vec2 coord = vTexCoord + vec2(dx, dy) * uTexelSize;\n" +
+            "  if (coord.x < 0.0 || coord.y < 0.0 || coord.x > 1.0 || coord.y > 1.0) return 0.0;\n" +
+            "  return magnitude(texture2D(uTexture, coord));\n" +
+            "}\n" +
+            "void main() {\n" +
+            "  vec4 center = texture2D(uTexture, vTexCoord);\n" +
+            "  float value = magnitude(center);\n" +
+            "  float sector = floor(center.b * 255.0 + 0.5);\n" +
+            "  bool peak = false;\n" +
+            "  if (value > uLowThreshold) {\n" +
+            "    if (sector < 0.5) {\n" +
+            "      peak = value > neighbour(-1.0, 0.0) && value >= neighbour(1.0, 0.0);\n" +
+            "    } else if (sector < 1.5) {\n" +
+            "      peak = value > neighbour(0.0, -1.0) && value >= neighbour(0.0, 1.0);\n" +
+            "    } else {\n" +
+            "      float s = sector < 2.5 ? 1.0 : -1.0;\n" +
+            "      peak = value > neighbour(-s, -1.0) && value > neighbour(s, 1.0);\n" +
+            "    }\n" +
+            "  }\n" +
+            "  float state = peak ? (value > uHighThreshold ? 1.0 : 0.5) : 0.0;\n" +
+            "  gl_FragColor = vec4(state, state, state, 1.0);\n" +
+            "}\n";
+    
+    // Pass 3..n: a weak pixel becomes an edge if any of its 8 neighbours is one
+    private static final String FRAGMENT_SHADER_HYSTERESIS = PRECISION +
+            "varying vec2 vTexCoord;\n" +
+            "uniform sampler2D uTexture;\n" +
+            "uniform vec2 uTexelSize;\n" +
+            "float state(float dx, float dy) {\n" +
+            "  return texture2D(uTexture, vTexCoord + vec2(dx, dy) * uTexelSize).r;\n" +
+            "}\n" +
+            "void main() {\n" +
+            "  float center = state(0.0, 0.0);\n" +
+            "  if (center > 0.25 && center < 0.75) {\n" +
+            "    float strongest = max(max(max(state(-1.0, -1.0), state(0.0, -1.0)), max(state(1.0, -1.0), state(-1.0, 0.0))),\n" +
+            "                          max(max(state(1.0, 0.0), state(-1.0, 1.0)), max(state(0.0, 1.0), state(1.0, 1.0))));\n" +
+            "    if (strongest > 0.75) center = 1.0;\n" +
+            "  }\n" +
+            "  gl_FragColor = vec4(center, center, center, 1.0);\n" +
+            "}\n";
+    
+    // Final pass: edges to white, weak leftovers to black
+    private static final String FRAGMENT_SHADER_OUTPUT = PRECISION +
+            "varying vec2 vTexCoord;\n" +
+            "uniform sampler2D uTexture;\n" +
+            "void main() {\n" +
+            "  float edge = texture2D(uTexture, vTexCoord).r > 0.75 ? 1.0 : 0.0;\n" +
+            "  gl_FragColor = vec4(edge, edge, edge, 1.0);\n" +
+            "}\n";
+    
+    // A linked pass program and its cached locations
+    private static class Pass {
+        final int program;
+        final int positionHandle;
+        final int texCoordHandle;
+        final int textureHandle;
+        final int texelSizeHandle;
+        final int lowThresholdHandle;
+        final int highThresholdHandle;
+        
+        Pass(int program) {
+            this.program = program;
+            positionHandle = GLES20.glGetAttribLocation(program, "aPosition");
+            texCoordHandle = GLES20.glGetAttribLocation(program, "aTexCoord");
+            textureHandle = GLES20.glGetUniformLocation(program, "uTexture");
+            texelSizeHandle = GLES20.glGetUniformLocation(program, "uTexelSize");
+            lowThresholdHandle = GLES20.glGetUniformLocation(program, "uLowThreshold");
+            highThresholdHandle = GLES20.glGetUniformLocation(program, "uHighThreshold");
+        }
+    }
+    
+    private Pass gradientPass;
+    private Pass suppressPass;
+    private Pass hysteresisPass;
+    private Pass outputPass;
+    private int quadBuffer;
+    
+    // Ping-pong targets: two RGBA textures, each attached to its own framebuffer
+    private final int[] textures = new int[2];
+    private final int[] framebuffers = new int[2];
+    private int width;
+    private int height;
+    private int hysteresisPasses = DEFAULT_HYSTERESIS_PASSES;
+    private int resultIndex = -1;
+    private ByteBuffer readbackBuffer;
+    private LatencyHistogram passTimes;
+    
+    // Compiles the pass programs; call from onSurfaceCreated. Returns false if any failed.
+    public boolean initialize() {
+        int vertexShader = OpenGLUtils.compileShader(GLES20.GL_VERTEX_SHADER, VERTEX_SHADER_CODE);
+        gradientPass = createPass(vertexShader, FRAGMENT_SHADER_GRADIENT);
+        suppressPass = createPass(vertexShader, FRAGMENT_SHADER_SUPPRESS);
+        hysteresisPass = createPass(vertexShader, FRAGMENT_SHADER_HYSTERESIS);
+        outputPass = createPass(vertexShader, FRAGMENT_SHADER_OUTPUT);
+        GLES20.glDeleteShader(vertexShader);
+        
+        FloatBuffer quad = OpenGLUtils.createFloatBuffer(QUAD);
+        quadBuffer = OpenGLUtils.createBufferObject(GLES20.GL_ARRAY_BUFFER, quad, QUAD.length * 4);
+        
+        // Targets belonged to the previous context, if any
+        width = 0;
+        height = 0;
+        resultIndex = -1;
+        
+        return gradientPass != null && suppressPass != null && hysteresisPass != null
+                && outputPass != null && quadBuffer != 0;
+    }
+    
+    // Records the CPU time spent issuing all passes of a frame into the "gpu" histogram
+    public void setMetrics(MetricsRegistry metrics) {
+        passTimes = metrics != null ? metrics.histogram("gpu") : null;
+    }
+    
+    public void setHysteresisPasses(int passes) {
+        hysteresisPasses = Math.max(passes, 0);
+    }
+    
+    public int getHysteresisPasses() {
+        return hysteresisPasses;
+    }
+    
+    // Runs all passes on a luminance texture of the given size and returns the texture holding
+    // the edge mask (white edges on black), or -1 on failure. Leaves the default framebuffer
+    // bound; the caller restores its viewport.
+    public int process(int lumaTexture, int width, int height) {
+        if (gradientPass == null || suppressPass == null || hysteresisPass == null || outputPass == null) {
+            return -1;
+        }
+        long start = System.nanoTime();
+        if (width != this.width || height != this.height) {
+            if (!allocateTargets(width, height)) {
+                return -1;
+            }
+        }
+        
+        GLES20.glViewport(0, 0, width, height);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, quadBuffer);
+        
+        runPass(gradientPass, lumaTexture, 0);
+        runPass(suppressPass, textures[0], 1);
+        int current = 1;
+        for (int i = 0; i < hysteresisPasses; i++) {
+            runPass(hysteresisPass, textures[current], 1 - current);
+            current = 1 - current;
+        }
+        runPass(outputPass, textures[current], 1 - current);
+        resultIndex = 1 - current;
+        
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        
+        LatencyHistogram histogram = passTimes;
+        if (histogram != null) {
+            histogram.recordSince(start);
+        }
+        return textures[resultIndex];
+    }
+    
+    // Copies the last result into mask as one byte per pixel (0 or 255), rows in frame order,
+    // for checking against the CPU engines (e.g. JavaEdgeDetector.compareMasks). Stalls until
+    // the GPU has finished, so it is meant for verification rather than the frame loop.
+    public boolean readMask(ByteBuffer mask) {
+        if (resultIndex < 0 || mask.capacity() < width * height) {
+            return false;
+        }
+        // GLES 2.0 only guarantees RGBA / UNSIGNED_BYTE readback
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebuffers[resultIndex]);
+        GLES20.glPixelStorei(GLES20.GL_PACK_ALIGNMENT, 1);
+        readbackBuffer.clear();
+        GLES20.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, readbackBuffer);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        
+        for (int i = 0, n = width * height; i < n; i++) {
+            mask.put(i, readbackBuffer.get(i * 4));
+        }
+        mask.clear();
+        mask.limit(width * height);
+        return true;
+    }
+    
+    public void release() {
+        deleteTargets();
+        if (quadBuffer != 0) {
+            GLES20.glDeleteBuffers(1, new int[] { quadBuffer }, 0);
+            quadBuffer = 0;
+        }
+        for (Pass pass : new Pass[] { gradientPass, suppressPass, hysteresisPass, outputPass }) {
+            if (pass != null) {
+                GLES20.glDeleteProgram(pass.program);
+            }
+        }
+        gradientPass = suppressPass = hysteresisPass = outputPass = null;
+    }
+    
+    private void runPass(Pass pass, int inputTexture, int target) {
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebuffers[target]);
+        GLES20.glUseProgram(pass.program);
+        
+        GLES20.glEnableVertexAttribArray(pass.positionHandle);
+        GLES20.glVertexAttribPointer(pass.positionHandle, 2, GLES20.GL_FLOAT, false, 16, 0);
+        GLES20.glEnableVertexAttribArray(pass.texCoordHandle);
+        GLES20.glVertexAttribPointer(pass.texCoordHandle, 2, GLES20.GL_FLOAT, false, 16, 8);
+        
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, inputTexture);
+        GLES20.glUniform1i(pass.textureHandle, 0);
+        if (pass.texelSizeHandle >= 0) {
+            GLES20.glUniform2f(pass.texelSizeHandle, 1.0f / width, 1.0f / height);
+        }
+        if (pass.lowThresholdHandle >= 0) {
+            GLES20.glUniform1f(pass.lowThresholdHandle, 50.0f);
+            GLES20.glUniform1f(pass.highThresholdHandle, 150.0f);
+        }
+        
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+        
+        GLES20.glDisableVertexAttribArray(pass.positionHandle);
+        GLES20.glDisableVertexAttribArray(pass.texCoordHandle);
+    }
+    
+    private boolean allocateTargets(int width, int height) {
+        deleteTargets();
+        this.width = width;
+        this.height = height;
+        GLES20.glGenTextures(2, textures, 0);
+        GLES20.glGenFramebuffers(2, framebuffers, 0);
+        for (int i = 0; i < 2; i++) {
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[i]);
+            // Nearest sampling: every pass reads exact texels
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width, height, 0,
+                    GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+            
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebuffers[i]);
+            GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                    GLES20.GL_TEXTURE_2D, textures[i], 0);
+            int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+            if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+                Log.e(TAG, "Framebuffer incomplete: 0x" + Integer.toHexString(status));
+                GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+                deleteTargets();
+                return false;
+            }
+        }
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        
+        readbackBuffer = ByteBuffer.allocateDirect(width * height * 4);
+        return true;
+    }
+    
+    private void deleteTargets() {
+        if (width == 0 && height == 0) return;
+        GLES20.glDeleteFramebuffers(2, framebuffers, 0);
+        GLES20.glDeleteTextures(2, textures, 0);
+        width = 0;
+        height = 0;
+        resultIndex = -1;
+    }
+    
+    private static Pass createPass(int vertexShader, String fragmentSource) {
+        int fragmentShader = OpenGLUtils.compileShader(GLES20.GL_FRAGMENT_SHADER, fragmentSource);
+        int program = OpenGLUtils.linkProgram(vertexShader, fragmentShader);
+        GLES20.glDeleteShader(fragmentShader);
+        if (program == 0) {
+            Log.e(TAG, "Edge pass unavailable; GPU edge detection disabled");
+            return null;
+        }
+        return new Pass(program);
+    }
+}
@@ -1,16 +1,46 @@
 package com.example.edgedetection;
 
-public class ImageProcessorNative {
-    static {
-        System.loadLibrary("edgedetection");
-    }
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+
+public class ImageProcessorNative implements FrameProcessor {
+    // Output layouts for processRois; mirror RoiLayout in ImageProcessor.h
+    public static final int ROI_PACKED = 0;     // one mask per region, back to back in order
+    public static final int ROI_FULL_FRAME = 1; // frame-sized mask, zero outside the regions
+    
+    private static final String TAG = "ImageProcessorNative";
+    private static final boolean LIBRARY_LOADED = loadLibrary();
     
     private long instance;
+    // Destroys the native instance if this object is collected without release()
+    private final NativeCleaner.Cleanable cleanable;
+    private boolean lumaOnly;
+    // Region coordinates as x, y, width, height quadruples, reused between frames
+    private int[] roiCoordinates = new int[0];
     
     public ImageProcessorNative() {
-        instance = createInstance();
+        instance = LIBRARY_LOADED ? createInstance() : 0;
+        final long handle = instance;
+        cleanable = handle != 0 ? NativeCleaner.register(this, () -> destroyInstance(handle)) : null;
+    }
+    
+    private static boolean loadLibrary() {
+        try {
+            System.loadLibrary("edgedetection");
+            return true;
+        } catch (UnsatisfiedLinkError e) {
+            // Callers fall back to JavaEdgeDetector; see FrameProcessor.createDefault()
+            Log.w(TAG, "edgedetection library unavailable: " + e.getMessage());
+            return false;
+        }
+    }
+    
+    public static boolean isAvailable() {
+        return LIBRARY_LOADED;
     }
     
+    @Override
     public boolean initialize() {
         if (instance != 0) {
             return initialize(instance);
@@ -25,16 +55,210 @@ public class ImageProcessorNative {
         return null;
     }
     
+    // Splits Canny into horizontal strips of stripHeight rows (0 = one strip per thread) that
+    // run on a native pool of the given number of worker threads in addition to the calling
+    // thread. The result is identical to the single-threaded path; threads = 0 switches back to it.
+    @Override
+    public void setParallelism(int threads, int stripHeight) {
+        if (instance != 0) {
+            setParallelism(instance, threads, stripHeight);
+        }
+    }
+    
+    @Override
+    public void setLumaOnly(boolean enabled) {
+        if (instance != 0) {
+            setLumaOnly(instance, enabled);
+            lumaOnly = enabled;
+        }
+    }
+    
+    @Override
+    public void setIncrementalTiles(int tileSize) {
+        if (instance != 0) {
+            setIncrementalTiles(instance, tileSize);
+        }
+    }
+    
+    @Override
+    public int getRecomputedTiles() {
+        return instance != 0 ? getRecomputedTiles(instance) : 0;
+    }
+    
+    @Override
+    public int getTileCount() {
+        return instance != 0 ? getTileCount(instance) : 0;
+    }
+    
+    @Override
+    public void allocateBuffers(int width, int height) {
+        if (instance != 0) {
+            allocateBuffers(instance, width, height);
+        }
+    }
+    
+    // Frees the native frame arena and other per-resolution memory; the next frame allocates
+    // it again. For idle periods such as a stopped camera. Same threading rules as processing.
+    public void trimMemory() {
+        if (instance != 0) {
+            trimMemory(instance);
+        }
+    }
+    
+    // Native memory held for this instance's frames (the arena), and the peak the last frame
+    // used of it. Safe to read from any thread while frames are processed, until release().
+    public long getNativeBytesReserved() {
+        return instance != 0 ? getReservedBytes(instance) : 0;
+    }
+    
+    public long getNativeBytesInUse() {
+        return instance != 0 ? getUsedBytes(instance) : 0;
+    }
+    
+    // Times the arena gave its memory back: resolution changes, trims, and growth to a larger block
+    public int getArenaResets() {
+        return instance != 0 ? getArenaResets(instance) : 0;
+    }
+    
+    // Arena memory of every live instance in the process. Stays flat across camera restarts
+    // unless instances are created without being released.
+    public static long getTotalNativeBytesReserved() {
+        return LIBRARY_LOADED ? getTotalReservedBytes() : 0;
+    }
+    
+    // Compiles pipeline into a native plan that replaces the current one from the next frame on
+    // (FilterPipeline.EDGES until then). Unlike the other setters this is safe from any thread
+    // while frames are processed: the frame loop only picks up the finished plan. Returns false
+    // if the engine is unavailable.
+    public boolean setFilterPipeline(FilterPipeline pipeline) {
+        return instance != 0 && setFilterPipeline(instance, pipeline.getOps());
+    }
+    
+    // Processes a YUV_420_888 frame straight from the plane buffers of an android.media.Image.
+    // The buffers must be direct; native code reads them in place from index 0, so nothing
+    // is copied onto the Java heap.
+    public byte[] processFrameDirect(ByteBuffer yPlane, ByteBuffer uPlane, ByteBuffer vPlane,
+                                     int yRowStride, int uvRowStride, int uvPixelStride,
+                                     int width, int height) {
+        if (instance != 0 && isDirect(yPlane) && hasChroma(uPlane, vPlane)) {
+            return processFrameDirect(instance, yPlane, uPlane, vPlane,
+                    yRowStride, uvRowStride, uvPixelStride, width, height);
+        }
+        return null;
+    }
+    
+    // Same as above, but the result is written into a caller-owned direct buffer in the given
+    // OUTPUT_* layout, so a steady-state frame loop allocates nothing. Returns the number of
+    // bytes written (the buffer is rewound and limited to them), or -1 on failure, including
+    // when the buffer is too small.
+    @Override
+    public int processFrameDirect(ByteBuffer yPlane, ByteBuffer uPlane, ByteBuffer vPlane,
+                                  int yRowStride, int uvRowStride, int uvPixelStride,
+                                  int width, int height, ByteBuffer output, int outputFormat) {
+        if (instance == 0 || !isDirect(yPlane) || !hasChroma(uPlane, vPlane) || !isDirect(output)) {
+            return -1;
+        }
+        int written = processFrameDirectInto(instance, yPlane, uPlane, vPlane,
+                yRowStride, uvRowStride, uvPixelStride, width, height, output, outputFormat);
+        if (written >= 0) {
+            output.clear();
+            output.limit(written);
+        }
+        return written;
+    }
+    
+    // Runs detection over the given regions of a YUV_420_888 frame only. Each region is
+    // converted and processed from a native buffer sized to it (plus a few pixels of context on
+    // every side, so region edges match the full-frame mask), so cost scales with the regions'
+    // area rather than the frame's. Writes OUTPUT_MASK bytes in the given ROI_* layout and returns
+    // the number written (the buffer is rewound and limited to them), or -1 on failure, including
+    // a region outside the frame or a buffer smaller than getRoiOutputSize(). Incremental tiles
+    // are not used for regions.
+    public int processRois(ByteBuffer yPlane, ByteBuffer uPlane, ByteBuffer vPlane,
+                           int yRowStride, int uvRowStride, int uvPixelStride,
+                           int width, int height, Roi[] rois, ByteBuffer output, int layout) {
+        if (instance == 0 || !isDirect(yPlane) || !hasChroma(uPlane, vPlane) || !isDirect(output)
+                || rois.length == 0) {
+            return -1;
+        }
+        if (roiCoordinates.length != rois.length * 4) {
+            roiCoordinates = new int[rois.length * 4];
+        }
+        for (int i = 0; i < rois.length; i++) {
+            Roi roi = rois[i];
+            if (!roi.fitsIn(width, height)) return -1;
+            roiCoordinates[i * 4] = roi.getX();
+            roiCoordinates[i * 4 + 1] = roi.getY();
+            roiCoordinates[i * 4 + 2] = roi.getWidth();
+            roiCoordinates[i * 4 + 3] = roi.getHeight();
+        }
+        int written = processRoisInto(instance, yPlane, uPlane, vPlane, yRowStride, uvRowStride,
+                uvPixelStride, width, height, roiCoordinates, output, layout);
+        if (written >= 0) {
+            output.clear();
+            output.limit(written);
+        }
+        return written;
+    }
+    
+    // Buffer capacity processRois needs: the regions' total area packed, the frame full-frame
+    public static int getRoiOutputSize(Roi[] rois, int layout, int width, int height) {
+        if (layout == ROI_FULL_FRAME) {
+            return width * height;
+        }
+        int size = 0;
+        for (Roi roi : rois) {
+            size += roi.getArea();
+        }
+        return size;
+    }
+    
+    // Destroys the native instance, arena and all, right away. Objects that are collected
+    // without this are cleaned up by NativeCleaner, later and with a warning.
+    @Override
     public void release() {
         if (instance != 0) {
-            destroyInstance(instance);
             instance = 0;
+            cleanable.clean();
         }
     }
     
-    // Native methods
+    private static boolean isDirect(ByteBuffer buffer) {
+        return buffer != null && buffer.isDirect();
+    }
+    
+    // Chroma planes are only needed (and must then be direct) outside luma-only mode
+    private boolean hasChroma(ByteBuffer uPlane, ByteBuffer vPlane) {
+        return lumaOnly || (isDirect(uPlane) && isDirect(vPlane));
+    }
+    
+    // Native methods. Those taking the instance handle are instance methods: the receiver stays
+    // reachable for the whole call, so NativeCleaner cannot destroy the instance under it.
     private static native long createInstance();
     private static native void destroyInstance(long instance);
-    private static native boolean initialize(long instance);
-    private static native byte[] processFrame(long instance, byte[] inputFrame, int width, int height);
+    private native boolean initialize(long instance);
+    private native void setParallelism(long instance, int threads, int stripHeight);
+    private native void setLumaOnly(long instance, boolean enabled);
+    private native void setIncrementalTiles(long instance, int tileSize);
+    private native int getRecomputedTiles(long instance);
+    private native int getTileCount(long instance);
+    private native boolean setFilterPipeline(long instance, int[] ops);
+    private native void allocateBuffers(long instance, int width, int height);
+    private native void trimMemory(long instance);
+    private native long getReservedBytes(long instance);
+    private native long getUsedBytes(long instance);
+    private native int getArenaResets(long instance);
+    private static native long getTotalReservedBytes();
+    private native byte[] processFrame(long instance, byte[] inputFrame, int width, int height);
+    private native byte[] processFrameDirect(long instance, ByteBuffer yPlane, ByteBuffer uPlane,
+                                             ByteBuffer vPlane, int yRowStride, int uvRowStride,
+                                             int uvPixelStride, int width, int height);
+    private native int processFrameDirectInto(long instance, ByteBuffer yPlane, ByteBuffer uPlane,
+                                              ByteBuffer vPlane, int yRowStride, int uvRowStride,
+                                              int uvPixelStride, int width, int height,
+                                              ByteBuffer output, int outputFormat);
+    private native int processRoisInto(long instance, ByteBuffer yPlane, ByteBuffer uPlane,
+                                       ByteBuffer vPlane, int yRowStride, int uvRowStride,
+                                       int uvPixelStride, int width, int height,
+                                       int[] rois, ByteBuffer output, int layout);
 }
\ No newline at end of file
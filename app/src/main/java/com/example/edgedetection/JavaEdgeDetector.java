@@ -0,0 +1,597 @@
+package com.example.edgedetection;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+// Pure-Java edge detection: grayscale, optional 5x5 Gaussian blur, 3x3 Sobel, non-maximum
+// suppression and hysteresis, mirroring the native path (cv::Canny with thresholds 50/150 and
+// an L1 gradient). Used when libedgedetection is unavailable and on plain JVMs. All working
+// buffers are primitive arrays allocated once per resolution; rows are split into strips that
+// run on a ForkJoinPool, with the same boundary handling as ParallelCanny.cpp.
+//
+// Gray levels come from the Y plane through the same fixed-point range expansion OpenCV's
+// YUV -> RGB -> gray conversion amounts to, so they match within one level for neutral colours
+// and differ slightly for saturated ones. MASK_TOLERANCE bounds the resulting edge differences
+// as measured by compareMasks(). In luma-only mode both engines run on the raw Y values and the
+// masks are identical.
+public class JavaEdgeDetector implements FrameProcessor {
+    // Fraction of edge pixels allowed to lack a counterpart within one pixel in the other mask
+    public static final double MASK_TOLERANCE = 0.01;
+    
+    private static final int LOW_THRESHOLD = 50;
+    private static final int HIGH_THRESHOLD = 150;
+    
+    // tan(22.5deg) in Q15, as used by cv::Canny
+    private static final int CANNY_SHIFT = 15;
+    private static final int TG22 = 13573;
+    
+    // Edge map states, matching cv::Canny: 0 = weak candidate, 1 = not an edge, 2 = edge
+    private static final byte MAP_WEAK = 0;
+    private static final byte MAP_NONE = 1;
+    private static final byte MAP_EDGE = 2;
+    
+    // Column offsets of the 8 neighbours: three above, two beside, three below
+    private static final int[] COLUMN_OFFSETS = { -1, 0, 1, -1, 1, -1, 0, 1 };
+    
+    private static final int PASS_GRAY = 0;
+    private static final int PASS_BLUR = 1;
+    private static final int PASS_GRADIENT = 2;
+    private static final int PASS_SUPPRESS = 3;
+    private static final int PASS_OUTPUT = 4;
+    
+    // Video-range Y to gray: ITU-R BT.601 luma gain in Q20, as in OpenCV's YUV2RGB
+    private static final byte[] LUMA_TO_GRAY = new byte[256];
+    
+    static {
+        for (int y = 0; y < 256; y++) {
+            int gray = (Math.max(y - 16, 0) * 1220542 + (1 << 19)) >> 20;
+            LUMA_TO_GRAY[y] = (byte) Math.min(gray, 255);
+        }
+    }
+    
+    private boolean initialized;
+    private boolean blurEnabled;
+    private boolean lumaOnly;
+    private ForkJoinPool pool;
+    private int threads;
+    private int stripHeight;
+    private TileCache tileCache;
+    
+    private int width;
+    private int height;
+    private int rowsPerStrip;
+    private int stripCount;
+    private int outputFormat;
+    
+    private byte[] gray;
+    private int[] blurRows;
+    private int[] dx;
+    private int[] dy;
+    // Magnitude and edge map carry a one-pixel border so neighbours never go out of bounds
+    private int[] mag;
+    private byte[] map;
+    private byte[] output;
+    private int[][] stacks;
+    private int[] stackSizes;
+    private int[][] borders;
+    private int[] borderSizes;
+    private StripTask[] tasks;
+    private final PassTask passTask = new PassTask();
+    
+    @Override
+    public boolean initialize() {
+        initialized = true;
+        return true;
+    }
+    
+    // Smooths the gray image with a 5x5 Gaussian before Sobel, as cv::GaussianBlur(5x5, sigma 0)
+    // would. Off by default because the native path runs Canny on the unblurred image.
+    public void setBlurEnabled(boolean enabled) {
+        blurEnabled = enabled;
+        if (tileCache != null) {
+            tileCache.configure(lumaOnly, blurEnabled);
+        }
+    }
+    
+    @Override
+    public void setLumaOnly(boolean enabled) {
+        lumaOnly = enabled;
+        if (tileCache != null) {
+            tileCache.configure(lumaOnly, blurEnabled);
+        }
+    }
+    
+    @Override
+    public void setIncrementalTiles(int tileSize) {
+        if (tileSize <= 0) {
+            tileCache = null;
+        } else if (tileCache == null || tileCache.getTileSize() != tileSize) {
+            tileCache = new TileCache(tileSize);
+            tileCache.configure(lumaOnly, blurEnabled);
+        }
+    }
+    
+    @Override
+    public int getRecomputedTiles() {
+        return tileCache != null ? tileCache.getRecomputedTiles() : 0;
+    }
+    
+    @Override
+    public int getTileCount() {
+        return tileCache != null ? tileCache.getTileCount() : 0;
+    }
+    
+    // Sized for the last output format used, OUTPUT_MASK before the first frame
+    @Override
+    public void allocateBuffers(int width, int height) {
+        ensureBuffers(width, height, outputFormat);
+    }
+    
+    // The pool gets threads + 1 workers so the concurrency matches the native engine, whose
+    // calling thread takes part in the strip loops
+    @Override
+    public void setParallelism(int threads, int stripHeight) {
+        if (threads != this.threads) {
+            if (pool != null) {
+                pool.shutdown();
+            }
+            pool = threads > 0 ? new ForkJoinPool(threads + 1) : null;
+            this.threads = Math.max(threads, 0);
+        }
+        this.stripHeight = Math.max(stripHeight, 0);
+        width = 0; // re-split strips on the next frame
+    }
+    
+    @Override
+    public int processFrameDirect(ByteBuffer yPlane, ByteBuffer uPlane, ByteBuffer vPlane,
+                                  int yRowStride, int uvRowStride, int uvPixelStride,
+                                  int width, int height, ByteBuffer output, int outputFormat) {
+        if (!initialized || yPlane == null || output == null) {
+            return -1;
+        }
+        if (outputFormat != OUTPUT_MASK && outputFormat != OUTPUT_RGBA) {
+            // JPEG encoding is only available in the native engine
+            return -1;
+        }
+        int outputSize = FrameProcessor.getOutputSize(outputFormat, width, height);
+        if (output.capacity() < outputSize || yPlane.capacity() < (height - 1) * yRowStride + width) {
+            return -1;
+        }
+        
+        ensureBuffers(width, height, outputFormat);
+        readLuma(yPlane, yRowStride);
+        
+        // In incremental mode the last mask stays in this.output and only changed tiles are redone
+        TileCache tiles = outputFormat == OUTPUT_MASK ? tileCache : null;
+        if (tiles != null && tiles.prepare(gray, width, height)) {
+            tiles.recomputeChanged(gray, this.output);
+        } else {
+            if (tiles != null) {
+                tiles.storeFrame(gray);
+            } else if (tileCache != null) {
+                tileCache.invalidate();
+            }
+            detectFullFrame();
+        }
+        
+        output.clear();
+        output.put(this.output, 0, outputSize);
+        output.clear();
+        output.limit(outputSize);
+        return outputSize;
+    }
+    
+    private void detectFullFrame() {
+        if (!lumaOnly || blurEnabled) {
+            runPass(PASS_GRAY);
+        }
+        if (blurEnabled) {
+            runPass(PASS_BLUR);
+        }
+        runPass(PASS_GRADIENT);
+        runPass(PASS_SUPPRESS);
+        traceBorders();
+        runPass(PASS_OUTPUT);
+    }
+    
+    @Override
+    public void release() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+        threads = 0;
+        width = 0;
+        gray = null;
+        blurRows = null;
+        dx = null;
+        dy = null;
+        mag = null;
+        map = null;
+        output = null;
+        tileCache = null;
+        initialized = false;
+    }
+    
+    private void ensureBuffers(int w, int h, int format) {
+        if (w != width || h != height) {
+            width = w;
+            height = h;
+            int pixels = w * h;
+            int padded = (w + 2) * (h + 2);
+            gray = new byte[pixels];
+            blurRows = new int[pixels];
+            dx = new int[pixels];
+            dy = new int[pixels];
+            // Borders are written once here; frames only ever touch the interior
+            mag = new int[padded];
+            map = new byte[padded];
+            Arrays.fill(map, MAP_NONE);
+            output = null;
+            
+            int parallelism = threads + 1;
+            rowsPerStrip = stripHeight > 0 ? stripHeight : (h + parallelism - 1) / parallelism;
+            stripCount = (h + rowsPerStrip - 1) / rowsPerStrip;
+            stacks = new int[stripCount][64];
+            stackSizes = new int[stripCount];
+            borders = new int[stripCount][64];
+            borderSizes = new int[stripCount];
+            tasks = new StripTask[stripCount];
+            for (int i = 0; i < stripCount; i++) {
+                tasks[i] = new StripTask(i);
+            }
+        }
+        int outputSize = FrameProcessor.getOutputSize(format, w, h);
+        if (output == null || output.length != outputSize) {
+            output = new byte[outputSize];
+            // The tile cache's mask lived in the old array
+            if (tileCache != null) {
+                tileCache.invalidate();
+            }
+        }
+        outputFormat = format;
+    }
+    
+    private void readLuma(ByteBuffer yPlane, int yRowStride) {
+        // Bulk copies; gray is converted in place by the first pass
+        if (yRowStride == width) {
+            yPlane.clear();
+            yPlane.get(gray, 0, width * height);
+        } else {
+            for (int row = 0; row < height; row++) {
+                yPlane.limit(row * yRowStride + width).position(row * yRowStride);
+                yPlane.get(gray, row * width, width);
+            }
+        }
+        yPlane.clear();
+    }
+    
+    private void runPass(int pass) {
+        if (pool == null) {
+            for (int strip = 0; strip < stripCount; strip++) {
+                runStrip(pass, strip);
+            }
+            return;
+        }
+        // Tasks are reused for every pass and frame, so this allocates nothing
+        for (StripTask task : tasks) {
+            task.pass = pass;
+            task.reinitialize();
+        }
+        passTask.reinitialize();
+        pool.invoke(passTask);
+    }
+    
+    private void runStrip(int pass, int strip) {
+        int y0 = strip * rowsPerStrip;
+        int y1 = Math.min(y0 + rowsPerStrip, height);
+        switch (pass) {
+            case PASS_GRAY:
+                toGray(y0, y1);
+                break;
+            case PASS_BLUR:
+                blurVertical(y0, y1);
+                break;
+            case PASS_GRADIENT:
+                computeGradients(y0, y1);
+                break;
+            case PASS_SUPPRESS:
+                suppressNonMaxima(strip, y0, y1);
+                traceStrip(strip, y0, y1);
+                break;
+            case PASS_OUTPUT:
+                writeOutput(y0, y1);
+                break;
+        }
+    }
+    
+    private void toGray(int y0, int y1) {
+        if (!lumaOnly) {
+            byte[] g = gray;
+            for (int i = y0 * width, end = y1 * width; i < end; i++) {
+                g[i] = LUMA_TO_GRAY[g[i] & 0xFF];
+            }
+        }
+        if (blurEnabled) {
+            blurHorizontal(y0, y1);
+        }
+    }
+    
+    // Kernel [1 4 6 4 1] with BORDER_REFLECT_101, like cv::GaussianBlur. Horizontal sums stay
+    // unscaled; the vertical pass divides by 256 with rounding.
+    private void blurHorizontal(int y0, int y1) {
+        int w = width;
+        byte[] g = gray;
+        int[] out = blurRows;
+        for (int y = y0; y < y1; y++) {
+            int row = y * w;
+            for (int x = 0; x < w; x++) {
+                out[row + x] = (g[row + reflect(x - 2, w)] & 0xFF)
+                        + 4 * (g[row + reflect(x - 1, w)] & 0xFF)
+                        + 6 * (g[row + x] & 0xFF)
+                        + 4 * (g[row + reflect(x + 1, w)] & 0xFF)
+                        + (g[row + reflect(x + 2, w)] & 0xFF);
+            }
+        }
+    }
+    
+    private void blurVertical(int y0, int y1) {
+        int w = width;
+        int h = height;
+        int[] in = blurRows;
+        byte[] g = gray;
+        for (int y = y0; y < y1; y++) {
+            int r0 = reflect(y - 2, h) * w;
+            int r1 = reflect(y - 1, h) * w;
+            int r2 = y * w;
+            int r3 = reflect(y + 1, h) * w;
+            int r4 = reflect(y + 2, h) * w;
+            for (int x = 0; x < w; x++) {
+                int sum = in[r0 + x] + 4 * in[r1 + x] + 6 * in[r2 + x] + 4 * in[r3 + x] + in[r4 + x];
+                g[r2 + x] = (byte) ((sum + 128) >> 8);
+            }
+        }
+    }
+    
+    private static int reflect(int i, int n) {
+        if (n == 1) return 0;
+        if (i < 0) return -i;
+        if (i >= n) return 2 * n - 2 - i;
+        return i;
+    }
+    
+    // 3x3 Sobel with replicated borders, as cv::Sobel(..., CV_16S, 1, 0, 3) and (0, 1, 3)
+    private void computeGradients(int y0, int y1) {
+        int w = width;
+        int h = height;
+        int magStep = w + 2;
+        byte[] g = gray;
+        for (int y = y0; y < y1; y++) {
+            int above = Math.max(y - 1, 0) * w;
+            int row = y * w;
+            int below = Math.min(y + 1, h - 1) * w;
+            int m = (y + 1) * magStep + 1;
+            for (int x = 0; x < w; x++) {
+                int l = Math.max(x - 1, 0);
+                int r = Math.min(x + 1, w - 1);
+                int al = g[above + l] & 0xFF, ac = g[above + x] & 0xFF, ar = g[above + r] & 0xFF;
+                int cl = g[row + l] & 0xFF, cr = g[row + r] & 0xFF;
+                int bl = g[below + l] & 0xFF, bc = g[below + x] & 0xFF, br = g[below + r] & 0xFF;
+                int sx = (ar - al) + 2 * (cr - cl) + (br - bl);
+                int sy = (bl + 2 * bc + br) - (al + 2 * ac + ar);
+                dx[row + x] = sx;
+                dy[row + x] = sy;
+                mag[m + x] = Math.abs(sx) + Math.abs(sy);
+            }
+        }
+    }
+    
+    private void suppressNonMaxima(int strip, int y0, int y1) {
+        int w = width;
+        int step = w + 2;
+        int[] m = mag;
+        int size = 0;
+        int[] stack = stacks[strip];
+        
+        for (int y = y0; y < y1; y++) {
+            int row = y * w;
+            int rowStart = (y + 1) * step + 1;
+            for (int x = 0; x < w; x++) {
+                int c = rowStart + x;
+                int value = m[c];
+                boolean peak = false;
+                
+                if (value > LOW_THRESHOLD) {
+                    int xs = dx[row + x];
+                    int ys = dy[row + x];
+                    int ax = Math.abs(xs);
+                    int ay = Math.abs(ys) << CANNY_SHIFT;
+                    int tg22x = ax * TG22;
+                    
+                    if (ay < tg22x) {
+                        // Horizontal gradient: compare left and right
+                        peak = value > m[c - 1] && value >= m[c + 1];
+                    } else {
+                        int tg67x = tg22x + (ax << (CANNY_SHIFT + 1));
+                        if (ay > tg67x) {
+                            // Vertical gradient: compare above and below
+                            peak = value > m[c - step] && value >= m[c + step];
+                        } else {
+                            int s = (xs ^ ys) < 0 ? -1 : 1;
+                            peak = value > m[c - step - s] && value > m[c + step + s];
+                        }
+                    }
+                }
+                
+                if (!peak) {
+                    map[c] = MAP_NONE;
+                } else if (value > HIGH_THRESHOLD) {
+                    map[c] = MAP_EDGE;
+                    if (size == stack.length) {
+                        stack = Arrays.copyOf(stack, size * 2);
+                    }
+                    stack[size++] = c;
+                } else {
+                    map[c] = MAP_WEAK;
+                }
+            }
+        }
+        stacks[strip] = stack;
+        stackSizes[strip] = size;
+    }
+    
+    private void traceStrip(int strip, int y0, int y1) {
+        int step = width + 2;
+        int firstRow = y0 + 1;
+        int lastRow = y1;
+        int[] stack = stacks[strip];
+        int size = stackSizes[strip];
+        int[] border = borders[strip];
+        int borderSize = 0;
+        byte[] m = map;
+        
+        while (size > 0) {
+            int index = stack[--size];
+            int row = index / step;
+            for (int k = 0; k < 8; k++) {
+                int rowOffset = k < 3 ? -1 : (k < 5 ? 0 : 1);
+                int neighbour = index + rowOffset * step + COLUMN_OFFSETS[k];
+                // Rows owned by another strip are left for the sequential border pass
+                if (row + rowOffset < firstRow || row + rowOffset > lastRow) {
+                    if (borderSize == border.length) {
+                        border = Arrays.copyOf(border, borderSize * 2);
+                    }
+                    border[borderSize++] = neighbour;
+                } else if (m[neighbour] == MAP_WEAK) {
+                    m[neighbour] = MAP_EDGE;
+                    if (size == stack.length) {
+                        stack = Arrays.copyOf(stack, size * 2);
+                    }
+                    stack[size++] = neighbour;
+                }
+            }
+        }
+        stacks[strip] = stack;
+        borders[strip] = border;
+        borderSizes[strip] = borderSize;
+    }
+    
+    private void traceBorders() {
+        int step = width + 2;
+        byte[] m = map;
+        int[] stack = stacks[0];
+        int size = 0;
+        
+        for (int strip = 0; strip < stripCount; strip++) {
+            int[] border = borders[strip];
+            for (int i = 0, n = borderSizes[strip]; i < n; i++) {
+                int index = border[i];
+                if (m[index] == MAP_WEAK) {
+                    m[index] = MAP_EDGE;
+                    if (size == stack.length) {
+                        stack = Arrays.copyOf(stack, size * 2);
+                    }
+                    stack[size++] = index;
+                }
+            }
+            borderSizes[strip] = 0;
+        }
+        
+        while (size > 0) {
+            int index = stack[--size];
+            for (int k = 0; k < 8; k++) {
+                int rowOffset = k < 3 ? -1 : (k < 5 ? 0 : 1);
+                int neighbour = index + rowOffset * step + COLUMN_OFFSETS[k];
+                if (m[neighbour] == MAP_WEAK) {
+                    m[neighbour] = MAP_EDGE;
+                    if (size == stack.length) {
+                        stack = Arrays.copyOf(stack, size * 2);
+                    }
+                    stack[size++] = neighbour;
+                }
+            }
+        }
+        stacks[0] = stack;
+    }
+    
+    private void writeOutput(int y0, int y1) {
+        int w = width;
+        int step = w + 2;
+        byte[] out = output;
+        boolean rgba = outputFormat == OUTPUT_RGBA;
+        for (int y = y0; y < y1; y++) {
+            int m = (y + 1) * step + 1;
+            int o = y * w;
+            for (int x = 0; x < w; x++) {
+                byte value = map[m + x] == MAP_EDGE ? (byte) 255 : 0;
+                if (rgba) {
+                    int p = (o + x) * 4;
+                    out[p] = value;
+                    out[p + 1] = value;
+                    out[p + 2] = value;
+                    out[p + 3] = (byte) 255;
+                } else {
+                    out[o + x] = value;
+                }
+            }
+        }
+    }
+    
+    // Fraction of edge pixels (non-zero) in either mask that have no edge pixel in the other
+    // mask within radius pixels. Used to check this engine against the native one.
+    public static double compareMasks(ByteBuffer a, ByteBuffer b, int width, int height, int radius) {
+        long edges = 0;
+        long unmatched = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                boolean inA = a.get(y * width + x) != 0;
+                boolean inB = b.get(y * width + x) != 0;
+                if (inA) {
+                    edges++;
+                    if (!hasEdgeNear(b, width, height, x, y, radius)) unmatched++;
+                }
+                if (inB) {
+                    edges++;
+                    if (!hasEdgeNear(a, width, height, x, y, radius)) unmatched++;
+                }
+            }
+        }
+        return edges == 0 ? 0.0 : (double) unmatched / edges;
+    }
+    
+    private static boolean hasEdgeNear(ByteBuffer mask, int width, int height, int x, int y, int radius) {
+        for (int yy = Math.max(y - radius, 0); yy <= Math.min(y + radius, height - 1); yy++) {
+            for (int xx = Math.max(x - radius, 0); xx <= Math.min(x + radius, width - 1); xx++) {
+                if (mask.get(yy * width + xx) != 0) return true;
+            }
+        }
+        return false;
+    }
+    
+    // Never serialized, like the rest of the detector
+    @SuppressWarnings("serial")
+    private class PassTask extends RecursiveAction {
+        @Override
+        protected void compute() {
+            ForkJoinTask.invokeAll(tasks);
+        }
+    }
+    
+    @SuppressWarnings("serial")
+    private class StripTask extends RecursiveAction {
+        private final int strip;
+        private int pass;
+        
+        StripTask(int strip) {
+            this.strip = strip;
+        }
+        
+        @Override
+        protected void compute() {
+            runStrip(pass, strip);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.example.edgedetection;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Lock-free histogram of nanosecond durations. Buckets are log-linear: every power of two is
+// split into 16 equal sub-buckets, so any recorded value is reported within 1/16 (6.25%) of its
+// true value from 16 ns up to about 36 minutes. record() is a handful of atomic adds and never
+// blocks; snapshots copy the bucket counts while writers keep going.
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+    
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder totalNs = new LongAdder();
+    private final AtomicLong maxNs = new AtomicLong();
+    
+    public void record(long durationNs) {
+        if (durationNs < 0) durationNs = 0;
+        buckets.incrementAndGet(bucketIndex(durationNs));
+        totalNs.add(durationNs);
+        long max;
+        while (durationNs > (max = maxNs.get()) && !maxNs.compareAndSet(max, durationNs)) {
+            // retry
+        }
+    }
+    
+    // Convenience for timing a section that started at startNs (System.nanoTime())
+    public void recordSince(long startNs) {
+        record(System.nanoTime() - startNs);
+    }
+    
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += buckets.get(i);
+        }
+        return count;
+    }
+    
+    public double getMeanMs() {
+        long count = getCount();
+        return count > 0 ? totalNs.sum() / 1e6 / count : 0.0;
+    }
+    
+    public double getMaxMs() {
+        return maxNs.get() / 1e6;
+    }
+    
+    // Cumulative counts since creation. Each bucket is read atomically; the snapshot's count is
+    // the sum of the copied buckets, so its percentiles are always self-consistent.
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(i);
+        }
+        return new Snapshot(counts, totalNs.sum(), maxNs.get());
+    }
+    
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+    
+    static long bucketLowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = index % SUB_BUCKETS;
+        return (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+    }
+    
+    static long bucketWidth(int index) {
+        return index < SUB_BUCKETS ? 1 : 1L << (index / SUB_BUCKETS - 1);
+    }
+    
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long totalNs;
+        private final long maxNs;
+        
+        Snapshot(long[] counts, long totalNs, long maxNs) {
+            this.counts = counts;
+            this.totalNs = totalNs;
+            this.maxNs = maxNs;
+            long sum = 0;
+            for (long c : counts) {
+                sum += c;
+            }
+            this.count = sum;
+        }
+        
+        // Values recorded between earlier and this snapshot. The interval maximum is the top of
+        // the highest non-empty bucket, capped by the exact all-time maximum.
+        public Snapshot since(Snapshot earlier) {
+            long[] delta = new long[counts.length];
+            int top = -1;
+            for (int i = 0; i < counts.length; i++) {
+                delta[i] = counts[i] - earlier.counts[i];
+                if (delta[i] > 0) top = i;
+            }
+            long max = top < 0 ? 0 : Math.min(maxNs,
+                    bucketLowerBound(top) + bucketWidth(top) - 1);
+            return new Snapshot(delta, totalNs - earlier.totalNs, max);
+        }
+        
+        public long getCount() {
+            return count;
+        }
+        
+        public double getMeanMs() {
+            return count > 0 ? totalNs / 1e6 / count : 0.0;
+        }
+        
+        public double getMaxMs() {
+            return maxNs / 1e6;
+        }
+        
+        // Value at the given percentile (0-100), as the midpoint of the bucket it falls in
+        public double getPercentileMs(double percentile) {
+            if (count == 0) return 0.0;
+            long rank = (long) Math.ceil(percentile / 100.0 * count);
+            if (rank < 1) rank = 1;
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    long mid = bucketLowerBound(i) + bucketWidth(i) / 2;
+                    return Math.min(mid, maxNs) / 1e6;
+                }
+            }
+            return maxNs / 1e6;
+        }
+    }
+}
@@ -2,13 +2,14 @@ package com.example.edgedetection;
 
 import android.Manifest;
 import android.content.pm.PackageManager;
-import android.media.Image;
+import android.opengl.GLSurfaceView;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
 import android.util.Size;
 import android.view.TextureView;
+import android.view.View;
 import android.widget.Button;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -18,27 +19,101 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
 public class MainActivity extends AppCompatActivity {
     private static final String TAG = "MainActivity";
     private static final int CAMERA_PERMISSION_REQUEST_CODE = 100;
     
+    // Detect edges on the Y plane alone: chroma is never copied or read and neither colour
+    // conversion runs, at the cost of Canny seeing video-range luma instead of full-range gray
+    private static final boolean EDGES_FROM_LUMA = true;
+    
+    // Edge detection engines, cycled by the backend button. The GPU backend needs luma frames:
+    // the detect stage passes them through and the renderer runs the shader passes on upload.
+    private static final int BACKEND_NATIVE = 0;
+    private static final int BACKEND_JAVA = 1;
+    private static final int BACKEND_GPU = 2;
+    private static final String[] BACKEND_NAMES = {"Native", "Java", "GPU"};
+    
+    // Filters cycled by the filter button after the raw feed. The native engine runs them as
+    // compiled plans; the Java and GPU backends detect plain edges for every filter.
+    private static final String[] FILTER_NAMES = {"Edges", "Bold edges", "Smoothed edges", "Grayscale"};
+    private static final FilterPipeline[] FILTERS = {
+            FilterPipeline.EDGES,
+            new FilterPipeline.Builder().canny(50, 150).dilate(3).build(),
+            new FilterPipeline.Builder().blur(5).canny(30, 90).build(),
+            new FilterPipeline.Builder().build()
+    };
+    
+    // Tile size for incremental detection, which only recomputes edges where the scene changed
+    // (fixed-mount cameras); 0 processes every frame in full
+    private static final int INCREMENTAL_TILE_SIZE = 64;
+    
+    // Frame rate the resolution governor holds by lowering the processing resolution
+    private static final double TARGET_FPS = 30;
+    
+    // Web viewers connect here for edge-map frames and stats (adb forward tcp:8080 tcp:8080)
+    private static final int FRAME_SERVER_PORT = 8080;
+    
     private TextureView textureView;
     private Button btnToggleCamera;
     private Button btnToggleFilter;
+    private Button btnToggleBackend;
+    private Button btnRecord;
     private TextView statsTextView;
+    private GLSurfaceView glSurfaceView;
+    private OpenGLRenderer renderer;
+    private TextureStream maskStream;
     
     private CameraHelper cameraHelper;
-    private ImageProcessorNative imageProcessor;
+    // Set while recording; read by the camera thread for every frame
+    private volatile FrameRecorder frameRecorder;
+    // Handed over by the startup warm-up; null until then, and the native one for good if the
+    // library did not load
+    private volatile ImageProcessorNative nativeProcessor;
+    private volatile FrameProcessor javaProcessor;
+    private volatile int backend;
     
     private boolean isCameraOpen = false;
-    private boolean isEdgeDetectionEnabled = false;
-    
-    // Frame statistics
-    private long frameCount = 0;
-    private long lastFrameTime = 0;
-    private double fps = 0.0;
-    private long totalProcessingTime = 0;
-    private int averageProcessingTime = 0;
+    private volatile boolean isEdgeDetectionEnabled = false;
+    // Index into FILTERS, or -1 for the raw feed
+    private int filter = -1;
+    private volatile FilterPipeline filterPipeline = FilterPipeline.EDGES;
+    
+    // Camera frames and the edge masks written by native code; buffers are reused until the
+    // processing size changes
+    private final FramePool inputPool = new FramePool(4);
+    private final FramePool maskPool = new FramePool(4);
+    private final YuvConverter yuvConverter = new YuvConverter();
+    private ProcessingPipeline<SourceFrame> pipeline;
+    private ResolutionGovernor resolutionGovernor;
+    
+    // Frame statistics: written by the camera and pipeline threads, read once a second by the
+    // stats updater on the UI thread
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final LongAdder cameraFrames = metrics.counter("camera");
+    private final LongAdder processingErrors = metrics.counter("errors");
+    private final LongAdder tiles = metrics.counter("tiles");
+    private final LongAdder recomputedTiles = metrics.counter("tilesRecomputed");
+    private final AtomicLong inputWidth = metrics.gauge("width");
+    private final AtomicLong inputHeight = metrics.gauge("height");
+    private MetricsSnapshot lastSnapshot;
+    private StatsReporter statsReporter;
+    private final StartupOrchestrator startup = new StartupOrchestrator(metrics);
+    
+    // Edge-map export: the encoder is only touched by the publish stage
+    private FrameServer frameServer;
+    private final EdgeMapCodec.Encoder edgeMapEncoder = new EdgeMapCodec.Encoder();
+    private byte[] edgeMapBuffer = new byte[0];
     private Handler statsHandler = new Handler(Looper.getMainLooper());
     private Runnable statsUpdater = new Runnable() {
         @Override
@@ -50,13 +125,20 @@ public class MainActivity extends AppCompatActivity {
     
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        startup.markPhase(StartupOrchestrator.PHASE_CREATE);
         super.onCreate(savedInstanceState);
+        // The engines warm up in the background from here on, while the views are set up and
+        // the camera opens
+        initCamera();
+        initImageProcessor();
         setContentView(R.layout.activity_main);
         
         initViews();
         setupListeners();
-        initCamera();
-        initImageProcessor();
+        cameraHelper.setPreviewView(textureView);
+        initPipeline();
+        initStatsReporter();
+        initFrameServer();
         checkCameraPermission();
         
         // Start stats updater
@@ -67,12 +149,26 @@ public class MainActivity extends AppCompatActivity {
         textureView = findViewById(R.id.textureView);
         btnToggleCamera = findViewById(R.id.btnToggleCamera);
         btnToggleFilter = findViewById(R.id.btnToggleFilter);
+        btnToggleBackend = findViewById(R.id.btnToggleBackend);
+        btnRecord = findViewById(R.id.btnRecord);
         statsTextView = findViewById(R.id.statsTextView);
+        
+        // Edge masks are drawn over the preview as luminance textures
+        glSurfaceView = findViewById(R.id.glSurfaceView);
+        glSurfaceView.setEGLContextClientVersion(2);
+        maskStream = new TextureStream(metrics);
+        renderer = new OpenGLRenderer();
+        renderer.setTextureStream(maskStream);
+        renderer.setMetrics(metrics);
+        glSurfaceView.setRenderer(renderer);
+        glSurfaceView.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
     }
     
     private void setupListeners() {
         btnToggleCamera.setOnClickListener(v -> toggleCamera());
         btnToggleFilter.setOnClickListener(v -> toggleFilter());
+        btnToggleBackend.setOnClickListener(v -> toggleBackend());
+        btnRecord.setOnClickListener(v -> toggleRecording());
     }
     
     private void initCamera() {
@@ -80,6 +176,7 @@ public class MainActivity extends AppCompatActivity {
         cameraHelper.setStateCallback(new CameraHelper.CameraStateCallback() {
             @Override
             public void onOpened() {
+                startup.markPhase(StartupOrchestrator.PHASE_CAMERA);
                 runOnUiThread(() -> {
                     isCameraOpen = true;
                     Toast.makeText(MainActivity.this, "Camera opened", Toast.LENGTH_SHORT).show();
@@ -95,46 +192,257 @@ public class MainActivity extends AppCompatActivity {
             }
         });
         
-        cameraHelper.setImageAvailableListener(this::processImage);
+        cameraHelper.setFrameListener(this::onFrame);
     }
     
+    // Library loading and engine setup run on the startup thread at the size the camera will
+    // deliver (cached from the last launch). The pipeline drops frames until they are handed over.
     private void initImageProcessor() {
-        imageProcessor = new ImageProcessorNative();
-        boolean initialized = imageProcessor.initialize();
-        Log.d(TAG, "Image processor initialized: " + initialized);
+        Size size = cameraHelper.getExpectedPreviewSize();
+        startup.warmUpEngines(size.getWidth(), size.getHeight(), this::configureProcessor, this::onEnginesReady);
     }
     
-    private void processImage(Image image) {
-        if (image == null) return;
-        
-        long startTime = System.currentTimeMillis();
+    // Starts on the native engine, or the Java one if the native library failed to load
+    private void onEnginesReady(ImageProcessorNative nativeEngine, FrameProcessor javaEngine) {
+        if (isDestroyed()) {
+            if (nativeEngine != null) nativeEngine.release();
+            javaEngine.release();
+            return;
+        }
+        if (nativeEngine != null) {
+            // The filter may have been chosen while the engines warmed up
+            nativeEngine.setFilterPipeline(filterPipeline);
+        } else if (backend == BACKEND_NATIVE) {
+            backend = BACKEND_JAVA;
+        }
+        nativeProcessor = nativeEngine;
+        javaProcessor = javaEngine;
+    }
+    
+    private void configureProcessor(FrameProcessor processor) {
+        // The detect stage thread takes part in every strip loop, so one core is already covered
+        int cores = Runtime.getRuntime().availableProcessors();
+        processor.setParallelism(Math.max(cores - 1, 0), 0);
+        processor.setLumaOnly(EDGES_FROM_LUMA);
+        processor.setIncrementalTiles(INCREMENTAL_TILE_SIZE);
+    }
+    
+    private void initPipeline() {
+        // One-deep queues with drop-oldest keep latency flat: a slow stage skips frames
+        // instead of building a backlog behind the camera
+        pipeline = new ProcessingPipeline<>(new ProcessingPipeline.Converter<SourceFrame>() {
+            @Override
+            public FramePool.Frame convert(SourceFrame frame) {
+                return convertFrame(frame);
+            }
+            
+            @Override
+            public void release(SourceFrame frame) {
+                frame.close();
+            }
+        }, this::detectEdges, this::publishFrame, 1, OverflowPolicy.DROP_OLDEST, metrics);
         
-        // Get image data
-        // For simplicity, we'll just close the image without processing
-        // In a real implementation, we would convert the image to a byte array and process it
+        // Detection cost decides the resolution of the frames the convert stage produces
+        resolutionGovernor = new ResolutionGovernor(TARGET_FPS, metrics);
+        resolutionGovernor.setEnabled(backend != BACKEND_GPU);
+    }
+    
+    private void initStatsReporter() {
+        try {
+            statsReporter = new StatsReporter(new URL(getString(R.string.stats_server_url)));
+        } catch (MalformedURLException e) {
+            Log.e(TAG, "Invalid stats server URL", e);
+        }
+    }
+    
+    private void initFrameServer() {
+        frameServer = new FrameServer(FRAME_SERVER_PORT, metrics);
+        try {
+            frameServer.start();
+            Log.d(TAG, "Frame server listening on port " + frameServer.getPort());
+        } catch (IOException e) {
+            Log.e(TAG, "Frame server could not start", e);
+            frameServer = null;
+        }
+    }
+    
+    private void onFrame(SourceFrame frame) {
+        startup.markPhase(StartupOrchestrator.PHASE_FIRST_FRAME);
+        cameraFrames.increment();
         
-        long endTime = System.currentTimeMillis();
-        long processingTime = endTime - startTime;
+        FrameRecorder recorder = frameRecorder;
+        if (recorder != null) {
+            try {
+                recorder.record(frame);
+            } catch (IOException e) {
+                Log.e(TAG, "Recording failed", e);
+                runOnUiThread(this::stopRecording);
+            }
+        }
         
-        // Update statistics
-        frameCount++;
-        totalProcessingTime += processingTime;
-        averageProcessingTime = (int) (totalProcessingTime / frameCount);
+        if (isEdgeDetectionEnabled) {
+            // The pipeline owns the frame from here and closes it once processed or dropped
+            pipeline.submit(frame);
+        } else {
+            frame.close();
+        }
+    }
+    
+    // Convert stage. At full resolution the camera frame goes on as it is and the engine reads
+    // its planes in place; the image stays out of the camera's reader until detection is done
+    // (see CameraHelper.MAX_IMAGES). Only when the governor has lowered the processing
+    // resolution is it scaled into a pooled I420 buffer (just the Y plane in luma mode) and
+    // handed back right away. The GPU backend always gets a pooled copy: its ES2 luma upload
+    // needs packed rows, and the frame waits on the GL thread for the next draw.
+    private FramePool.Frame convertFrame(SourceFrame source) {
+        float scale = resolutionGovernor.getScale();
+        int width = YuvConverter.getScaledSize(source.getWidth(), scale);
+        int height = YuvConverter.getScaledSize(source.getHeight(), scale);
+        inputWidth.set(width);
+        inputHeight.set(height);
+        if (backend != BACKEND_GPU && width == source.getWidth() && height == source.getHeight()) {
+            return FramePool.wrap(source);
+        }
         
-        if (lastFrameTime > 0) {
-            long frameTime = System.currentTimeMillis() - lastFrameTime;
-            fps = 0.9 * fps + 0.1 * (1000.0 / frameTime);
+        try {
+            configureInputPool(width, height);
+            FramePool.Frame frame = inputPool.acquire();
+            if (frame == null) return null;
+            
+            yuvConverter.scaleFrame(source, EDGES_FROM_LUMA, width, height, frame.getBuffer());
+            frame.setTimestampNs(source.getTimestampNs());
+            return frame;
+        } finally {
+            source.close();
+        }
+    }
+    
+    // Detect stage: the engine reads the planes in place (the camera's own, or the packed ones
+    // of a scaled copy) and writes the edge mask into a pooled buffer. On the GPU backend the
+    // luma frame itself goes on to the display.
+    private FramePool.Frame detectEdges(FramePool.Frame input) {
+        int current = backend;
+        if (current == BACKEND_GPU) {
+            return input.retain();
         }
-        lastFrameTime = System.currentTimeMillis();
+        FrameProcessor processor = current == BACKEND_NATIVE ? nativeProcessor : javaProcessor;
+        if (processor == null) {
+            // Still warming up
+            return null;
+        }
+        
+        // Masks follow the input size, which changes with the processing scale
+        int width = input.getWidth();
+        int height = input.getHeight();
+        maskPool.configure(width, height, FrameProcessor.getOutputSize(FrameProcessor.OUTPUT_MASK, width, height));
+        FramePool.Frame mask = maskPool.acquire();
+        if (mask == null) return null;
         
-        // Close the image
-        image.close();
+        long start = System.nanoTime();
+        int written = processor.processFrameDirect(
+                input.getPlane(0),
+                EDGES_FROM_LUMA ? null : input.getPlane(1),
+                EDGES_FROM_LUMA ? null : input.getPlane(2),
+                input.getRowStride(0), input.getRowStride(1), input.getPixelStride(1),
+                width, height, mask.getBuffer(), FrameProcessor.OUTPUT_MASK);
+        if (written < 0) {
+            processingErrors.increment();
+            mask.release();
+            return null;
+        }
+        resolutionGovernor.onFrameProcessed(System.nanoTime() - start);
+        tiles.add(processor.getTileCount());
+        recomputedTiles.add(processor.getRecomputedTiles());
+        mask.setTimestampNs(input.getTimestampNs());
+        return mask;
+    }
+    
+    // Publish stage: hand the mask to the GL thread. The stream keeps its own reference until
+    // the upload, and replaces (and counts) masks the display did not get to in time.
+    private void publishFrame(FramePool.Frame mask) {
+        startup.markPhase(StartupOrchestrator.PHASE_FIRST_PROCESSED);
+        maskStream.offer(mask.retain());
+        glSurfaceView.requestRender();
+        exportFrame(mask);
+    }
+    
+    // Sends the mask to connected web viewers as an edge map. GPU masks never leave the GL
+    // thread, so there is nothing to export on that backend.
+    private void exportFrame(FramePool.Frame mask) {
+        if (frameServer == null || frameServer.getViewerCount() == 0 || backend == BACKEND_GPU) {
+            return;
+        }
+        // Edge maps carry binary masks; gray filter output has no encoding
+        if (backend == BACKEND_NATIVE && !filterPipeline.isBinary()) {
+            return;
+        }
+        int width = mask.getWidth();
+        int height = mask.getHeight();
+        int maxSize = EdgeMapCodec.getMaxEncodedSize(width, height);
+        if (edgeMapBuffer.length < maxSize) {
+            edgeMapBuffer = new byte[maxSize];
+        }
+        if (frameServer.takeKeyFrameRequest()) {
+            edgeMapEncoder.requestKeyFrame();
+        }
+        int length = edgeMapEncoder.encode(mask.getBuffer(), width, height, edgeMapBuffer);
+        frameServer.broadcastFrame(edgeMapBuffer, length,
+                (edgeMapBuffer[0] & EdgeMapCodec.FLAG_DELTA) == 0);
+    }
+    
+    private void configureInputPool(int width, int height) {
+        // No-op unless the size differs from the last frame
+        int inputSize = EDGES_FROM_LUMA ? width * height : YuvConverter.getI420Size(width, height);
+        if (inputPool.configure(width, height, inputSize)) {
+            Log.d(TAG, "Input pool configured for " + width + "x" + height);
+        }
     }
     
     private void updateStatsDisplay() {
-        String stats = String.format("FPS: %.1f\nProcessing Time: %d ms\nFrames: %d", 
-                fps, averageProcessingTime, frameCount);
+        if (nativeProcessor != null) {
+            metrics.gauge("nativeReserved").set(ImageProcessorNative.getTotalNativeBytesReserved());
+            metrics.gauge("nativeInUse").set(nativeProcessor.getNativeBytesInUse());
+        }
+        
+        // Everything shown covers the last update interval
+        MetricsSnapshot snapshot = metrics.snapshot();
+        MetricsSnapshot previous = lastSnapshot;
+        MetricsSnapshot interval = previous != null ? snapshot.since(previous) : snapshot;
+        lastSnapshot = snapshot;
+        
+        String stats = String.format(Locale.US,
+                "Backend: %s\nScale: %d%% (%dx%d)  Tiles recomputed: %s\n"
+                        + "FPS: %.1f camera, %.1f processed, %.1f shown\n"
+                        + "%s\n%s\n%s\n%s\n%s\n%s\nDropped: %d  Skipped: %d  Errors: %d\nPool: %s\n"
+                        + "Native: %.1f MB reserved, %.1f MB in use\nStartup: first frame %d ms, first processed %d ms",
+                BACKEND_NAMES[backend], snapshot.getGauge("scale"),
+                snapshot.getGauge("width"), snapshot.getGauge("height"), describeTileRatio(interval),
+                interval.getRate("camera"), interval.getRate("published"), interval.getRate("uploaded"),
+                interval.describeHistogram("convert"), interval.describeHistogram("detect"),
+                interval.describeHistogram("upload"), interval.describeHistogram("gpu"),
+                interval.describeHistogram("draw"),
+                interval.describeHistogram("latency"), interval.getCounter("dropped"),
+                interval.getCounter("skipped"), interval.getCounter("errors"), maskPool.getStats(),
+                snapshot.getGauge("nativeReserved") / 1e6, snapshot.getGauge("nativeInUse") / 1e6,
+                startup.getPhaseMs(StartupOrchestrator.PHASE_FIRST_FRAME),
+                startup.getPhaseMs(StartupOrchestrator.PHASE_FIRST_PROCESSED));
         statsTextView.setText(stats);
+        
+        if (previous != null) {
+            String json = interval.toJson();
+            if (statsReporter != null) {
+                statsReporter.report(json);
+            }
+            if (frameServer != null) {
+                frameServer.broadcastText(json);
+            }
+        }
+    }
+    
+    private static String describeTileRatio(MetricsSnapshot interval) {
+        long total = interval.getCounter("tiles");
+        if (total == 0) return "-";
+        return String.format(Locale.US, "%.0f%%", 100.0 * interval.getCounter("tilesRecomputed") / total);
     }
     
     private void checkCameraPermission() {
@@ -163,14 +471,14 @@ public class MainActivity extends AppCompatActivity {
     }
     
     private void openCamera() {
-        cameraHelper.startBackgroundThread();
+        pipeline.start();
         if (textureView.isAvailable()) {
-            cameraHelper.openCamera(textureView);
+            cameraHelper.start();
         } else {
             textureView.setSurfaceTextureListener(new TextureView.SurfaceTextureListener() {
                 @Override
                 public void onSurfaceTextureAvailable(android.graphics.SurfaceTexture surface, int width, int height) {
-                    cameraHelper.openCamera(textureView);
+                    cameraHelper.start();
                 }
 
                 @Override
@@ -188,8 +496,15 @@ public class MainActivity extends AppCompatActivity {
     }
     
     private void closeCamera() {
-        cameraHelper.closeCamera();
-        cameraHelper.stopBackgroundThread();
+        stopRecording();
+        // Pipeline first: wrapped frames still read the planes of images the reader owns, and
+        // closing the reader frees them
+        pipeline.stop();
+        cameraHelper.stop();
+        // Nothing is processed until the camera is back, at a resolution that may differ
+        if (nativeProcessor != null) {
+            nativeProcessor.trimMemory();
+        }
         isCameraOpen = false;
         Toast.makeText(this, "Camera closed", Toast.LENGTH_SHORT).show();
     }
@@ -203,20 +518,91 @@ public class MainActivity extends AppCompatActivity {
     }
     
     private void toggleFilter() {
-        isEdgeDetectionEnabled = !isEdgeDetectionEnabled;
-        String filterMode = isEdgeDetectionEnabled ? getString(R.string.edge_detection) : getString(R.string.raw_feed);
+        filter = filter + 1 < FILTERS.length ? filter + 1 : -1;
+        isEdgeDetectionEnabled = filter >= 0;
+        glSurfaceView.setVisibility(isEdgeDetectionEnabled ? View.VISIBLE : View.GONE);
+        if (!isEdgeDetectionEnabled) {
+            maskStream.clear();
+        } else {
+            filterPipeline = FILTERS[filter];
+            // Compiled here on the UI thread; the detect stage swaps the finished plan in
+            ImageProcessorNative processor = nativeProcessor;
+            if (processor != null) {
+                processor.setFilterPipeline(filterPipeline);
+            }
+        }
+        String filterMode = isEdgeDetectionEnabled ? FILTER_NAMES[filter] : getString(R.string.raw_feed);
         Toast.makeText(this, "Filter: " + filterMode, Toast.LENGTH_SHORT).show();
     }
     
+    // Records camera frames to app storage for replay on a host (ReplayFrameSource)
+    private void toggleRecording() {
+        if (frameRecorder != null) {
+            stopRecording();
+            return;
+        }
+        Size size = cameraHelper.getPreviewSize();
+        if (!isCameraOpen || size == null) {
+            Toast.makeText(this, "Open the camera to record", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        
+        File dir = getExternalFilesDir("recordings");
+        if (dir == null) {
+            dir = getFilesDir();
+        }
+        String name = new SimpleDateFormat("'capture-'yyyyMMdd-HHmmss'.yuvrec'", Locale.US).format(new Date());
+        File file = new File(dir, name);
+        try {
+            frameRecorder = new FrameRecorder(file, size.getWidth(), size.getHeight());
+            btnRecord.setText(R.string.stop_recording);
+            Toast.makeText(this, "Recording to " + file, Toast.LENGTH_SHORT).show();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not start recording", e);
+            Toast.makeText(this, "Could not start recording", Toast.LENGTH_SHORT).show();
+        }
+    }
+    
+    private void stopRecording() {
+        FrameRecorder recorder = frameRecorder;
+        if (recorder == null) return;
+        
+        frameRecorder = null;
+        btnRecord.setText(R.string.record);
+        try {
+            recorder.close();
+            Toast.makeText(this, "Recorded " + recorder.getFrameCount() + " frames", Toast.LENGTH_SHORT).show();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not finish recording", e);
+        }
+    }
+    
+    // Cycles Native -> Java -> GPU, skipping Native when the library is not loaded. Takes effect
+    // with the next frame the detect stage picks up.
+    private void toggleBackend() {
+        int next = (backend + 1) % BACKEND_NAMES.length;
+        if (next == BACKEND_NATIVE && nativeProcessor == null) {
+            next = BACKEND_JAVA;
+        }
+        backend = next;
+        renderer.setGpuEdgesEnabled(next == BACKEND_GPU);
+        // Engines differ in cost, so the governor starts over from full scale
+        resolutionGovernor.setEnabled(next != BACKEND_GPU);
+        Toast.makeText(this, "Backend: " + BACKEND_NAMES[next], Toast.LENGTH_SHORT).show();
+    }
+    
     @Override
     protected void onPause() {
         closeCamera();
+        glSurfaceView.onPause();
+        maskStream.clear();
         super.onPause();
     }
     
     @Override
     protected void onResume() {
         super.onResume();
+        glSurfaceView.onResume();
         if (isCameraOpen) {
             openCamera();
         }
@@ -225,9 +611,19 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        if (imageProcessor != null) {
-            imageProcessor.release();
+        startup.shutdown();
+        if (nativeProcessor != null) {
+            nativeProcessor.release();
+        }
+        if (javaProcessor != null) {
+            javaProcessor.release();
         }
         statsHandler.removeCallbacks(statsUpdater);
+        if (statsReporter != null) {
+            statsReporter.shutdown();
+        }
+        if (frameServer != null) {
+            frameServer.stop();
+        }
     }
 }
\ No newline at end of file
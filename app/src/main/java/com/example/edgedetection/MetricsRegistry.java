@@ -0,0 +1,63 @@
+package com.example.edgedetection;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Named latency histograms, striped counters and gauges shared by the processing threads and the
+// readers (stats overlay, web reporting). Hot paths look their metrics up once and then only
+// touch lock-free objects; the registry lock is taken for registration and snapshots, never
+// while recording.
+public class MetricsRegistry {
+    private final Map<String, LatencyHistogram> histograms = new LinkedHashMap<>();
+    private final Map<String, LongAdder> counters = new LinkedHashMap<>();
+    private final Map<String, AtomicLong> gauges = new LinkedHashMap<>();
+    
+    // Returns the histogram registered under name, creating it on first use
+    public synchronized LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = histograms.get(name);
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            histograms.put(name, histogram);
+        }
+        return histogram;
+    }
+    
+    public synchronized LongAdder counter(String name) {
+        LongAdder counter = counters.get(name);
+        if (counter == null) {
+            counter = new LongAdder();
+            counters.put(name, counter);
+        }
+        return counter;
+    }
+    
+    // Last-value metric, e.g. the current frame width
+    public synchronized AtomicLong gauge(String name) {
+        AtomicLong gauge = gauges.get(name);
+        if (gauge == null) {
+            gauge = new AtomicLong();
+            gauges.put(name, gauge);
+        }
+        return gauge;
+    }
+    
+    // Cumulative values of every metric. Recording threads are not paused: each value is read
+    // atomically, and histogram percentiles are computed from the copied bucket counts.
+    public synchronized MetricsSnapshot snapshot() {
+        Map<String, LatencyHistogram.Snapshot> histogramValues = new LinkedHashMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            histogramValues.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        Map<String, Long> counterValues = new LinkedHashMap<>();
+        for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+            counterValues.put(entry.getKey(), entry.getValue().sum());
+        }
+        Map<String, Long> gaugeValues = new LinkedHashMap<>();
+        for (Map.Entry<String, AtomicLong> entry : gauges.entrySet()) {
+            gaugeValues.put(entry.getKey(), entry.getValue().get());
+        }
+        return new MetricsSnapshot(System.nanoTime(), 0, histogramValues, counterValues, gaugeValues);
+    }
+}
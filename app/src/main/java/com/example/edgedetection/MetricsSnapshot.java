@@ -0,0 +1,119 @@
+package com.example.edgedetection;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// Immutable view of a MetricsRegistry. Snapshots taken by snapshot() are cumulative;
+// since(earlier) turns two of them into the metrics of the interval in between, which is what
+// the overlay and the web viewer show.
+public class MetricsSnapshot {
+    private final long timestampNs;
+    private final long intervalNs;
+    private final Map<String, LatencyHistogram.Snapshot> histograms;
+    private final Map<String, Long> counters;
+    private final Map<String, Long> gauges;
+    
+    MetricsSnapshot(long timestampNs, long intervalNs, Map<String, LatencyHistogram.Snapshot> histograms,
+                    Map<String, Long> counters, Map<String, Long> gauges) {
+        this.timestampNs = timestampNs;
+        this.intervalNs = intervalNs;
+        this.histograms = Collections.unmodifiableMap(histograms);
+        this.counters = Collections.unmodifiableMap(counters);
+        this.gauges = Collections.unmodifiableMap(gauges);
+    }
+    
+    public MetricsSnapshot since(MetricsSnapshot earlier) {
+        Map<String, LatencyHistogram.Snapshot> histogramDeltas = new LinkedHashMap<>();
+        for (Map.Entry<String, LatencyHistogram.Snapshot> entry : histograms.entrySet()) {
+            LatencyHistogram.Snapshot before = earlier.histograms.get(entry.getKey());
+            histogramDeltas.put(entry.getKey(), before != null ? entry.getValue().since(before) : entry.getValue());
+        }
+        Map<String, Long> counterDeltas = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> entry : counters.entrySet()) {
+            Long before = earlier.counters.get(entry.getKey());
+            counterDeltas.put(entry.getKey(), entry.getValue() - (before != null ? before : 0));
+        }
+        return new MetricsSnapshot(timestampNs, timestampNs - earlier.timestampNs,
+                histogramDeltas, counterDeltas, gauges);
+    }
+    
+    // Time covered by an interval snapshot; 0 for cumulative ones
+    public double getIntervalSeconds() {
+        return intervalNs / 1e9;
+    }
+    
+    public LatencyHistogram.Snapshot getHistogram(String name) {
+        return histograms.get(name);
+    }
+    
+    public long getCounter(String name) {
+        Long value = counters.get(name);
+        return value != null ? value : 0;
+    }
+    
+    // Counter increments per second over the interval
+    public double getRate(String name) {
+        return intervalNs > 0 ? getCounter(name) / (intervalNs / 1e9) : 0.0;
+    }
+    
+    public long getGauge(String name) {
+        Long value = gauges.get(name);
+        return value != null ? value : 0;
+    }
+    
+    // Percentile line for the overlay, e.g. "detect   p50 4.1 p90 5.0 p99 7.9 max 9.2 ms"
+    public String describeHistogram(String name) {
+        LatencyHistogram.Snapshot h = histograms.get(name);
+        if (h == null || h.getCount() == 0) {
+            return String.format(Locale.US, "%-8s -", name);
+        }
+        return String.format(Locale.US, "%-8s p50 %.1f p90 %.1f p99 %.1f max %.1f ms", name,
+                h.getPercentileMs(50), h.getPercentileMs(90), h.getPercentileMs(99), h.getMaxMs());
+    }
+    
+    // JSON for the web viewer. Times are milliseconds; counters carry both the value and,
+    // for interval snapshots, the per-second rate.
+    public String toJson() {
+        StringBuilder sb = new StringBuilder(512);
+        sb.append("{\"intervalMs\":").append(formatNumber(intervalNs / 1e6));
+        
+        sb.append(",\"counters\":{");
+        boolean first = true;
+        for (Map.Entry<String, Long> entry : counters.entrySet()) {
+            if (!first) sb.append(',');
+            first = false;
+            sb.append('"').append(entry.getKey()).append("\":{\"value\":").append(entry.getValue())
+                    .append(",\"rate\":").append(formatNumber(getRate(entry.getKey()))).append('}');
+        }
+        
+        sb.append("},\"gauges\":{");
+        first = true;
+        for (Map.Entry<String, Long> entry : gauges.entrySet()) {
+            if (!first) sb.append(',');
+            first = false;
+            sb.append('"').append(entry.getKey()).append("\":").append(entry.getValue());
+        }
+        
+        sb.append("},\"histograms\":{");
+        first = true;
+        for (Map.Entry<String, LatencyHistogram.Snapshot> entry : histograms.entrySet()) {
+            if (!first) sb.append(',');
+            first = false;
+            LatencyHistogram.Snapshot h = entry.getValue();
+            sb.append('"').append(entry.getKey()).append("\":{\"count\":").append(h.getCount())
+                    .append(",\"mean\":").append(formatNumber(h.getMeanMs()))
+                    .append(",\"p50\":").append(formatNumber(h.getPercentileMs(50)))
+                    .append(",\"p90\":").append(formatNumber(h.getPercentileMs(90)))
+                    .append(",\"p99\":").append(formatNumber(h.getPercentileMs(99)))
+                    .append(",\"max\":").append(formatNumber(h.getMaxMs())).append('}');
+        }
+        sb.append("}}");
+        return sb.toString();
+    }
+    
+    private static String formatNumber(double value) {
+        return String.format(Locale.US, "%.3f", value);
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.edgedetection;
+
+import android.util.Log;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Frees native memory whose Java owner was collected without being released, in the manner of
+// java.lang.ref.Cleaner (Java 9, so not available on every supported Android version). The
+// action runs exactly once: from clean(), which the owner's release() calls, or on the
+// "NativeCleaner" daemon thread after the owner became phantom reachable. Actions must not
+// reference the owner, or it never becomes unreachable; capture the native handle instead.
+final class NativeCleaner {
+    private static final String TAG = "NativeCleaner";
+    private static final ReferenceQueue<Object> QUEUE = new ReferenceQueue<>();
+    // Keeps registered references reachable until they are cleaned
+    private static final Set<Cleanable> PENDING = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    
+    static {
+        Thread thread = new Thread(NativeCleaner::run, "NativeCleaner");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    static final class Cleanable extends PhantomReference<Object> {
+        private final Runnable action;
+        
+        private Cleanable(Object owner, Runnable action) {
+            super(owner, QUEUE);
+            this.action = action;
+        }
+        
+        // Runs the action unless it already ran
+        void clean() {
+            if (PENDING.remove(this)) {
+                clear();
+                action.run();
+            }
+        }
+    }
+    
+    private NativeCleaner() {
+    }
+    
+    static Cleanable register(Object owner, Runnable action) {
+        Cleanable cleanable = new Cleanable(owner, action);
+        PENDING.add(cleanable);
+        return cleanable;
+    }
+    
+    private static void run() {
+        while (true) {
+            try {
+                Cleanable cleanable = (Cleanable) QUEUE.remove();
+                Log.w(TAG, "Freeing native memory of an instance that was never released");
+                cleanable.clean();
+            } catch (InterruptedException e) {
+                // Daemon thread; keep serving the queue
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Cleanup failed", e);
+            }
+        }
+    }
+}
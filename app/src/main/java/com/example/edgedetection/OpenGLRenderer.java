@@ -8,6 +8,9 @@ import android.util.Log;
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
+// Draws a texture over the whole viewport. Geometry lives in buffer objects uploaded once per
+// GL context and all attribute/uniform locations are looked up at link time, so onDrawFrame()
+// makes no allocations and no name lookups.
 public class OpenGLRenderer implements GLSurfaceView.Renderer {
     private static final String TAG = "OpenGLRenderer";
     
@@ -41,108 +44,159 @@ public class OpenGLRenderer implements GLSurfaceView.Renderer {
             "  gl_FragColor = vec4(gray, gray, gray, color.a);" +
             "}";
     
-    private int programRGB;
-    private int programGray;
-    private int currentProgram;
+    // A linked program and the locations it is drawn with
+    private static class Program {
+        final int id;
+        final int positionHandle;
+        final int texCoordHandle;
+        final int textureHandle;
     
-    private float[] squareCoords = {
+        Program(int id) {
+            this.id = id;
+            positionHandle = GLES20.glGetAttribLocation(id, "aPosition");
+            texCoordHandle = GLES20.glGetAttribLocation(id, "aTexCoord");
+            textureHandle = GLES20.glGetUniformLocation(id, "uTexture");
+        }
+    }
+    
+    private static final float[] SQUARE_COORDS = {
             -1.0f,  1.0f, 0.0f,  // top left
             -1.0f, -1.0f, 0.0f,  // bottom left
              1.0f, -1.0f, 0.0f,  // bottom right
              1.0f,  1.0f, 0.0f   // top right
     };
     
-    private float[] textureCoords = {
+    private static final float[] TEXTURE_COORDS = {
             0.0f, 0.0f,  // top left
             0.0f, 1.0f,  // bottom left
             1.0f, 1.0f,  // bottom right
             1.0f, 0.0f   // top right
     };
     
-    private short[] drawOrder = { 0, 1, 2, 0, 2, 3 }; // order to draw vertices
+    private static final short[] DRAW_ORDER = { 0, 1, 2, 0, 2, 3 }; // order to draw vertices
+    
+    private Program programRGB;
+    private Program programGray;
+    private volatile Program currentProgram;
     
-    private int positionHandle;
-    private int texCoordHandle;
-    private int textureHandle;
+    // Buffer objects holding SQUARE_COORDS, TEXTURE_COORDS and DRAW_ORDER
+    private int vertexBuffer;
+    private int texCoordBuffer;
+    private int indexBuffer;
     
-    private int textureId = -1;
-    private boolean textureInitialized = false;
-    private boolean useGrayscaleShader = false;
+    private volatile int textureId = -1;
+    private volatile boolean useGrayscaleShader = false;
+    private volatile LatencyHistogram drawTimes;
+    private volatile TextureStream textureStream;
+    
+    // Optional GPU edge detection on the streamed texture, rerun only when a new frame arrives
+    private final GpuEdgeDetector gpuEdges = new GpuEdgeDetector();
+    private volatile boolean gpuEdgesEnabled = false;
+    private long gpuFrameNumber = -1;
+    private int gpuResultTexture = -1;
+    private int surfaceWidth;
+    private int surfaceHeight;
     
     @Override
     public void onSurfaceCreated(GL10 unused, EGLConfig config) {
         // Set the background frame color
         GLES20.glClearColor(0.0f, 0.0f, 0.0f, 1.0f);
         
-        // Initialize shaders and program
-        int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, VERTEX_SHADER_CODE);
-        int fragmentShaderRGB = loadShader(GLES20.GL_FRAGMENT_SHADER, FRAGMENT_SHADER_CODE_RGB);
-        int fragmentShaderGray = loadShader(GLES20.GL_FRAGMENT_SHADER, FRAGMENT_SHADER_CODE_GRAY);
+        // A new context has none of the old objects, so everything is created again here
+        int vertexShader = OpenGLUtils.compileShader(GLES20.GL_VERTEX_SHADER, VERTEX_SHADER_CODE);
+        int fragmentShaderRGB = OpenGLUtils.compileShader(GLES20.GL_FRAGMENT_SHADER, FRAGMENT_SHADER_CODE_RGB);
+        int fragmentShaderGray = OpenGLUtils.compileShader(GLES20.GL_FRAGMENT_SHADER, FRAGMENT_SHADER_CODE_GRAY);
+        
+        programRGB = createProgram(vertexShader, fragmentShaderRGB);
+        programGray = createProgram(vertexShader, fragmentShaderGray);
+        
+        GLES20.glDeleteShader(vertexShader);
+        GLES20.glDeleteShader(fragmentShaderRGB);
+        GLES20.glDeleteShader(fragmentShaderGray);
+        
+        vertexBuffer = OpenGLUtils.createBufferObject(GLES20.GL_ARRAY_BUFFER,
+                OpenGLUtils.createFloatBuffer(SQUARE_COORDS), SQUARE_COORDS.length * 4);
+        texCoordBuffer = OpenGLUtils.createBufferObject(GLES20.GL_ARRAY_BUFFER,
+                OpenGLUtils.createFloatBuffer(TEXTURE_COORDS), TEXTURE_COORDS.length * 4);
+        indexBuffer = OpenGLUtils.createBufferObject(GLES20.GL_ELEMENT_ARRAY_BUFFER,
+                OpenGLUtils.createShortBuffer(DRAW_ORDER), DRAW_ORDER.length * 2);
         
-        programRGB = GLES20.glCreateProgram();
-        GLES20.glAttachShader(programRGB, vertexShader);
-        GLES20.glAttachShader(programRGB, fragmentShaderRGB);
-        GLES20.glLinkProgram(programRGB);
+        currentProgram = useGrayscaleShader ? programGray : programRGB;
         
-        programGray = GLES20.glCreateProgram();
-        GLES20.glAttachShader(programGray, vertexShader);
-        GLES20.glAttachShader(programGray, fragmentShaderGray);
-        GLES20.glLinkProgram(programGray);
+        TextureStream stream = textureStream;
+        if (stream != null) {
+            stream.onSurfaceCreated();
+        }
         
-        currentProgram = programRGB;
+        if (!gpuEdges.initialize()) {
+            Log.e(TAG, "GPU edge detection unavailable on this device");
+        }
+        gpuFrameNumber = -1;
+        gpuResultTexture = -1;
     }
     
     @Override
     public void onSurfaceChanged(GL10 unused, int width, int height) {
         GLES20.glViewport(0, 0, width, height);
+        surfaceWidth = width;
+        surfaceHeight = height;
     }
     
     @Override
     public void onDrawFrame(GL10 unused) {
+        long start = System.nanoTime();
+        
         // Draw background color
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
         
-        if (textureId != -1) {
+        // Pick up the newest streamed frame, if any
+        TextureStream stream = textureStream;
+        if (stream != null) {
+            textureId = stream.update();
+            if (gpuEdgesEnabled && textureId != -1) {
+                if (stream.getFrameNumber() != gpuFrameNumber) {
+                    gpuResultTexture = gpuEdges.process(textureId, stream.getWidth(), stream.getHeight());
+                    gpuFrameNumber = stream.getFrameNumber();
+                    GLES20.glViewport(0, 0, surfaceWidth, surfaceHeight);
+                }
+                textureId = gpuResultTexture;
+            }
+        }
+        
+        Program program = currentProgram;
+        if (textureId != -1 && program != null && indexBuffer != 0) {
             // Use the appropriate shader program
-            GLES20.glUseProgram(currentProgram);
-            
-            // Get handle to vertex shader's aPosition member
-            positionHandle = GLES20.glGetAttribLocation(currentProgram, "aPosition");
-            
-            // Enable a handle to the triangle vertices
-            GLES20.glEnableVertexAttribArray(positionHandle);
-            
-            // Prepare the square coordinates data
-            GLES20.glVertexAttribPointer(positionHandle, 3,
-                    GLES20.GL_FLOAT, false,
-                    0, OpenGLUtils.createFloatBuffer(squareCoords));
+            GLES20.glUseProgram(program.id);
             
-            // Get handle to texture coordinates location
-            texCoordHandle = GLES20.glGetAttribLocation(currentProgram, "aTexCoord");
+            // Square and texture coordinates come from the buffer objects
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBuffer);
+            GLES20.glEnableVertexAttribArray(program.positionHandle);
+            GLES20.glVertexAttribPointer(program.positionHandle, 3, GLES20.GL_FLOAT, false, 0, 0);
             
-            // Enable generic vertex attribute array
-            GLES20.glEnableVertexAttribArray(texCoordHandle);
-            
-            // Prepare the texture coordinates
-            GLES20.glVertexAttribPointer(texCoordHandle, 2,
-                    GLES20.GL_FLOAT, false,
-                    0, OpenGLUtils.createFloatBuffer(textureCoords));
-            
-            // Get handle to shape's transformation matrix
-            textureHandle = GLES20.glGetUniformLocation(currentProgram, "uTexture");
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, texCoordBuffer);
+            GLES20.glEnableVertexAttribArray(program.texCoordHandle);
+            GLES20.glVertexAttribPointer(program.texCoordHandle, 2, GLES20.GL_FLOAT, false, 0, 0);
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
             
             // Set the texture
             GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
             GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
-            GLES20.glUniform1i(textureHandle, 0);
+            GLES20.glUniform1i(program.textureHandle, 0);
             
             // Draw the square
-            GLES20.glDrawElements(GLES20.GL_TRIANGLES, drawOrder.length,
-                    GLES20.GL_UNSIGNED_SHORT, OpenGLUtils.createShortBuffer(drawOrder));
+            GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBuffer);
+            GLES20.glDrawElements(GLES20.GL_TRIANGLES, DRAW_ORDER.length, GLES20.GL_UNSIGNED_SHORT, 0);
+            GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
             
             // Disable vertex array
-            GLES20.glDisableVertexAttribArray(positionHandle);
-            GLES20.glDisableVertexAttribArray(texCoordHandle);
+            GLES20.glDisableVertexAttribArray(program.positionHandle);
+            GLES20.glDisableVertexAttribArray(program.texCoordHandle);
+        }
+        
+        // CPU time spent issuing the frame; the GPU may still be working on it
+        LatencyHistogram histogram = drawTimes;
+        if (histogram != null) {
+            histogram.recordSince(start);
         }
     }
     
@@ -150,20 +204,39 @@ public class OpenGLRenderer implements GLSurfaceView.Renderer {
         this.textureId = textureId;
     }
     
+    // Draws whatever the stream last uploaded instead of a fixed texture
+    public void setTextureStream(TextureStream stream) {
+        this.textureStream = stream;
+    }
+    
+    // Treat streamed frames as luma and run the GPU edge passes on them before drawing
+    public void setGpuEdgesEnabled(boolean enabled) {
+        gpuEdgesEnabled = enabled;
+    }
+    
+    // For verification against the CPU engines: GpuEdgeDetector.readMask() on the GL thread
+    // returns the last mask drawn
+    public GpuEdgeDetector getGpuEdgeDetector() {
+        return gpuEdges;
+    }
+    
     public void setUseGrayscaleShader(boolean useGrayscale) {
         this.useGrayscaleShader = useGrayscale;
         currentProgram = useGrayscale ? programGray : programRGB;
     }
     
-    private int loadShader(int type, String shaderCode) {
-        // Create a vertex shader type (GLES20.GL_VERTEX_SHADER)
-        // or a fragment shader type (GLES20.GL_FRAGMENT_SHADER)
-        int shader = GLES20.glCreateShader(type);
-        
-        // Add the source code to the shader and compile it
-        GLES20.glShaderSource(shader, shaderCode);
-        GLES20.glCompileShader(shader);
-        
-        return shader;
+    // Records the time of every onDrawFrame() call into the "draw" histogram
+    public void setMetrics(MetricsRegistry metrics) {
+        drawTimes = metrics != null ? metrics.histogram("draw") : null;
+        gpuEdges.setMetrics(metrics);
+    }
+    
+    private static Program createProgram(int vertexShader, int fragmentShader) {
+        int program = OpenGLUtils.linkProgram(vertexShader, fragmentShader);
+        if (program == 0) {
+            Log.e(TAG, "Shader program unavailable; nothing will be drawn with it");
+            return null;
+        }
+        return new Program(program);
     }
 }
\ No newline at end of file
@@ -1,11 +1,16 @@
 package com.example.edgedetection;
 
+import android.opengl.GLES20;
+import android.util.Log;
+
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.ShortBuffer;
 
 public class OpenGLUtils {
+    private static final String TAG = "OpenGLUtils";
     
     public static FloatBuffer createFloatBuffer(float[] coords) {
         // Initialize the texture buffer
@@ -26,4 +31,68 @@ public class OpenGLUtils {
         drawListBuffer.position(0);
         return drawListBuffer;
     }
+    
+    // Compiles a shader, returning 0 (and logging the info log) if compilation fails
+    public static int compileShader(int type, String source) {
+        int shader = GLES20.glCreateShader(type);
+        if (shader == 0) {
+            Log.e(TAG, "glCreateShader failed: 0x" + Integer.toHexString(GLES20.glGetError()));
+            return 0;
+        }
+        
+        GLES20.glShaderSource(shader, source);
+        GLES20.glCompileShader(shader);
+        
+        final int[] status = new int[1];
+        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, status, 0);
+        if (status[0] == 0) {
+            Log.e(TAG, "Shader compilation failed: " + GLES20.glGetShaderInfoLog(shader));
+            GLES20.glDeleteShader(shader);
+            return 0;
+        }
+        return shader;
+    }
+    
+    // Links a program from already compiled shaders, returning 0 (and logging the info log) if
+    // linking fails. The shaders can be deleted afterwards; the program keeps them alive.
+    public static int linkProgram(int vertexShader, int fragmentShader) {
+        if (vertexShader == 0 || fragmentShader == 0) {
+            return 0;
+        }
+        
+        int program = GLES20.glCreateProgram();
+        if (program == 0) {
+            Log.e(TAG, "glCreateProgram failed: 0x" + Integer.toHexString(GLES20.glGetError()));
+            return 0;
+        }
+        
+        GLES20.glAttachShader(program, vertexShader);
+        GLES20.glAttachShader(program, fragmentShader);
+        GLES20.glLinkProgram(program);
+        
+        final int[] status = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, status, 0);
+        if (status[0] == 0) {
+            Log.e(TAG, "Program link failed: " + GLES20.glGetProgramInfoLog(program));
+            GLES20.glDeleteProgram(program);
+            return 0;
+        }
+        return program;
+    }
+    
+    // Uploads data once into a new GL_STATIC_DRAW buffer object bound to target
+    // (GL_ARRAY_BUFFER or GL_ELEMENT_ARRAY_BUFFER). Returns 0 on failure.
+    public static int createBufferObject(int target, Buffer data, int sizeBytes) {
+        final int[] bufferIds = new int[1];
+        GLES20.glGenBuffers(1, bufferIds, 0);
+        if (bufferIds[0] == 0) {
+            Log.e(TAG, "Could not generate a new OpenGL buffer object.");
+            return 0;
+        }
+        
+        GLES20.glBindBuffer(target, bufferIds[0]);
+        GLES20.glBufferData(target, sizeBytes, data, GLES20.GL_STATIC_DRAW);
+        GLES20.glBindBuffer(target, 0);
+        return bufferIds[0];
+    }
 }
\ No newline at end of file
@@ -0,0 +1,11 @@
+package com.example.edgedetection;
+
+// What a bounded hand-off does when the consumer is behind and the queue is full
+public enum OverflowPolicy {
+    // Evict the oldest queued item so the newest frame always gets through
+    DROP_OLDEST,
+    // Reject the incoming item and keep what is already queued
+    DROP_NEWEST,
+    // Make the producer wait for space
+    BLOCK
+}
\ No newline at end of file
@@ -0,0 +1,271 @@
+package com.example.edgedetection;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+// Staged frame pipeline: acquire -> convert -> detect -> publish. The acquire stage is the
+// caller of submit() (the camera thread); every other stage runs on its own worker thread and
+// reads from a bounded queue, so a slow stage drops frames according to the overflow policy
+// instead of stalling the camera callbacks or letting latency grow without bound.
+// Stage times, end-to-end latency and frame/drop/error counts are recorded into a MetricsRegistry
+// under the stage names, "latency", "published", "dropped" and "errors".
+public class ProcessingPipeline<S> {
+    
+    // Turns a source item (e.g. a camera SourceFrame) into a frame for the detect stage. convert()
+    // owns the source from the call on, also when it throws: it either releases it or hands it
+    // over in the returned frame (FramePool.wrap). release() is called for sources that are
+    // dropped before conversion.
+    public interface Converter<S> {
+        FramePool.Frame convert(S source);
+        void release(S source);
+    }
+    
+    // Produces an output frame for an input frame, or null to skip it. The pipeline releases
+    // the input once detect() returns.
+    public interface Detector {
+        FramePool.Frame detect(FramePool.Frame input);
+    }
+    
+    // Consumes a result. The pipeline releases the frame afterwards; publishers that keep it
+    // must retain() it first.
+    public interface Publisher {
+        void publish(FramePool.Frame output);
+    }
+    
+    public static final String[] STAGE_NAMES = { "acquire", "convert", "detect", "publish" };
+    
+    private final Converter<S> converter;
+    private final Detector detector;
+    private final Publisher publisher;
+    
+    private final BoundedFrameQueue<S> convertQueue;
+    private final BoundedFrameQueue<FramePool.Frame> detectQueue;
+    private final BoundedFrameQueue<FramePool.Frame> publishQueue;
+    
+    private final LatencyHistogram[] stageTimes = new LatencyHistogram[STAGE_NAMES.length];
+    private final LatencyHistogram latency;
+    private final LongAdder published;
+    private final LongAdder dropped;
+    private final LongAdder errors;
+    
+    // Read without the lock by submit()
+    private volatile Thread[] workers;
+    
+    public ProcessingPipeline(Converter<S> converter, Detector detector, Publisher publisher,
+                              int queueCapacity, OverflowPolicy policy, MetricsRegistry metrics) {
+        this.converter = converter;
+        this.detector = detector;
+        this.publisher = publisher;
+        
+        for (int i = 0; i < STAGE_NAMES.length; i++) {
+            stageTimes[i] = metrics.histogram(STAGE_NAMES[i]);
+        }
+        latency = metrics.histogram("latency");
+        published = metrics.counter("published");
+        dropped = metrics.counter("dropped");
+        errors = metrics.counter("errors");
+        
+        BoundedFrameQueue.DropHandler<FramePool.Frame> releaseFrame = frame -> {
+            dropped.increment();
+            frame.release();
+        };
+        convertQueue = new BoundedFrameQueue<>(queueCapacity, policy, source -> {
+            dropped.increment();
+            converter.release(source);
+        });
+        detectQueue = new BoundedFrameQueue<>(queueCapacity, policy, releaseFrame);
+        publishQueue = new BoundedFrameQueue<>(queueCapacity, policy, releaseFrame);
+    }
+    
+    public synchronized void start() {
+        if (workers != null) return;
+        workers = new Thread[] {
+                new Thread(this::runConvert, "PipelineConvert"),
+                new Thread(this::runDetect, "PipelineDetect"),
+                new Thread(this::runPublish, "PipelinePublish")
+        };
+        for (Thread worker : workers) {
+            worker.start();
+        }
+    }
+    
+    public synchronized void stop() {
+        if (workers == null) return;
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        workers = null;
+        // Not drops: the frames were only in flight when the pipeline stopped
+        convertQueue.clear(converter::release);
+        detectQueue.clear(FramePool.Frame::release);
+        publishQueue.clear(FramePool.Frame::release);
+    }
+    
+    // Acquire stage. Returns false if the source was dropped (or the pipeline is stopped);
+    // either way ownership of the source has passed to the pipeline.
+    public boolean submit(S source) {
+        long start = System.nanoTime();
+        if (workers == null) {
+            dropped.increment();
+            converter.release(source);
+            return false;
+        }
+        try {
+            boolean queued = convertQueue.offer(source);
+            if (queued && workers == null) {
+                // stop() ran after the check above; no worker will take the source now
+                convertQueue.clear(converter::release);
+                return false;
+            }
+            return queued;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            dropped.increment();
+            converter.release(source);
+            return false;
+        } finally {
+            stageTimes[0].recordSince(start);
+        }
+    }
+    
+    private void runConvert() {
+        try {
+            while (true) {
+                S source = convertQueue.take();
+                long start = System.nanoTime();
+                FramePool.Frame frame = null;
+                try {
+                    frame = converter.convert(source);
+                } catch (RuntimeException e) {
+                    errors.increment();
+                }
+                stageTimes[1].recordSince(start);
+                if (frame == null) {
+                    // No pooled buffer free (or the conversion failed); the frame is lost
+                    dropped.increment();
+                    continue;
+                }
+                frame.setArrivalNs(start);
+                offer(detectQueue, frame);
+            }
+        } catch (InterruptedException e) {
+            // Pipeline stopped
+        }
+    }
+    
+    private void runDetect() {
+        try {
+            while (true) {
+                FramePool.Frame input = detectQueue.take();
+                long start = System.nanoTime();
+                long arrivalNs = input.getArrivalNs();
+                FramePool.Frame output = null;
+                try {
+                    output = detector.detect(input);
+                } catch (RuntimeException e) {
+                    errors.increment();
+                } finally {
+                    input.release();
+                }
+                stageTimes[2].recordSince(start);
+                if (output == null) {
+                    dropped.increment();
+                    continue;
+                }
+                output.setArrivalNs(arrivalNs);
+                offer(publishQueue, output);
+            }
+        } catch (InterruptedException e) {
+            // Pipeline stopped
+        }
+    }
+    
+    // Under BLOCK an interrupted offer has not queued the frame, so it is released here
+    private static void offer(BoundedFrameQueue<FramePool.Frame> queue, FramePool.Frame frame)
+            throws InterruptedException {
+        try {
+            queue.offer(frame);
+        } catch (InterruptedException e) {
+            frame.release();
+            throw e;
+        }
+    }
+    
+    private void runPublish() {
+        try {
+            while (true) {
+                FramePool.Frame output = publishQueue.take();
+                long start = System.nanoTime();
+                long arrivalNs = output.getArrivalNs();
+                try {
+                    publisher.publish(output);
+                } catch (RuntimeException e) {
+                    errors.increment();
+                } finally {
+                    output.release();
+                }
+                long end = System.nanoTime();
+                stageTimes[3].record(end - start);
+                latency.record(end - arrivalNs);
+                published.increment();
+            }
+        } catch (InterruptedException e) {
+            // Pipeline stopped
+        }
+    }
+    
+    // Frames counted by a stage; for acquire this is every submitted source
+    public long getProcessed(int stage) {
+        return stageTimes[stage].getCount();
+    }
+    
+    // Items dropped from the queue feeding a stage (0 for acquire, which has no input queue)
+    public long getDropped(int stage) {
+        BoundedFrameQueue<?> queue = getInputQueue(stage);
+        return queue != null ? queue.getDropped() : 0;
+    }
+    
+    public int getQueueDepth(int stage) {
+        BoundedFrameQueue<?> queue = getInputQueue(stage);
+        return queue != null ? queue.getDepth() : 0;
+    }
+    
+    public double getAverageStageTimeMs(int stage) {
+        return stageTimes[stage].getMeanMs();
+    }
+    
+    // Convert start to publish end, for frames that made it all the way through
+    public double getAverageLatencyMs() {
+        return latency.getMeanMs();
+    }
+    
+    public double getMaxLatencyMs() {
+        return latency.getMaxMs();
+    }
+    
+    private BoundedFrameQueue<?> getInputQueue(int stage) {
+        switch (stage) {
+            case 1: return convertQueue;
+            case 2: return detectQueue;
+            case 3: return publishQueue;
+            default: return null;
+        }
+    }
+    
+    public String describe() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < STAGE_NAMES.length; i++) {
+            if (i > 0) sb.append('\n');
+            sb.append(String.format(Locale.US, "%-8s n=%d q=%d drop=%d %.1fms", STAGE_NAMES[i],
+                    getProcessed(i), getQueueDepth(i), getDropped(i), getAverageStageTimeMs(i)));
+        }
+        return sb.toString();
+    }
+}
\ No newline at end of file
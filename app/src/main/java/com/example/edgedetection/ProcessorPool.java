@@ -0,0 +1,135 @@
+package com.example.edgedetection;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// Fixed set of engine instances for running several processing workers in parallel. Engines are
+// not thread-safe, so an instance only ever belongs to one thread: acquire() checks one out as a
+// Lease, and it goes back to the pool when the lease is released. The queue is touched at
+// checkout and return only; in between the worker calls its engine directly, with no lock and
+// nothing shared with the other workers. Each instance remembers the resolution its buffers were
+// sized for, across leases, and is only resized when a frame of another resolution comes along.
+public class ProcessorPool<T extends FrameProcessor> {
+    
+    // Creates a ready-to-use (initialized and configured) engine, or throws if it cannot
+    public interface Factory<T extends FrameProcessor> {
+        T create();
+    }
+    
+    public static class Lease<T extends FrameProcessor> {
+        private final ProcessorPool<T> pool;
+        private final T processor;
+        // Set and cleared by the holding thread itself, so no other thread can find itself here
+        private Thread owner;
+        private int width;
+        private int height;
+        
+        private Lease(ProcessorPool<T> pool, T processor) {
+            this.pool = pool;
+            this.processor = processor;
+        }
+        
+        // The leased engine, for the owning thread only
+        public T getProcessor() {
+            checkOwner();
+            return processor;
+        }
+        
+        // The leased engine with its buffers sized for width x height frames. Allocates only
+        // when the resolution differs from the one the instance was last prepared for.
+        public T prepare(int width, int height) {
+            checkOwner();
+            if (width != this.width || height != this.height) {
+                processor.allocateBuffers(width, height);
+                this.width = width;
+                this.height = height;
+            }
+            return processor;
+        }
+        
+        // Returns the engine to the pool; the lease must not be used afterwards
+        public void release() {
+            checkOwner();
+            owner = null;
+            pool.giveBack(this);
+        }
+        
+        private void checkOwner() {
+            if (owner != Thread.currentThread()) {
+                throw new IllegalStateException("Processor lease used by " + Thread.currentThread().getName()
+                        + ", which does not hold it");
+            }
+        }
+    }
+    
+    private final BlockingQueue<Lease<T>> free;
+    private final int size;
+    private volatile boolean released;
+    
+    // Creates all size instances up front. If one fails, those already created are released
+    // and the factory's exception is rethrown.
+    public ProcessorPool(int size, Factory<T> factory) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Pool size must be at least 1: " + size);
+        }
+        this.size = size;
+        free = new ArrayBlockingQueue<>(size);
+        try {
+            for (int i = 0; i < size; i++) {
+                free.add(new Lease<>(this, factory.create()));
+            }
+        } catch (RuntimeException e) {
+            releaseFree();
+            throw e;
+        }
+    }
+    
+    // Checks out an instance for the calling thread, waiting until one is free
+    public Lease<T> acquire() throws InterruptedException {
+        return checkOut(free.take());
+    }
+    
+    // Checks out an instance for the calling thread, or returns null if all are in use
+    public Lease<T> tryAcquire() {
+        Lease<T> lease = free.poll();
+        return lease != null ? checkOut(lease) : null;
+    }
+    
+    public int getSize() {
+        return size;
+    }
+    
+    public int getAvailable() {
+        return free.size();
+    }
+    
+    // Releases the free instances now and the leased ones as they come back
+    public void release() {
+        released = true;
+        releaseFree();
+    }
+    
+    private Lease<T> checkOut(Lease<T> lease) {
+        if (released) {
+            lease.processor.release();
+            throw new IllegalStateException("Processor pool has been released");
+        }
+        lease.owner = Thread.currentThread();
+        return lease;
+    }
+    
+    private void giveBack(Lease<T> lease) {
+        free.add(lease);
+        // A lease returned while release() drained the queue is picked up here
+        if (released) {
+            releaseFree();
+        }
+    }
+    
+    private void releaseFree() {
+        Lease<T> lease;
+        while ((lease = free.poll()) != null) {
+            lease.processor.release();
+        }
+    }
+}
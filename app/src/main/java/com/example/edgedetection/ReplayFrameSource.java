@@ -0,0 +1,300 @@
+package com.example.edgedetection;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+// Plays back a FrameRecorder file as a FrameSource. The file is mapped read-only and frames
+// are handed out as views of the mapping, so replay itself copies nothing.
+//
+// ORIGINAL timing delivers frames at their recorded intervals and, like the camera, skips a
+// frame when maxInFlight frames are still open. AS_FAST_AS_POSSIBLE waits for a frame to be
+// closed instead, so every recorded frame is delivered exactly once per pass; with a pipeline
+// that blocks rather than drops, runs are reproducible frame for frame.
+public class ReplayFrameSource implements FrameSource, Closeable {
+    
+    public enum Timing {
+        ORIGINAL,
+        AS_FAST_AS_POSSIBLE
+    }
+    
+    // Mappings are limited to 2 GB, so long recordings are mapped in windows of whole records
+    private static final long MAX_WINDOW_SIZE = 1L << 30;
+    
+    private final RandomAccessFile file;
+    private final int width;
+    private final int height;
+    private final int recordSize;
+    private final long frameCount;
+    private final int framesPerWindow;
+    private final MappedByteBuffer[] windows;
+    
+    private volatile Listener listener;
+    private Timing timing = Timing.ORIGINAL;
+    private boolean loop;
+    private Semaphore inFlight = new Semaphore(3);
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    
+    private Thread thread;
+    private volatile boolean finished;
+    
+    public ReplayFrameSource(File path) throws IOException {
+        file = new RandomAccessFile(path, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, FrameRecorder.HEADER_SIZE);
+            if (header.getLong() != FrameRecorder.MAGIC || header.getInt() != FrameRecorder.VERSION) {
+                throw new IOException(path + " is not a frame recording");
+            }
+            width = header.getInt();
+            height = header.getInt();
+            recordSize = header.getInt();
+            if (recordSize != FrameRecorder.getRecordSize(width, height)) {
+                throw new IOException(path + " has a corrupt header");
+            }
+            // A recording that was not closed may have mapped space past its last frame
+            long complete = (channel.size() - FrameRecorder.HEADER_SIZE) / recordSize;
+            frameCount = Math.min(header.getLong(), complete);
+            
+            framesPerWindow = (int) Math.max(MAX_WINDOW_SIZE / recordSize, 1);
+            windows = new MappedByteBuffer[(int) ((frameCount + framesPerWindow - 1) / framesPerWindow)];
+            for (int i = 0; i < windows.length; i++) {
+                long first = (long) i * framesPerWindow;
+                long frames = Math.min(framesPerWindow, frameCount - first);
+                windows[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        FrameRecorder.HEADER_SIZE + first * recordSize, frames * recordSize);
+            }
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+    
+    public int getWidth() {
+        return width;
+    }
+    
+    public int getHeight() {
+        return height;
+    }
+    
+    public long getFrameCount() {
+        return frameCount;
+    }
+    
+    public long getDeliveredCount() {
+        return delivered.sum();
+    }
+    
+    // Frames not delivered under ORIGINAL timing because too many were still open
+    public long getSkippedCount() {
+        return skipped.sum();
+    }
+    
+    @Override
+    public void setFrameListener(Listener listener) {
+        this.listener = listener;
+    }
+    
+    // The setters take effect with the next start()
+    public synchronized void setTiming(Timing timing) {
+        this.timing = timing;
+    }
+    
+    // Start over from the first frame after the last one, until stop()
+    public synchronized void setLoop(boolean loop) {
+        this.loop = loop;
+    }
+    
+    // Frames that may be open at once; the camera's ImageReader allows about three
+    public synchronized void setMaxInFlight(int frames) {
+        inFlight = new Semaphore(Math.max(frames, 1));
+    }
+    
+    @Override
+    public synchronized void start() {
+        if (thread != null && thread.isAlive()) return;
+        finished = false;
+        thread = new Thread(this::run, "ReplayFrameSource");
+        thread.start();
+    }
+    
+    @Override
+    public synchronized void stop() {
+        if (thread == null) return;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+    
+    // Waits until a non-looping replay has handed out its last frame. Returns false on timeout.
+    public boolean awaitFinished(long timeout, TimeUnit unit) throws InterruptedException {
+        Thread current;
+        synchronized (this) {
+            current = thread;
+        }
+        if (current != null) {
+            current.join(unit.toMillis(timeout));
+        }
+        return finished;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        stop();
+        file.close();
+    }
+    
+    public long getTimestampNs(long index) {
+        return record(index).getLong(0);
+    }
+    
+    // Frame index outside of playback, e.g. for batch processing. It is a view of the mapping
+    // like delivered frames but does not count towards maxInFlight. Safe from any thread.
+    public SourceFrame getFrame(long index) {
+        if (index < 0 || index >= frameCount) {
+            throw new IndexOutOfBoundsException("Frame " + index + " of " + frameCount);
+        }
+        return new ReplayFrame(record(index), null);
+    }
+    
+    private void run() {
+        Timing timing;
+        boolean loop;
+        Semaphore inFlight;
+        synchronized (this) {
+            timing = this.timing;
+            loop = this.loop;
+            inFlight = this.inFlight;
+        }
+        
+        if (frameCount == 0) {
+            finished = true;
+            return;
+        }
+        // A pass lasts one average frame interval longer than first to last frame, so looped
+        // replay keeps the recorded frame rate across the wrap
+        long firstTimestampNs = getTimestampNs(0);
+        long spanNs = getTimestampNs(frameCount - 1) - firstTimestampNs;
+        long passNs = frameCount > 1 ? spanNs + spanNs / (frameCount - 1) : 0;
+        
+        try {
+            long startNs = System.nanoTime();
+            do {
+                for (long i = 0; i < frameCount; i++) {
+                    if (timing == Timing.ORIGINAL) {
+                        long dueNs = startNs + (getTimestampNs(i) - firstTimestampNs);
+                        long waitNs = dueNs - System.nanoTime();
+                        if (waitNs > 0) {
+                            TimeUnit.NANOSECONDS.sleep(waitNs);
+                        }
+                        if (!inFlight.tryAcquire()) {
+                            skipped.increment();
+                            continue;
+                        }
+                    } else {
+                        inFlight.acquire();
+                    }
+                    deliver(i, inFlight);
+                }
+                startNs += passNs;
+            } while (loop);
+            finished = true;
+        } catch (InterruptedException e) {
+            // stop()
+        }
+    }
+    
+    private void deliver(long index, Semaphore inFlight) {
+        Listener current = listener;
+        ReplayFrame frame = new ReplayFrame(record(index), inFlight);
+        delivered.increment();
+        if (current != null) {
+            current.onFrame(frame);
+        } else {
+            frame.close();
+        }
+    }
+    
+    // View of one record: timestamp, index, then the I420 frame
+    private ByteBuffer record(long index) {
+        MappedByteBuffer window = windows[(int) (index / framesPerWindow)];
+        int offset = (int) (index % framesPerWindow) * recordSize;
+        ByteBuffer record = window.duplicate();
+        record.position(offset).limit(offset + recordSize);
+        return record.slice();
+    }
+    
+    private final class ReplayFrame implements SourceFrame {
+        private final long timestampNs;
+        private final ByteBuffer[] planes = new ByteBuffer[3];
+        private final Semaphore inFlight;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        
+        ReplayFrame(ByteBuffer record, Semaphore inFlight) {
+            this.inFlight = inFlight;
+            timestampNs = record.getLong(0);
+            int lumaSize = width * height;
+            int chromaSize = (width / 2) * (height / 2);
+            planes[0] = slice(record, FrameRecorder.RECORD_HEADER_SIZE, lumaSize);
+            planes[1] = slice(record, FrameRecorder.RECORD_HEADER_SIZE + lumaSize, chromaSize);
+            planes[2] = slice(record, FrameRecorder.RECORD_HEADER_SIZE + lumaSize + chromaSize, chromaSize);
+        }
+        
+        @Override
+        public int getWidth() {
+            return width;
+        }
+        
+        @Override
+        public int getHeight() {
+            return height;
+        }
+        
+        @Override
+        public long getTimestampNs() {
+            return timestampNs;
+        }
+        
+        @Override
+        public ByteBuffer getPlane(int index) {
+            return planes[index];
+        }
+        
+        @Override
+        public int getRowStride(int index) {
+            return index == 0 ? width : width / 2;
+        }
+        
+        @Override
+        public int getPixelStride(int index) {
+            return 1;
+        }
+        
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true) && inFlight != null) {
+                inFlight.release();
+            }
+        }
+        
+        private ByteBuffer slice(ByteBuffer record, int offset, int length) {
+            ByteBuffer plane = record.duplicate();
+            plane.position(offset).limit(offset + length);
+            return plane.slice();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.edgedetection;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Picks the processing scale from measured per-frame cost, so a slow device keeps its frame
+// rate at a lower resolution instead of dropping most frames at full size. Frames are scaled
+// down before detection and the mask is stretched back over the preview when it is drawn.
+//
+// Cost is smoothed with an exponential moving average and assumed to grow with pixel count.
+// Stepping down goes straight to the largest scale predicted to fit DOWNSCALE_TARGET of the
+// budget; stepping up goes one level at a time, only after the next level has been predicted
+// to fit UPSCALE_TARGET for UPSCALE_FRAMES frames in a row. The gap between the two targets
+// and the settling period after every change keep it from oscillating between levels.
+// Published as the "scale" gauge (percent) and the "rescaled" counter.
+public class ResolutionGovernor {
+    public static final float[] DEFAULT_SCALES = { 1f, 0.75f, 0.5f, 0.375f, 0.25f };
+    
+    private static final double SMOOTHING = 0.1;
+    private static final double DOWNSCALE_TARGET = 0.8;
+    private static final double UPSCALE_TARGET = 0.6;
+    // Frames ignored after a change while pools and caches warm up, then averaged afresh
+    private static final int SETTLE_FRAMES = 5;
+    private static final int MIN_SAMPLES = 10;
+    private static final int UPSCALE_FRAMES = 60;
+    
+    private final float[] scales;
+    private final AtomicLong scaleGauge;
+    private final LongAdder rescaled;
+    
+    private volatile int level;
+    private volatile boolean enabled = true;
+    private long budgetNs;
+    private double averageNs;
+    private int samples;
+    private int upscaleStreak;
+    
+    public ResolutionGovernor(double targetFps, MetricsRegistry metrics) {
+        this(DEFAULT_SCALES, targetFps, metrics);
+    }
+    
+    // scales must start at 1 and decrease
+    public ResolutionGovernor(float[] scales, double targetFps, MetricsRegistry metrics) {
+        if (scales.length == 0 || scales[0] != 1f) {
+            throw new IllegalArgumentException("Scales must start at 1");
+        }
+        this.scales = scales.clone();
+        scaleGauge = metrics.gauge("scale");
+        rescaled = metrics.counter("rescaled");
+        setTargetFps(targetFps);
+        scaleGauge.set(100);
+    }
+    
+    public synchronized void setTargetFps(double fps) {
+        budgetNs = (long) (1e9 / fps);
+        restart();
+    }
+    
+    // Disabled, the governor stays at full scale
+    public synchronized void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        setLevel(0);
+    }
+    
+    public float getScale() {
+        return scales[level];
+    }
+    
+    public int getLevel() {
+        return level;
+    }
+    
+    // Reports the processing time of one frame processed at getScale()
+    public synchronized void onFrameProcessed(long costNs) {
+        if (!enabled) return;
+        
+        if (samples < 0) {
+            samples++;
+            return;
+        }
+        averageNs = samples == 0 ? costNs : averageNs + SMOOTHING * (costNs - averageNs);
+        samples++;
+        if (samples < MIN_SAMPLES) return;
+        
+        int current = level;
+        if (averageNs > budgetNs) {
+            int target = current;
+            while (target < scales.length - 1 && predictNs(current, target) > DOWNSCALE_TARGET * budgetNs) {
+                target++;
+            }
+            setLevel(target);
+        } else if (current > 0 && predictNs(current, current - 1) <= UPSCALE_TARGET * budgetNs) {
+            if (++upscaleStreak >= UPSCALE_FRAMES) {
+                setLevel(current - 1);
+            }
+        } else {
+            upscaleStreak = 0;
+        }
+    }
+    
+    private double predictNs(int from, int to) {
+        double ratio = scales[to] / scales[from];
+        return averageNs * ratio * ratio;
+    }
+    
+    private void setLevel(int target) {
+        if (target != level) {
+            level = target;
+            scaleGauge.set(Math.round(scales[target] * 100));
+            rescaled.increment();
+        }
+        restart();
+    }
+    
+    private void restart() {
+        samples = -SETTLE_FRAMES;
+        averageNs = 0;
+        upscaleStreak = 0;
+    }
+}
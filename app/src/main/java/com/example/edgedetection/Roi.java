@@ -0,0 +1,62 @@
+package com.example.edgedetection;
+
+import java.util.Locale;
+
+// Rectangular region of a frame in pixels, for ImageProcessorNative.processRois(). Immutable.
+public final class Roi {
+    private final int x;
+    private final int y;
+    private final int width;
+    private final int height;
+    
+    public Roi(int x, int y, int width, int height) {
+        if (x < 0 || y < 0 || width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid region: " + x + "," + y + " " + width + "x" + height);
+        }
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+    }
+    
+    public int getX() {
+        return x;
+    }
+    
+    public int getY() {
+        return y;
+    }
+    
+    public int getWidth() {
+        return width;
+    }
+    
+    public int getHeight() {
+        return height;
+    }
+    
+    public int getArea() {
+        return width * height;
+    }
+    
+    public boolean fitsIn(int frameWidth, int frameHeight) {
+        return x + width <= frameWidth && y + height <= frameHeight;
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Roi)) return false;
+        Roi other = (Roi) o;
+        return x == other.x && y == other.y && width == other.width && height == other.height;
+    }
+    
+    @Override
+    public int hashCode() {
+        return ((x * 31 + y) * 31 + width) * 31 + height;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "Roi(%d,%d %dx%d)", x, y, width, height);
+    }
+}
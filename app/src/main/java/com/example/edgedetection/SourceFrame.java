@@ -0,0 +1,24 @@
+package com.example.edgedetection;
+
+import java.nio.ByteBuffer;
+
+// One YUV 4:2:0 frame in camera layout (YUV_420_888): three planes with their own row and pixel
+// strides. The planes stay valid until close(); whoever receives the frame must close it, once,
+// on any thread.
+public interface SourceFrame {
+    int getWidth();
+    
+    int getHeight();
+    
+    // Capture time in nanoseconds; only differences between frames of one source are meaningful
+    long getTimestampNs();
+    
+    // 0 = Y, 1 = U, 2 = V. Readers may move the position and limit of the returned buffer.
+    ByteBuffer getPlane(int index);
+    
+    int getRowStride(int index);
+    
+    int getPixelStride(int index);
+    
+    void close();
+}
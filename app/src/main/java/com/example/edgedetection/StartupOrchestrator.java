@@ -0,0 +1,129 @@
+package com.example.edgedetection;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Cold start off the main thread: loading libedgedetection (with OpenCV behind it), creating and
+// initializing the engines and running a first frame through each take longer than opening the
+// camera, so they run on a background thread while the activity sets up its views and the
+// camera opens. The engines are handed over on the main thread once warm.
+// Each startup phase is recorded once, in milliseconds since the process started, as a
+// "startup<Phase>Ms" gauge (so the stats report carries it) and in the log. The time to
+// PHASE_FIRST_PROCESSED is the time to the first processed frame.
+public class StartupOrchestrator {
+    private static final String TAG = "StartupOrchestrator";
+    
+    public static final int PHASE_CREATE = 0;          // activity onCreate
+    public static final int PHASE_LIBRARY = 1;         // native library loaded (or failed to)
+    public static final int PHASE_ENGINES = 2;         // engines initialized and warmed up
+    public static final int PHASE_CAMERA = 3;          // camera device opened
+    public static final int PHASE_FIRST_FRAME = 4;     // first camera frame delivered
+    public static final int PHASE_FIRST_PROCESSED = 5; // first mask published
+    public static final String[] PHASE_NAMES = {
+            "Create", "Library", "Engines", "Camera", "FirstFrame", "FirstProcessed"
+    };
+    
+    // Applies the app's settings (parallelism, luma-only, ...) to a freshly initialized engine
+    public interface Configurator {
+        void configure(FrameProcessor processor);
+    }
+    
+    // Called on the main thread. nativeProcessor is null if the library could not be loaded.
+    public interface Listener {
+        void onEnginesReady(ImageProcessorNative nativeProcessor, FrameProcessor javaProcessor);
+    }
+    
+    private final AtomicLong[] phases = new AtomicLong[PHASE_NAMES.length];
+    private final long processStartMs = Process.getStartElapsedRealtime();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "StartupWarmUp"));
+    
+    public StartupOrchestrator(MetricsRegistry metrics) {
+        for (int i = 0; i < PHASE_NAMES.length; i++) {
+            phases[i] = metrics.gauge("startup" + PHASE_NAMES[i] + "Ms");
+        }
+    }
+    
+    // Records phase the first time it is reached; later calls are one atomic read, so this can
+    // stay on per-frame paths
+    public void markPhase(int phase) {
+        AtomicLong gauge = phases[phase];
+        if (gauge.get() != 0) return;
+        long elapsedMs = Math.max(SystemClock.elapsedRealtime() - processStartMs, 1);
+        if (gauge.compareAndSet(0, elapsedMs)) {
+            Log.i(TAG, "Startup phase " + PHASE_NAMES[phase] + " at " + elapsedMs + " ms");
+        }
+    }
+    
+    // Milliseconds from process start to phase, or 0 if it has not been reached
+    public long getPhaseMs(int phase) {
+        return phases[phase].get();
+    }
+    
+    // Loads the library, then creates, configures and warms up the native engine (if it loaded)
+    // and the Java engine with one synthetic frame of the given size, the size the camera is
+    // expected to deliver. The engines are not touched again by this class once handed over.
+    public void warmUpEngines(int width, int height, Configurator configurator, Listener listener) {
+        executor.execute(() -> {
+            // First use of the class runs its static System.loadLibrary
+            boolean nativeAvailable = ImageProcessorNative.isAvailable();
+            markPhase(PHASE_LIBRARY);
+            
+            ImageProcessorNative nativeProcessor = nativeAvailable
+                    ? warmUp(new ImageProcessorNative(), width, height, configurator) : null;
+            FrameProcessor javaProcessor = warmUp(new JavaEdgeDetector(), width, height, configurator);
+            markPhase(PHASE_ENGINES);
+            mainHandler.post(() -> listener.onEnginesReady(nativeProcessor, javaProcessor));
+        });
+    }
+    
+    public void shutdown() {
+        executor.shutdown();
+    }
+    
+    // Sizes the engine's buffers and runs a frame through it, so one-time costs (OpenCV's lazy
+    // setup, thread pools, the frame arena, JIT compilation of the Java engine) are paid here
+    // and not by the first camera frame
+    private static <T extends FrameProcessor> T warmUp(T processor, int width, int height,
+                                                      Configurator configurator) {
+        long startNs = System.nanoTime();
+        boolean initialized = processor.initialize();
+        configurator.configure(processor);
+        processor.allocateBuffers(width, height);
+        
+        int chromaSize = (width / 2) * (height / 2);
+        ByteBuffer yPlane = ByteBuffer.allocateDirect(width * height);
+        ByteBuffer uPlane = ByteBuffer.allocateDirect(chromaSize);
+        ByteBuffer vPlane = ByteBuffer.allocateDirect(chromaSize);
+        ByteBuffer mask = ByteBuffer.allocateDirect(
+                FrameProcessor.getOutputSize(FrameProcessor.OUTPUT_MASK, width, height));
+        // A few bright bars, so every stage has edges to work on
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                yPlane.put((byte) ((x / 64) % 2 == 0 ? 16 : 235));
+            }
+        }
+        for (int i = 0; i < chromaSize; i++) {
+            uPlane.put((byte) 128);
+            vPlane.put((byte) 128);
+        }
+        yPlane.clear();
+        uPlane.clear();
+        vPlane.clear();
+        
+        int written = processor.processFrameDirect(yPlane, uPlane, vPlane, width, width / 2, 1,
+                width, height, mask, FrameProcessor.OUTPUT_MASK);
+        Log.d(TAG, processor.getClass().getSimpleName() + " initialized: " + initialized + ", warm-up frame "
+                + (written >= 0 ? "ok" : "failed") + " in " + (System.nanoTime() - startNs) / 1000000 + " ms");
+        return processor;
+    }
+}
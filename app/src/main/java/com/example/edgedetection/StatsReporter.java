@@ -0,0 +1,74 @@
+package com.example.edgedetection;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Posts metrics snapshots (MetricsSnapshot.toJson) to the web viewer's /api/stats endpoint on a
+// background thread. Only the newest snapshot is sent: if the server is slow, snapshots that
+// were queued behind an in-flight request are replaced rather than piling up.
+public class StatsReporter {
+    private static final int TIMEOUT_MS = 2000;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    
+    private final URL endpoint;
+    private final AtomicReference<String> pending = new AtomicReference<>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "StatsReporter");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean lastPostFailed;
+    
+    public StatsReporter(URL endpoint) {
+        this.endpoint = endpoint;
+    }
+    
+    public void report(String json) {
+        if (pending.getAndSet(json) == null) {
+            executor.execute(this::sendPending);
+        }
+    }
+    
+    // True if the most recent post did not reach the server
+    public boolean isFailing() {
+        return lastPostFailed;
+    }
+    
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+    
+    private void sendPending() {
+        String json = pending.getAndSet(null);
+        if (json == null) return;
+        
+        HttpURLConnection connection = null;
+        try {
+            byte[] body = json.getBytes(UTF_8);
+            connection = (HttpURLConnection) endpoint.openConnection();
+            connection.setConnectTimeout(TIMEOUT_MS);
+            connection.setReadTimeout(TIMEOUT_MS);
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+            lastPostFailed = connection.getResponseCode() >= 300;
+        } catch (IOException e) {
+            // Viewer not running; try again with the next snapshot
+            lastPostFailed = true;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+}
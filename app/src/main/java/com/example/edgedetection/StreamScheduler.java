@@ -0,0 +1,370 @@
+package com.example.edgedetection;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Several independent frame streams (cameras, replayed recordings) sharing one fixed set of
+// workers. Every worker holds one engine from a ProcessorPool for as long as it runs.
+//
+// Each stream has a slot for one waiting frame, next to the one being processed, and its own
+// overflow policy for when a frame arrives while the slot is taken: DROP_OLDEST keeps the
+// latest frame (the camera case), DROP_NEWEST keeps the waiting one and BLOCK makes the producer
+// wait (replays that must not lose frames). A stream has at most one frame in flight, so its
+// results come out in order; total throughput grows with workers up to the number of streams.
+//
+// Free workers go to the ready stream that has had the least worker time for its weight
+// (weighted fair queuing on virtual time): a stream is charged its processing time divided by
+// its weight, so with all streams busy, worker time is split in proportion to the weights. A
+// stream that falls idle does not bank credit; it rejoins at the current virtual time. A busy or
+// expensive stream can therefore not starve the others, it only loses frames from its own slot.
+//
+// Per stream, metrics go into the registry as "<name>.latency" (submit to processed),
+// "<name>.process", "<name>.processed", "<name>.dropped" and "<name>.errors".
+public class StreamScheduler<P extends FrameProcessor> {
+    
+    // Processing of one stream's items, on a worker thread with the worker's engine
+    public interface Handler<S, P extends FrameProcessor> {
+        void process(S item, ProcessorPool.Lease<P> engine);
+        // Called once for every submitted item: after process(), or when it is dropped
+        void release(S item);
+    }
+    
+    public static final class Stream<S> {
+        private final StreamScheduler<?> scheduler;
+        private final String name;
+        private final int weight;
+        private final OverflowPolicy policy;
+        private final Handler<S, ?> handler;
+        private final Condition slotFree;
+        
+        private final LatencyHistogram latency;
+        private final LatencyHistogram processTimes;
+        private final LongAdder processed;
+        private final LongAdder dropped;
+        private final LongAdder errors;
+        
+        // Guarded by the scheduler lock
+        private S waiting;
+        private long waitingSinceNs;
+        private boolean busy;
+        private boolean removed;
+        private double virtualFinish;
+        
+        private Stream(StreamScheduler<?> scheduler, String name, int weight, OverflowPolicy policy,
+                       Handler<S, ?> handler, MetricsRegistry metrics) {
+            this.scheduler = scheduler;
+            this.name = name;
+            this.weight = weight;
+            this.policy = policy;
+            this.handler = handler;
+            slotFree = scheduler.lock.newCondition();
+            latency = metrics.histogram(name + ".latency");
+            processTimes = metrics.histogram(name + ".process");
+            processed = metrics.counter(name + ".processed");
+            dropped = metrics.counter(name + ".dropped");
+            errors = metrics.counter(name + ".errors");
+        }
+        
+        // Hands an item to the stream; ownership passes to the scheduler either way. Returns false
+        // if the item was dropped, including when the scheduler is stopped or the stream removed.
+        public boolean submit(S item) {
+            S evicted = null;
+            boolean accepted = true;
+            ReentrantLock lock = scheduler.lock;
+            lock.lock();
+            try {
+                if (policy == OverflowPolicy.BLOCK) {
+                    while (waiting != null && scheduler.running && !removed) {
+                        slotFree.awaitUninterruptibly();
+                    }
+                }
+                if (!scheduler.running || removed) {
+                    evicted = item;
+                    accepted = false;
+                } else if (waiting != null && policy == OverflowPolicy.DROP_NEWEST) {
+                    evicted = item;
+                    accepted = false;
+                } else {
+                    evicted = waiting;
+                    if (evicted == null && !busy) {
+                        // Back from idle: no credit for the time it had nothing to do
+                        virtualFinish = Math.max(virtualFinish, scheduler.virtualTime);
+                    }
+                    waiting = item;
+                    waitingSinceNs = System.nanoTime();
+                    if (!busy) scheduler.workAvailable.signal();
+                }
+            } finally {
+                lock.unlock();
+            }
+            
+            if (evicted != null) {
+                dropped.increment();
+                handler.release(evicted);
+            }
+            return accepted;
+        }
+        
+        // Stops taking items and drops the waiting one; a frame being processed finishes
+        public void remove() {
+            scheduler.removeStream(this);
+        }
+        
+        public String getName() {
+            return name;
+        }
+        
+        public int getWeight() {
+            return weight;
+        }
+        
+        public long getProcessed() {
+            return processed.sum();
+        }
+        
+        public long getDropped() {
+            return dropped.sum();
+        }
+        
+        public long getErrors() {
+            return errors.sum();
+        }
+        
+        // Worker time the stream has used, for comparing shares
+        public double getProcessMs() {
+            return processTimes.getMeanMs() * processTimes.getCount();
+        }
+        
+        // Submit to processed, for frames that were processed
+        public double getAverageLatencyMs() {
+            return latency.getMeanMs();
+        }
+        
+        public double getMaxLatencyMs() {
+            return latency.getMaxMs();
+        }
+        
+        // Runs the item dispatch() took, outside the scheduler lock, and charges the stream for it
+        @SuppressWarnings("unchecked")
+        private <E extends FrameProcessor> void run(S item, long sinceNs, ProcessorPool.Lease<E> engine) {
+            Handler<S, E> typed = (Handler<S, E>) handler;
+            long start = System.nanoTime();
+            boolean succeeded = false;
+            try {
+                typed.process(item, engine);
+                succeeded = true;
+            } catch (RuntimeException e) {
+                errors.increment();
+            } finally {
+                try {
+                    typed.release(item);
+                } finally {
+                    // Also when an Error propagates, or the stream would stay busy for good
+                    long end = System.nanoTime();
+                    processTimes.record(end - start);
+                    if (succeeded) {
+                        latency.record(end - sinceNs);
+                        processed.increment();
+                    }
+                    scheduler.finished(this, end - start);
+                }
+            }
+        }
+    }
+    
+    private final ProcessorPool<P> engines;
+    private final MetricsRegistry metrics;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition workAvailable = lock.newCondition();
+    // Guarded by lock; a handful of streams, so picking one is a scan
+    private final List<Stream<?>> streams = new ArrayList<>();
+    private double virtualTime;
+    private volatile boolean running;
+    
+    private Thread[] workers;
+    
+    // One worker per engine in the pool
+    public StreamScheduler(ProcessorPool<P> engines, MetricsRegistry metrics) {
+        this.engines = engines;
+        this.metrics = metrics;
+    }
+    
+    // weight: relative share of worker time when streams compete for it
+    public <S> Stream<S> addStream(String name, int weight, OverflowPolicy policy, Handler<S, P> handler) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("Stream weight must be at least 1: " + weight);
+        }
+        Stream<S> stream = new Stream<>(this, name, weight, policy, handler, metrics);
+        lock.lock();
+        try {
+            for (Stream<?> other : streams) {
+                if (other.name.equals(name)) {
+                    throw new IllegalArgumentException("Stream " + name + " already exists");
+                }
+            }
+            stream.virtualFinish = virtualTime;
+            streams.add(stream);
+        } finally {
+            lock.unlock();
+        }
+        return stream;
+    }
+    
+    public synchronized void start() {
+        if (workers != null) return;
+        running = true;
+        workers = new Thread[engines.getSize()];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(this::runWorker, "StreamWorker" + i);
+            workers[i].start();
+        }
+    }
+    
+    // Waits for the frames being processed and drops the waiting ones. Engines go back to the pool.
+    // Workers are not interrupted, so handlers never see an interrupt in the middle of a frame.
+    public synchronized void stop() {
+        if (workers == null) return;
+        List<Stream<?>> current;
+        lock.lock();
+        try {
+            running = false;
+            workAvailable.signalAll();
+            for (Stream<?> stream : streams) {
+                stream.slotFree.signalAll();
+            }
+            current = new ArrayList<>(streams);
+        } finally {
+            lock.unlock();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        workers = null;
+        for (Stream<?> stream : current) {
+            dropWaiting(stream);
+        }
+    }
+    
+    public String describe() {
+        List<Stream<?>> current;
+        lock.lock();
+        try {
+            current = new ArrayList<>(streams);
+        } finally {
+            lock.unlock();
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Stream<?> stream : current) {
+            if (sb.length() > 0) sb.append('\n');
+            sb.append(String.format(Locale.US, "%-8s w=%d n=%d drop=%d err=%d %.1fms", stream.name, stream.weight,
+                    stream.getProcessed(), stream.getDropped(), stream.getErrors(), stream.getAverageLatencyMs()));
+        }
+        return sb.toString();
+    }
+    
+    // The pool has an engine for every worker, so acquire() does not wait unless engines are
+    // leased elsewhere
+    private void runWorker() {
+        ProcessorPool.Lease<P> engine;
+        try {
+            engine = engines.acquire();
+        } catch (InterruptedException e) {
+            return;
+        }
+        try {
+            Stream<?> stream;
+            while ((stream = next()) != null) {
+                dispatch(stream, engine);
+            }
+        } finally {
+            engine.release();
+        }
+    }
+    
+    // Waits for a ready stream and marks it busy; the stream with the earliest virtual finish
+    // time wins, ties going to the one added first. Returns null once the scheduler is stopped.
+    private Stream<?> next() {
+        lock.lock();
+        try {
+            while (running) {
+                Stream<?> best = null;
+                for (Stream<?> stream : streams) {
+                    if (stream.waiting != null && !stream.busy
+                            && (best == null || stream.virtualFinish < best.virtualFinish)) {
+                        best = stream;
+                    }
+                }
+                if (best != null) {
+                    best.busy = true;
+                    virtualTime = Math.max(virtualTime, best.virtualFinish);
+                    return best;
+                }
+                workAvailable.awaitUninterruptibly();
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private <S> void dispatch(Stream<S> stream, ProcessorPool.Lease<P> engine) {
+        S item;
+        long sinceNs;
+        lock.lock();
+        try {
+            item = stream.waiting;
+            sinceNs = stream.waitingSinceNs;
+            stream.waiting = null;
+            stream.slotFree.signal();
+        } finally {
+            lock.unlock();
+        }
+        stream.run(item, sinceNs, engine);
+    }
+    
+    private void finished(Stream<?> stream, long elapsedNs) {
+        lock.lock();
+        try {
+            stream.busy = false;
+            stream.virtualFinish += (double) elapsedNs / stream.weight;
+            if (stream.waiting != null) workAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private void removeStream(Stream<?> stream) {
+        lock.lock();
+        try {
+            stream.removed = true;
+            streams.remove(stream);
+            stream.slotFree.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        dropWaiting(stream);
+    }
+    
+    private <S> void dropWaiting(Stream<S> stream) {
+        S item;
+        lock.lock();
+        try {
+            item = stream.waiting;
+            stream.waiting = null;
+        } finally {
+            lock.unlock();
+        }
+        if (item != null) {
+            stream.dropped.increment();
+            stream.handler.release(item);
+        }
+    }
+}
@@ -5,6 +5,8 @@ import android.opengl.GLES20;
 import android.opengl.GLUtils;
 import android.util.Log;
 
+import java.nio.ByteBuffer;
+
 public class TextureHelper {
     private static final String TAG = "TextureHelper";
     
@@ -81,4 +83,54 @@ public class TextureHelper {
         // Unbind from the texture
         GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
     }
+    
+    // Single-channel texture for edge masks and other 8-bit planes; sampled as (L, L, L, 1).
+    // Uses clamp-to-edge wrapping, which GLES 2.0 requires for non-power-of-two sizes.
+    public static int createLuminanceTexture(int width, int height) {
+        final int[] textureObjectIds = new int[1];
+        GLES20.glGenTextures(1, textureObjectIds, 0);
+        
+        if (textureObjectIds[0] == 0) {
+            Log.e(TAG, "Could not generate a new OpenGL texture object.");
+            return -1;
+        }
+        
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureObjectIds[0]);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        
+        // Allocate storage once; frames are streamed in with uploadLuminance()
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_LUMINANCE, width, height, 0,
+                GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, null);
+        
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        
+        return textureObjectIds[0];
+    }
+    
+    // Uploads width * height bytes from a direct buffer into a texture made by
+    // createLuminanceTexture, without any intermediate Bitmap or RGBA expansion
+    public static void uploadLuminance(int textureId, int width, int height, ByteBuffer data) {
+        if (textureId == -1 || data == null) {
+            return;
+        }
+        
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
+        
+        // Rows are tightly packed, so any width is valid
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+        data.position(0);
+        GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, width, height,
+                GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, data);
+        
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+    }
+    
+    public static void deleteTextures(int[] textureIds, int count) {
+        if (count > 0) {
+            GLES20.glDeleteTextures(count, textureIds, 0);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,123 @@
+package com.example.edgedetection;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+// Streams single-channel frames (edge masks) from a producer thread into GL_LUMINANCE textures.
+// The producer hands over pooled frames through a one-slot mailbox that always holds the newest
+// frame; a frame that is replaced before the GL thread got to it is released and counted as
+// skipped. On the GL thread each new frame goes into the next texture of a small ring, so an
+// upload never targets the texture the previous draw is still sampling, and draws always use the
+// latest fully uploaded texture.
+public class TextureStream {
+    private static final int RING_SIZE = 3;
+    
+    private final AtomicReference<FramePool.Frame> pending = new AtomicReference<>();
+    private final LatencyHistogram uploadTimes;
+    private final LongAdder skipped;
+    private final LongAdder uploaded;
+    
+    // GL thread only
+    private final int[] textures = new int[RING_SIZE];
+    private int textureCount;
+    private int textureWidth;
+    private int textureHeight;
+    private int next;
+    private int current = -1;
+    private long frameNumber;
+    
+    public TextureStream(MetricsRegistry metrics) {
+        uploadTimes = metrics.histogram("upload");
+        skipped = metrics.counter("skipped");
+        uploaded = metrics.counter("uploaded");
+    }
+    
+    // Producer side. Takes over one reference to the frame (callers that keep using it must
+    // retain() first). Returns immediately; never waits for the GL thread.
+    public void offer(FramePool.Frame frame) {
+        FramePool.Frame replaced = pending.getAndSet(frame);
+        if (replaced != null) {
+            skipped.increment();
+            replaced.release();
+        }
+    }
+    
+    // Drops a frame still waiting for upload, e.g. when display stops
+    public void clear() {
+        FramePool.Frame replaced = pending.getAndSet(null);
+        if (replaced != null) {
+            replaced.release();
+        }
+    }
+    
+    // GL thread: uploads the newest frame if there is one and returns the texture to draw, or
+    // -1 if nothing has been uploaded yet
+    public int update() {
+        FramePool.Frame frame = pending.getAndSet(null);
+        if (frame == null) {
+            return current;
+        }
+        
+        try {
+            long start = System.nanoTime();
+            int width = frame.getWidth();
+            int height = frame.getHeight();
+            if (width != textureWidth || height != textureHeight || textureCount == 0) {
+                allocateTextures(width, height);
+                if (textureCount == 0) {
+                    current = -1;
+                    return current;
+                }
+            }
+            
+            int texture = textures[next];
+            next = (next + 1) % textureCount;
+            TextureHelper.uploadLuminance(texture, width, height, frame.getPlane(0));
+            current = texture;
+            frameNumber++;
+            
+            uploadTimes.recordSince(start);
+            uploaded.increment();
+        } finally {
+            frame.release();
+        }
+        return current;
+    }
+    
+    // GL thread: size of the current texture
+    public int getWidth() {
+        return textureWidth;
+    }
+    
+    public int getHeight() {
+        return textureHeight;
+    }
+    
+    // GL thread: increments with every upload, so callers can tell whether update() brought in
+    // a new frame
+    public long getFrameNumber() {
+        return frameNumber;
+    }
+    
+    // GL thread: the context was (re)created and every texture of the old one is gone
+    public void onSurfaceCreated() {
+        textureCount = 0;
+        textureWidth = 0;
+        textureHeight = 0;
+        current = -1;
+    }
+    
+    // Leaves textureCount at 0 if no texture could be created (TextureHelper logs why)
+    private void allocateTextures(int width, int height) {
+        TextureHelper.deleteTextures(textures, textureCount);
+        textureCount = 0;
+        for (int i = 0; i < RING_SIZE; i++) {
+            int texture = TextureHelper.createLuminanceTexture(width, height);
+            if (texture == -1) break;
+            textures[textureCount++] = texture;
+        }
+        textureWidth = width;
+        textureHeight = height;
+        next = 0;
+    }
+}
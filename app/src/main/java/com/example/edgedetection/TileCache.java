@@ -0,0 +1,169 @@
+package com.example.edgedetection;
+
+import java.nio.ByteBuffer;
+
+// Incremental mode of JavaEdgeDetector; TileCache.cpp is the native engine's copy. The frame is
+// split into square tiles, each remembering the luma it was last computed from. A tile has
+// changed when CHANGED_SAMPLES points of a sparse sample grid differ from that reference by
+// more than PIXEL_THRESHOLD, which sensor noise rarely does. The grid is staggered from row to row
+// so thin vertical changes, like the trailing edge of a moving object, still hit samples. Changed
+// tiles are recomputed on a region MARGIN pixels larger on every side, so blur, Sobel and
+// suppression see the same neighbourhood as on the full frame, and written back with a BORDER of
+// the neighbouring tiles' pixels. Hysteresis chains that leave the region can end differently than
+// on a full frame; the periodic full refresh keeps such differences from lasting.
+final class TileCache {
+    private static final int MARGIN = 8;
+    private static final int BORDER = 2;
+    private static final int SAMPLE_STEP = 4;
+    private static final int PIXEL_THRESHOLD = 20;
+    private static final int CHANGED_SAMPLES = 4;
+    // Frames between full recomputes; more than half the tiles changed also means a full frame
+    private static final int REFRESH_INTERVAL = 150;
+    
+    private final int tileSize;
+    private final int regionSize;
+    private final JavaEdgeDetector regionDetector = new JavaEdgeDetector();
+    private final ByteBuffer regionInput;
+    private final ByteBuffer regionOutput;
+    
+    private int width;
+    private int height;
+    private int tilesX;
+    private int tilesY;
+    private byte[] reference;
+    private int[] changedTiles;
+    private int changedCount;
+    private int framesSinceRefresh;
+    private boolean valid;
+    private int recomputed;
+    
+    TileCache(int tileSize) {
+        this.tileSize = tileSize;
+        regionSize = tileSize + 2 * MARGIN;
+        regionInput = ByteBuffer.allocateDirect(regionSize * regionSize);
+        regionOutput = ByteBuffer.allocateDirect(regionSize * regionSize);
+        regionDetector.initialize();
+    }
+    
+    int getTileSize() {
+        return tileSize;
+    }
+    
+    // Regions are processed the way the owning engine processes frames
+    void configure(boolean lumaOnly, boolean blurEnabled) {
+        regionDetector.setLumaOnly(lumaOnly);
+        regionDetector.setBlurEnabled(blurEnabled);
+        valid = false;
+    }
+    
+    int getRecomputedTiles() {
+        return recomputed;
+    }
+    
+    int getTileCount() {
+        return tilesX * tilesY;
+    }
+    
+    // The cached mask no longer matches the reference, e.g. after a frame in another format
+    void invalidate() {
+        valid = false;
+    }
+    
+    // Finds the tiles of luma that changed. Returns true if recomputeChanged() can bring the
+    // cached mask up to date, or false if the frame needs processing in full and storeFrame()
+    // (first frame, new size, periodic refresh, frames smaller than a region, or most tiles changed).
+    boolean prepare(byte[] luma, int width, int height) {
+        if (width != this.width || height != this.height) {
+            this.width = width;
+            this.height = height;
+            tilesX = (width + tileSize - 1) / tileSize;
+            tilesY = (height + tileSize - 1) / tileSize;
+            reference = new byte[width * height];
+            changedTiles = new int[tilesX * tilesY];
+            valid = false;
+        }
+        if (!valid || width < regionSize || height < regionSize || ++framesSinceRefresh >= REFRESH_INTERVAL) {
+            return false;
+        }
+        
+        changedCount = 0;
+        for (int ty = 0; ty < tilesY; ty++) {
+            for (int tx = 0; tx < tilesX; tx++) {
+                if (tileChanged(luma, tx, ty)) {
+                    changedTiles[changedCount++] = ty * tilesX + tx;
+                }
+            }
+        }
+        return changedCount * 2 <= tilesX * tilesY;
+    }
+    
+    // Recomputes the changed tiles found by prepare() into mask, which holds the previous mask
+    void recomputeChanged(byte[] luma, byte[] mask) {
+        for (int i = 0; i < changedCount; i++) {
+            int tile = changedTiles[i];
+            recomputeTile(luma, mask, tile % tilesX, tile / tilesX);
+        }
+        recomputed = changedCount;
+    }
+    
+    // Takes luma as the reference for every tile. Called with the luma of a frame that is about
+    // to be processed in full, before the engine's passes modify it.
+    void storeFrame(byte[] luma) {
+        System.arraycopy(luma, 0, reference, 0, width * height);
+        framesSinceRefresh = 0;
+        valid = true;
+        recomputed = tilesX * tilesY;
+    }
+    
+    private boolean tileChanged(byte[] luma, int tx, int ty) {
+        int x0 = tx * tileSize;
+        int y0 = ty * tileSize;
+        int x1 = Math.min(x0 + tileSize, width);
+        int y1 = Math.min(y0 + tileSize, height);
+        int differing = 0;
+        for (int y = y0 + SAMPLE_STEP / 2; y < y1; y += SAMPLE_STEP) {
+            int row = y * width;
+            for (int x = x0 + (y / SAMPLE_STEP) % SAMPLE_STEP; x < x1; x += SAMPLE_STEP) {
+                int diff = (luma[row + x] & 0xFF) - (reference[row + x] & 0xFF);
+                if ((diff > PIXEL_THRESHOLD || diff < -PIXEL_THRESHOLD) && ++differing == CHANGED_SAMPLES) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    private void recomputeTile(byte[] luma, byte[] mask, int tx, int ty) {
+        int tileX0 = tx * tileSize;
+        int tileY0 = ty * tileSize;
+        int tileX1 = Math.min(tileX0 + tileSize, width);
+        int tileY1 = Math.min(tileY0 + tileSize, height);
+        // Regions keep their full size, moved inwards at the frame edges
+        int regionX = Math.min(Math.max(tileX0 - MARGIN, 0), width - regionSize);
+        int regionY = Math.min(Math.max(tileY0 - MARGIN, 0), height - regionSize);
+        
+        ByteBuffer in = regionInput;
+        in.clear();
+        for (int y = 0; y < regionSize; y++) {
+            in.put(luma, (regionY + y) * width + regionX, regionSize);
+        }
+        in.clear();
+        regionDetector.processFrameDirect(in, null, null, regionSize, regionSize / 2, 1,
+                regionSize, regionSize, regionOutput, FrameProcessor.OUTPUT_MASK);
+        
+        int x0 = Math.max(tileX0 - BORDER, 0);
+        int y0 = Math.max(tileY0 - BORDER, 0);
+        int x1 = Math.min(tileX1 + BORDER, width);
+        int y1 = Math.min(tileY1 + BORDER, height);
+        ByteBuffer out = regionOutput;
+        for (int y = y0; y < y1; y++) {
+            out.limit((y - regionY) * regionSize + x1 - regionX).position((y - regionY) * regionSize + x0 - regionX);
+            out.get(mask, y * width + x0, x1 - x0);
+        }
+        out.clear();
+        
+        for (int y = tileY0; y < tileY1; y++) {
+            System.arraycopy(luma, y * width + tileX0, reference, y * width + tileX0, tileX1 - tileX0);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.edgedetection;
+
+import java.nio.ByteBuffer;
+
+// Copies strided YUV_420_888 planes into a tightly packed I420 buffer (Y, then U, then V).
+// Not thread-safe: each converting thread owns its converter and its scratch rows.
+public class YuvConverter {
+    private byte[] rowScratch = new byte[0];
+    private byte[] outputRow = new byte[0];
+    private int[] columnOffsets = new int[0];
+    
+    // Processing size for a frame scaled by scale: rounded to even, as I420 needs
+    public static int getScaledSize(int size, float scale) {
+        return Math.max(Math.round(size * scale) & ~1, 2);
+    }
+    
+    public static int getI420Size(int width, int height) {
+        return width * height + 2 * (width / 2) * (height / 2);
+    }
+    
+    public void copyToI420(ByteBuffer yPlane, ByteBuffer uPlane, ByteBuffer vPlane,
+                           int yRowStride, int uvRowStride, int uvPixelStride,
+                           int width, int height, ByteBuffer dst) {
+        int chromaWidth = width / 2;
+        int chromaHeight = height / 2;
+        int lumaSize = width * height;
+        int chromaSize = chromaWidth * chromaHeight;
+        
+        copyPlane(yPlane, yRowStride, 1, width, height, dst, 0);
+        copyPlane(uPlane, uvRowStride, uvPixelStride, chromaWidth, chromaHeight, dst, lumaSize);
+        copyPlane(vPlane, uvRowStride, uvPixelStride, chromaWidth, chromaHeight, dst, lumaSize + chromaSize);
+    }
+    
+    // Packs a source frame into dst: full I420, or only the Y plane for luma-only processing
+    public void copyFrame(SourceFrame frame, boolean lumaOnly, ByteBuffer dst) {
+        if (lumaOnly) {
+            copyLuma(frame.getPlane(0), frame.getRowStride(0), frame.getWidth(), frame.getHeight(), dst);
+        } else {
+            copyToI420(frame.getPlane(0), frame.getPlane(1), frame.getPlane(2),
+                    frame.getRowStride(0), frame.getRowStride(1), frame.getPixelStride(1),
+                    frame.getWidth(), frame.getHeight(), dst);
+        }
+    }
+    
+    // Packs a source frame downscaled to width x height, each no larger than the source size
+    public void scaleFrame(SourceFrame frame, boolean lumaOnly, int width, int height, ByteBuffer dst) {
+        int srcWidth = frame.getWidth();
+        int srcHeight = frame.getHeight();
+        if (width == srcWidth && height == srcHeight) {
+            copyFrame(frame, lumaOnly, dst);
+            return;
+        }
+        scalePlane(frame.getPlane(0), frame.getRowStride(0), frame.getPixelStride(0),
+                srcWidth, srcHeight, width, height, dst, 0);
+        if (!lumaOnly) {
+            int lumaSize = width * height;
+            int chromaSize = (width / 2) * (height / 2);
+            scalePlane(frame.getPlane(1), frame.getRowStride(1), frame.getPixelStride(1),
+                    srcWidth / 2, srcHeight / 2, width / 2, height / 2, dst, lumaSize);
+            scalePlane(frame.getPlane(2), frame.getRowStride(2), frame.getPixelStride(2),
+                    srcWidth / 2, srcHeight / 2, width / 2, height / 2, dst, lumaSize + chromaSize);
+        }
+    }
+    
+    // Luma-only frames: just the Y plane, packed at the start of dst. Chroma is never read.
+    public void copyLuma(ByteBuffer yPlane, int yRowStride, int width, int height, ByteBuffer dst) {
+        copyPlane(yPlane, yRowStride, 1, width, height, dst, 0);
+    }
+    
+    // Copies a width x height plane into dst at dstOffset without row padding. Positions and
+    // limits of both buffers are used for the bulk copies and reset (clear) afterwards.
+    public void copyPlane(ByteBuffer src, int rowStride, int pixelStride, int width, int height,
+                          ByteBuffer dst, int dstOffset) {
+        if (pixelStride == 1 && rowStride == width) {
+            src.limit(width * height).position(0);
+            dst.limit(dstOffset + width * height).position(dstOffset);
+            dst.put(src);
+        } else if (pixelStride == 1) {
+            for (int row = 0; row < height; row++) {
+                int rowStart = row * rowStride;
+                src.limit(rowStart + width).position(rowStart);
+                dst.limit(dstOffset + (row + 1) * width).position(dstOffset + row * width);
+                dst.put(src);
+            }
+        } else {
+            // Interleaved chroma: pull each row in with one bulk get, then pick every
+            // pixelStride-th byte. The last row may end right after its final sample.
+            int rowBytes = (width - 1) * pixelStride + 1;
+            if (rowScratch.length < rowBytes) {
+                rowScratch = new byte[rowBytes];
+            }
+            byte[] scratch = rowScratch;
+            dst.limit(dstOffset + width * height).position(dstOffset);
+            for (int row = 0; row < height; row++) {
+                src.limit(row * rowStride + rowBytes).position(row * rowStride);
+                src.get(scratch, 0, rowBytes);
+                for (int col = 0, i = 0; col < width; col++, i += pixelStride) {
+                    dst.put(scratch[i]);
+                }
+            }
+        }
+        src.clear();
+        dst.clear();
+    }
+    
+    // Downscales a plane into dst at dstOffset. Each output sample is the mean of the 2x2 source
+    // block under its centre: enough smoothing against aliasing down to half size, and Canny's
+    // own blur covers the rest. Source planes must be at least 2x2.
+    public void scalePlane(ByteBuffer src, int rowStride, int pixelStride, int srcWidth, int srcHeight,
+                           int width, int height, ByteBuffer dst, int dstOffset) {
+        int rowBytes = (srcWidth - 1) * pixelStride + 1;
+        if (rowScratch.length < 2 * rowBytes) {
+            rowScratch = new byte[2 * rowBytes];
+        }
+        if (outputRow.length < width) {
+            outputRow = new byte[width];
+            columnOffsets = new int[width];
+        }
+        byte[] rows = rowScratch;
+        byte[] out = outputRow;
+        int[] columns = columnOffsets;
+        for (int col = 0; col < width; col++) {
+            columns[col] = sourceIndex(col, width, srcWidth) * pixelStride;
+        }
+        
+        dst.limit(dstOffset + width * height).position(dstOffset);
+        for (int row = 0; row < height; row++) {
+            int srcRow = sourceIndex(row, height, srcHeight);
+            src.limit(srcRow * rowStride + rowBytes).position(srcRow * rowStride);
+            src.get(rows, 0, rowBytes);
+            src.limit((srcRow + 1) * rowStride + rowBytes).position((srcRow + 1) * rowStride);
+            src.get(rows, rowBytes, rowBytes);
+            for (int col = 0; col < width; col++) {
+                int i = columns[col];
+                int sum = (rows[i] & 0xFF) + (rows[i + pixelStride] & 0xFF)
+                        + (rows[rowBytes + i] & 0xFF) + (rows[rowBytes + i + pixelStride] & 0xFF);
+                out[col] = (byte) ((sum + 2) >> 2);
+            }
+            dst.put(out, 0, width);
+        }
+        src.clear();
+        dst.clear();
+    }
+    
+    // First of the two source samples around output sample i's centre
+    private static int sourceIndex(int i, int size, int srcSize) {
+        int index = (int) (((2L * i + 1) * srcSize - size) / (2L * size));
+        return Math.min(Math.max(index, 0), srcSize - 2);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,201 @@
+package com.example.edgedetection;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+// Round trips through EdgeMapCodec, plus a few frames checked byte for byte against the format
+// described in EdgeMapCodec.java: the viewer's decoder (web/src/app.js) is written from that
+// description, so the encoder must not drift from it.
+public class EdgeMapCodecTest {
+    private static final int[] WIDTHS = { 1, 7, 8, 13, 64, 161 };
+    
+    @Test
+    public void keyFramesRoundTrip() {
+        Random random = new Random(1);
+        for (int width : WIDTHS) {
+            EdgeMapCodec.Encoder encoder = new EdgeMapCodec.Encoder();
+            encoder.setDeltaEnabled(false);
+            EdgeMapCodec.Decoder decoder = new EdgeMapCodec.Decoder();
+            for (double density : new double[] { 0, 0.02, 0.3, 1 }) {
+                byte[] mask = randomMask(random, width, 9, density);
+                byte[] encoded = encode(encoder, mask, width, 9);
+                assertEquals("flags", 0, encoded[0]);
+                assertArrayEquals("width " + width + ", density " + density,
+                        normalized(mask), decode(decoder, encoded, width * 9));
+            }
+        }
+    }
+    
+    @Test
+    public void deltaFramesRoundTrip() {
+        Random random = new Random(2);
+        for (int width : WIDTHS) {
+            EdgeMapCodec.Encoder encoder = new EdgeMapCodec.Encoder();
+            encoder.setKeyFrameInterval(1000);
+            EdgeMapCodec.Decoder decoder = new EdgeMapCodec.Decoder();
+            byte[] mask = randomMask(random, width, 12, 0.05);
+            for (int frame = 0; frame < 10; frame++) {
+                byte[] encoded = encode(encoder, mask, width, 12);
+                if (frame == 0) {
+                    assertEquals("flags", 0, encoded[0]);
+                } else if (width >= 64) {
+                    // Narrower masks have so few edges that deltas can come out larger and the
+                    // encoder backs off to key frames
+                    assertEquals("flags of frame " + frame, EdgeMapCodec.FLAG_DELTA, encoded[0]);
+                }
+                assertArrayEquals("width " + width + ", frame " + frame,
+                        normalized(mask), decode(decoder, encoded, width * 12));
+                // A few pixels change from frame to frame, as for a steady camera
+                for (int i = 0; i < 3; i++) {
+                    int index = random.nextInt(mask.length);
+                    mask[index] = (byte) (mask[index] == 0 ? 255 : 0);
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void runRowsFollowTheFormat() {
+        // Edges at columns 3 to 5 of a 10 pixel row: runs of 3 background and 3 edge pixels,
+        // the last background run implied
+        byte[] mask = new byte[10];
+        Arrays.fill(mask, 3, 6, (byte) 255);
+        byte[] encoded = encode(new EdgeMapCodec.Encoder(), mask, 10, 1);
+        assertArrayEquals(new byte[] { 0, 10, 1, 3, 3, 3 }, encoded);
+        assertArrayEquals(mask, decode(new EdgeMapCodec.Decoder(), encoded, 10));
+    }
+    
+    @Test
+    public void denseRowsFallBackToRawBits() {
+        // Alternating pixels need 13 runs; two bytes of bits are shorter. The 13 bits are padded
+        // with zeros to whole bytes.
+        byte[] mask = new byte[13];
+        for (int col = 0; col < mask.length; col += 2) {
+            mask[col] = (byte) 255;
+        }
+        byte[] encoded = encode(new EdgeMapCodec.Encoder(), mask, 13, 1);
+        assertArrayEquals(new byte[] { 0, 13, 1, 0, (byte) 0xAA, (byte) 0xA8 }, encoded);
+        assertArrayEquals(mask, decode(new EdgeMapCodec.Decoder(), encoded, 13));
+    }
+    
+    @Test
+    public void deltaRowsFallBackToRawBits() {
+        // A delta of raw rows XORs the changed pixels onto the previous frame
+        Random random = new Random(3);
+        EdgeMapCodec.Encoder encoder = new EdgeMapCodec.Encoder();
+        EdgeMapCodec.Decoder decoder = new EdgeMapCodec.Decoder();
+        byte[] first = randomMask(random, 13, 4, 0.5);
+        decode(decoder, encode(encoder, first, 13, 4), 13 * 4);
+        byte[] second = first.clone();
+        for (int col = 0; col < 13; col += 2) {
+            second[13 + col] = (byte) (second[13 + col] == 0 ? 255 : 0);
+        }
+        byte[] encoded = encode(encoder, second, 13, 4);
+        assertEquals(EdgeMapCodec.FLAG_DELTA, encoded[0]);
+        assertArrayEquals(normalized(second), decode(decoder, encoded, 13 * 4));
+    }
+    
+    @Test
+    public void keyFramesAtTheInterval() {
+        EdgeMapCodec.Encoder encoder = new EdgeMapCodec.Encoder();
+        encoder.setKeyFrameInterval(3);
+        byte[] mask = randomMask(new Random(4), 16, 16, 0.05);
+        int[] expected = { 0, 1, 1, 0, 1, 1, 0 };
+        for (int frame = 0; frame < expected.length; frame++) {
+            assertEquals("flags of frame " + frame, expected[frame], encode(encoder, mask, 16, 16)[0]);
+        }
+        
+        encoder.requestKeyFrame();
+        assertEquals("requested key frame", 0, encode(encoder, mask, 16, 16)[0]);
+        assertEquals(EdgeMapCodec.FLAG_DELTA, encode(encoder, mask, 16, 16)[0]);
+        // A new size cannot be coded against the previous frame
+        assertEquals("new size", 0, encode(encoder, new byte[8 * 8], 8, 8)[0]);
+    }
+    
+    @Test
+    public void busyScenesBackOffToKeyFrames() {
+        Random random = new Random(5);
+        EdgeMapCodec.Encoder encoder = new EdgeMapCodec.Encoder();
+        encoder.setKeyFrameInterval(4);
+        EdgeMapCodec.Decoder decoder = new EdgeMapCodec.Decoder();
+        byte[] sparse = randomMask(random, 64, 32, 0.01);
+        byte[] busy = randomMask(random, 64, 32, 0.5);
+        
+        assertEquals(0, encodeAndCheck(encoder, decoder, sparse, 64, 32));
+        // The delta to a busy frame comes out larger than the last key frame...
+        assertEquals(EdgeMapCodec.FLAG_DELTA, encodeAndCheck(encoder, decoder, busy, 64, 32));
+        // ...so the next interval's worth of frames are key frames, even though they are unchanged
+        for (int frame = 0; frame < 4; frame++) {
+            assertEquals("backoff frame " + frame, 0, encodeAndCheck(encoder, decoder, busy, 64, 32));
+        }
+        assertEquals(EdgeMapCodec.FLAG_DELTA, encodeAndCheck(encoder, decoder, busy, 64, 32));
+    }
+    
+    @Test
+    public void deltaWithoutKeyFrameIsSkipped() {
+        EdgeMapCodec.Encoder encoder = new EdgeMapCodec.Encoder();
+        byte[] mask = randomMask(new Random(6), 20, 10, 0.1);
+        byte[] key = encode(encoder, mask, 20, 10);
+        byte[] delta = encode(encoder, mask, 20, 10);
+        assertEquals(EdgeMapCodec.FLAG_DELTA, delta[0]);
+        
+        // A receiver that joins late waits for the next key frame
+        EdgeMapCodec.Decoder decoder = new EdgeMapCodec.Decoder();
+        ByteBuffer out = ByteBuffer.allocate(20 * 10);
+        assertEquals(-1, decoder.decode(delta, delta.length, out));
+        assertArrayEquals(normalized(mask), decode(decoder, key, 20 * 10));
+        assertArrayEquals(normalized(mask), decode(decoder, delta, 20 * 10));
+        
+        // So does one whose last frame had another size
+        EdgeMapCodec.Decoder resized = new EdgeMapCodec.Decoder();
+        decode(resized, encode(new EdgeMapCodec.Encoder(), new byte[10 * 20], 10, 20), 10 * 20);
+        assertEquals(-1, resized.decode(delta, delta.length, out));
+    }
+    
+    private static int encodeAndCheck(EdgeMapCodec.Encoder encoder, EdgeMapCodec.Decoder decoder,
+                                      byte[] mask, int width, int height) {
+        byte[] encoded = encode(encoder, mask, width, height);
+        assertArrayEquals(normalized(mask), decode(decoder, encoded, width * height));
+        return encoded[0];
+    }
+    
+    private static byte[] encode(EdgeMapCodec.Encoder encoder, byte[] mask, int width, int height) {
+        // Direct like the engines' output buffers, and with room to spare after the mask
+        ByteBuffer buffer = ByteBuffer.allocateDirect(mask.length + 16);
+        buffer.put(mask);
+        byte[] out = new byte[EdgeMapCodec.getMaxEncodedSize(width, height)];
+        int length = encoder.encode(buffer, width, height, out);
+        return Arrays.copyOf(out, length);
+    }
+    
+    private static byte[] decode(EdgeMapCodec.Decoder decoder, byte[] encoded, int size) {
+        ByteBuffer out = ByteBuffer.allocate(size);
+        assertEquals(size, decoder.decode(encoded, encoded.length, out));
+        return out.array();
+    }
+    
+    // Edges get arbitrary nonzero values, which decode to 255
+    private static byte[] randomMask(Random random, int width, int height, double density) {
+        byte[] mask = new byte[width * height];
+        for (int i = 0; i < mask.length; i++) {
+            if (random.nextDouble() < density) {
+                mask[i] = (byte) (1 + random.nextInt(255));
+            }
+        }
+        return mask;
+    }
+    
+    private static byte[] normalized(byte[] mask) {
+        byte[] result = new byte[mask.length];
+        for (int i = 0; i < mask.length; i++) {
+            result[i] = mask[i] != 0 ? (byte) 255 : 0;
+        }
+        return result;
+    }
+}
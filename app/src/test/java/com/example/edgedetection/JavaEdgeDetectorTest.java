@@ -0,0 +1,192 @@
+package com.example.edgedetection;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Checks JavaEdgeDetector against reference masks of fixtures whose edges are known exactly:
+// flat shapes on a flat background, where Canny must mark the shape's outline and nothing else.
+// The reference outline is two pixels wide (the last pixel inside and the first outside), since
+// non-maximum suppression keeps one of the two; compareMasks() with radius 1 matches either.
+public class JavaEdgeDetectorTest {
+    private static final int WIDTH = 160;
+    private static final int HEIGHT = 120;
+    
+    // The part of a fixture that differs from the background
+    private interface Shape {
+        boolean contains(int x, int y);
+    }
+    
+    private static final Shape SQUARE = (x, y) -> x >= 40 && x < 120 && y >= 30 && y < 90;
+    private static final Shape DISC = (x, y) -> {
+        int dx = x - 80;
+        int dy = y - 60;
+        return dx * dx + dy * dy <= 40 * 40;
+    };
+    private static final Shape STRIPES = (x, y) -> x >= 20 && x < 140 && (y / 15) % 2 == 1;
+    
+    private JavaEdgeDetector detector;
+    
+    @Before
+    public void setUp() {
+        detector = new JavaEdgeDetector();
+        assertTrue(detector.initialize());
+    }
+    
+    @After
+    public void tearDown() {
+        detector.release();
+    }
+    
+    @Test
+    public void shapesMatchReferenceOutlines() {
+        for (Shape shape : new Shape[] { SQUARE, DISC, STRIPES }) {
+            ByteBuffer[] planes = fixture(shape, 40, 200, 128, 128);
+            ByteBuffer mask = detect(planes, WIDTH);
+            assertTrue("No edges found", countEdges(mask) > 0);
+            double difference = JavaEdgeDetector.compareMasks(mask, outline(shape), WIDTH, HEIGHT, 1);
+            assertTrue("Mask differs from the reference by " + difference,
+                    difference <= JavaEdgeDetector.MASK_TOLERANCE);
+        }
+    }
+    
+    @Test
+    public void lowContrastGivesNoEdges() {
+        // A step of 10 luma levels stays below the low threshold of the gradient
+        ByteBuffer mask = detect(fixture(SQUARE, 100, 110, 128, 128), WIDTH);
+        assertEquals(0, countEdges(mask));
+    }
+    
+    @Test
+    public void lumaOnlyMatchesFullColour() {
+        ByteBuffer[] planes = fixture(SQUARE, 40, 200, 128, 128);
+        ByteBuffer full = detect(planes, WIDTH);
+        detector.setLumaOnly(true);
+        ByteBuffer luma = detect(planes, WIDTH);
+        double difference = JavaEdgeDetector.compareMasks(luma, full, WIDTH, HEIGHT, 1);
+        assertTrue("Luma-only mask differs by " + difference, difference <= JavaEdgeDetector.MASK_TOLERANCE);
+        difference = JavaEdgeDetector.compareMasks(luma, outline(SQUARE), WIDTH, HEIGHT, 1);
+        assertTrue("Luma-only mask differs from the reference by " + difference,
+                difference <= JavaEdgeDetector.MASK_TOLERANCE);
+    }
+    
+    @Test
+    public void lumaOnlyIgnoresChromaAndStrides() {
+        detector.setLumaOnly(true);
+        byte[] expected = toArray(detect(fixture(DISC, 60, 180, 128, 128), WIDTH));
+        
+        // Other chroma, or none at all, gives the same mask
+        assertArrayEquals(expected, toArray(detect(fixture(DISC, 60, 180, 30, 230), WIDTH)));
+        ByteBuffer[] planes = fixture(DISC, 60, 180, 128, 128);
+        ByteBuffer mask = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+        int written = detector.processFrameDirect(planes[0], null, null, WIDTH, WIDTH / 2, 1,
+                WIDTH, HEIGHT, mask, FrameProcessor.OUTPUT_MASK);
+        assertEquals(WIDTH * HEIGHT, written);
+        assertArrayEquals(expected, toArray(mask));
+        
+        // So do padded rows, as camera planes have
+        int stride = WIDTH + 32;
+        ByteBuffer padded = ByteBuffer.allocateDirect(stride * HEIGHT);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                padded.put(y * stride + x, planes[0].get(y * WIDTH + x));
+            }
+        }
+        assertArrayEquals(expected, toArray(detect(new ByteBuffer[] { padded, planes[1], planes[2] }, stride)));
+    }
+    
+    @Test
+    public void lumaOnlyIsIndependentOfStrips() {
+        detector.setLumaOnly(true);
+        ByteBuffer[] planes = fixture(STRIPES, 40, 200, 128, 128);
+        byte[] expected = toArray(detect(planes, WIDTH));
+        // Strip heights down to one row, below the border the gradient and suppression passes need
+        int[][] settings = { { 1, 0 }, { 3, 0 }, { 2, 1 }, { 3, 2 }, { 1, 7 }, { 2, 64 } };
+        for (int[] setting : settings) {
+            detector.setParallelism(setting[0], setting[1]);
+            assertArrayEquals("threads " + setting[0] + ", strips of " + setting[1],
+                    expected, toArray(detect(planes, WIDTH)));
+        }
+    }
+    
+    @Test
+    public void compareMasksCountsUnmatchedEdges() {
+        ByteBuffer a = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+        ByteBuffer b = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+        assertEquals(0.0, JavaEdgeDetector.compareMasks(a, b, WIDTH, HEIGHT, 1), 0.0);
+        
+        a.put(10 * WIDTH + 10, (byte) 255);
+        b.put(11 * WIDTH + 11, (byte) 255);
+        assertEquals(0.0, JavaEdgeDetector.compareMasks(a, b, WIDTH, HEIGHT, 1), 0.0);
+        assertEquals(1.0, JavaEdgeDetector.compareMasks(a, b, WIDTH, HEIGHT, 0), 0.0);
+        
+        b.put(50 * WIDTH + 50, (byte) 255);
+        assertEquals(1.0 / 3, JavaEdgeDetector.compareMasks(a, b, WIDTH, HEIGHT, 1), 1e-9);
+    }
+    
+    // I420 planes with luma `inside` in the shape and `outside` elsewhere; chroma is u and v in
+    // the shape and neutral elsewhere
+    private static ByteBuffer[] fixture(Shape shape, int outside, int inside, int u, int v) {
+        ByteBuffer y = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+        ByteBuffer uPlane = ByteBuffer.allocateDirect(WIDTH * HEIGHT / 4);
+        ByteBuffer vPlane = ByteBuffer.allocateDirect(WIDTH * HEIGHT / 4);
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int x = 0; x < WIDTH; x++) {
+                y.put(row * WIDTH + x, (byte) (shape.contains(x, row) ? inside : outside));
+            }
+        }
+        for (int row = 0; row < HEIGHT / 2; row++) {
+            for (int x = 0; x < WIDTH / 2; x++) {
+                boolean in = shape.contains(x * 2, row * 2);
+                uPlane.put(row * WIDTH / 2 + x, (byte) (in ? u : 128));
+                vPlane.put(row * WIDTH / 2 + x, (byte) (in ? v : 128));
+            }
+        }
+        return new ByteBuffer[] { y, uPlane, vPlane };
+    }
+    
+    // Pixels on either side of the shape's boundary
+    private static ByteBuffer outline(Shape shape) {
+        ByteBuffer mask = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+        for (int y = 1; y < HEIGHT - 1; y++) {
+            for (int x = 1; x < WIDTH - 1; x++) {
+                boolean in = shape.contains(x, y);
+                if (in != shape.contains(x - 1, y) || in != shape.contains(x + 1, y)
+                        || in != shape.contains(x, y - 1) || in != shape.contains(x, y + 1)) {
+                    mask.put(y * WIDTH + x, (byte) 255);
+                }
+            }
+        }
+        return mask;
+    }
+    
+    private ByteBuffer detect(ByteBuffer[] planes, int yRowStride) {
+        ByteBuffer mask = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+        int written = detector.processFrameDirect(planes[0], planes[1], planes[2], yRowStride, WIDTH / 2, 1,
+                WIDTH, HEIGHT, mask, FrameProcessor.OUTPUT_MASK);
+        assertEquals(WIDTH * HEIGHT, written);
+        return mask;
+    }
+    
+    private static int countEdges(ByteBuffer mask) {
+        int edges = 0;
+        for (int i = 0; i < WIDTH * HEIGHT; i++) {
+            if (mask.get(i) != 0) edges++;
+        }
+        return edges;
+    }
+    
+    private static byte[] toArray(ByteBuffer mask) {
+        byte[] bytes = new byte[WIDTH * HEIGHT];
+        mask.clear();
+        mask.get(bytes);
+        mask.clear();
+        return bytes;
+    }
+}
@@ -0,0 +1,297 @@
+package com.example.edgedetection.batch;
+
+import com.example.edgedetection.FrameProcessor;
+import com.example.edgedetection.ReplayFrameSource;
+import com.example.edgedetection.SourceFrame;
+import com.example.edgedetection.YuvConverter;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// One input file and where its masks go. Every frame of it is a separate job, so the frames of
+// a long dump spread over all workers; the input stays open until its last frame is done.
+//   stills (png, jpg, bmp, gif)  -> <name>.png, detected on their BT.601 gray levels
+//   raw I420 dumps, "*<w>x<h>*.i420", any number of frames back to back -> <name>.mask
+//   app recordings (*.yuvrec, see FrameRecorder)                       -> <name>.mask
+// A .mask file holds width * height mask bytes per frame, in frame order.
+abstract class BatchInput implements Closeable {
+    private static final Pattern FRAME_SIZE = Pattern.compile("(\\d+)x(\\d+)");
+    
+    private final String name;
+    private final int frameCount;
+    private final AtomicInteger remaining;
+    private final LongAdder processingNs = new LongAdder();
+    
+    BatchInput(String name, int frameCount) {
+        this.name = name;
+        this.frameCount = frameCount;
+        remaining = new AtomicInteger(frameCount);
+    }
+    
+    // The input for file, or null if it is not a supported type. Output directories are created.
+    static BatchInput open(Path file, String name, Path outputDir) throws IOException {
+        String lower = file.getFileName().toString().toLowerCase(Locale.US);
+        String base = stripExtension(name);
+        if (lower.endsWith(".png") || lower.endsWith(".jpg") || lower.endsWith(".jpeg")
+                || lower.endsWith(".bmp") || lower.endsWith(".gif")) {
+            return new ImageInput(file, name, createParents(outputDir.resolve(base + ".png")));
+        }
+        if (lower.endsWith(".i420")) {
+            Matcher size = FRAME_SIZE.matcher(file.getFileName().toString());
+            if (!size.find()) {
+                throw new IOException(file + ": I420 dumps need <width>x<height> in their name");
+            }
+            return new I420Input(file, name, Integer.parseInt(size.group(1)), Integer.parseInt(size.group(2)),
+                    createParents(outputDir.resolve(base + ".mask")));
+        }
+        if (lower.endsWith(".yuvrec")) {
+            return RecordingInput.open(file, name, createParents(outputDir.resolve(base + ".mask")));
+        }
+        return null;
+    }
+    
+    String getName() {
+        return name;
+    }
+    
+    int getFrameCount() {
+        return frameCount;
+    }
+    
+    long getProcessingNs() {
+        return processingNs.sum();
+    }
+    
+    abstract boolean isStill();
+    
+    // Bytes read per frame, for the throughput report
+    abstract long getFrameBytes();
+    
+    // Detects frame index and writes its mask. Called concurrently for different frames.
+    abstract void process(BatchWorker worker, int index) throws IOException;
+    
+    // Records a finished frame, successful or not. Returns true for the input's last frame.
+    boolean frameDone(long durationNs) {
+        processingNs.add(durationNs);
+        return remaining.decrementAndGet() == 0;
+    }
+    
+    @Override
+    public void close() throws IOException {
+    }
+    
+    private static String stripExtension(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot > name.lastIndexOf('/') ? name.substring(0, dot) : name;
+    }
+    
+    private static Path createParents(Path output) throws IOException {
+        Path parent = output.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        return output;
+    }
+    
+    private static final class ImageInput extends BatchInput {
+        private final Path file;
+        private final Path output;
+        
+        ImageInput(Path file, String name, Path output) {
+            super(name, 1);
+            this.file = file;
+            this.output = output;
+        }
+        
+        @Override
+        boolean isStill() {
+            return true;
+        }
+        
+        @Override
+        long getFrameBytes() {
+            try {
+                return Files.size(file);
+            } catch (IOException e) {
+                return 0;
+            }
+        }
+        
+        @Override
+        void process(BatchWorker worker, int index) throws IOException {
+            BufferedImage image = ImageIO.read(file.toFile());
+            if (image == null) {
+                throw new IOException("no image reader for this file");
+            }
+            int width = image.getWidth();
+            int height = image.getHeight();
+            ByteBuffer gray = worker.getInputBuffer(width * height);
+            toGray(image, worker.getRowBuffer(width), gray);
+            
+            ByteBuffer mask = worker.detect(gray, null, null, width, 0, 1, width, height, true);
+            BufferedImage maskImage = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+            mask.get(((DataBufferByte) maskImage.getRaster().getDataBuffer()).getData());
+            if (!ImageIO.write(maskImage, "png", output.toFile())) {
+                throw new IOException("No PNG writer available");
+            }
+        }
+        
+        // Gray levels as cv::cvtColor(RGB2GRAY) computes them: BT.601 weights in Q14
+        private static void toGray(BufferedImage image, int[] row, ByteBuffer gray) {
+            int width = image.getWidth();
+            for (int y = 0; y < image.getHeight(); y++) {
+                image.getRGB(0, y, width, 1, row, 0, width);
+                for (int x = 0; x < width; x++) {
+                    int rgb = row[x];
+                    int value = ((rgb >> 16) & 0xFF) * 4899 + ((rgb >> 8) & 0xFF) * 9617 + (rgb & 0xFF) * 1868;
+                    gray.put((byte) ((value + (1 << 13)) >> 14));
+                }
+            }
+            gray.flip();
+        }
+    }
+    
+    // The masks of a dump share one output file. Each frame's mask goes to its own offset, so
+    // workers write in whatever order they finish without coordinating.
+    private abstract static class FrameInput extends BatchInput {
+        final int width;
+        final int height;
+        private final FileChannel output;
+        
+        FrameInput(String name, int frameCount, int width, int height, Path output) throws IOException {
+            super(name, frameCount);
+            this.width = width;
+            this.height = height;
+            this.output = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        }
+        
+        @Override
+        boolean isStill() {
+            return false;
+        }
+        
+        void writeMask(ByteBuffer mask, int index) throws IOException {
+            long position = (long) index * FrameProcessor.getOutputSize(FrameProcessor.OUTPUT_MASK, width, height);
+            while (mask.hasRemaining()) {
+                position += output.write(mask, position);
+            }
+        }
+        
+        @Override
+        public void close() throws IOException {
+            output.close();
+        }
+    }
+    
+    private static final class I420Input extends FrameInput {
+        private final FileChannel input;
+        private final int frameSize;
+        
+        I420Input(Path file, String name, int width, int height, Path output) throws IOException {
+            super(name, (int) (Files.size(file) / YuvConverter.getI420Size(width, height)), width, height, output);
+            frameSize = YuvConverter.getI420Size(width, height);
+            try {
+                input = FileChannel.open(file, StandardOpenOption.READ);
+            } catch (IOException e) {
+                super.close();
+                throw e;
+            }
+        }
+        
+        @Override
+        long getFrameBytes() {
+            return frameSize;
+        }
+        
+        @Override
+        void process(BatchWorker worker, int index) throws IOException {
+            ByteBuffer frame = worker.getInputBuffer(frameSize);
+            long position = (long) index * frameSize;
+            while (frame.hasRemaining()) {
+                int read = input.read(frame, position);
+                if (read < 0) {
+                    throw new IOException("Frame " + index + " is truncated");
+                }
+                position += read;
+            }
+            frame.flip();
+            
+            int lumaSize = width * height;
+            int chromaSize = (width / 2) * (height / 2);
+            ByteBuffer mask = worker.detect(slice(frame, 0, lumaSize), slice(frame, lumaSize, chromaSize),
+                    slice(frame, lumaSize + chromaSize, chromaSize), width, width / 2, 1, width, height, false);
+            writeMask(mask, index);
+        }
+        
+        @Override
+        public void close() throws IOException {
+            try {
+                input.close();
+            } finally {
+                super.close();
+            }
+        }
+        
+        private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+            ByteBuffer plane = buffer.duplicate();
+            plane.position(offset).limit(offset + length);
+            return plane.slice();
+        }
+    }
+    
+    // Frames are read in place from the recording's mapping
+    private static final class RecordingInput extends FrameInput {
+        private final ReplayFrameSource source;
+        
+        private RecordingInput(ReplayFrameSource source, String name, Path output) throws IOException {
+            super(name, (int) source.getFrameCount(), source.getWidth(), source.getHeight(), output);
+            this.source = source;
+        }
+        
+        static RecordingInput open(Path file, String name, Path output) throws IOException {
+            ReplayFrameSource source = new ReplayFrameSource(file.toFile());
+            try {
+                return new RecordingInput(source, name, output);
+            } catch (IOException e) {
+                source.close();
+                throw e;
+            }
+        }
+        
+        @Override
+        long getFrameBytes() {
+            return YuvConverter.getI420Size(width, height);
+        }
+        
+        @Override
+        void process(BatchWorker worker, int index) throws IOException {
+            SourceFrame frame = source.getFrame(index);
+            ByteBuffer mask = worker.detect(frame.getPlane(0), frame.getPlane(1), frame.getPlane(2),
+                    frame.getRowStride(0), frame.getRowStride(1), frame.getPixelStride(1), width, height, false);
+            writeMask(mask, index);
+        }
+        
+        @Override
+        public void close() throws IOException {
+            try {
+                source.close();
+            } finally {
+                super.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package com.example.edgedetection.batch;
+
+import com.example.edgedetection.FrameProcessor;
+import com.example.edgedetection.ImageProcessorNative;
+import com.example.edgedetection.JavaEdgeDetector;
+import com.example.edgedetection.LatencyHistogram;
+import com.example.edgedetection.MetricsRegistry;
+import com.example.edgedetection.MetricsSnapshot;
+import com.example.edgedetection.ProcessorPool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+// Headless batch mode: runs directories of stills and raw frame dumps through the app's engines
+// on a pool of workers, for archives on servers rather than a live camera.
+//   ./gradlew :batch:run --args="[options] <output dir> <input>..."
+// Inputs are files or directories, walked recursively as they are processed; see BatchInput for
+// the types and outputs. Each still and each dump frame is a job. Jobs go to the workers
+// through a short bounded queue, so the walk never runs far ahead and memory does not grow
+// with the archive. Workers read their own inputs and write their own outputs, with no lock on
+// the way but the queue's, so throughput scales with cores until the disk is the limit.
+//   --engine java|native  engine per worker (default: native if libedgedetection loads)
+//   --threads N           workers (default: available processors)
+//   --luma-only           detect dump frames on their Y plane; stills always use gray levels
+//   --report FILE         per-file CSV: name, frames, processing ms, ms per frame
+public final class BatchProcessor {
+    // Jobs queued per worker, enough to cover a slow read without holding up the walk
+    private static final int QUEUE_PER_WORKER = 4;
+    
+    static final class Job {
+        static final Job END = new Job(null, -1);
+        
+        final BatchInput input;
+        final int index;
+        
+        Job(BatchInput input, int index) {
+            this.input = input;
+            this.index = index;
+        }
+    }
+    
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final LatencyHistogram imageLatency = metrics.histogram("image");
+    private final LatencyHistogram frameLatency = metrics.histogram("frame");
+    private final LongAdder images = metrics.counter("images");
+    private final LongAdder frames = metrics.counter("frames");
+    private final LongAdder files = metrics.counter("files");
+    private final LongAdder bytesRead = metrics.counter("bytesRead");
+    private final LongAdder errors = metrics.counter("errors");
+    private final LongAdder skipped = metrics.counter("skipped");
+    private final PrintWriter report;
+    
+    private BatchProcessor(PrintWriter report) {
+        this.report = report;
+    }
+    
+    public static void main(String[] args) throws Exception {
+        String engine = ImageProcessorNative.isAvailable() ? "native" : "java";
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean lumaOnly = false;
+        String reportFile = null;
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--engine":
+                    engine = args[++i];
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--luma-only":
+                    lumaOnly = true;
+                    break;
+                case "--report":
+                    reportFile = args[++i];
+                    break;
+                default:
+                    paths.add(args[i]);
+            }
+        }
+        if (paths.size() < 2 || threads < 1) {
+            System.err.println("Usage: BatchProcessor [--engine java|native] [--threads N] [--luma-only]"
+                    + " [--report file.csv] <output dir> <input>...");
+            System.exit(2);
+        }
+        
+        Path outputDir = Paths.get(paths.get(0)).toAbsolutePath().normalize();
+        Files.createDirectories(outputDir);
+        List<Path> inputs = new ArrayList<>();
+        for (String path : paths.subList(1, paths.size())) {
+            inputs.add(Paths.get(path).toAbsolutePath().normalize());
+        }
+        
+        PrintWriter report = null;
+        if (reportFile != null) {
+            report = new PrintWriter(Files.newBufferedWriter(Paths.get(reportFile), StandardCharsets.UTF_8));
+            report.println("file,frames,processing_ms,ms_per_frame");
+        }
+        int status;
+        try {
+            status = new BatchProcessor(report).run(engine, threads, lumaOnly, outputDir, inputs);
+        } finally {
+            if (report != null) {
+                report.close();
+            }
+        }
+        System.exit(status);
+    }
+    
+    // Returns the exit status: 0, or 1 if any input or frame failed
+    private int run(String engine, int threads, boolean lumaOnly, Path outputDir, List<Path> inputs)
+            throws InterruptedException {
+        // One engine per worker; each worker checks its own out for the whole run
+        ProcessorPool<FrameProcessor> pool = new ProcessorPool<>(threads, () -> createProcessor(engine));
+        
+        BlockingQueue<Job> queue = new ArrayBlockingQueue<>(threads * QUEUE_PER_WORKER);
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(new BatchWorker(this, queue, pool, lumaOnly), "BatchWorker-" + i);
+            workers[i].start();
+        }
+        
+        long startNs = System.nanoTime();
+        try {
+            for (Path input : inputs) {
+                enqueue(input, outputDir, queue);
+            }
+        } finally {
+            for (int i = 0; i < threads; i++) {
+                queue.put(Job.END);
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            pool.release();
+        }
+        double seconds = (System.nanoTime() - startNs) / 1e9;
+        
+        MetricsSnapshot totals = metrics.snapshot();
+        long imageCount = totals.getCounter("images");
+        long frameCount = totals.getCounter("frames");
+        System.out.printf(Locale.US, "%d files: %d images, %d frames in %.2f s with %d %s workers%n",
+                totals.getCounter("files"), imageCount, frameCount, seconds, threads, engine);
+        System.out.printf(Locale.US, "%.1f images/s, %.1f frames/s, %.1f MB/s read, %d errors, %d skipped%n",
+                imageCount / seconds, frameCount / seconds, totals.getCounter("bytesRead") / seconds / 1e6,
+                totals.getCounter("errors"), totals.getCounter("skipped"));
+        System.out.println(totals.describeHistogram("image"));
+        System.out.println(totals.describeHistogram("frame"));
+        return totals.getCounter("errors") == 0 ? 0 : 1;
+    }
+    
+    private static FrameProcessor createProcessor(String engine) {
+        FrameProcessor processor;
+        switch (engine) {
+            case "java":
+                processor = new JavaEdgeDetector();
+                break;
+            case "native":
+                if (!ImageProcessorNative.isAvailable()) {
+                    throw new IllegalStateException("libedgedetection is not on java.library.path");
+                }
+                processor = new ImageProcessorNative();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown engine: " + engine);
+        }
+        if (!processor.initialize()) {
+            processor.release();
+            throw new IllegalStateException(engine + " engine failed to initialize");
+        }
+        return processor;
+    }
+    
+    private void enqueue(Path root, Path outputDir, BlockingQueue<Job> queue) throws InterruptedException {
+        if (!Files.isDirectory(root)) {
+            submit(root, root.getFileName().toString(), outputDir, queue);
+            return;
+        }
+        try (Stream<Path> walk = Files.walk(root)) {
+            Iterator<Path> paths = walk.filter(Files::isRegularFile).iterator();
+            while (paths.hasNext()) {
+                Path file = paths.next();
+                // Masks written into an input directory are not inputs
+                if (file.startsWith(outputDir)) continue;
+                submit(file, root.relativize(file).toString().replace(File.separatorChar, '/'), outputDir, queue);
+            }
+        } catch (IOException | RuntimeException e) {
+            errors.increment();
+            System.err.println(root + ": " + e.getMessage());
+        }
+    }
+    
+    private void submit(Path file, String name, Path outputDir, BlockingQueue<Job> queue)
+            throws InterruptedException {
+        BatchInput input;
+        try {
+            input = BatchInput.open(file, name, outputDir);
+        } catch (IOException | RuntimeException e) {
+            errors.increment();
+            System.err.println(name + ": " + e.getMessage());
+            return;
+        }
+        if (input == null) {
+            skipped.increment();
+            return;
+        }
+        if (input.getFrameCount() == 0) {
+            System.err.println(name + ": no complete frames");
+            finish(input);
+            return;
+        }
+        for (int i = 0; i < input.getFrameCount(); i++) {
+            queue.put(new Job(input, i));
+        }
+    }
+    
+    // Called by the workers after every job
+    void jobDone(Job job, long durationNs, boolean failed) {
+        BatchInput input = job.input;
+        if (failed) {
+            errors.increment();
+        } else {
+            (input.isStill() ? imageLatency : frameLatency).record(durationNs);
+            (input.isStill() ? images : frames).increment();
+            bytesRead.add(input.getFrameBytes());
+        }
+        if (input.frameDone(durationNs)) {
+            finish(input);
+        }
+    }
+    
+    private void finish(BatchInput input) {
+        try {
+            input.close();
+        } catch (IOException e) {
+            errors.increment();
+            System.err.println(input.getName() + ": " + e.getMessage());
+        }
+        files.increment();
+        if (report != null) {
+            double ms = input.getProcessingNs() / 1e6;
+            synchronized (report) {
+                report.printf(Locale.US, "%s,%d,%.3f,%.3f%n", csv(input.getName()), input.getFrameCount(),
+                        ms, ms / Math.max(input.getFrameCount(), 1));
+            }
+        }
+    }
+    
+    private static String csv(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.edgedetection.batch;
+
+import com.example.edgedetection.FrameProcessor;
+import com.example.edgedetection.ProcessorPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+
+// Processing thread of a batch run. Engines are not thread-safe, so each worker checks one out of
+// the pool for the whole run and owns it, along with its input and mask buffers; memory stays at
+// a few frames per worker however large the archive is. Buffers grow to the largest frame seen
+// and are then reused; the engine's own are resized only when the resolution changes.
+final class BatchWorker implements Runnable {
+    private final BatchProcessor batch;
+    private final BlockingQueue<BatchProcessor.Job> queue;
+    private final ProcessorPool<FrameProcessor> pool;
+    private final boolean lumaOnlyFrames;
+    
+    private ProcessorPool.Lease<FrameProcessor> lease;
+    private boolean lumaOnly;
+    private ByteBuffer input = ByteBuffer.allocateDirect(0);
+    private ByteBuffer mask = ByteBuffer.allocateDirect(0);
+    private int[] row = new int[0];
+    
+    BatchWorker(BatchProcessor batch, BlockingQueue<BatchProcessor.Job> queue,
+                ProcessorPool<FrameProcessor> pool, boolean lumaOnlyFrames) {
+        this.batch = batch;
+        this.queue = queue;
+        this.pool = pool;
+        this.lumaOnlyFrames = lumaOnlyFrames;
+    }
+    
+    @Override
+    public void run() {
+        try {
+            lease = pool.acquire();
+            while (true) {
+                BatchProcessor.Job job = queue.take();
+                if (job == BatchProcessor.Job.END) break;
+                
+                long startNs = System.nanoTime();
+                boolean failed = false;
+                try {
+                    job.input.process(this, job.index);
+                } catch (IOException | RuntimeException e) {
+                    failed = true;
+                    String item = job.input.isStill() ? job.input.getName() : job.input.getName() + " frame " + job.index;
+                    System.err.println(item + ": " + e.getMessage());
+                }
+                batch.jobDone(job, System.nanoTime() - startNs, failed);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (lease != null) {
+                lease.release();
+            }
+        }
+    }
+    
+    // Direct buffer of at least size bytes, positioned at 0 and limited to size
+    ByteBuffer getInputBuffer(int size) {
+        if (input.capacity() < size) {
+            input = ByteBuffer.allocateDirect(size);
+        }
+        input.clear().limit(size);
+        return input;
+    }
+    
+    int[] getRowBuffer(int width) {
+        if (row.length < width) {
+            row = new int[width];
+        }
+        return row;
+    }
+    
+    // Runs the engine on one frame and returns its mask, valid until the next call. grayInput
+    // means yPlane already holds gray levels (stills), which are always processed luma-only.
+    ByteBuffer detect(ByteBuffer yPlane, ByteBuffer uPlane, ByteBuffer vPlane,
+                      int yRowStride, int uvRowStride, int uvPixelStride,
+                      int width, int height, boolean grayInput) throws IOException {
+        FrameProcessor processor = lease.prepare(width, height);
+        boolean luma = grayInput || lumaOnlyFrames;
+        if (luma != lumaOnly) {
+            processor.setLumaOnly(luma);
+            lumaOnly = luma;
+        }
+        int size = FrameProcessor.getOutputSize(FrameProcessor.OUTPUT_MASK, width, height);
+        if (mask.capacity() < size) {
+            mask = ByteBuffer.allocateDirect(size);
+        }
+        mask.clear();
+        int written = processor.processFrameDirect(yPlane, uPlane, vPlane, yRowStride, uvRowStride,
+                uvPixelStride, width, height, mask, FrameProcessor.OUTPUT_MASK);
+        if (written < 0) {
+            throw new IOException("Engine failed to process a " + width + "x" + height + " frame");
+        }
+        return mask;
+    }
+}
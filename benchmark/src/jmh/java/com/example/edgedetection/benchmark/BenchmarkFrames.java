@@ -0,0 +1,131 @@
+package com.example.edgedetection.benchmark;
+
+import com.example.edgedetection.YuvConverter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+// Input frames for the benchmarks: tightly packed I420 in one direct buffer, with plane views
+// laid out the way FramePool frames hand them to the processors.
+final class BenchmarkFrames {
+    
+    static final class Frame {
+        final int width;
+        final int height;
+        final ByteBuffer buffer;
+        final ByteBuffer y;
+        final ByteBuffer u;
+        final ByteBuffer v;
+        
+        Frame(int width, int height, ByteBuffer buffer) {
+            this.width = width;
+            this.height = height;
+            this.buffer = buffer;
+            int lumaSize = width * height;
+            int chromaSize = (width / 2) * (height / 2);
+            y = slice(buffer, 0, lumaSize);
+            u = slice(buffer, lumaSize, chromaSize);
+            v = slice(buffer, lumaSize + chromaSize, chromaSize);
+        }
+    }
+    
+    private BenchmarkFrames() {
+    }
+    
+    static int width(String resolution) {
+        switch (resolution) {
+            case "480p": return 640;
+            case "720p": return 1280;
+            case "1080p": return 1920;
+            default: throw new IllegalArgumentException("Unknown resolution: " + resolution);
+        }
+    }
+    
+    static int height(String resolution) {
+        switch (resolution) {
+            case "480p": return 480;
+            case "720p": return 720;
+            case "1080p": return 1080;
+            default: throw new IllegalArgumentException("Unknown resolution: " + resolution);
+        }
+    }
+    
+    static Frame load(String source, String resolution) throws IOException {
+        int width = width(resolution);
+        int height = height(resolution);
+        switch (source) {
+            case "synthetic": return synthetic(width, height);
+            case "recorded": return recorded(width, height);
+            default: throw new IllegalArgumentException("Unknown frame source: " + source);
+        }
+    }
+    
+    // Deterministic scene with smooth shading, hard-edged blocks and sensor-like noise, so
+    // Canny has a realistic mix of strong, weak and absent edges
+    static Frame synthetic(int width, int height) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(YuvConverter.getI420Size(width, height));
+        Random random = new Random(42);
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                int value = 110 + (int) (50 * Math.sin(row * 0.031) * Math.cos(col * 0.023));
+                if (((row / 48) + (col / 64)) % 3 == 0) {
+                    value += 60;
+                }
+                value += random.nextInt(16) - 8;
+                buffer.put((byte) Math.max(16, Math.min(235, value)));
+            }
+        }
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) (128 + random.nextInt(32) - 16));
+        }
+        buffer.clear();
+        return new Frame(width, height, buffer);
+    }
+    
+    // Raw I420 capture named <width>x<height>.i420 in the directory given by -Pframes
+    static Frame recorded(int width, int height) throws IOException {
+        String dir = System.getProperty("edgedetection.frames", "");
+        File file = new File(dir, width + "x" + height + ".i420");
+        if (dir.isEmpty() || !file.isFile()) {
+            throw new IOException("No recorded frame " + file + "; pass -Pframes=<dir>");
+        }
+        
+        int size = YuvConverter.getI420Size(width, height);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            while (buffer.hasRemaining()) {
+                if (in.getChannel().read(buffer) < 0) {
+                    throw new IOException(file + " is shorter than one " + width + "x" + height + " frame");
+                }
+            }
+        }
+        buffer.clear();
+        return new Frame(width, height, buffer);
+    }
+    
+    // Interleaves the chroma planes the way most camera HALs deliver YUV_420_888 (NV21:
+    // V then U, pixel stride 2), for benchmarking the strided conversion path
+    static ByteBuffer toSemiPlanar(Frame frame) {
+        int lumaSize = frame.width * frame.height;
+        int chromaSize = (frame.width / 2) * (frame.height / 2);
+        ByteBuffer nv21 = ByteBuffer.allocateDirect(lumaSize + 2 * chromaSize);
+        frame.y.clear();
+        nv21.put(frame.y);
+        for (int i = 0; i < chromaSize; i++) {
+            nv21.put(frame.v.get(i));
+            nv21.put(frame.u.get(i));
+        }
+        frame.y.clear();
+        nv21.clear();
+        return nv21;
+    }
+    
+    static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer source = buffer.duplicate();
+        source.position(offset).limit(offset + length);
+        return source.slice();
+    }
+}
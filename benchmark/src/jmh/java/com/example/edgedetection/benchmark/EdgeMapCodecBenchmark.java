@@ -0,0 +1,145 @@
+package com.example.edgedetection.benchmark;
+
+import com.example.edgedetection.EdgeMapCodec;
+import com.example.edgedetection.FrameProcessor;
+import com.example.edgedetection.ImageProcessorNative;
+import com.example.edgedetection.JavaEdgeDetector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Exporting a frame as an edge map versus the native JPEG path. encode() is the codec alone on
+// precomputed masks; maskAndEncode() and jpeg() are the full native detect-and-export calls and
+// compare directly. Bytes per frame for each format are printed at the end of the trial.
+@State(Scope.Thread)
+public class EdgeMapCodecBenchmark {
+    
+    @Param({ "480p", "720p", "1080p" })
+    public String resolution;
+    
+    @Param({ "synthetic", "recorded" })
+    public String source;
+    
+    // static: the same mask every frame; pan: alternates with the scene shifted by two pixels
+    @Param({ "static", "pan" })
+    public String motion;
+    
+    @Param({ "false", "true" })
+    public boolean delta;
+    
+    private BenchmarkFrames.Frame frame;
+    private final ByteBuffer[] masks = new ByteBuffer[2];
+    private int next;
+    private EdgeMapCodec.Encoder encoder;
+    private byte[] encoded;
+    private long encodedBytes;
+    private long encodedFrames;
+    
+    private ImageProcessorNative nativeProcessor;
+    private ByteBuffer nativeMask;
+    private ByteBuffer jpeg;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        frame = BenchmarkFrames.load(source, resolution);
+        
+        // The Java engine's masks are identical to the native engine's
+        JavaEdgeDetector detector = new JavaEdgeDetector();
+        detector.initialize();
+        detector.setLumaOnly(true);
+        masks[0] = detect(detector, frame.y);
+        masks[1] = "pan".equals(motion) ? detect(detector, shifted(frame, 2)) : masks[0];
+        detector.release();
+        
+        encoder = new EdgeMapCodec.Encoder();
+        encoder.setDeltaEnabled(delta);
+        encoded = new byte[EdgeMapCodec.getMaxEncodedSize(frame.width, frame.height)];
+        
+        if (ImageProcessorNative.isAvailable()) {
+            nativeProcessor = new ImageProcessorNative();
+            nativeProcessor.initialize();
+            nativeProcessor.setLumaOnly(true);
+            nativeMask = ByteBuffer.allocateDirect(frame.width * frame.height);
+            // JPEG of an edge mask never comes close to the raw RGB size
+            jpeg = ByteBuffer.allocateDirect(frame.width * frame.height * 3);
+        }
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (encodedFrames > 0) {
+            System.out.printf("%nEdge map: %d bytes/frame (raw mask %d)%n",
+                    encodedBytes / encodedFrames, frame.width * frame.height);
+        }
+        if (nativeProcessor != null) {
+            int jpegSize = nativeProcessor.processFrameDirect(frame.y, null, null,
+                    frame.width, frame.width / 2, 1, frame.width, frame.height,
+                    jpeg, FrameProcessor.OUTPUT_JPEG);
+            System.out.printf("JPEG: %d bytes/frame%n", jpegSize);
+            nativeProcessor.release();
+        }
+    }
+    
+    @Benchmark
+    public int encode() {
+        next ^= 1;
+        int size = encoder.encode(masks[next], frame.width, frame.height, encoded);
+        encodedBytes += size;
+        encodedFrames++;
+        return size;
+    }
+    
+    @Benchmark
+    public int maskAndEncode() {
+        int written = nativeProcessor().processFrameDirect(frame.y, null, null,
+                frame.width, frame.width / 2, 1, frame.width, frame.height,
+                nativeMask, FrameProcessor.OUTPUT_MASK);
+        return written + encoder.encode(nativeMask, frame.width, frame.height, encoded);
+    }
+    
+    @Benchmark
+    public int jpeg() {
+        return nativeProcessor().processFrameDirect(frame.y, null, null,
+                frame.width, frame.width / 2, 1, frame.width, frame.height,
+                jpeg, FrameProcessor.OUTPUT_JPEG);
+    }
+    
+    private ImageProcessorNative nativeProcessor() {
+        if (nativeProcessor == null) {
+            throw new IllegalStateException("libedgedetection not found on java.library.path; "
+                    + "build it for the host and pass -PnativeLibDir");
+        }
+        return nativeProcessor;
+    }
+    
+    private ByteBuffer detect(JavaEdgeDetector detector, ByteBuffer luma) {
+        ByteBuffer mask = ByteBuffer.allocateDirect(frame.width * frame.height);
+        int written = detector.processFrameDirect(luma, null, null,
+                frame.width, frame.width / 2, 1, frame.width, frame.height,
+                mask, FrameProcessor.OUTPUT_MASK);
+        if (written < 0) {
+            throw new IllegalStateException("Java engine failed to process the frame");
+        }
+        return mask;
+    }
+    
+    // Y plane moved right by dx pixels, the left edge repeated
+    private static ByteBuffer shifted(BenchmarkFrames.Frame frame, int dx) {
+        ByteBuffer luma = ByteBuffer.allocateDirect(frame.width * frame.height);
+        for (int row = 0; row < frame.height; row++) {
+            int offset = row * frame.width;
+            for (int col = 0; col < frame.width; col++) {
+                luma.put(offset + col, frame.y.get(offset + Math.max(col - dx, 0)));
+            }
+        }
+        return luma;
+    }
+}
@@ -0,0 +1,255 @@
+package com.example.edgedetection.benchmark;
+
+import com.example.edgedetection.EdgeMapCodec;
+import com.example.edgedetection.FrameProcessor;
+import com.example.edgedetection.FrameServer;
+import com.example.edgedetection.JavaEdgeDetector;
+import com.example.edgedetection.LatencyHistogram;
+import com.example.edgedetection.MetricsRegistry;
+import com.example.edgedetection.MetricsSnapshot;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+// Broadcasts edge-map frames from a FrameServer to local WebSocket clients and reports what each
+// client received. Slow clients sleep after every frame; with one-frame slots they should see
+// fewer frames, not older ones, and never hold up the fast clients or the producer. Every
+// decoded frame is checked against the masks that were sent.
+//   ./gradlew :benchmark:loadTest -PloadTestArgs="<clients> <slowClients> <seconds> <fps> <resolution>"
+public final class FrameServerLoadTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    
+    public static void main(String[] args) throws Exception {
+        int clientCount = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int slowCount = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int fps = args.length > 3 ? Integer.parseInt(args[3]) : 30;
+        String resolution = args.length > 4 ? args[4] : "720p";
+        
+        BenchmarkFrames.Frame frame = BenchmarkFrames.synthetic(
+                BenchmarkFrames.width(resolution), BenchmarkFrames.height(resolution));
+        ByteBuffer[] masks = movingMasks(frame, 8);
+        long[] checksums = new long[masks.length];
+        for (int i = 0; i < masks.length; i++) {
+            checksums[i] = checksum(masks[i]);
+        }
+        
+        MetricsRegistry metrics = new MetricsRegistry();
+        FrameServer server = new FrameServer(0, metrics);
+        server.start();
+        
+        List<ViewerClient> clients = new ArrayList<>();
+        for (int i = 0; i < clientCount; i++) {
+            ViewerClient client = new ViewerClient(server.getPort(), i < slowCount, checksums,
+                    frame.width, frame.height);
+            clients.add(client);
+            client.start();
+        }
+        while (server.getViewerCount() < clientCount) {
+            Thread.sleep(10);
+        }
+        
+        // Producer: the app's publish stage, at a fixed frame rate
+        EdgeMapCodec.Encoder encoder = new EdgeMapCodec.Encoder();
+        byte[] encoded = new byte[EdgeMapCodec.getMaxEncodedSize(frame.width, frame.height)];
+        LatencyHistogram broadcastTimes = metrics.histogram("broadcast");
+        MetricsSnapshot start = metrics.snapshot();
+        long periodNs = TimeUnit.SECONDS.toNanos(1) / fps;
+        long endNs = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        long bytes = 0;
+        int frames = 0;
+        for (long next = System.nanoTime(); next < endNs; next += periodNs) {
+            long sleepNs = next - System.nanoTime();
+            if (sleepNs > 0) {
+                TimeUnit.NANOSECONDS.sleep(sleepNs);
+            }
+            if (server.takeKeyFrameRequest()) {
+                encoder.requestKeyFrame();
+            }
+            int length = encoder.encode(masks[frames % masks.length], frame.width, frame.height, encoded);
+            long broadcastStart = System.nanoTime();
+            server.broadcastFrame(encoded, length, (encoded[0] & EdgeMapCodec.FLAG_DELTA) == 0);
+            broadcastTimes.recordSince(broadcastStart);
+            if (frames % fps == 0) {
+                server.broadcastText(metrics.snapshot().since(start).toJson());
+            }
+            bytes += length;
+            frames++;
+        }
+        MetricsSnapshot interval = metrics.snapshot().since(start);
+        
+        server.stop();
+        for (ViewerClient client : clients) {
+            client.join(TimeUnit.SECONDS.toMillis(2));
+        }
+        
+        System.out.printf(Locale.US, "%d frames at %d fps, %s, %d bytes/frame%n",
+                frames, fps, resolution, frames > 0 ? bytes / frames : 0);
+        System.out.println(interval.describeHistogram("broadcast"));
+        System.out.printf(Locale.US, "Sent %d, superseded %d%n",
+                interval.getCounter("sent"), interval.getCounter("superseded"));
+        report("Fast clients", clients, false, seconds);
+        report("Slow clients", clients, true, seconds);
+    }
+    
+    private static void report(String label, List<ViewerClient> clients, boolean slow, int seconds) {
+        int count = 0;
+        long minFrames = Long.MAX_VALUE;
+        long maxFrames = 0;
+        long totalFrames = 0;
+        long keyFrames = 0;
+        long corrupt = 0;
+        long texts = 0;
+        for (ViewerClient client : clients) {
+            if (client.slow != slow) continue;
+            count++;
+            minFrames = Math.min(minFrames, client.frames);
+            maxFrames = Math.max(maxFrames, client.frames);
+            totalFrames += client.frames;
+            keyFrames += client.keyFrames;
+            corrupt += client.corrupt;
+            texts += client.texts;
+        }
+        if (count == 0) return;
+        System.out.printf(Locale.US,
+                "%s (%d): %.1f fps average, %d-%d frames each, %d key frames, %d stats, %d corrupt%n",
+                label, count, (double) totalFrames / count / seconds, minFrames, maxFrames,
+                keyFrames, texts, corrupt);
+    }
+    
+    // Decoded masks are 0/255; so are the engine's
+    private static long checksum(ByteBuffer mask) {
+        CRC32 crc = new CRC32();
+        crc.update(mask.duplicate());
+        return crc.getValue();
+    }
+    
+    // The synthetic scene panning right one pixel per frame
+    private static ByteBuffer[] movingMasks(BenchmarkFrames.Frame frame, int count) {
+        JavaEdgeDetector detector = new JavaEdgeDetector();
+        detector.initialize();
+        detector.setLumaOnly(true);
+        ByteBuffer[] masks = new ByteBuffer[count];
+        ByteBuffer luma = ByteBuffer.allocateDirect(frame.width * frame.height);
+        for (int i = 0; i < count; i++) {
+            for (int row = 0; row < frame.height; row++) {
+                int offset = row * frame.width;
+                for (int col = 0; col < frame.width; col++) {
+                    luma.put(offset + col, frame.y.get(offset + Math.max(col - i, 0)));
+                }
+            }
+            masks[i] = ByteBuffer.allocateDirect(frame.width * frame.height);
+            detector.processFrameDirect(luma, null, null, frame.width, frame.width / 2, 1,
+                    frame.width, frame.height, masks[i], FrameProcessor.OUTPUT_MASK);
+        }
+        detector.release();
+        return masks;
+    }
+    
+    // Blocking WebSocket client on its own thread; reads until the server closes the connection
+    private static final class ViewerClient extends Thread {
+        final boolean slow;
+        final long[] expected;
+        final int width;
+        final int height;
+        final int port;
+        final EdgeMapCodec.Decoder decoder = new EdgeMapCodec.Decoder();
+        volatile long frames;
+        volatile long keyFrames;
+        volatile long corrupt;
+        volatile long texts;
+        
+        ViewerClient(int port, boolean slow, long[] expected, int width, int height) {
+            super("ViewerClient");
+            setDaemon(true);
+            this.port = port;
+            this.slow = slow;
+            this.expected = expected;
+            this.width = width;
+            this.height = height;
+        }
+        
+        @Override
+        public void run() {
+            try (Socket socket = new Socket()) {
+                // Loopback buffers would otherwise hold seconds of frames for a slow client
+                socket.setReceiveBufferSize(64 * 1024);
+                socket.connect(new InetSocketAddress("127.0.0.1", port));
+                OutputStream out = socket.getOutputStream();
+                out.write(("GET / HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\n"
+                        + "Connection: Upgrade\r\nSec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n"
+                        + "Sec-WebSocket-Version: 13\r\n\r\n").getBytes(UTF_8));
+                out.flush();
+                
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                String status = readResponseHeaders(in);
+                if (!status.startsWith("HTTP/1.1 101")) {
+                    throw new IOException("Handshake failed: " + status);
+                }
+                
+                ByteBuffer mask = ByteBuffer.allocateDirect(width * height);
+                byte[] payload = new byte[0];
+                while (true) {
+                    int opcode = in.readUnsignedByte() & 0x0F;
+                    long length = in.readUnsignedByte() & 0x7F;
+                    if (length == 126) {
+                        length = in.readUnsignedShort();
+                    } else if (length == 127) {
+                        length = in.readLong();
+                    }
+                    if (payload.length < length) {
+                        payload = new byte[(int) length];
+                    }
+                    in.readFully(payload, 0, (int) length);
+                    
+                    if (opcode == 0x1) {
+                        texts++;
+                    } else if (opcode == 0x2) {
+                        check(payload, (int) length, mask);
+                        if (slow) {
+                            Thread.sleep(200);
+                        }
+                    }
+                }
+            } catch (IOException | InterruptedException e) {
+                // Server stopped
+            }
+        }
+        
+        private void check(byte[] payload, int length, ByteBuffer mask) {
+            if ((payload[0] & EdgeMapCodec.FLAG_DELTA) == 0) {
+                keyFrames++;
+            }
+            if (decoder.decode(payload, length, mask) < 0 || !matchesAny(mask)) {
+                corrupt++;
+            }
+            frames++;
+        }
+        
+        private boolean matchesAny(ByteBuffer mask) {
+            long value = checksum(mask);
+            for (long candidate : expected) {
+                if (candidate == value) return true;
+            }
+            return false;
+        }
+        
+        private static String readResponseHeaders(DataInputStream in) throws IOException {
+            StringBuilder headers = new StringBuilder();
+            while (headers.length() < 4 || !headers.substring(headers.length() - 4).equals("\r\n\r\n")) {
+                headers.append((char) in.readUnsignedByte());
+            }
+            return headers.substring(0, headers.indexOf("\r\n"));
+        }
+    }
+}
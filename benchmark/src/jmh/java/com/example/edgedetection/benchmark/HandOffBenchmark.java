@@ -0,0 +1,79 @@
+package com.example.edgedetection.benchmark;
+
+import com.example.edgedetection.BoundedFrameQueue;
+import com.example.edgedetection.FramePool;
+import com.example.edgedetection.OverflowPolicy;
+import com.example.edgedetection.YuvConverter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+// Buffer hand-off between pipeline stages: pooled frame checkout/return and a frame crossing a
+// bounded queue from a producer thread to a consumer thread. BLOCK is left out because a
+// producer blocked at the end of an iteration is never woken once the consumer has stopped.
+@State(Scope.Group)
+public class HandOffBenchmark {
+    
+    @Param({ "480p", "720p", "1080p" })
+    public String resolution;
+    
+    @Param({ "DROP_OLDEST", "DROP_NEWEST" })
+    public OverflowPolicy policy;
+    
+    private FramePool pool;
+    private BoundedFrameQueue<FramePool.Frame> queue;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        int width = BenchmarkFrames.width(resolution);
+        int height = BenchmarkFrames.height(resolution);
+        pool = new FramePool(4);
+        pool.configure(width, height, YuvConverter.getI420Size(width, height));
+        queue = new BoundedFrameQueue<>(1, policy, FramePool.Frame::release);
+    }
+    
+    @TearDown(Level.Iteration)
+    public void drain() {
+        queue.clear(FramePool.Frame::release);
+    }
+    
+    @Benchmark
+    @Group("pool")
+    public FramePool.Frame acquireRelease() {
+        FramePool.Frame frame = pool.acquire();
+        frame.release();
+        return frame;
+    }
+    
+    @Benchmark
+    @Group("queue")
+    public boolean produce() throws InterruptedException {
+        FramePool.Frame frame = pool.acquire();
+        if (frame == null) {
+            // Every buffer is queued or being consumed; that is a drop for the camera too
+            return false;
+        }
+        frame.setArrivalNs(System.nanoTime());
+        return queue.offer(frame);
+    }
+    
+    @Benchmark
+    @Group("queue")
+    public long consume() throws InterruptedException {
+        FramePool.Frame frame = queue.poll(10, TimeUnit.MILLISECONDS);
+        if (frame == null) {
+            return 0;
+        }
+        long latency = System.nanoTime() - frame.getArrivalNs();
+        frame.release();
+        return latency;
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.edgedetection.benchmark;
+
+import com.example.edgedetection.FrameProcessor;
+import com.example.edgedetection.ImageProcessorNative;
+import com.example.edgedetection.JavaEdgeDetector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+// Incremental (tiled) detection against full frames on a fixed-camera sequence: the synthetic
+// scene with fresh sensor noise every frame and, for "object", a 96-pixel block crossing it.
+// tileSize 0 is the full-frame baseline. The share of tiles recomputed is printed at the end.
+@State(Scope.Thread)
+public class IncrementalBenchmark {
+    private static final int FRAMES = 16;
+    
+    @Param({ "java", "native" })
+    public String engine;
+    
+    @Param({ "720p", "1080p" })
+    public String resolution;
+    
+    @Param({ "static", "object" })
+    public String scene;
+    
+    @Param({ "0", "64" })
+    public int tileSize;
+    
+    private FrameProcessor processor;
+    private int width;
+    private int height;
+    private final ByteBuffer[] frames = new ByteBuffer[FRAMES];
+    private ByteBuffer mask;
+    private int next;
+    private long recomputedTiles;
+    private long tiles;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkFrames.Frame frame = BenchmarkFrames.synthetic(
+                BenchmarkFrames.width(resolution), BenchmarkFrames.height(resolution));
+        width = frame.width;
+        height = frame.height;
+        Random random = new Random(7);
+        for (int i = 0; i < FRAMES; i++) {
+            frames[i] = ByteBuffer.allocateDirect(width * height);
+            for (int p = 0; p < width * height; p++) {
+                int value = (frame.y.get(p) & 0xFF) + random.nextInt(7) - 3;
+                frames[i].put(p, (byte) Math.max(16, Math.min(235, value)));
+            }
+            if ("object".equals(scene)) {
+                int x0 = width / 4 + i * 8;
+                for (int y = height / 2; y < height / 2 + 96; y++) {
+                    for (int x = x0; x < x0 + 96; x++) {
+                        frames[i].put(y * width + x, (byte) 220);
+                    }
+                }
+            }
+        }
+        
+        if ("native".equals(engine)) {
+            if (!ImageProcessorNative.isAvailable()) {
+                throw new IllegalStateException("libedgedetection not found on java.library.path; "
+                        + "build it for the host and pass -PnativeLibDir");
+            }
+            processor = new ImageProcessorNative();
+        } else {
+            processor = new JavaEdgeDetector();
+        }
+        processor.initialize();
+        processor.setParallelism(0, 0);
+        processor.setLumaOnly(true);
+        processor.setIncrementalTiles(tileSize);
+        mask = ByteBuffer.allocateDirect(width * height);
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (tiles > 0) {
+            System.out.printf("%nTiles recomputed: %.1f%%%n", 100.0 * recomputedTiles / tiles);
+        }
+        processor.release();
+    }
+    
+    @Benchmark
+    public int mask() {
+        ByteBuffer luma = frames[next];
+        next = (next + 1) % FRAMES;
+        int written = processor.processFrameDirect(luma, null, null, width, width / 2, 1,
+                width, height, mask, FrameProcessor.OUTPUT_MASK);
+        if (written < 0) {
+            throw new IllegalStateException(engine + " engine failed to process the frame");
+        }
+        recomputedTiles += processor.getRecomputedTiles();
+        tiles += processor.getTileCount();
+        return written;
+    }
+}
@@ -0,0 +1,206 @@
+package com.example.edgedetection.benchmark;
+
+import com.example.edgedetection.FrameProcessor;
+import com.example.edgedetection.ImageProcessorNative;
+import com.example.edgedetection.JavaEdgeDetector;
+import com.example.edgedetection.LatencyHistogram;
+import com.example.edgedetection.MetricsRegistry;
+import com.example.edgedetection.MetricsSnapshot;
+import com.example.edgedetection.OverflowPolicy;
+import com.example.edgedetection.ProcessorPool;
+import com.example.edgedetection.ReplayFrameSource;
+import com.example.edgedetection.SourceFrame;
+import com.example.edgedetection.StreamScheduler;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// Several frame streams sharing one StreamScheduler, to check fairness and scaling:
+//   ./gradlew :benchmark:multiStream -PmultiStreamArgs="<workers> <seconds> <java|native> <stream>..."
+// A stream is "<weight>" for synthetic 720p frames submitted as fast as the stream takes them
+// (BLOCK, so it is always busy), or "<weight>:<recording>" for a recording from the app replayed
+// in a loop at its recorded frame rate with the camera's latest-frame policy (DROP_OLDEST).
+// With more busy streams than workers, each should get worker time in proportion to its weight.
+public final class MultiStreamRun {
+    
+    // Synthetic frames are shared read-only views of one buffer, so closing them is a no-op
+    private static final class SyntheticFrame implements SourceFrame {
+        private final BenchmarkFrames.Frame frame;
+        
+        SyntheticFrame(BenchmarkFrames.Frame frame) {
+            this.frame = frame;
+        }
+        
+        @Override
+        public int getWidth() {
+            return frame.width;
+        }
+        
+        @Override
+        public int getHeight() {
+            return frame.height;
+        }
+        
+        @Override
+        public long getTimestampNs() {
+            return 0;
+        }
+        
+        @Override
+        public ByteBuffer getPlane(int index) {
+            return (index == 0 ? frame.y : index == 1 ? frame.u : frame.v).duplicate();
+        }
+        
+        @Override
+        public int getRowStride(int index) {
+            return index == 0 ? frame.width : frame.width / 2;
+        }
+        
+        @Override
+        public int getPixelStride(int index) {
+            return 1;
+        }
+        
+        @Override
+        public void close() {
+        }
+    }
+    
+    // Runs a frame through the worker's engine into a mask buffer of the worker's own
+    private static final class Detect implements StreamScheduler.Handler<SourceFrame, FrameProcessor> {
+        private final ThreadLocal<ByteBuffer> masks = new ThreadLocal<>();
+        
+        @Override
+        public void process(SourceFrame frame, ProcessorPool.Lease<FrameProcessor> engine) {
+            int width = frame.getWidth();
+            int height = frame.getHeight();
+            int maskSize = FrameProcessor.getOutputSize(FrameProcessor.OUTPUT_MASK, width, height);
+            ByteBuffer mask = masks.get();
+            if (mask == null || mask.capacity() < maskSize) {
+                mask = ByteBuffer.allocateDirect(maskSize);
+                masks.set(mask);
+            }
+            mask.clear();
+            int written = engine.prepare(width, height).processFrameDirect(
+                    frame.getPlane(0), frame.getPlane(1), frame.getPlane(2),
+                    frame.getRowStride(0), frame.getRowStride(1), frame.getPixelStride(1),
+                    width, height, mask, FrameProcessor.OUTPUT_MASK);
+            if (written < 0) {
+                throw new IllegalStateException("Engine failed to process the frame");
+            }
+        }
+        
+        @Override
+        public void release(SourceFrame frame) {
+            frame.close();
+        }
+    }
+    
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.err.println("Usage: MultiStreamRun <workers> <seconds> <java|native> <weight>[:<recording>]...");
+            System.exit(2);
+        }
+        int workers = Integer.parseInt(args[0]);
+        int seconds = Integer.parseInt(args[1]);
+        String engine = args[2];
+        
+        ProcessorPool<FrameProcessor> pool = new ProcessorPool<>(workers, () -> {
+            FrameProcessor processor = "native".equals(engine) ? new ImageProcessorNative() : new JavaEdgeDetector();
+            if (!processor.initialize()) {
+                processor.release();
+                throw new IllegalStateException(engine + " engine failed to initialize");
+            }
+            return processor;
+        });
+        MetricsRegistry metrics = new MetricsRegistry();
+        StreamScheduler<FrameProcessor> scheduler = new StreamScheduler<>(pool, metrics);
+        Detect detect = new Detect();
+        
+        List<StreamScheduler.Stream<SourceFrame>> streams = new ArrayList<>();
+        List<ReplayFrameSource> replays = new ArrayList<>();
+        List<Thread> producers = new ArrayList<>();
+        BenchmarkFrames.Frame synthetic = null;
+        for (int i = 3; i < args.length; i++) {
+            String[] spec = args[i].split(":", 2);
+            int weight = Integer.parseInt(spec[0]);
+            String name = "s" + (i - 3);
+            if (spec.length > 1) {
+                StreamScheduler.Stream<SourceFrame> stream = scheduler.addStream(name, weight,
+                        OverflowPolicy.DROP_OLDEST, detect);
+                ReplayFrameSource replay = new ReplayFrameSource(new File(spec[1]));
+                replay.setLoop(true);
+                replay.setFrameListener(stream::submit);
+                replays.add(replay);
+                streams.add(stream);
+            } else {
+                if (synthetic == null) synthetic = BenchmarkFrames.synthetic(1280, 720);
+                StreamScheduler.Stream<SourceFrame> stream = scheduler.addStream(name, weight,
+                        OverflowPolicy.BLOCK, detect);
+                SyntheticFrame frame = new SyntheticFrame(synthetic);
+                Thread producer = new Thread(() -> {
+                    while (!Thread.currentThread().isInterrupted()) {
+                        stream.submit(frame);
+                    }
+                }, "Producer-" + name);
+                producer.setDaemon(true);
+                producers.add(producer);
+                streams.add(stream);
+            }
+        }
+        
+        scheduler.start();
+        for (ReplayFrameSource replay : replays) {
+            replay.start();
+        }
+        for (Thread producer : producers) {
+            producer.start();
+        }
+        // The first second warms up the engines and the JIT
+        Thread.sleep(1000);
+        MetricsSnapshot start = metrics.snapshot();
+        Thread.sleep(seconds * 1000L);
+        MetricsSnapshot interval = metrics.snapshot().since(start);
+        
+        for (Thread producer : producers) {
+            producer.interrupt();
+        }
+        for (ReplayFrameSource replay : replays) {
+            replay.stop();
+        }
+        scheduler.stop();
+        for (ReplayFrameSource replay : replays) {
+            replay.close();
+        }
+        pool.release();
+        
+        double totalWorkMs = 0;
+        double totalFps = 0;
+        for (StreamScheduler.Stream<SourceFrame> stream : streams) {
+            totalWorkMs += workMs(interval, stream.getName());
+            totalFps += interval.getRate(stream.getName() + ".processed");
+        }
+        System.out.printf(Locale.US, "%d workers, %d streams, %s engine, %d s: %.1f fps in total%n",
+                workers, streams.size(), engine, seconds, totalFps);
+        System.out.printf(Locale.US, "%-6s %6s %8s %8s %7s %9s %9s%n",
+                "stream", "weight", "fps", "dropped", "share", "p50 ms", "p99 ms");
+        for (StreamScheduler.Stream<SourceFrame> stream : streams) {
+            String name = stream.getName();
+            LatencyHistogram.Snapshot latency = interval.getHistogram(name + ".latency");
+            boolean any = latency != null && latency.getCount() > 0;
+            System.out.printf(Locale.US, "%-6s %6d %8.1f %8d %6.1f%% %9.1f %9.1f%n", name, stream.getWeight(),
+                    interval.getRate(name + ".processed"), interval.getCounter(name + ".dropped"),
+                    totalWorkMs > 0 ? 100 * workMs(interval, name) / totalWorkMs : 0,
+                    any ? latency.getPercentileMs(50) : 0, any ? latency.getPercentileMs(99) : 0);
+        }
+    }
+    
+    // Worker time the stream used over the interval
+    private static double workMs(MetricsSnapshot interval, String name) {
+        LatencyHistogram.Snapshot process = interval.getHistogram(name + ".process");
+        return process != null ? process.getMeanMs() * process.getCount() : 0;
+    }
+}
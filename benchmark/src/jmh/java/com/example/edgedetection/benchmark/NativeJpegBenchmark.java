@@ -0,0 +1,77 @@
+package com.example.edgedetection.benchmark;
+
+import com.example.edgedetection.FrameProcessor;
+import com.example.edgedetection.ImageProcessorNative;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// The JPEG-returning entry points of the native engine: the original byte[] RGB call and the
+// direct-buffer variants. Compare allocation rates (gc profiler) with ProcessFrameBenchmark.
+@State(Scope.Thread)
+public class NativeJpegBenchmark {
+    
+    @Param({ "480p", "720p", "1080p" })
+    public String resolution;
+    
+    @Param({ "synthetic", "recorded" })
+    public String source;
+    
+    private ImageProcessorNative processor;
+    private BenchmarkFrames.Frame frame;
+    private byte[] rgb;
+    private ByteBuffer jpeg;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        if (!ImageProcessorNative.isAvailable()) {
+            throw new IllegalStateException("libedgedetection not found on java.library.path; "
+                    + "build it for the host and pass -PnativeLibDir");
+        }
+        frame = BenchmarkFrames.load(source, resolution);
+        processor = new ImageProcessorNative();
+        processor.initialize();
+        
+        // Gray replicated into packed RGB for the legacy entry point
+        rgb = new byte[frame.width * frame.height * 3];
+        for (int i = 0, n = frame.width * frame.height; i < n; i++) {
+            byte luma = frame.y.get(i);
+            rgb[3 * i] = luma;
+            rgb[3 * i + 1] = luma;
+            rgb[3 * i + 2] = luma;
+        }
+        // JPEG of an edge mask never comes close to the raw RGB size
+        jpeg = ByteBuffer.allocateDirect(frame.width * frame.height * 3);
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        processor.release();
+    }
+    
+    @Benchmark
+    public byte[] processFrame() {
+        return processor.processFrame(rgb, frame.width, frame.height);
+    }
+    
+    @Benchmark
+    public byte[] processFrameDirect() {
+        return processor.processFrameDirect(frame.y, frame.u, frame.v,
+                frame.width, frame.width / 2, 1, frame.width, frame.height);
+    }
+    
+    @Benchmark
+    public int processFrameDirectInto() {
+        return processor.processFrameDirect(frame.y, frame.u, frame.v,
+                frame.width, frame.width / 2, 1, frame.width, frame.height,
+                jpeg, FrameProcessor.OUTPUT_JPEG);
+    }
+}
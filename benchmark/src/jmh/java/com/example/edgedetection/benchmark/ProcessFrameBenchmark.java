@@ -0,0 +1,90 @@
+package com.example.edgedetection.benchmark;
+
+import com.example.edgedetection.FrameProcessor;
+import com.example.edgedetection.ImageProcessorNative;
+import com.example.edgedetection.JavaEdgeDetector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// End-to-end detection on one frame through FrameProcessor.processFrameDirect, the call the
+// app's detect stage makes for every camera frame. Native combinations fail (and are skipped
+// by the run) when libedgedetection is not on java.library.path.
+@State(Scope.Thread)
+public class ProcessFrameBenchmark {
+    
+    @Param({ "java", "native" })
+    public String engine;
+    
+    @Param({ "480p", "720p", "1080p" })
+    public String resolution;
+    
+    @Param({ "synthetic", "recorded" })
+    public String source;
+    
+    // Edges from the Y plane alone, without colour conversion or chroma reads
+    @Param({ "false", "true" })
+    public boolean lumaOnly;
+    
+    // Extra worker threads; 0 runs single-threaded on the benchmark thread
+    @Param({ "0" })
+    public int threads;
+    
+    private FrameProcessor processor;
+    private BenchmarkFrames.Frame frame;
+    private ByteBuffer mask;
+    private ByteBuffer rgba;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        frame = BenchmarkFrames.load(source, resolution);
+        
+        if ("native".equals(engine)) {
+            if (!ImageProcessorNative.isAvailable()) {
+                throw new IllegalStateException("libedgedetection not found on java.library.path; "
+                        + "build it for the host and pass -PnativeLibDir");
+            }
+            processor = new ImageProcessorNative();
+        } else {
+            processor = new JavaEdgeDetector();
+        }
+        processor.initialize();
+        processor.setParallelism(threads, 0);
+        processor.setLumaOnly(lumaOnly);
+        
+        mask = ByteBuffer.allocateDirect(FrameProcessor.getOutputSize(FrameProcessor.OUTPUT_MASK, frame.width, frame.height));
+        rgba = ByteBuffer.allocateDirect(FrameProcessor.getOutputSize(FrameProcessor.OUTPUT_RGBA, frame.width, frame.height));
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        processor.release();
+    }
+    
+    @Benchmark
+    public int mask() {
+        return process(mask, FrameProcessor.OUTPUT_MASK);
+    }
+    
+    @Benchmark
+    public int rgba() {
+        return process(rgba, FrameProcessor.OUTPUT_RGBA);
+    }
+    
+    private int process(ByteBuffer output, int format) {
+        int written = processor.processFrameDirect(frame.y, frame.u, frame.v,
+                frame.width, frame.width / 2, 1, frame.width, frame.height, output, format);
+        if (written < 0) {
+            throw new IllegalStateException(engine + " engine failed to process the frame");
+        }
+        return written;
+    }
+}
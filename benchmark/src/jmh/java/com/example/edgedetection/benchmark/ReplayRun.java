@@ -0,0 +1,142 @@
+package com.example.edgedetection.benchmark;
+
+import com.example.edgedetection.FramePool;
+import com.example.edgedetection.FrameProcessor;
+import com.example.edgedetection.ImageProcessorNative;
+import com.example.edgedetection.JavaEdgeDetector;
+import com.example.edgedetection.MetricsRegistry;
+import com.example.edgedetection.MetricsSnapshot;
+import com.example.edgedetection.OverflowPolicy;
+import com.example.edgedetection.ProcessingPipeline;
+import com.example.edgedetection.ReplayFrameSource;
+import com.example.edgedetection.SourceFrame;
+import com.example.edgedetection.YuvConverter;
+
+import java.io.File;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+// Replays a recording from the app (Record button) through the same staged pipeline the app
+// runs, as fast as the pipeline drains it. The pipeline blocks instead of dropping and only one
+// replayed frame is open at a time, so every run processes every frame once, in order; the mask
+// checksum identifies the output and should only change when detection does.
+//   ./gradlew :benchmark:replay -PreplayArgs="<recording> <java|native> [lumaOnly] [passes]"
+public final class ReplayRun {
+    
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: ReplayRun <recording> [java|native] [lumaOnly] [passes]");
+            System.exit(2);
+        }
+        File recording = new File(args[0]);
+        String engine = args.length > 1 ? args[1] : "java";
+        boolean lumaOnly = args.length > 2 && Boolean.parseBoolean(args[2]);
+        int passes = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+        
+        FrameProcessor processor = "native".equals(engine) ? new ImageProcessorNative() : new JavaEdgeDetector();
+        if (!processor.initialize()) {
+            throw new IllegalStateException(engine + " engine failed to initialize");
+        }
+        processor.setLumaOnly(lumaOnly);
+        
+        try (ReplayFrameSource source = new ReplayFrameSource(recording)) {
+            int width = source.getWidth();
+            int height = source.getHeight();
+            FramePool inputPool = new FramePool(4);
+            FramePool maskPool = new FramePool(4);
+            inputPool.configure(width, height, lumaOnly ? width * height : YuvConverter.getI420Size(width, height));
+            maskPool.configure(width, height, FrameProcessor.getOutputSize(FrameProcessor.OUTPUT_MASK, width, height));
+            
+            YuvConverter converter = new YuvConverter();
+            CRC32 checksum = new CRC32();
+            MetricsRegistry metrics = new MetricsRegistry();
+            ProcessingPipeline<SourceFrame> pipeline = new ProcessingPipeline<>(
+                    new ProcessingPipeline.Converter<SourceFrame>() {
+                        @Override
+                        public FramePool.Frame convert(SourceFrame frame) {
+                            // Copied, so the source (limited to one in flight) can replay the next frame
+                            try {
+                                FramePool.Frame input = inputPool.acquire();
+                                if (input == null) return null;
+                                converter.copyFrame(frame, lumaOnly, input.getBuffer());
+                                input.setTimestampNs(frame.getTimestampNs());
+                                return input;
+                            } finally {
+                                frame.close();
+                            }
+                        }
+                        
+                        @Override
+                        public void release(SourceFrame frame) {
+                            frame.close();
+                        }
+                    },
+                    input -> detect(processor, input, maskPool, lumaOnly),
+                    mask -> checksum.update(mask.getBuffer().duplicate()),
+                    2, OverflowPolicy.BLOCK, metrics);
+            
+            source.setTiming(ReplayFrameSource.Timing.AS_FAST_AS_POSSIBLE);
+            source.setMaxInFlight(1);
+            source.setFrameListener(pipeline::submit);
+            
+            pipeline.start();
+            MetricsSnapshot start = metrics.snapshot();
+            long startNs = System.nanoTime();
+            for (int pass = 0; pass < passes; pass++) {
+                source.start();
+                source.awaitFinished(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            }
+            // The last frames are still in the pipeline once the source has handed them out
+            long expected = source.getFrameCount() * passes;
+            while (finished(metrics.snapshot().since(start)) < expected) {
+                Thread.sleep(1);
+            }
+            long elapsedNs = System.nanoTime() - startNs;
+            pipeline.stop();
+            MetricsSnapshot interval = metrics.snapshot().since(start);
+            
+            long published = interval.getCounter("published");
+            System.out.printf(Locale.US, "%s: %dx%d, %d frames x %d passes, %s engine%s%n",
+                    recording.getName(), width, height, source.getFrameCount(), passes, engine,
+                    lumaOnly ? " (luma only)" : "");
+            System.out.printf(Locale.US, "%d published, %d dropped, %d errors in %.2f s: %.1f fps%n",
+                    published, interval.getCounter("dropped"), interval.getCounter("errors"),
+                    elapsedNs / 1e9, published * 1e9 / elapsedNs);
+            for (String stage : ProcessingPipeline.STAGE_NAMES) {
+                System.out.println(interval.describeHistogram(stage));
+            }
+            System.out.println(interval.describeHistogram("latency"));
+            System.out.printf(Locale.US, "Mask checksum: %08x%n", checksum.getValue());
+        } finally {
+            processor.release();
+        }
+    }
+    
+    private static long finished(MetricsSnapshot interval) {
+        return interval.getCounter("published") + interval.getCounter("dropped")
+                + interval.getCounter("errors");
+    }
+    
+    private static FramePool.Frame detect(FrameProcessor processor, FramePool.Frame input,
+                                          FramePool maskPool, boolean lumaOnly) {
+        FramePool.Frame mask = maskPool.acquire();
+        if (mask == null) return null;
+        
+        int width = input.getWidth();
+        int height = input.getHeight();
+        int lumaSize = width * height;
+        int chromaSize = (width / 2) * (height / 2);
+        int written = processor.processFrameDirect(
+                input.getView(0, 0, lumaSize),
+                lumaOnly ? null : input.getView(1, lumaSize, chromaSize),
+                lumaOnly ? null : input.getView(2, lumaSize + chromaSize, chromaSize),
+                width, width / 2, 1, width, height, mask.getBuffer(), FrameProcessor.OUTPUT_MASK);
+        if (written < 0) {
+            mask.release();
+            throw new IllegalStateException("Engine failed to process the frame");
+        }
+        mask.setTimestampNs(input.getTimestampNs());
+        return mask;
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.edgedetection.benchmark;
+
+import com.example.edgedetection.YuvConverter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Java-side conversion of camera planes into pooled I420 frames (MainActivity.convertImage).
+// "planar" is the packed fast path; "semiplanar" is the interleaved NV21 layout most devices use.
+@State(Scope.Thread)
+public class YuvConverterBenchmark {
+    
+    @Param({ "480p", "720p", "1080p" })
+    public String resolution;
+    
+    @Param({ "synthetic", "recorded" })
+    public String source;
+    
+    @Param({ "planar", "semiplanar" })
+    public String layout;
+    
+    private final YuvConverter converter = new YuvConverter();
+    private int width;
+    private int height;
+    private ByteBuffer y;
+    private ByteBuffer u;
+    private ByteBuffer v;
+    private int uvRowStride;
+    private int uvPixelStride;
+    private ByteBuffer dst;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchmarkFrames.Frame frame = BenchmarkFrames.load(source, resolution);
+        width = frame.width;
+        height = frame.height;
+        
+        if ("semiplanar".equals(layout)) {
+            ByteBuffer nv21 = BenchmarkFrames.toSemiPlanar(frame);
+            int lumaSize = width * height;
+            int chromaBytes = nv21.capacity() - lumaSize;
+            y = BenchmarkFrames.slice(nv21, 0, lumaSize);
+            v = BenchmarkFrames.slice(nv21, lumaSize, chromaBytes - 1);
+            u = BenchmarkFrames.slice(nv21, lumaSize + 1, chromaBytes - 1);
+            uvRowStride = width;
+            uvPixelStride = 2;
+        } else {
+            y = frame.y;
+            u = frame.u;
+            v = frame.v;
+            uvRowStride = width / 2;
+            uvPixelStride = 1;
+        }
+        dst = ByteBuffer.allocateDirect(YuvConverter.getI420Size(width, height));
+    }
+    
+    @Benchmark
+    public ByteBuffer copyToI420() {
+        converter.copyToI420(y, u, v, width, uvRowStride, uvPixelStride, width, height, dst);
+        return dst;
+    }
+}
@@ -1,6 +1,86 @@
 // Edge Detection Web Viewer
 // This JavaScript application displays processed frames from the Android app
 
+// Decoder for the app's lossless edge-map frames (EdgeMapCodec.java). Each frame is a flags
+// byte (bit 0: delta), varint width and height, then one token per row: 0 for a raw row of
+// packed bits (MSB first), otherwise 1 + the number of alternating background/edge run lengths
+// that follow, the last run reaching to the end of the row. Delta frames are XORed onto the
+// previous frame.
+class EdgeMapDecoder {
+    constructor() {
+        this.mask = null;
+        this.width = 0;
+        this.height = 0;
+    }
+    
+    // Returns the 0/255 mask (reused between calls), or null for a delta frame that does not
+    // follow a decoded frame of the same size
+    decode(buffer) {
+        const data = new Uint8Array(buffer);
+        let pos = 0;
+        const readVarint = () => {
+            let value = 0;
+            for (let shift = 0; shift < 32; shift += 7) {
+                if (pos >= data.length) throw new Error('Truncated edge map');
+                const b = data[pos++];
+                value += (b & 0x7f) * Math.pow(2, shift);
+                if ((b & 0x80) === 0) return value;
+            }
+            throw new Error('Bad varint in edge map');
+        };
+        
+        const delta = (data[pos++] & 1) !== 0;
+        const width = readVarint();
+        const height = readVarint();
+        if (delta && (!this.mask || width !== this.width || height !== this.height)) {
+            return null;
+        }
+        if (!this.mask || this.mask.length !== width * height) {
+            this.mask = new Uint8Array(width * height);
+        }
+        this.width = width;
+        this.height = height;
+        
+        const mask = this.mask;
+        const rawSize = (width + 7) >> 3;
+        const fill = (from, to, edge) => {
+            if (delta) {
+                if (edge) for (let i = from; i < to; i++) mask[i] ^= 0xff;
+            } else {
+                mask.fill(edge ? 0xff : 0, from, to);
+            }
+        };
+        for (let row = 0; row < height; row++) {
+            const offset = row * width;
+            const token = readVarint();
+            if (token === 0) {
+                if (pos + rawSize > data.length) throw new Error('Truncated edge map');
+                for (let col = 0; col < width; col++) {
+                    const bit = data[pos + (col >> 3)] & (0x80 >> (col & 7));
+                    if (delta) {
+                        if (bit) mask[offset + col] ^= 0xff;
+                    } else {
+                        mask[offset + col] = bit ? 0xff : 0;
+                    }
+                }
+                pos += rawSize;
+            } else {
+                let col = 0;
+                let edge = false;
+                for (let i = 0; i < token - 1; i++) {
+                    const end = col + readVarint();
+                    if (end > width) throw new Error(`Run past end of row ${row}`);
+                    fill(offset + col, offset + end, edge);
+                    col = end;
+                    edge = !edge;
+                }
+                fill(offset + col, offset + width, edge);
+            }
+        }
+        return mask;
+    }
+}
+
 class EdgeDetectionViewer {
     constructor() {
         this.initializeElements();
@@ -10,6 +90,8 @@ class EdgeDetectionViewer {
     
     initializeElements() {
         this.frameDisplay = document.getElementById('frameDisplay');
+        this.edgeCanvas = document.getElementById('edgeCanvas');
+        this.edgeMapDecoder = new EdgeMapDecoder();
         this.fpsValue = document.getElementById('fpsValue');
         this.resolutionValue = document.getElementById('resolutionValue');
         this.processingTimeValue = document.getElementById('processingTime');
@@ -27,10 +109,42 @@ class EdgeDetectionViewer {
         this.statusValue.textContent = status;
     }
     
+    // stats is a snapshot from /api/stats: counters with per-second rates, gauges, and latency
+    // histograms in milliseconds
     updateStats(stats) {
-        this.fpsValue.textContent = stats.fps.toFixed(1);
-        this.resolutionValue.textContent = stats.resolution;
-        this.processingTimeValue.textContent = `${stats.processingTime} ms`;
+        if (!stats.available) {
+            this.fpsValue.textContent = '0';
+            this.resolutionValue.textContent = 'N/A';
+            this.processingTimeValue.textContent = 'No data from app';
+            return;
+        }
+        
+        const counters = stats.counters || {};
+        const gauges = stats.gauges || {};
+        const detect = (stats.histograms || {}).detect;
+        // Processed frames while edge detection runs, camera frames otherwise
+        const fps = counters.published && counters.published.rate > 0 ? counters.published.rate :
+            (counters.camera ? counters.camera.rate : 0);
+        
+        this.fpsValue.textContent = fps.toFixed(1);
+        this.resolutionValue.textContent = gauges.width ? `${gauges.width}x${gauges.height}` : 'N/A';
+        this.processingTimeValue.textContent = detect && detect.count > 0 ?
+            `p50 ${detect.p50.toFixed(1)} / p99 ${detect.p99.toFixed(1)} ms` : 'idle';
+        // Incremental mode: share of tiles whose edges were recomputed
+        if (counters.tiles && counters.tiles.value > 0) {
+            const recomputed = counters.tilesRecomputed ? counters.tilesRecomputed.value : 0;
+            this.processingTimeValue.textContent +=
+                `, ${(100 * recomputed / counters.tiles.value).toFixed(0)}% tiles recomputed`;
+        }
+    }
+    
+    async fetchStats() {
+        try {
+            const response = await fetch('/api/stats');
+            this.updateStats(await response.json());
+        } catch (error) {
+            this.updateStatus("Server unreachable");
+        }
     }
     
     startStreaming() {
@@ -39,80 +153,96 @@ class EdgeDetectionViewer {
         this.isStreaming = true;
         this.startBtn.disabled = true;
         this.stopBtn.disabled = false;
-        this.updateStatus("Streaming");
         
-        // Start simulated frame updates
-        this.simulateFrameUpdates();
+        // Frames and stats come straight from the app's frame server; until it is reachable,
+        // stats relayed by the node server are polled instead
+        this.connectToAndroidApp();
+        this.fetchStats();
+        this.statsTimer = setInterval(() => {
+            if (!this.socket || this.socket.readyState !== WebSocket.OPEN) this.fetchStats();
+        }, 1000);
     }
     
     stopStreaming() {
         this.isStreaming = false;
+        clearInterval(this.statsTimer);
+        this.disconnectFromAndroidApp();
         this.startBtn.disabled = false;
         this.stopBtn.disabled = true;
         this.updateStatus("Stopped");
     }
     
-    simulateFrameUpdates() {
-        if (!this.isStreaming) return;
-        
-        // Simulate receiving a processed frame
-        this.receiveFrame();
+    // Draws one encoded edge-map frame (ArrayBuffer) in place of the image display. Returns false
+    // if the frame could not be shown yet (a delta frame before the first key frame).
+    showEdgeMap(buffer) {
+        const mask = this.edgeMapDecoder.decode(buffer);
+        if (!mask) return false;
         
-        // Schedule next frame update
-        setTimeout(() => this.simulateFrameUpdates(), 100); // ~10 FPS
-    }
-    
-    receiveFrame() {
-        // In a real implementation, this would receive actual frame data
-        // For demo purposes, we'll use a placeholder image
-        const timestamp = new Date().getTime();
-        this.frameDisplay.src = `https://picsum.photos/640/480?random=${timestamp}`;
-        
-        // Update frame statistics
-        this.frameCount = (this.frameCount || 0) + 1;
-        
-        const now = performance.now();
-        if (this.lastFrameTime > 0) {
-            const frameTime = now - this.lastFrameTime;
-            this.fps = 0.9 * (this.fps || 0) + 0.1 * (1000 / frameTime);
+        const width = this.edgeMapDecoder.width;
+        const height = this.edgeMapDecoder.height;
+        if (this.edgeCanvas.width !== width || this.edgeCanvas.height !== height) {
+            this.edgeCanvas.width = width;
+            this.edgeCanvas.height = height;
+            this.edgeContext = this.edgeCanvas.getContext('2d');
+            this.edgeImage = this.edgeContext.createImageData(width, height);
         }
-        this.lastFrameTime = now;
-        
-        // Update stats display
-        const stats = {
-            fps: this.fps || 0,
-            resolution: "640x480",
-            processingTime: Math.floor(Math.random() * 20) + 5 // Random processing time between 5-25ms
-        };
-        
-        this.updateStats(stats);
+        const pixels = this.edgeImage.data;
+        for (let i = 0, p = 0; i < mask.length; i++, p += 4) {
+            pixels[p] = pixels[p + 1] = pixels[p + 2] = mask[i];
+            pixels[p + 3] = 255;
+        }
+        this.edgeContext.putImageData(this.edgeImage, 0, 0);
+        this.edgeCanvas.style.display = '';
+        this.frameDisplay.style.display = 'none';
+        return true;
     }
     
-    // In a real implementation, these methods would handle actual communication
-    // with the Android app via WebSocket or HTTP requests
+    // The app's FrameServer, host:port from ?device=, by default port 8080 on this page's host
+    // (with the emulator: adb forward tcp:8080 tcp:8080)
+    deviceAddress() {
+        const device = new URLSearchParams(window.location.search).get('device');
+        return device || `${window.location.hostname || 'localhost'}:8080`;
+    }
     
     connectToAndroidApp() {
-        // TODO: Implement WebSocket connection to Android app
-        console.log("Connecting to Android app...");
-        this.updateStatus("Connecting...");
+        const address = this.deviceAddress();
+        this.updateStatus(`Connecting to ${address}...`);
         
-        // Simulate connection
-        setTimeout(() => {
-            console.log("Connected to Android app");
-            this.updateStatus("Connected");
-        }, 1000);
+        const socket = new WebSocket(`ws://${address}`);
+        socket.binaryType = 'arraybuffer';
+        this.socket = socket;
+        // A new connection starts with a key frame
+        this.edgeMapDecoder = new EdgeMapDecoder();
+        
+        socket.onopen = () => this.updateStatus(`Connected to ${address}`);
+        socket.onmessage = (event) => {
+            if (typeof event.data === 'string') {
+                this.updateStats(Object.assign({ available: true }, JSON.parse(event.data)));
+            } else {
+                try {
+                    this.showEdgeMap(event.data);
+                } catch (error) {
+                    console.error('Bad edge map frame', error);
+                }
+            }
+        };
+        socket.onclose = () => {
+            if (this.socket !== socket) return;
+            this.socket = null;
+            if (this.isStreaming) {
+                this.updateStatus("Disconnected, retrying...");
+                this.reconnectTimer = setTimeout(() => this.connectToAndroidApp(), 2000);
+            }
+        };
     }
     
     disconnectFromAndroidApp() {
-        // TODO: Implement disconnection from Android app
-        console.log("Disconnecting from Android app...");
-        this.updateStatus("Disconnecting...");
-        
-        // Simulate disconnection
-        setTimeout(() => {
-            console.log("Disconnected from Android app");
-            this.updateStatus("Disconnected");
-        }, 500);
+        clearTimeout(this.reconnectTimer);
+        if (this.socket) {
+            const socket = this.socket;
+            this.socket = null;
+            socket.close();
+        }
     }
 }
 
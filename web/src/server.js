@@ -5,6 +5,15 @@ const path = require('path');
 const app = express();
 const PORT = process.env.PORT || 3000;
 
+// Latest metrics snapshot posted by the Android app (MetricsSnapshot.toJson)
+let latestStats = null;
+let latestStatsReceivedAt = 0;
+
+// Snapshots older than this mean the app stopped reporting
+const STATS_STALE_MS = 5000;
+
+app.use(express.json());
+
 // Serve static files from the public directory
 app.use(express.static(path.join(__dirname, '../public')));
 
@@ -25,14 +34,25 @@ app.get('/api/frame', (req, res) => {
     });
 });
 
+// The app posts one snapshot per stats interval (about once a second)
+app.post('/api/stats', (req, res) => {
+    if (!req.body || typeof req.body.histograms !== 'object') {
+        res.status(400).json({ error: 'Expected a metrics snapshot' });
+        return;
+    }
+    latestStats = req.body;
+    latestStatsReceivedAt = Date.now();
+    res.status(204).end();
+});
+
 // API endpoint to get frame statistics
 app.get('/api/stats', (req, res) => {
-    // In a real implementation, this would return actual processing statistics
-    res.json({
-        fps: Math.random() * 30 + 10, // Random FPS between 10-40
-        processingTime: Math.floor(Math.random() * 50) + 10, // Random time between 10-60ms
-        resolution: "640x480"
-    });
+    const ageMs = Date.now() - latestStatsReceivedAt;
+    if (!latestStats || ageMs > STATS_STALE_MS) {
+        res.json({ available: false });
+        return;
+    }
+    res.json(Object.assign({ available: true, ageMs: ageMs }, latestStats));
 });
 
 app.listen(PORT, () => {